@@ -0,0 +1,196 @@
+package au.edu.unimelb.plantcell.io.ws.multialign;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataCellDataInput;
+import org.knime.core.data.DataCellDataOutput;
+
+import pal.alignment.Alignment;
+import pal.alignment.AlignmentReaders;
+import pal.datatype.AminoAcids;
+import pal.datatype.Nucleotides;
+
+/**
+ * Compares the size and write/read time of {@link MultiAlignmentSerializer}'s packed format with java serialization of the
+ * PAL alignment, which is both the fallback for alignments the packed format cannot represent and how cells were stored
+ * before the serializer existed. Synthetic alignments (80% conserved columns, with gaps at a given rate in the outer halves):
+ * <ul>
+ * <li>20,000 alignments of 4 x 60 amino acids (many small cells)
+ * <li>20 alignments of 500 x 5000 amino acids, with 5% and with 90% gaps
+ * <li>2 alignments of 2000 x 10,000 nucleotides, with 5% gaps
+ * </ul>
+ * Every alignment read back must have the same identifiers, residues and type.
+ *
+ * Not part of the plugin build. Compile against the plugin classes and KNIME core, and run with eg.
+ * <pre>java -Xmx3g -cp bin:bench-bin:knime-core.jar au.edu.unimelb.plantcell.io.ws.multialign.MultiAlignmentSerializerBenchmark</pre>
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class MultiAlignmentSerializerBenchmark {
+	private static final int RUNS = 5;
+	private static final MultiAlignmentSerializer<MultiAlignmentCell> SERIALIZER = new MultiAlignmentSerializer<MultiAlignmentCell>();
+
+	public static void main(String[] args) throws Exception {
+		Random r = new Random(42);
+		run("4 x 60 AA, 20% gaps",       make(r, 20000, 4, 60, 0.2, true));
+		run("500 x 5000 AA, 5% gaps",    make(r, 20, 500, 5000, 0.05, true));
+		run("500 x 5000 AA, 90% gaps",   make(r, 20, 500, 5000, 0.9, true));
+		run("2000 x 10000 NA, 5% gaps",  make(r, 2, 2000, 10000, 0.05, false));
+	}
+
+	private static void run(final String name, final List<MultiAlignmentCell> cells) throws Exception {
+		double[] java_write = new double[RUNS], java_read = new double[RUNS];
+		double[] packed_write = new double[RUNS], packed_read = new double[RUNS];
+		int java_size = 0, packed_size = 0;
+		for (int run=0; run<RUNS; run++) {
+			long start = System.nanoTime();
+			ByteArrayOutputStream jb = new ByteArrayOutputStream();
+			for (MultiAlignmentCell c : cells) {
+				ObjectOutputStream oos = new ObjectOutputStream(jb);
+				oos.writeObject(c.getPALAlignment());
+				oos.flush();
+			}
+			java_write[run] = elapsed_ms(start);
+			java_size = jb.size();
+
+			start = System.nanoTime();
+			ByteArrayInputStream jin = new ByteArrayInputStream(jb.toByteArray());
+			List<MultiAlignmentCell> java_copies = new ArrayList<MultiAlignmentCell>(cells.size());
+			for (int k=0; k<cells.size(); k++) {
+				java_copies.add(new MultiAlignmentCell((Alignment) new ObjectInputStream(jin).readObject()));
+			}
+			java_read[run] = elapsed_ms(start);
+
+			start = System.nanoTime();
+			Output out = new Output(new ByteArrayOutputStream());
+			for (MultiAlignmentCell c : cells) {
+				SERIALIZER.serialize(c, out);
+			}
+			out.flush();
+			packed_write[run] = elapsed_ms(start);
+			packed_size = out.size();
+
+			start = System.nanoTime();
+			Input in = new Input(out.toByteArray());
+			List<MultiAlignmentCell> packed_copies = new ArrayList<MultiAlignmentCell>(cells.size());
+			for (int k=0; k<cells.size(); k++) {
+				packed_copies.add(SERIALIZER.deserialize(in));
+			}
+			packed_read[run] = elapsed_ms(start);
+
+			if (run == 0) {
+				check(cells, java_copies);
+				check(cells, packed_copies);
+			}
+		}
+		System.out.printf("%-26s java serialization %,12d bytes, write %7.1f ms, read %7.1f ms | packed %,12d bytes (%.0f%%), write %7.1f ms, read %7.1f ms%n",
+				name, java_size, median(java_write), median(java_read),
+				packed_size, 100.0d * packed_size / java_size, median(packed_write), median(packed_read));
+	}
+
+	private static void check(final List<MultiAlignmentCell> expected, final List<MultiAlignmentCell> got) {
+		for (int k=0; k<expected.size(); k++) {
+			MultiAlignmentCell c = expected.get(k);
+			MultiAlignmentCell d = got.get(k);
+			if (d.getSequenceCount() != c.getSequenceCount() || d.getSiteCount() != c.getSiteCount() || d.getAlignmentType() != c.getAlignmentType())
+				throw new IllegalStateException("Alignment "+k+" changed shape");
+			for (int i=0; i<c.getSequenceCount(); i++) {
+				if (!d.getAlignedSequenceString(i).equals(c.getAlignedSequenceString(i)) || !d.getIdentifier(i).getName().equals(c.getIdentifier(i).getName()))
+					throw new IllegalStateException("Alignment "+k+" changed at sequence "+i);
+			}
+		}
+	}
+
+	private static List<MultiAlignmentCell> make(final Random r, int n_alignments, int n, int sites, double gap, boolean aa) {
+		String alphabet = aa ? "ACDEFGHIKLMNPQRSTVWY" : "ACGT";
+		List<MultiAlignmentCell> ret = new ArrayList<MultiAlignmentCell>(n_alignments);
+		for (int k=0; k<n_alignments; k++) {
+			char[] consensus = new char[sites];
+			for (int j=0; j<sites; j++) {
+				consensus[j] = alphabet.charAt(r.nextInt(alphabet.length()));
+			}
+			String[] names = new String[n];
+			String[] seqs  = new String[n];
+			char[] row = new char[sites];
+			for (int i=0; i<n; i++) {
+				names[i] = "seq_"+i+"|sp|P"+r.nextInt(99999);
+				for (int j=0; j<sites; j++) {
+					if ((j < sites / 4 || j > 3 * sites / 4) && r.nextDouble() < gap) {
+						row[j] = '-';
+					} else {
+						row[j] = (r.nextDouble() < 0.8) ? consensus[j] : alphabet.charAt(r.nextInt(alphabet.length()));
+					}
+				}
+				seqs[i] = new String(row);
+			}
+			pal.datatype.DataType dt = aa ? new AminoAcids() : new Nucleotides();
+			ret.add(new MultiAlignmentCell(new AlignmentReaders.UnalignedAlignment(names, seqs, dt)));
+		}
+		return ret;
+	}
+
+	private static double elapsed_ms(long start_nanos) {
+		return (System.nanoTime() - start_nanos) / 1e6;
+	}
+
+	private static double median(final double[] vals) {
+		double[] sorted = vals.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	/**
+	 * In-memory cell output: nested cells (not used by alignments) are java serialized with a length prefix
+	 */
+	private static class Output extends DataOutputStream implements DataCellDataOutput {
+		public Output(final ByteArrayOutputStream bos) {
+			super(bos);
+		}
+
+		public byte[] toByteArray() {
+			return ((ByteArrayOutputStream) out).toByteArray();
+		}
+
+		@Override
+		public void writeDataCell(DataCell cell) throws IOException {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			oos.writeObject(cell);
+			oos.close();
+			writeInt(bos.size());
+			write(bos.toByteArray());
+		}
+	}
+
+	private static class Input extends DataInputStream implements DataCellDataInput {
+		public Input(final byte[] b) {
+			super(new ByteArrayInputStream(b));
+		}
+
+		@Override
+		public DataCell readDataCell() throws IOException {
+			byte[] b = new byte[readInt()];
+			readFully(b);
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(b));
+			try {
+				return (DataCell) ois.readObject();
+			} catch (ClassNotFoundException cnfe) {
+				throw new IOException(cnfe.getMessage());
+			} finally {
+				ois.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package au.edu.unimelb.plantcell.io.ws.multialign;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jaligner.Alignment;
+import jaligner.Sequence;
+import jaligner.SmithWatermanGotoh;
+import jaligner.matrix.Matrix;
+import jaligner.matrix.MatrixLoader;
+import au.edu.unimelb.plantcell.core.OrderedTaskExecutor;
+
+/**
+ * All-against-all local alignment (JAligner Smith-Waterman-Gotoh, BLOSUM62, gap open 10, extend 0.5) of synthetic protein families,
+ * as performed by the Sequence Aligner node when only the score and identity are wanted. Times:
+ * <ol>
+ * <li>full alignments with traceback, one pair at a time (the node's behaviour before the score-only path)
+ * <li>{@link PairwiseScorer} one pair at a time, checking that the score, identities and length equal those of the full alignment
+ * <li>{@link PairwiseScorer} in batches of 16 pairs on an {@link OrderedTaskExecutor}, as the node does, for each thread count given
+ * </ol>
+ *
+ * Not part of the plugin build. Compile against the plugin classes, PlantCell Core and <code>lib/jaligner.jar</code> and run with eg.
+ * <pre>java -cp bin:bench-bin:../PlantCell\ Core/bin:lib/jaligner.jar au.edu.unimelb.plantcell.io.ws.multialign.PairwiseAlignmentBenchmark [sequences] [threads...]</pre>
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class PairwiseAlignmentBenchmark {
+	private static final String AA = "ACDEFGHIKLMNPQRSTVWY";
+	private static final int    FAMILY_SIZE    = 5;
+	private static final int    PAIRS_PER_TASK = 16;
+	private static final float  GAP_OPEN   = 10.0f;
+	private static final float  GAP_EXTEND = 0.5f;
+
+	// JAligner logs every alignment at INFO level, which would dominate the timings
+	private static final Logger JALIGNER_LOGGER = Logger.getLogger("jaligner");
+
+	public static void main(String[] args) throws Exception {
+		JALIGNER_LOGGER.setLevel(Level.WARNING);
+		int n_seqs = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+		List<Integer> thread_counts = new ArrayList<Integer>();
+		for (int i=1; i<args.length; i++) {
+			thread_counts.add(Integer.parseInt(args[i]));
+		}
+		if (thread_counts.isEmpty()) {
+			for (int n=1; n <= OrderedTaskExecutor.getDefaultThreadCount(); n *= 2) {
+				thread_counts.add(n);
+			}
+		}
+
+		final List<Sequence> seqs = make_families(new Random(42), n_seqs);
+		final List<int[]> pairs = new ArrayList<int[]>();
+		for (int i=0; i<seqs.size(); i++) {
+			for (int j=i+1; j<seqs.size(); j++) {
+				pairs.add(new int[] { i, j });
+			}
+		}
+		final Matrix matrix = MatrixLoader.load("BLOSUM62");
+		System.out.printf("%d sequences, %,d pairs, %d processors%n", seqs.size(), pairs.size(), Runtime.getRuntime().availableProcessors());
+
+		// warm up both paths
+		for (int k=0; k<Math.min(200, pairs.size()); k++) {
+			int[] p = pairs.get(k);
+			SmithWatermanGotoh.align(seqs.get(p[0]), seqs.get(p[1]), matrix, GAP_OPEN, GAP_EXTEND);
+			PairwiseScorer.alignLocalAffine(seqs.get(p[0]), seqs.get(p[1]), matrix, GAP_OPEN, GAP_EXTEND);
+		}
+
+		float[] scores = new float[pairs.size()];
+		int[] identities = new int[pairs.size()];
+		int[] lengths    = new int[pairs.size()];
+		long start = System.nanoTime();
+		for (int k=0; k<pairs.size(); k++) {
+			int[] p = pairs.get(k);
+			Alignment a = SmithWatermanGotoh.align(seqs.get(p[0]), seqs.get(p[1]), matrix, GAP_OPEN, GAP_EXTEND);
+			scores[k] = a.getScore();
+			identities[k] = a.getIdentity();
+			lengths[k]    = a.getSequence1().length;
+		}
+		double full_secs = (System.nanoTime() - start) / 1e9;
+		System.out.printf("full alignment, 1 thread: %.2f s (%.0f pairs/s)%n", full_secs, pairs.size() / full_secs);
+
+		start = System.nanoTime();
+		for (int k=0; k<pairs.size(); k++) {
+			int[] p = pairs.get(k);
+			PairwiseScorer.Result r = PairwiseScorer.alignLocalAffine(seqs.get(p[0]), seqs.get(p[1]), matrix, GAP_OPEN, GAP_EXTEND);
+			if (r.score != scores[k] || r.identities != identities[k] || r.length != lengths[k])
+				throw new IllegalStateException("Score-only result differs for pair "+k);
+		}
+		double scorer_secs = (System.nanoTime() - start) / 1e9;
+		System.out.printf("score only, 1 thread: %.2f s (%.0f pairs/s)%n", scorer_secs, pairs.size() / scorer_secs);
+
+		for (int n_threads : thread_counts) {
+			final ThreadLocal<Matrix> matrices = new ThreadLocal<Matrix>() {
+				@Override
+				protected Matrix initialValue() {
+					try {
+						return MatrixLoader.load("BLOSUM62");
+					} catch (Exception e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			};
+			final int[] n_done = new int[1];
+			OrderedTaskExecutor<double[]> ote = new OrderedTaskExecutor<double[]>(n_threads, 4 * n_threads,
+					new OrderedTaskExecutor.ResultHandler<double[]>() {
+
+						@Override
+						public void process(double[] batch_scores) throws Exception {
+							n_done[0] += batch_scores.length;
+						}
+
+			});
+			start = System.nanoTime();
+			try {
+				for (int k=0; k<pairs.size(); k += PAIRS_PER_TASK) {
+					final int from = k;
+					final int to   = Math.min(pairs.size(), k + PAIRS_PER_TASK);
+					ote.submit(new Callable<double[]>() {
+
+						@Override
+						public double[] call() throws Exception {
+							double[] ret = new double[to - from];
+							for (int i=from; i<to; i++) {
+								int[] p = pairs.get(i);
+								ret[i - from] = PairwiseScorer.alignLocalAffine(seqs.get(p[0]), seqs.get(p[1]), matrices.get(), GAP_OPEN, GAP_EXTEND).score;
+							}
+							return ret;
+						}
+
+					});
+				}
+				ote.finish();
+			} finally {
+				ote.shutdown();
+			}
+			double secs = (System.nanoTime() - start) / 1e9;
+			if (n_done[0] != pairs.size())
+				throw new IllegalStateException("Only "+n_done[0]+" pairs were aligned");
+			System.out.printf("score only, batches of %d on %d thread(s): %.2f s (%.0f pairs/s)%n", PAIRS_PER_TASK, n_threads, secs, pairs.size() / secs);
+		}
+	}
+
+	/**
+	 * Families of {@link #FAMILY_SIZE} proteins (250 to 450 residues) which differ from their ancestor by about 20% substitutions and a few indels
+	 */
+	private static List<Sequence> make_families(final Random r, int n_seqs) {
+		List<Sequence> ret = new ArrayList<Sequence>(n_seqs);
+		while (ret.size() < n_seqs) {
+			String ancestor = random(r, 250 + r.nextInt(201));
+			for (int m=0; m<FAMILY_SIZE && ret.size() < n_seqs; m++) {
+				StringBuilder sb = new StringBuilder(ancestor.length() + 20);
+				for (int i=0; i<ancestor.length(); i++) {
+					double d = r.nextDouble();
+					if (d < 0.2) {
+						sb.append(AA.charAt(r.nextInt(AA.length())));
+					} else if (d < 0.21) {
+						sb.append(random(r, 1 + r.nextInt(5)));
+						sb.append(ancestor.charAt(i));
+					} else if (d >= 0.22) {
+						sb.append(ancestor.charAt(i));
+					}
+					// else: deleted
+				}
+				Sequence s = new Sequence(sb.toString());
+				s.setId("seq"+ret.size());
+				ret.add(s);
+			}
+		}
+		return ret;
+	}
+
+	private static String random(final Random r, int len) {
+		char[] c = new char[len];
+		for (int i=0; i<len; i++) {
+			c[i] = AA.charAt(r.nextInt(AA.length()));
+		}
+		return new String(c);
+	}
+}
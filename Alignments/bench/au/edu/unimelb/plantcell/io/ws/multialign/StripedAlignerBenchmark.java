@@ -0,0 +1,157 @@
+package au.edu.unimelb.plantcell.io.ws.multialign;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jaligner.Alignment;
+import jaligner.Sequence;
+import jaligner.SmithWatermanGotoh;
+import jaligner.matrix.Matrix;
+import jaligner.matrix.MatrixLoader;
+
+/**
+ * Local alignment of a synthetic protein against a homologue (about 20% substitutions and a few indels) of 100, 1000
+ * and 10,000 residues (BLOSUM62, gap open 10, extend 1). Times the {@link StripedAligner} score-only pass and full alignment
+ * against JAligner's Smith-Waterman-Gotoh, which keeps the whole matrix in memory. The striped score must equal JAligner's
+ * and the striped alignment must re-score to it.
+ *
+ * Not part of the plugin build. Compile against the plugin classes and <code>lib/jaligner.jar</code> and run with eg.
+ * <pre>java -Xmx2g -cp bin:bench-bin:lib/jaligner.jar au.edu.unimelb.plantcell.io.ws.multialign.StripedAlignerBenchmark [lengths...]</pre>
+ * JAligner needs about 500MB for a pair of 10,000 residues.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class StripedAlignerBenchmark {
+	private static final String AA = "ACDEFGHIKLMNPQRSTVWY";
+	private static final int    OPEN   = 10;
+	private static final int    EXTEND = 1;
+	private static final long   CELLS_PER_RUN = 20L * 1000L * 1000L;
+	private static final int    RUNS = 3;
+
+	// JAligner logs every alignment at INFO level, which would dominate the timings
+	private static final Logger JALIGNER_LOGGER = Logger.getLogger("jaligner");
+
+	public static void main(String[] args) throws Exception {
+		JALIGNER_LOGGER.setLevel(Level.WARNING);
+		int[] lengths = new int[] { 100, 1000, 10 * 1000 };
+		if (args.length > 0) {
+			lengths = new int[args.length];
+			for (int i=0; i<args.length; i++) {
+				lengths[i] = Integer.parseInt(args[i]);
+			}
+		}
+		Matrix matrix = MatrixLoader.load("BLOSUM62");
+		StripedAligner sa = new StripedAligner(matrix, OPEN, EXTEND);
+		Random r = new Random(42);
+
+		// warm up on short pairs
+		for (int i=0; i<200; i++) {
+			Sequence[] p = homologues(r, 300);
+			sa.score(p[0], p[1], true);
+			sa.align(p[0], p[1], true);
+			SmithWatermanGotoh.align(p[0], p[1], matrix, OPEN, EXTEND);
+		}
+
+		for (int len : lengths) {
+			Sequence[] p = homologues(r, len);
+			int reps = (int) Math.max(1L, CELLS_PER_RUN / ((long) len * len));
+			double[] score_ms   = new double[RUNS];
+			double[] align_ms   = new double[RUNS];
+			double[] jaligner_ms= new double[RUNS];
+			int score = 0;
+			Alignment striped = null, jaligner = null;
+			for (int run=0; run<RUNS; run++) {
+				long start = System.nanoTime();
+				for (int i=0; i<reps; i++) {
+					score = sa.score(p[0], p[1], true);
+				}
+				score_ms[run] = elapsed_ms(start, reps);
+
+				start = System.nanoTime();
+				for (int i=0; i<reps; i++) {
+					striped = sa.align(p[0], p[1], true);
+				}
+				align_ms[run] = elapsed_ms(start, reps);
+
+				jaligner = null;		// let the previous matrices go before allocating the next
+				start = System.nanoTime();
+				for (int i=0; i<reps; i++) {
+					jaligner = SmithWatermanGotoh.align(p[0], p[1], matrix, OPEN, EXTEND);
+				}
+				jaligner_ms[run] = elapsed_ms(start, reps);
+			}
+			if (score != (int) jaligner.getScore() || striped.getScore() != score
+					|| rescore(matrix, striped.getSequence1(), striped.getSequence2()) != score)
+				throw new IllegalStateException("Scores differ at "+len+" residues: striped "+score+"/"+striped.getScore()+", JAligner "+jaligner.getScore());
+			System.out.printf("%,6d residues (score %d): striped score %.2f ms, striped alignment %.2f ms, JAligner alignment %.2f ms (%.1fx)%n",
+					len, score, median(score_ms), median(align_ms), median(jaligner_ms), median(jaligner_ms) / median(align_ms));
+		}
+	}
+
+	/**
+	 * Returns the score of an alignment as printed (ie. with gaps), using the same penalties as JAligner
+	 */
+	private static int rescore(final Matrix matrix, final char[] s1, final char[] s2) {
+		float[][] scores = matrix.getScores();
+		int sum = 0;
+		boolean gap1 = false, gap2 = false;
+		for (int i=0; i<s1.length; i++) {
+			if (s1[i] == '-') {
+				sum -= gap1 ? EXTEND : OPEN;
+				gap1 = true;
+				gap2 = false;
+			} else if (s2[i] == '-') {
+				sum -= gap2 ? EXTEND : OPEN;
+				gap2 = true;
+				gap1 = false;
+			} else {
+				sum += (int) scores[s1[i]][s2[i]];
+				gap1 = gap2 = false;
+			}
+		}
+		return sum;
+	}
+
+	private static Sequence[] homologues(final Random r, int len) {
+		String a = random(r, len);
+		StringBuilder sb = new StringBuilder(len + 20);
+		for (int i=0; i<len; i++) {
+			double d = r.nextDouble();
+			if (d < 0.2) {
+				sb.append(AA.charAt(r.nextInt(AA.length())));
+			} else if (d < 0.21) {
+				sb.append(random(r, 1 + r.nextInt(5)));
+				sb.append(a.charAt(i));
+			} else if (d >= 0.22) {
+				sb.append(a.charAt(i));
+			}
+			// else: deleted
+		}
+		Sequence s1 = new Sequence(a);
+		Sequence s2 = new Sequence(sb.toString());
+		s1.setId("a");
+		s2.setId("b");
+		return new Sequence[] { s1, s2 };
+	}
+
+	private static String random(final Random r, int len) {
+		char[] c = new char[len];
+		for (int i=0; i<len; i++) {
+			c[i] = AA.charAt(r.nextInt(AA.length()));
+		}
+		return new String(c);
+	}
+
+	private static double elapsed_ms(long start_nanos, int reps) {
+		return (System.nanoTime() - start_nanos) / 1e6 / reps;
+	}
+
+	private static double median(final double[] vals) {
+		double[] sorted = vals.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
@@ -9,10 +9,13 @@ import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
 import org.knime.core.node.defaultnodesettings.DialogComponentButtonGroup;
 import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelection;
 import org.knime.core.node.defaultnodesettings.DialogComponentFileChooser;
+import org.knime.core.node.defaultnodesettings.DialogComponentNumber;
 import org.knime.core.node.defaultnodesettings.DialogComponentString;
 import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 
+import au.edu.unimelb.plantcell.io.muscle.AbstractAlignerNodeModel;
 import au.edu.unimelb.plantcell.io.muscle.SequenceColumn4AlignmentFilter;
 
 /**
@@ -59,6 +62,11 @@ public class LocalMafftNodeDialog extends DefaultNodeSettingsPane {
     			));
     	
     	addDialogComponent(new DialogComponentBoolean(new SettingsModelBoolean(LocalMafftNodeModel.CFGKEY_LOG_STDERR, Boolean.FALSE), "Report MAFFT messages to KNIME console?"));
+    	
+    	addDialogComponent(new DialogComponentNumber(new SettingsModelIntegerBounded(LocalMafftNodeModel.CFGKEY_THREADS, 
+    			AbstractAlignerNodeModel.getDefaultThreadCount(), 1, AbstractAlignerNodeModel.MAX_THREADS), 
+    			"Number of MAFFT programs to run at once (rows are aligned in parallel if more than one)", 1
+    			));
     }
 }
 
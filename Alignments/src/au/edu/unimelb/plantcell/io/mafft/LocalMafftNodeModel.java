@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,13 +14,13 @@ import org.apache.commons.exec.LogOutputStream;
 import org.knime.core.data.DataCell;
 import org.knime.core.data.DataRow;
 import org.knime.core.data.DataTableSpec;
-import org.knime.core.data.container.ColumnRearranger;
 import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.ExecutionContext;
 import org.knime.core.node.InvalidSettingsException;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 
 import au.edu.unimelb.plantcell.core.ExternalProgram;
@@ -28,7 +29,7 @@ import au.edu.unimelb.plantcell.core.UniqueID;
 import au.edu.unimelb.plantcell.core.cells.SequenceType;
 import au.edu.unimelb.plantcell.core.cells.SequenceValue;
 import au.edu.unimelb.plantcell.io.muscle.AbstractAlignerNodeModel;
-import au.edu.unimelb.plantcell.io.muscle.AppendAlignmentCellFactory;
+import au.edu.unimelb.plantcell.io.muscle.AlignedFastaCollector;
 import au.edu.unimelb.plantcell.io.ws.multialign.AlignmentCellFactory;
 import au.edu.unimelb.plantcell.io.ws.multialign.AlignmentValue;
 import au.edu.unimelb.plantcell.io.ws.multialign.AlignmentValue.AlignmentType;
@@ -56,9 +57,10 @@ public class LocalMafftNodeModel extends AbstractAlignerNodeModel {
 	private SettingsModelBoolean m_log            = new SettingsModelBoolean(CFGKEY_LOG_STDERR, Boolean.FALSE);
 	private SettingsModelString  m_algo           = new SettingsModelString(CFGKEY_ALGO, TRADEOFFS[0]);
 	private SettingsModelString m_user_defined    = new SettingsModelString(CFGKEY_USER_DEFINED, "");
+	private SettingsModelIntegerBounded m_threads = new SettingsModelIntegerBounded(CFGKEY_THREADS, getDefaultThreadCount(), 1, MAX_THREADS);
 	// state which is used during execute()
 	private File prog;		// mafft executable path or null on error
-	private final Map<String,AlignmentValue> m_view_model = new HashMap<String,AlignmentValue>();
+	private final Map<String,AlignmentValue> m_view_model = Collections.synchronizedMap(new HashMap<String,AlignmentValue>());
 	
 	
 	protected LocalMafftNodeModel() {
@@ -84,9 +86,7 @@ public class LocalMafftNodeModel extends AbstractAlignerNodeModel {
     	
 		// if the input sequences are groupby'ed then we do the calculation this way...
     	if (isCollectionOfSequencesColumn(inData[0].getDataTableSpec().getColumnSpec(seqs_idx))) {
-    		ColumnRearranger rearranger = new ColumnRearranger(inData[0].getSpec());    		
-    		rearranger.append(new AppendAlignmentCellFactory(outSpec, seqs_idx, this));
-    		BufferedDataTable out = exec.createColumnRearrangeTable(inData[0], rearranger, exec.createSubProgress(1.0));
+    		BufferedDataTable out = alignEachRow(inData[0], seqs_idx, outSpec, m_threads.getIntValue(), exec);
     		
             return new BufferedDataTable[]{out};
     	} else {
@@ -204,6 +204,7 @@ public class LocalMafftNodeModel extends AbstractAlignerNodeModel {
          m_log.saveSettingsTo(settings);
          m_algo.saveSettingsTo(settings);
          m_user_defined.saveSettingsTo(settings);
+         m_threads.saveSettingsTo(settings);
 	}
 
 	@Override
@@ -214,6 +215,9 @@ public class LocalMafftNodeModel extends AbstractAlignerNodeModel {
          m_log.validateSettings(settings);
          m_algo.validateSettings(settings);
          m_user_defined.validateSettings(settings);
+         if (settings.containsKey(CFGKEY_THREADS)) {
+        	 m_threads.validateSettings(settings);
+         }
 	}
 
 	@Override
@@ -224,6 +228,11 @@ public class LocalMafftNodeModel extends AbstractAlignerNodeModel {
          m_log.loadSettingsFrom(settings);
          m_algo.loadSettingsFrom(settings);
          m_user_defined.loadSettingsFrom(settings);
+         if (settings.containsKey(CFGKEY_THREADS)) {
+        	 m_threads.loadSettingsFrom(settings);
+         } else {
+        	 m_threads.setIntValue(1);		// as for workflows saved before alignments could run in parallel
+         }
 	}
 
 	@Override
@@ -234,7 +243,9 @@ public class LocalMafftNodeModel extends AbstractAlignerNodeModel {
 	@Override
 	public List<String> getAlignmentRowIDs() {
 		ArrayList<String> ret = new ArrayList<String>();
-		ret.addAll(m_view_model.keySet());
+		synchronized (m_view_model) {
+			ret.addAll(m_view_model.keySet());
+		}
 		return ret;
 	}
 
@@ -267,7 +278,9 @@ public class LocalMafftNodeModel extends AbstractAlignerNodeModel {
 			SequenceType st, String row_id) throws IOException {
 		assert(st != null && tsv != null && row_id != null);
 		DataCell alignment_cell;
-		if (st.isProtein())
+		if (tsv instanceof AlignedFastaCollector)
+               alignment_cell = ((AlignedFastaCollector)tsv).getAlignmentCell(st);
+		else if (st.isProtein())
                alignment_cell = AlignmentCellFactory.createCell(tsv.toString(), AlignmentType.AL_AA);
 		else
                alignment_cell = AlignmentCellFactory.createCell(tsv.toString(), AlignmentType.AL_NA);
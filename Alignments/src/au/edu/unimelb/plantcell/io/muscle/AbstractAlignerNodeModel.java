@@ -2,8 +2,10 @@ package au.edu.unimelb.plantcell.io.muscle;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
@@ -13,11 +15,18 @@ import org.apache.commons.exec.PumpStreamHandler;
 import org.knime.core.data.DataCell;
 import org.knime.core.data.DataColumnSpec;
 import org.knime.core.data.DataColumnSpecCreator;
+import org.knime.core.data.DataRow;
 import org.knime.core.data.DataTableSpec;
 import org.knime.core.data.DataType;
+import org.knime.core.data.RowIterator;
 import org.knime.core.data.collection.ListCell;
 import org.knime.core.data.collection.SetCell;
+import org.knime.core.data.def.DefaultRow;
+import org.knime.core.data.def.JoinedRow;
+import org.knime.core.node.BufferedDataContainer;
+import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionContext;
 import org.knime.core.node.ExecutionMonitor;
 import org.knime.core.node.InvalidSettingsException;
 import org.knime.core.node.NodeLogger;
@@ -25,6 +34,7 @@ import org.knime.core.node.NodeModel;
 
 import au.edu.unimelb.plantcell.core.ErrorLogger;
 import au.edu.unimelb.plantcell.core.ExecutorUtils;
+import au.edu.unimelb.plantcell.core.OrderedTaskExecutor;
 import au.edu.unimelb.plantcell.core.UniqueID;
 import au.edu.unimelb.plantcell.core.cells.SequenceType;
 import au.edu.unimelb.plantcell.core.cells.SequenceValue;
@@ -35,7 +45,10 @@ import au.edu.unimelb.plantcell.io.ws.multialign.MultiAlignmentCell;
 public abstract class AbstractAlignerNodeModel extends NodeModel implements AlignmentViewDataModel  {
 	protected final static NodeLogger logger = NodeLogger.getLogger("Aligner (local)");
 	
-	private boolean warned_small_seqs;	// initialised by reset();
+	public static final String CFGKEY_THREADS = "parallel-threads";
+	public static final int    MAX_THREADS    = 64;
+	
+	private volatile boolean warned_small_seqs;	// initialised by reset();
 
 	/**
 	 * After this constructor call you must subsequently call <code>reset()</code> to ensure all
@@ -93,6 +106,13 @@ public abstract class AbstractAlignerNodeModel extends NodeModel implements Alig
 	    	
 	}
 	 
+	/**
+	 * Returns the default number of alignment programs to run at once: one per processor
+	 */
+	public static int getDefaultThreadCount() {
+		return Math.min(MAX_THREADS, OrderedTaskExecutor.getDefaultThreadCount());
+	}
+	
 	/**
 	 * Subclasses are required to return a valid executable when requested. This should be idempotent
 	 * @return executable path to alignment program, ready for use
@@ -195,7 +215,7 @@ public abstract class AbstractAlignerNodeModel extends NodeModel implements Alig
      * during runAlignmentProgram() so if you override that there is no need to do anything with this method. But the local alignment
      * nodes (muscle, mafft) use this to process the stdout of the local process into the alignment cell.
      * 
-     * @param tsv the aligned output
+     * @param tsv the aligned output (an {@link AlignedFastaCollector} when called from runAlignmentProgram())
      * @param st the type of alignment sequences (AA or NA)
      * @param row_id the row_id of the current row (which may be a little bogus if all sequence rows are being aligned at once)
      */
@@ -247,6 +267,7 @@ public abstract class AbstractAlignerNodeModel extends NodeModel implements Alig
     
 	/**
      * Run muscle on the sequences specified in <code>seq_map</code> (which should be at least 3) using the specified muscle executable.
+     * Each run has its own temporary folder (removed afterwards), so that several runs may proceed at once.
      * 
      * @param seq_map
      * @param muscle_exe	Existing executable for the muscle program
@@ -255,41 +276,18 @@ public abstract class AbstractAlignerNodeModel extends NodeModel implements Alig
      * @return
      */
     public DataCell runAlignmentProgram(final Map<UniqueID, SequenceValue> seq_map, final String rowid, final SequenceType st) {
-    	File f = null;
+    	File dir = null;
 		
 		// run alignment program and return result if run went ok, else log errors
 		try {
-			f = File.createTempFile("output_aligner", ".fasta");
+			dir = Files.createTempDirectory("aligner").toFile();
+			File f = new File(dir, "input.fasta");
 			FastaWriter fw = new FastaWriter(f, seq_map);
 			fw.write();
 			
 			final DefaultExecutor exe = new DefaultExecutor();
 	    	exe.setExitValues(new int[] {0});
-	    	final LogOutputStream tsv = new LogOutputStream() {
-	    		private StringBuffer sb = new StringBuffer(1024 * 1024);
-	    		
-				@Override
-				protected void processLine(String arg0, int arg1) {
-					if (arg0.startsWith(">")) {
-						String id = arg0.substring(1);
-						try {
-							SequenceValue sv = seq_map.get(new UniqueID(id));
-							sb.append(">"+sv.getID());
-						} catch (InvalidSettingsException ise) {
-							ise.printStackTrace();
-							sb.append(arg0);
-						}
-					} else {
-						sb.append(arg0);
-					}
-					sb.append("\n");
-				}
-	    		
-				@Override
-				public String toString() {
-					return sb.toString();
-				}
-	    	};
+	    	final AlignedFastaCollector tsv = new AlignedFastaCollector(seq_map);
 	    	LogOutputStream errors = shouldLogAlignmentProgress() ? new ErrorLogger(logger, true) : new LogOutputStream() {
 
 				@Override
@@ -298,11 +296,10 @@ public abstract class AbstractAlignerNodeModel extends NodeModel implements Alig
 	    		
 	    	};
 	    	exe.setStreamHandler(new PumpStreamHandler(tsv, errors));
-	    	exe.setWorkingDirectory(f.getParentFile());		// must match addQueryDatabase() semantics
+	    	exe.setWorkingDirectory(dir);		// must match addQueryDatabase() semantics
 	    	exe.setWatchdog(new ExecuteWatchdog(ExecuteWatchdog.INFINITE_TIMEOUT));
 	    	
 	    	CommandLine cmdLine = makeCommandLineArguments(f, st);
-	    	exe.setWorkingDirectory(f.getParentFile());
 	    	final String logname = getAlignmentLogName();
 	    	
 	    	int exitStatus = new ExecutorUtils(exe,logger).run(cmdLine);
@@ -315,9 +312,77 @@ public abstract class AbstractAlignerNodeModel extends NodeModel implements Alig
 			e.printStackTrace();
 			return DataType.getMissingCell();
 		} finally {
-			if (f != null)
-				f.delete();
+			if (dir != null)
+				delete_folder(dir);
 		}
     }
+    
+    private void delete_folder(final File dir) {
+    	File[] files = dir.listFiles();
+    	if (files != null) {
+    		for (File f : files) {
+    			if (f.isDirectory())
+    				delete_folder(f);
+    			else
+    				f.delete();
+    		}
+    	}
+    	dir.delete();
+    }
+    
+    /**
+     * Aligns the collection of sequences in each row of the input table, appending the alignment to the row. Up to
+     * <code>n_threads</code> alignment programs are run at once, but rows are added to the output table in input order
+     * so the result is the same regardless of the number of threads.
+     * 
+     * @param in		input table
+     * @param seqs_idx	index of the collection of sequences column
+     * @param outSpec	output table specification (as per <code>make_output_spec()</code>)
+     * @param n_threads	maximum number of concurrent alignments
+     * @return the output table
+     */
+    protected BufferedDataTable alignEachRow(final BufferedDataTable in, final int seqs_idx, final DataTableSpec outSpec, 
+    		int n_threads, final ExecutionContext exec) throws Exception {
+    	final AppendAlignmentCellFactory cf = new AppendAlignmentCellFactory(outSpec, seqs_idx, this);
+    	final BufferedDataContainer container = exec.createDataContainer(outSpec);
+    	final double n_rows = in.getRowCount();
+    	logger.info("Running up to "+n_threads+" "+getAlignmentLogName()+" alignments at once.");
+    	OrderedTaskExecutor<DataRow> executor = new OrderedTaskExecutor<DataRow>(n_threads, 2 * n_threads, 
+    			new OrderedTaskExecutor.ResultHandler<DataRow>() {
+    		private int m_done = 0;
+    		
+			@Override
+			public void process(DataRow r) throws Exception {
+				container.addRowToTable(r);
+				m_done++;
+				exec.checkCanceled();
+				exec.setProgress(m_done / n_rows, "Aligned "+m_done+" rows");
+			}
+    		
+    	});
+    	try {
+	    	RowIterator it = in.iterator();
+	    	while (it.hasNext()) {
+	    		final DataRow r = it.next();
+	    		// sequence IDs are allocated here, only the alignment program is run by the executor's threads
+	    		final Callable<DataCell> alignment = cf.prepare(r);
+	    		executor.submit(new Callable<DataRow>() {
+
+					@Override
+					public DataRow call() throws Exception {
+						DataCell alignment_cell = alignment.call();
+						return new JoinedRow(r, new DefaultRow(r.getKey(), alignment_cell));
+					}
+	    			
+	    		});
+	    		exec.checkCanceled();
+	    	}
+	    	executor.finish();
+    	} finally {
+    		executor.shutdown();
+    		container.close();
+    	}
+    	return container.getTable();
+    }
 
 }
@@ -0,0 +1,126 @@
+package au.edu.unimelb.plantcell.io.muscle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.exec.LogOutputStream;
+import org.knime.core.node.InvalidSettingsException;
+
+import au.edu.unimelb.plantcell.core.UniqueID;
+import au.edu.unimelb.plantcell.core.cells.SequenceType;
+import au.edu.unimelb.plantcell.core.cells.SequenceValue;
+import au.edu.unimelb.plantcell.io.ws.multialign.MultiAlignmentCell;
+
+import pal.alignment.Alignment;
+import pal.alignment.AlignmentReaders;
+import pal.datatype.AminoAcids;
+import pal.datatype.DataType;
+import pal.datatype.Nucleotides;
+
+/**
+ * Collects the aligned FASTA output of an alignment program as it is written, replacing the temporary
+ * sequence IDs given to the program with the real sequence IDs. The sequences are accumulated as they arrive
+ * so that the alignment cell can be built without first buffering the output as text and re-parsing it. The rules
+ * for names, blank lines and whitespace are the same as PAL's <code>AlignmentReaders.readFastaSequences()</code>.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class AlignedFastaCollector extends LogOutputStream {
+	private final Map<UniqueID,SequenceValue> m_seqs;
+	private final List<String> m_names    = new ArrayList<String>();
+	private final List<String> m_aligned  = new ArrayList<String>();
+	private final StringBuilder m_current = new StringBuilder(4 * 1024);
+	private String m_name = "Unnamed";
+
+	/**
+	 * @param seq_map the sequences given to the alignment program, keyed by the ID each was given in the FASTA file
+	 */
+	public AlignedFastaCollector(final Map<UniqueID,SequenceValue> seq_map) {
+		assert(seq_map != null);
+		m_seqs = seq_map;
+	}
+
+	@Override
+	protected void processLine(String line, int level) {
+		line = line.trim();
+		if (line.length() < 1)
+			return;
+		if (line.startsWith(">")) {
+			if (m_current.length() > 0) {
+				m_names.add(m_name);
+				m_aligned.add(m_current.toString());
+				m_current.setLength(0);
+			}
+			m_name = getSequenceID(line.substring(1).trim());
+		} else {
+			for (int i=0; i<line.length(); i++) {
+				char c = line.charAt(i);
+				if (c != ' ' && c != '\t')
+					m_current.append(c);
+			}
+		}
+	}
+
+	private String getSequenceID(final String uid) {
+		try {
+			SequenceValue sv = m_seqs.get(new UniqueID(uid));
+			if (sv != null)
+				return sv.getID().trim();
+		} catch (InvalidSettingsException ise) {
+			ise.printStackTrace();
+		}
+		return uid;
+	}
+
+	/**
+	 * Returns the aligned sequences received so far as a PAL alignment of the specified type
+	 */
+	public Alignment getAlignment(final SequenceType st) {
+		int n = m_names.size();
+		boolean pending = (m_current.length() > 0);
+		String[] names = new String[pending ? n+1 : n];
+		String[] seqs  = new String[names.length];
+		DataType dt = st.isProtein() ? new AminoAcids() : new Nucleotides();
+		for (int i=0; i<n; i++) {
+			names[i] = m_names.get(i);
+			seqs[i]  = DataType.Utils.getPreferredChars(m_aligned.get(i), dt, true);
+		}
+		if (pending) {
+			names[n] = m_name;
+			seqs[n]  = DataType.Utils.getPreferredChars(m_current.toString(), dt, true);
+		}
+		return new AlignmentReaders.UnalignedAlignment(names, seqs, dt);
+	}
+
+	/**
+	 * Equivalent to <code>new MultiAlignmentCell(getAlignment(st))</code>
+	 */
+	public MultiAlignmentCell getAlignmentCell(final SequenceType st) {
+		return new MultiAlignmentCell(getAlignment(st));
+	}
+
+	/**
+	 * Returns the aligned sequences received so far in FASTA format
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(1024);
+		for (int i=0; i<m_names.size(); i++) {
+			sb.append('>');
+			sb.append(m_names.get(i));
+			sb.append('\n');
+			sb.append(m_aligned.get(i));
+			sb.append('\n');
+		}
+		if (m_current.length() > 0) {
+			sb.append('>');
+			sb.append(m_name);
+			sb.append('\n');
+			sb.append(m_current);
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
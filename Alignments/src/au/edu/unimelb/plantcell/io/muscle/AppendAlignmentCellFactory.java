@@ -3,6 +3,7 @@ package au.edu.unimelb.plantcell.io.muscle;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.knime.core.data.DataCell;
 import org.knime.core.data.DataRow;
@@ -38,9 +39,25 @@ public class AppendAlignmentCellFactory extends SingleCellFactory {
 	
 	@Override
 	public DataCell getCell(DataRow r) {
+		try {
+			return prepare(r).call();
+		} catch (Exception e) {
+			e.printStackTrace();
+			return DataType.getMissingCell();
+		}
+	}
+	
+	/**
+	 * Collects and validates the sequences to align from the specified row. This must be called on a single thread
+	 * (the IDs given to the sequences are not thread-safe), but the returned task, which runs the alignment program, may
+	 * be called on any thread.
+	 * 
+	 * @return computes the alignment cell for the row (a missing cell if the row cannot be aligned)
+	 */
+	public Callable<DataCell> prepare(final DataRow r) {
 		DataCell seqs_cell = r.getCell(seqs_idx);
 		if (!mdl.isValidCollectionForAlignment(seqs_cell)) 
-			return DataType.getMissingCell();
+			return missing();
 		
 		Iterator<DataCell> it = null;
 		if (seqs_cell instanceof ListCell) {
@@ -58,7 +75,7 @@ public class AppendAlignmentCellFactory extends SingleCellFactory {
 				SequenceValue sv = (SequenceValue)c;
 				if (st != SequenceType.UNKNOWN && st != sv.getSequenceType()) {
 					mdl.error("Cannot mix sequence types (eg. AA versus NA) in alignment for row: "+r.getKey().getString());
-					return DataType.getMissingCell();
+					return missing();
 				} else {
 					st = sv.getSequenceType();
 				}
@@ -66,15 +83,33 @@ public class AppendAlignmentCellFactory extends SingleCellFactory {
 			}
 		}
 		
-		String rowid = r.getKey().getString();
-		
+		final String rowid = r.getKey().getString();
+		final SequenceType seq_type = st;
 		try {
 			mdl.validateSequencesToBeAligned(seq_map);
-			return mdl.runAlignmentProgram(seq_map, rowid, st);
 		} catch (Exception e) {
 			e.printStackTrace();
-			return DataType.getMissingCell();
+			return missing();
 		}
+		return new Callable<DataCell>() {
+
+			@Override
+			public DataCell call() throws Exception {
+				return mdl.runAlignmentProgram(seq_map, rowid, seq_type);
+			}
+			
+		};
+	}
+	
+	private static Callable<DataCell> missing() {
+		return new Callable<DataCell>() {
+
+			@Override
+			public DataCell call() throws Exception {
+				return DataType.getMissingCell();
+			}
+			
+		};
 	}
 
 }
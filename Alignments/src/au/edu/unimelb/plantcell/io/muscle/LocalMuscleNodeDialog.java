@@ -5,7 +5,9 @@ import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
 import org.knime.core.node.defaultnodesettings.DialogComponentButtonGroup;
 import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelection;
 import org.knime.core.node.defaultnodesettings.DialogComponentFileChooser;
+import org.knime.core.node.defaultnodesettings.DialogComponentNumber;
 import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 
 /**
@@ -38,6 +40,11 @@ public class LocalMuscleNodeDialog extends DefaultNodeSettingsPane {
     			));
     	
     	addDialogComponent(new DialogComponentBoolean(new SettingsModelBoolean(LocalMuscleNodeModel.CFGKEY_LOG_STDERR, Boolean.FALSE), "Report MUSCLE messages to KNIME console?"));
+    	
+    	addDialogComponent(new DialogComponentNumber(new SettingsModelIntegerBounded(LocalMuscleNodeModel.CFGKEY_THREADS, 
+    			AbstractAlignerNodeModel.getDefaultThreadCount(), 1, AbstractAlignerNodeModel.MAX_THREADS), 
+    			"Number of MUSCLE programs to run at once (rows are aligned in parallel if more than one)", 1
+    			));
     }
 }
 
@@ -3,6 +3,7 @@ package au.edu.unimelb.plantcell.io.muscle;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -12,13 +13,13 @@ import org.apache.commons.exec.LogOutputStream;
 import org.knime.core.data.DataCell;
 import org.knime.core.data.DataRow;
 import org.knime.core.data.DataTableSpec;
-import org.knime.core.data.container.ColumnRearranger;
 import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.ExecutionContext;
 import org.knime.core.node.InvalidSettingsException;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 
 import au.edu.unimelb.plantcell.core.MyDataContainer;
@@ -50,9 +51,10 @@ public class LocalMuscleNodeModel extends AbstractAlignerNodeModel {
 	private SettingsModelString  m_input_sequences = new SettingsModelString(CFGKEY_SEQUENCES, "");
 	private SettingsModelBoolean m_log         = new SettingsModelBoolean(CFGKEY_LOG_STDERR, Boolean.FALSE);
 	private SettingsModelString  m_performance = new SettingsModelString(CFGKEY_TRADEOFF, TRADEOFFS[0]);
+	private SettingsModelIntegerBounded m_threads = new SettingsModelIntegerBounded(CFGKEY_THREADS, getDefaultThreadCount(), 1, MAX_THREADS);
 	
 	// not persisted (yet) but is intended for the node views
-	private final Map<String,AlignmentValue> m_view_model = new HashMap<String,AlignmentValue>();
+	private final Map<String,AlignmentValue> m_view_model = Collections.synchronizedMap(new HashMap<String,AlignmentValue>());
 	private File alignment_exe;
 	
     /**
@@ -81,9 +83,7 @@ public class LocalMuscleNodeModel extends AbstractAlignerNodeModel {
     	
     	// if the input sequences are groupby'ed then we do the calculation this way...
     	if (isCollectionOfSequencesColumn(inData[0].getDataTableSpec().getColumnSpec(seqs_idx))) {
-    		ColumnRearranger rearranger = new ColumnRearranger(inData[0].getSpec());    		
-    		rearranger.append(new AppendAlignmentCellFactory(outSpec, seqs_idx, this));
-    		BufferedDataTable out = exec.createColumnRearrangeTable(inData[0], rearranger, exec.createSubProgress(1.0));
+    		BufferedDataTable out = alignEachRow(inData[0], seqs_idx, outSpec, m_threads.getIntValue(), exec);
     		
             return new BufferedDataTable[]{out};
     	} else {
@@ -144,7 +144,9 @@ public class LocalMuscleNodeModel extends AbstractAlignerNodeModel {
 			final SequenceType st, final String row_id) throws IOException {
 		assert(st != null && tsv != null && row_id != null);
 		DataCell alignment_cell;
-		if (st.isProtein())
+		if (tsv instanceof AlignedFastaCollector)
+               alignment_cell = ((AlignedFastaCollector)tsv).getAlignmentCell(st);
+		else if (st.isProtein())
                alignment_cell = AlignmentCellFactory.createCell(tsv.toString(), AlignmentType.AL_AA);
 		else
                alignment_cell = AlignmentCellFactory.createCell(tsv.toString(), AlignmentType.AL_NA);
@@ -187,6 +189,7 @@ public class LocalMuscleNodeModel extends AbstractAlignerNodeModel {
          m_input_sequences.saveSettingsTo(settings);
          m_log.saveSettingsTo(settings);
          m_performance.saveSettingsTo(settings);
+         m_threads.saveSettingsTo(settings);
     }
 
     /**
@@ -199,6 +202,11 @@ public class LocalMuscleNodeModel extends AbstractAlignerNodeModel {
        m_input_sequences.loadSettingsFrom(settings);
        m_log.loadSettingsFrom(settings);
        m_performance.loadSettingsFrom(settings);
+       if (settings.containsKey(CFGKEY_THREADS)) {
+    	   m_threads.loadSettingsFrom(settings);
+       } else {
+    	   m_threads.setIntValue(1);		// as for workflows saved before alignments could run in parallel
+       }
     }
 
     /**
@@ -211,12 +219,17 @@ public class LocalMuscleNodeModel extends AbstractAlignerNodeModel {
        m_input_sequences.validateSettings(settings);
        m_log.validateSettings(settings);
        m_performance.validateSettings(settings);
+       if (settings.containsKey(CFGKEY_THREADS)) {
+    	   m_threads.validateSettings(settings);
+       }
     }
   
 	@Override
 	public List<String> getAlignmentRowIDs() {
 		ArrayList<String> ret = new ArrayList<String>();
-		ret.addAll(m_view_model.keySet());
+		synchronized (m_view_model) {
+			ret.addAll(m_view_model.keySet());
+		}
 		return ret;
 	}
 
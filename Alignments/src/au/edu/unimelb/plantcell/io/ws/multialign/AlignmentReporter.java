@@ -130,6 +130,58 @@ public class AlignmentReporter {
 		return new DataTableSpec(cols.toArray(new DataColumnSpec[0]));
 	}
 	
+	/**
+	 * Returns true if every wanted column can be computed from just the alignment score and identity
+	 * (see {@link #getScoreRow(int, DataTableSpec, SequenceValue, SequenceValue, PairwiseScorer.Result)})
+	 */
+	public static boolean isScoreOnly(String[] wanted) {
+		for (String want : wanted) {
+			if (!want.equals("Accessions") && !want.equals("Original Sequences") && !want.equals("Score") && 
+					!want.equals("Identities (%)")) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns true if the identity of the alignment is wanted
+	 */
+	public static boolean wantsIdentity(String[] wanted) {
+		for (String want : wanted) {
+			if (want.equals("Identities (%)"))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * As per {@link #getRow(int, DataTableSpec)} but for an alignment which was only scored (no traceback). Only valid if
+	 * the columns in <code>spec</code> satisfy {@link #isScoreOnly(String[])}
+	 */
+	public static DataRow getScoreRow(int align_no, DataTableSpec spec, SequenceValue a1, SequenceValue a2, PairwiseScorer.Result r) {
+		DataCell[] cells = new DataCell[spec.getNumColumns()];
+		for (int i=0; i<spec.getNumColumns(); i++) {
+			String task = spec.getColumnSpec(i).getName().toLowerCase();
+			if (task.equals("accession #1")) {
+				cells[i] = new StringCell(a1.getID());
+			} else if (task.equals("accession #2")) {
+				cells[i] = new StringCell(a2.getID());
+			} else if (task.equals("original sequence #1")) {
+				cells[i] = new StringCell(a1.getStringValue());
+			} else if (task.equals("original sequence #2")) {
+				cells[i] = new StringCell(a2.getStringValue());
+			} else if (task.equals("score")) {
+				cells[i] = new DoubleCell(r.score);
+			} else if (task.equals("identities (%)")) {
+				cells[i] = new DoubleCell(r.getIdentityPercent());
+			} else {
+				cells[i] = DataType.getMissingCell();
+			}
+		}
+		return new DefaultRow("A"+align_no, cells);
+	}
+	
 	public DataRow getRow(int align_no, DataTableSpec spec) throws IOException {
 		DataCell[] cells = new DataCell[spec.getNumColumns()];
 		for (int i=0; i<spec.getNumColumns(); i++) {
@@ -8,6 +8,7 @@ import java.io.StringReader;
 import java.io.StringWriter;
 
 import org.knime.core.data.DataCell;
+import org.knime.core.data.DataCellSerializer;
 
 import pal.alignment.Alignment;
 import pal.alignment.AlignmentReaders;
@@ -27,8 +28,8 @@ import pal.misc.Identifier;
  */
 public class MultiAlignmentCell extends DataCell implements AlignmentValue, Serializable {
 	/**
-	 * This class uses java.io.Serializable rather than the KNIME serialisation code. Although
-	 * somewhat slower, the PAL library uses java.io.Serializable so we reuse their code 
+	 * Tables are persisted via {@link MultiAlignmentSerializer}, but java.io.Serializable is still
+	 * supported (as the PAL library uses it) so that cells saved by earlier versions can be read
 	 */
 	private static final long serialVersionUID = -3581196464617337119L;
 	
@@ -36,6 +37,7 @@ public class MultiAlignmentCell extends DataCell implements AlignmentValue, Seri
 	 * Convenience for users of this cell type
 	 */
 	public static final org.knime.core.data.DataType TYPE = org.knime.core.data.DataType.getType(MultiAlignmentCell.class);
+	private static final MultiAlignmentSerializer<MultiAlignmentCell> SERIALIZER = new MultiAlignmentSerializer<MultiAlignmentCell>();
 
 	private Alignment             m_a;
   
@@ -81,6 +83,17 @@ public class MultiAlignmentCell extends DataCell implements AlignmentValue, Seri
 		assert(a != null);
 		m_a = a;
 	}
+	
+	public static final DataCellSerializer<MultiAlignmentCell> getCellSerializer() {
+		return SERIALIZER;
+	}
+	
+	/**
+	 * Used by the serializer to access the PAL alignment
+	 */
+	Alignment getPALAlignment() {
+		return m_a;
+	}
 
 	/**
 	 * Persists the internal state regardless of the class of Alignment and/or DataType
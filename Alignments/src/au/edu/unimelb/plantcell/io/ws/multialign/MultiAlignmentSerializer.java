@@ -0,0 +1,368 @@
+package au.edu.unimelb.plantcell.io.ws.multialign;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+
+import org.knime.core.data.DataCellDataInput;
+import org.knime.core.data.DataCellDataOutput;
+import org.knime.core.data.DataCellSerializer;
+
+import pal.alignment.Alignment;
+import pal.alignment.AlignmentReaders;
+import pal.datatype.DataType;
+
+/**
+ * Persists a {@link MultiAlignmentCell} as the sequence identifiers followed by the residues, one alignment column
+ * at a time. The residues are replaced by their index into the set of characters used by the alignment and each
+ * column is either bit-packed or, if smaller (eg. mostly gaps), run-length encoded. Alignments which cannot be
+ * represented this way (unusual PAL datatypes or characters) are written using java serialization instead.
+ *
+ * Tables saved before this serializer existed contain java serialized cells: these are still read via
+ * <code>MultiAlignmentCell.readObject()</code>.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ * @param <T>
+ */
+public class MultiAlignmentSerializer<T extends MultiAlignmentCell> implements DataCellSerializer<T> {
+	/**
+	 * version 1: identifiers, alphabet and column-major packed residues
+	 */
+	private static final int VERSION_PACKED = 1;
+
+	/**
+	 * version 2: java serialized PAL alignment (length-prefixed)
+	 */
+	private static final int VERSION_SERIALIZED = 2;
+
+	// column encodings
+	private static final int COLUMN_PACKED = 0;
+	private static final int COLUMN_RLE    = 1;
+
+	// columns are converted to and from rows in blocks of this many, so that the row arrays are walked in order
+	private static final int BLOCK = 64;
+
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	@Override
+	public void serialize(T cell, DataCellDataOutput output) throws IOException {
+		Alignment a = cell.getPALAlignment();
+		char[][] rows = getRows(a);
+		char[] alphabet = (rows != null) ? getAlphabet(rows) : null;
+		if (alphabet == null || !isStandardDataType(a.getDataType())) {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(64 * 1024);
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			oos.writeObject(a);
+			oos.close();
+			output.writeInt(VERSION_SERIALIZED);
+			output.writeInt(bos.size());
+			output.write(bos.toByteArray());
+			return;
+		}
+
+		int n     = rows.length;
+		int sites = a.getSiteCount();
+		output.writeInt(VERSION_PACKED);
+		output.writeInt(a.getDataType().getTypeID());
+		output.writeInt(n);
+		output.writeInt(sites);
+		for (int i=0; i<n; i++) {
+			String name = a.getIdentifier(i).getName();
+			output.writeUTF(name != null ? name : "");
+		}
+		output.writeShort(alphabet.length);
+		byte[] code = new byte[128];
+		for (int k=0; k<alphabet.length; k++) {
+			output.writeByte(alphabet[k]);
+			code[alphabet[k]] = (byte) k;
+		}
+
+		int bits = bitsPerResidue(alphabet.length);
+		byte[] tile = new byte[n * BLOCK];		// residue codes for a block of columns, column-major
+		byte[] matrix = new byte[sites * (1 + packedSize(n, bits))];	// no column is encoded larger than when packed
+		int len = 0;
+		for (int j0=0; j0<sites; j0 += BLOCK) {
+			int w = Math.min(BLOCK, sites - j0);
+			for (int i=0; i<n; i++) {
+				char[] row = rows[i];
+				for (int c=0, t=i; c<w; c++, t += n) {
+					tile[t] = code[row[j0+c]];
+				}
+			}
+			for (int c=0; c<w; c++) {
+				len = encodeColumn(tile, c * n, n, bits, matrix, len);
+			}
+		}
+		// the columns are written as a single block so that they can be read with one call
+		output.writeInt(len);
+		output.write(matrix, 0, len);
+	}
+
+	/**
+	 * Encodes the <code>n</code> residue codes for a single column (starting at <code>col[off]</code>) into <code>buf</code>
+	 * at <code>len</code>, returning the position after it. The first byte identifies the encoding used.
+	 */
+	private static int encodeColumn(final byte[] col, int off, int n, int bits, final byte[] buf, int len) {
+		int packed = packedSize(n, bits);
+		int end    = off + n;
+		int runs = (n > 0) ? 1 : 0;
+		for (int i=off+1; i<end; i++) {
+			if (col[i] != col[i-1])
+				runs++;
+		}
+		// only a column with few runs needs the (code, varint length) pairs sized, so that it is encoded once
+		int rle = Integer.MAX_VALUE;
+		if (runs * 2 < packed) {
+			rle = 0;
+			for (int i=off; i<end; ) {
+				int  start = i;
+				byte code  = col[i++];
+				while (i < end && col[i] == code) {
+					i++;
+				}
+				rle += 1 + varIntSize(i - start);
+			}
+		}
+		if (rle <= packed) {
+			buf[len++] = COLUMN_RLE;
+			for (int i=off; i<end; ) {
+				int  start = i;
+				byte code  = col[i++];
+				while (i < end && col[i] == code) {
+					i++;
+				}
+				buf[len++] = code;
+				len = writeVarInt(buf, len, i - start);
+			}
+			return len;
+		}
+
+		// codes are packed least significant bit first: eight codes fill exactly <code>bits</code> bytes
+		buf[len++] = COLUMN_PACKED;
+		int i = off;
+		for (; i + 8 <= end; i += 8) {
+			long acc = 0;
+			for (int k=0; k<8; k++) {
+				acc |= (long) col[i+k] << (k * bits);
+			}
+			for (int k=0; k<bits; k++) {
+				buf[len++] = (byte) acc;
+				acc >>>= 8;
+			}
+		}
+		int acc = 0, n_bits = 0;
+		for (; i<end; i++) {
+			acc |= col[i] << n_bits;
+			n_bits += bits;
+			while (n_bits >= 8) {
+				buf[len++] = (byte) acc;
+				acc >>>= 8;
+				n_bits -= 8;
+			}
+		}
+		if (n_bits > 0)
+			buf[len++] = (byte) acc;
+		return len;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T deserialize(DataCellDataInput input) throws IOException {
+		int version = input.readInt();
+		if (version == VERSION_SERIALIZED) {
+			byte[] b = new byte[input.readInt()];
+			input.readFully(b);
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(b));
+			try {
+				return (T) new MultiAlignmentCell((Alignment) ois.readObject());
+			} catch (ClassNotFoundException cnfe) {
+				throw new IOException(cnfe.getMessage());
+			} finally {
+				ois.close();
+			}
+		} else if (version != VERSION_PACKED) {
+			throw new IOException("Unsupported alignment cell version: "+version+" (newer plugin needed?)");
+		}
+
+		DataType dt;
+		try {
+			dt = DataType.Utils.getInstance(input.readInt());
+		} catch (IllegalArgumentException iae) {
+			throw new IOException(iae.getMessage());
+		}
+		int n     = input.readInt();
+		int sites = input.readInt();
+		String[] names = new String[n];
+		for (int i=0; i<n; i++) {
+			names[i] = input.readUTF();
+		}
+		byte[] alphabet = new byte[input.readShort()];
+		for (int k=0; k<alphabet.length; k++) {
+			alphabet[k] = input.readByte();
+		}
+
+		int bits = bitsPerResidue(alphabet.length);
+		int mask = (1 << bits) - 1;
+		byte[] matrix = new byte[input.readInt()];
+		input.readFully(matrix);
+		byte[][] rows = new byte[n][sites];		// the alphabet is ASCII
+		byte[] tile = new byte[n * BLOCK];		// residue codes for a block of columns, column-major
+		int pos = 0;
+		try {
+			for (int j0=0; j0<sites; j0 += BLOCK) {
+				int w = Math.min(BLOCK, sites - j0);
+				for (int c=0, t=0; c<w; c++) {
+					int encoding = matrix[pos++];
+					if (encoding == COLUMN_RLE) {
+						for (int i=0; i<n; ) {
+							byte code = matrix[pos++];
+							int  run  = 0;
+							for (int shift=0; ; shift += 7) {
+								int b = matrix[pos++];
+								run |= (b & 0x7F) << shift;
+								if ((b & 0x80) == 0)
+									break;
+							}
+							int end = i + run;
+							if (run <= 0 || end > n)
+								throw new IOException("Corrupt alignment column: "+(j0+c));
+							while (i < end) {
+								tile[t++] = code;
+								i++;
+							}
+						}
+					} else if (encoding == COLUMN_PACKED) {
+						int i = 0;
+						for (; i + 8 <= n; i += 8) {
+							long acc = 0;
+							for (int k=0; k<bits; k++) {
+								acc |= (long) (matrix[pos++] & 0xFF) << (k * 8);
+							}
+							for (int k=0; k<8; k++) {
+								tile[t++] = (byte) (acc & mask);
+								acc >>>= bits;
+							}
+						}
+						int acc = 0, n_bits = 0;
+						for (; i<n; i++) {
+							while (n_bits < bits) {
+								acc |= (matrix[pos++] & 0xFF) << n_bits;
+								n_bits += 8;
+							}
+							tile[t++] = (byte) (acc & mask);
+							acc >>>= bits;
+							n_bits -= bits;
+						}
+					} else {
+						throw new IOException("Unknown alignment column encoding: "+encoding);
+					}
+				}
+				for (int i=0; i<n; i++) {
+					byte[] row = rows[i];
+					for (int c=0, t=i; c<w; c++, t += n) {
+						row[j0+c] = alphabet[tile[t] & 0xFF];
+					}
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupt alignment: "+e.getMessage());
+		}
+		String[] seqs = new String[n];
+		for (int i=0; i<n; i++) {
+			seqs[i] = new String(rows[i], US_ASCII);
+			rows[i] = null;
+		}
+		return (T) new MultiAlignmentCell(new AlignmentReaders.UnalignedAlignment(names, seqs, dt));
+	}
+
+	/**
+	 * Returns the residues of each sequence as an array (all the same length) or null if the alignment is
+	 * not rectangular
+	 */
+	private static char[][] getRows(final Alignment a) {
+		int n     = a.getSequenceCount();
+		int sites = a.getSiteCount();
+		if (a.getIdCount() != n)
+			return null;
+		char[][] rows = new char[n][];
+		for (int i=0; i<n; i++) {
+			String s = a.getAlignedSequenceString(i);
+			if (s == null || s.length() != sites)
+				return null;
+			rows[i] = s.toCharArray();
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns the distinct characters in the alignment or null if they are not all ASCII
+	 */
+	private static char[] getAlphabet(final char[][] rows) {
+		boolean[] seen = new boolean[128];
+		int n = 0;
+		for (char[] row : rows) {
+			for (char c : row) {
+				if (c >= seen.length)
+					return null;
+				if (!seen[c]) {
+					seen[c] = true;
+					n++;
+				}
+			}
+		}
+		char[] ret = new char[n];
+		int k = 0;
+		for (char c=0; c<seen.length; c++) {
+			if (seen[c])
+				ret[k++] = c;
+		}
+		return ret;
+	}
+
+	/**
+	 * Only the datatypes which PAL can recreate from their type ID are packed
+	 */
+	private static boolean isStandardDataType(final DataType dt) {
+		if (dt == null)
+			return false;
+		try {
+			return DataType.Utils.getInstance(dt.getTypeID()).getClass().equals(dt.getClass());
+		} catch (IllegalArgumentException iae) {
+			return false;
+		}
+	}
+
+	private static int bitsPerResidue(int alphabet_size) {
+		int bits = 1;
+		while ((1 << bits) < alphabet_size) {
+			bits++;
+		}
+		return bits;
+	}
+
+	private static int packedSize(int n, int bits) {
+		return (n * bits + 7) / 8;
+	}
+
+	private static int varIntSize(int v) {
+		int size = 1;
+		while ((v & ~0x7F) != 0) {
+			size++;
+			v >>>= 7;
+		}
+		return size;
+	}
+
+	private static int writeVarInt(final byte[] buf, int pos, int v) {
+		while ((v & ~0x7F) != 0) {
+			buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		buf[pos++] = (byte) v;
+		return pos;
+	}
+}
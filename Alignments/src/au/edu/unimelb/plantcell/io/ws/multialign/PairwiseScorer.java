@@ -0,0 +1,191 @@
+package au.edu.unimelb.plantcell.io.ws.multialign;
+
+import jaligner.Sequence;
+import jaligner.matrix.Matrix;
+import neobio.alignment.CharSequence;
+import neobio.alignment.IncompatibleScoringSchemeException;
+import neobio.alignment.ScoringScheme;
+
+/**
+ * Computes the score, number of identities and length of an optimal pairwise alignment without building the alignment.
+ * Only two rows of the dynamic programming matrix are kept and no traceback is performed: instead, the identity count and
+ * length of the path the traceback <i>would</i> follow are carried forward with each cell. The recurrences, arithmetic and
+ * tie-breaking rules mirror those of JAligner's <code>SmithWatermanGotoh</code> and NeoBio's <code>SmithWaterman</code> and
+ * <code>NeedlemanWunsch</code>, so the results are identical to reporting the full alignment via {@link AlignmentReporter}.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class PairwiseScorer {
+	// path statistics are packed into a long: identities in the upper half, alignment length (columns) in the lower
+	private static final long IDENTITY = 1L << 32;
+	private static final long COLUMN   = 1L;
+
+	/**
+	 * Score, identities and length (in columns, including gaps) of an alignment
+	 */
+	public static class Result {
+		public final double score;
+		public final int    identities;
+		public final int    length;
+
+		public Result(double score, long stats) {
+			this.score      = score;
+			this.identities = (int) (stats >>> 32);
+			this.length     = (int) stats;
+		}
+
+		/**
+		 * Returns the percentage of alignment columns which are identical residues (NaN for an empty alignment)
+		 */
+		public double getIdentityPercent() {
+			return ((double) identities) / length * 100.0;
+		}
+	}
+
+	private PairwiseScorer() {
+	}
+
+	/**
+	 * As per <code>jaligner.SmithWatermanGotoh.align(s1, s2, matrix, open, extend)</code>
+	 */
+	public static Result alignLocalAffine(final Sequence s1, final Sequence s2, final Matrix matrix, float open, float extend) {
+		char[]    a = s1.toArray();
+		char[]    b = s2.toArray();
+		float[][] scores = matrix.getScores();
+		int       m = a.length + 1;
+		int       n = b.length + 1;
+
+		float[] v  = new float[n];		// best score ending with a gap in s2 (vertical), by column
+		float[] h  = new float[n];		// best score, by column (previous row until overwritten)
+		long[]  vs = new long[n];		// path statistics for each of the above
+		long[]  hs = new long[n];
+		v[0] = Float.NEGATIVE_INFINITY;
+		for (int j=1; j<n; j++) {
+			v[j] = Float.NEGATIVE_INFINITY;
+		}
+
+		float best       = Float.NEGATIVE_INFINITY;
+		long  best_stats = 0L;
+		for (int i=1; i<m; i++) {
+			float g      = Float.NEGATIVE_INFINITY;		// best score ending with a gap in s1 (horizontal)
+			long  gs     = 0L;
+			float diag   = h[0];
+			long  diag_s = hs[0];
+			float left   = h[0];			// h[j-1] and hs[j-1] of this row, kept out of the arrays
+			long  left_s = hs[0];
+			char  ca     = a[i-1];
+			long  id     = Character.isLetter(ca) ? IDENTITY : 0L;
+			float[] row  = scores[ca];
+			for (int j=1; j<n; j++) {
+				char  cb   = b[j-1];
+				float f    = diag + row[cb];
+				float up   = h[j];
+				long  up_s = hs[j];
+
+				float g1 = v[j] - extend;
+				float g2 = up - open;
+				float vj;
+				long  vj_s;
+				if (g1 > g2) {
+					vj   = g1;
+					vj_s = vs[j] + COLUMN;
+				} else {
+					vj   = g2;
+					vj_s = up_s + COLUMN;
+				}
+				v[j]  = vj;
+				vs[j] = vj_s;
+
+				float h1 = g - extend;
+				float h2 = left - open;
+				if (h1 > h2) {
+					g  = h1;
+					gs = gs + COLUMN;
+				} else {
+					g  = h2;
+					gs = left_s + COLUMN;
+				}
+
+				// as Math.max(Math.max(f, vj), Math.max(g, 0.0f)) but much cheaper, since none of these can be NaN
+				float score = (f > vj) ? f : vj;
+				if (g > score)
+					score = g;
+				if (!(score > 0.0f))
+					score = 0.0f;
+				long score_s = (score == 0.0f) ? 0L
+							: (score == f)  ? diag_s + COLUMN + ((ca == cb) ? id : 0L)
+							: (score == vj) ? vj_s : gs;
+				h[j]   = score;
+				hs[j]  = score_s;
+				diag   = up;
+				diag_s = up_s;
+				left   = score;
+				left_s = score_s;
+				if (score > best) {
+					best       = score;
+					best_stats = score_s;
+				}
+			}
+		}
+		return new Result(best, best_stats);
+	}
+
+	/**
+	 * As per NeoBio's <code>SmithWaterman</code> (if <code>local</code> is true) or <code>NeedlemanWunsch</code> algorithms
+	 */
+	public static Result alignLinear(final CharSequence s1, final CharSequence s2, final ScoringScheme scheme, boolean local)
+						throws IncompatibleScoringSchemeException {
+		int rows = s1.length() + 1;
+		int cols = s2.length() + 1;
+		int[]  prev   = new int[cols];
+		int[]  cur    = new int[cols];
+		long[] prev_s = new long[cols];
+		long[] cur_s  = new long[cols];
+
+		// first row: global alignments must start with insertions
+		for (int j=1; j<cols; j++) {
+			prev[j]   = local ? 0 : prev[j-1] + scheme.scoreInsertion(s2.charAt(j));
+			prev_s[j] = local ? 0L : prev_s[j-1] + COLUMN;
+		}
+		int  best = 0;
+		long best_stats = 0L;
+		for (int i=1; i<rows; i++) {
+			char ca = s1.charAt(i);
+			int  del= scheme.scoreDeletion(ca);
+			cur[0]   = local ? 0 : prev[0] + del;
+			cur_s[0] = local ? 0L : prev_s[0] + COLUMN;
+			for (int j=1; j<cols; j++) {
+				char cb  = s2.charAt(j);
+				int  ins = cur[j-1] + scheme.scoreInsertion(cb);
+				int  sub = prev[j-1] + scheme.scoreSubstitution(ca, cb);
+				int  up  = prev[j] + del;
+				int score = Math.max(Math.max(ins, sub), up);
+				if (local && score < 0)
+					score = 0;
+				cur[j] = score;
+
+				// the traceback prefers an insertion, then a substitution, then a deletion and (locally) stops at zero
+				if (local && score == 0) {
+					cur_s[j] = 0L;
+				} else if (score == ins) {
+					cur_s[j] = cur_s[j-1] + COLUMN;
+				} else if (score == sub) {
+					cur_s[j] = prev_s[j-1] + COLUMN + ((ca == cb && Character.isLetter(ca)) ? IDENTITY : 0L);
+				} else {
+					cur_s[j] = prev_s[j] + COLUMN;
+				}
+				if (local && score > best) {
+					best       = score;
+					best_stats = cur_s[j];
+				}
+			}
+			int[]  t  = prev;   prev   = cur;   cur   = t;
+			long[] ts = prev_s; prev_s = cur_s; cur_s = ts;
+		}
+		if (!local) {
+			return new Result(prev[cols-1], prev_s[cols-1]);
+		}
+		return new Result(best, best_stats);
+	}
+}
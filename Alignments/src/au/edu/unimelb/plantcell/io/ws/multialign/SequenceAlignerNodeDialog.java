@@ -17,6 +17,7 @@ import org.knime.core.node.defaultnodesettings.DialogComponentStringListSelectio
 import org.knime.core.node.defaultnodesettings.DialogComponentStringSelection;
 import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
 import org.knime.core.node.defaultnodesettings.SettingsModelDouble;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.core.node.defaultnodesettings.SettingsModelStringArray;
 import org.knime.core.node.util.ColumnFilter;
@@ -55,7 +56,8 @@ public class SequenceAlignerNodeDialog extends DefaultNodeSettingsPane {
      
         Set<String> alignment_types = new HashSet<String>();
         String[] atypes = new String[] {"Local - SmithWaterman", "Local - CrochemoreLandauZivUkelson",
-        		"Global - NeedlemanWunsch", "Global - CrochemoreLandauZivUkelson", "Local - JAligner (SmithWatermanGotoh)"};
+        		"Global - NeedlemanWunsch", "Global - CrochemoreLandauZivUkelson", "Local - JAligner (SmithWatermanGotoh)",
+        		"Local - Striped SmithWaterman (affine gaps)", "Global - Striped NeedlemanWunsch (affine gaps)" };
         Arrays.sort(atypes);
         for (String s : atypes ) {
         	alignment_types.add(s);
@@ -78,7 +80,7 @@ public class SequenceAlignerNodeDialog extends DefaultNodeSettingsPane {
 			@Override
 			public void stateChanged(ChangeEvent arg0) {
 				String algorithm = alignment_items.getStringValue();
-				if (algorithm.toLowerCase().contains("jalign")) {
+				if (algorithm.toLowerCase().contains("jalign") || algorithm.toLowerCase().contains("striped")) {
 					gap_open.setEnabled(true);
 					gap_extend.setEnabled(true);
 				} else {
@@ -126,6 +128,9 @@ public class SequenceAlignerNodeDialog extends DefaultNodeSettingsPane {
         
         }));
         
+        addDialogComponent(new DialogComponentNumber((SettingsModelIntegerBounded) SequenceAlignerNodeModel.make(SequenceAlignerNodeModel.CFG_THREADS), 
+        		"Number of threads (pairs are aligned in parallel if more than one)", 1));
+        
         createNewTab("Required Output");
         addDialogComponent(new DialogComponentStringListSelection((SettingsModelStringArray) SequenceAlignerNodeModel.make(SequenceAlignerNodeModel.CFG_WANTED), "Desired output", outputs));
  
@@ -16,9 +16,11 @@ import java.io.StringReader;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.jar.JarInputStream;
 import java.util.zip.ZipEntry;
 
+import neobio.alignment.CharSequence;
 import neobio.alignment.CrochemoreLandauZivUkelsonGlobalAlignment;
 import neobio.alignment.CrochemoreLandauZivUkelsonLocalAlignment;
 import neobio.alignment.IncompatibleScoringSchemeException;
@@ -53,9 +55,11 @@ import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
 import org.knime.core.node.defaultnodesettings.SettingsModelColumnName;
 import org.knime.core.node.defaultnodesettings.SettingsModelDouble;
 import org.knime.core.node.defaultnodesettings.SettingsModelDoubleBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.core.node.defaultnodesettings.SettingsModelStringArray;
 
+import au.edu.unimelb.plantcell.core.OrderedTaskExecutor;
 import au.edu.unimelb.plantcell.core.cells.SequenceValue;
 
 
@@ -81,9 +85,11 @@ public class SequenceAlignerNodeModel extends NodeModel {
     final static String CFG_IS_PAIRWISE        = "pairwise?";
     final static String CFG_WANTED             = "wanted-output-columns";
     final static String CFG_ALIGN_SELF         = "align-self?";
+    final static String CFG_THREADS            = "parallel-threads";
     final static String[] DEF_ALIGNMENT_FORMATS= new String[] {"FASTA", "CLUSTALW", "BLAST" };
     
     private final static String PLUGIN_ID = "platform:/plugin/au.edu.unimelb.plantcell.io.ws.multialign";
+    private final static int PAIRS_PER_TASK = 16;		// alignments performed by each task given to a worker thread
     
     private SettingsModelString     m_align_type;
     private SettingsModelDouble     m_gap_penalty_open;
@@ -94,9 +100,13 @@ public class SequenceAlignerNodeModel extends NodeModel {
     private SettingsModelString     m_seq2_col;
     private SettingsModelStringArray m_wanted;
     private SettingsModelBoolean    m_align_self;		// align(seq1, seq1) yes iff true
+    private SettingsModelIntegerBounded m_threads;
     
-    private Matrix m_jalign_matrix;	// both scoring matrices are computed, even if only one is used during execute()
-    private ScoringMatrix m_neobio_matrix;
+    // each worker thread has its own copy of both scoring matrices, even though only one is used during execute()
+    private ThreadLocal<Matrix> m_jalign_matrix;
+    private ThreadLocal<ScoringMatrix> m_neobio_matrix;
+    private boolean m_score_only;		// true if the alignments need only be scored, not reported (see PairwiseScorer)
+    private StripedAligner m_striped;	// only used for the striped alignment types
     
     /**
      * Constructor for the node model.
@@ -115,9 +125,12 @@ public class SequenceAlignerNodeModel extends NodeModel {
         m_seq2_col.setEnabled(!m_is_pairwise.isEnabled());
         m_wanted             = (SettingsModelStringArray) make(CFG_WANTED);
         m_align_self         = (SettingsModelBoolean) make(CFG_ALIGN_SELF);
+        m_threads            = (SettingsModelIntegerBounded) make(CFG_THREADS);
         
         m_jalign_matrix = null;
         m_neobio_matrix = null;
+        m_score_only    = false;
+        m_striped       = null;
     }
 
     public static SettingsModel make(String field_name) {
@@ -141,6 +154,8 @@ public class SequenceAlignerNodeModel extends NodeModel {
     		return new SettingsModelStringArray(CFG_WANTED, new String[] { "Accessions", "Original Sequences", "Score" });
     	} else if (field_name.equals(CFG_ALIGN_SELF)) {
     		return new SettingsModelBoolean(CFG_ALIGN_SELF, false);
+    	} else if (field_name.equals(CFG_THREADS)) {
+    		return new SettingsModelIntegerBounded(CFG_THREADS, 1, 1, 64);
     	}
     	return null;
     }
@@ -172,20 +187,62 @@ public class SequenceAlignerNodeModel extends NodeModel {
         logger.info("Alignment type: "          + m_align_type.getStringValue());
         logger.info("Number of alignments to be performed: "+ n_align);
         logger.info("Scoring matrix used: "+m_builtin_matrix.getStringValue());
-        if (m_align_type.getStringValue().toLowerCase().contains("jalign")) {		// only specified for JAligner for now...
+        if (m_align_type.getStringValue().toLowerCase().contains("jalign") || 
+        		m_align_type.getStringValue().toLowerCase().contains("striped")) {		// only specified for JAligner and striped for now...
         	logger.info("Gap open penalty: " + gap_open_penalty);
         	logger.info("Gap extend penalty: " + gap_extend_penalty);
         }
         logger.info("Pairwise? "+is_pairwise);
         logger.info("Align same sequence?"+m_align_self.getBooleanValue());
+        logger.info("Number of threads: "+m_threads.getIntValue());
         
         // compute the matrix for both neobio and jaligner (even though only one of them will be used, FOR NOW)
+        final String matrix_name = m_builtin_matrix.getStringValue();
+        final String mat;
         try {
-        	m_jalign_matrix = MatrixLoader.load(m_builtin_matrix.getStringValue());
-        	String      mat = getMatrix(m_builtin_matrix.getStringValue());
-        	m_neobio_matrix = new ScoringMatrix(new StringReader(mat));
+        	MatrixLoader.load(matrix_name);
+        	mat = getMatrix(matrix_name);
+        	new ScoringMatrix(new StringReader(mat));
         } catch (MatrixLoaderException mle) {
-        	throw new Exception("Aborting! Cannot load matrix from: "+m_builtin_matrix.getStringValue());
+        	throw new Exception("Aborting! Cannot load matrix from: "+matrix_name);
+        }
+        m_jalign_matrix = new ThreadLocal<Matrix>() {
+        	@Override
+        	protected Matrix initialValue() {
+        		try {
+        			return MatrixLoader.load(matrix_name);
+        		} catch (MatrixLoaderException mle) {
+        			throw new IllegalStateException(mle);
+        		}
+        	}
+        };
+        m_neobio_matrix = new ThreadLocal<ScoringMatrix>() {
+        	@Override
+        	protected ScoringMatrix initialValue() {
+        		try {
+        			return new ScoringMatrix(new StringReader(mat));
+        		} catch (Exception e) {
+        			throw new IllegalStateException(e);
+        		}
+        	}
+        };
+        
+        String align_type = m_align_type.getStringValue();
+        m_striped = null;
+        if (align_type.contains("Striped")) {
+        	Matrix m = MatrixLoader.load(matrix_name);
+        	if (!StripedAligner.isIntegral(m, (float) gap_open_penalty, (float) gap_extend_penalty)) {
+        		throw new InvalidSettingsException("Striped aligners require whole number gap penalties and scoring matrix!");
+        	}
+        	m_striped = new StripedAligner(m, (float) gap_open_penalty, (float) gap_extend_penalty);
+        }
+        
+        // if only scores (and identities) are wanted, the alignment need not be constructed
+        String[] wanted   = m_wanted.getStringArrayValue();
+        m_score_only = AlignmentReporter.isScoreOnly(wanted) && (!AlignmentReporter.wantsIdentity(wanted) || 
+        		(!align_type.contains("CrochemoreLandauZivUkelson") && !align_type.contains("Striped")));
+        if (m_score_only) {
+        	logger.info("Only scores wanted: alignments will not be constructed.");
         }
         
         // execute based on supplied columns...
@@ -235,21 +292,34 @@ public class SequenceAlignerNodeModel extends NodeModel {
         	vec.add(sv);
         }
        
-        int done   = 0;
         int align_id= 1;
-        for (SequenceValue a1 : vec) {
-        	for (SequenceValue a2 : vec) {
-        		if (m_align_self.getBooleanValue() || a1 != a2) {	
-        			container.addRowToTable(do_alignment(align_id++, a1, a2, m_align_type.getStringValue(), outputSpec, gap_open_penalty, gap_extend_penalty));
-        			done++;
-        		}
-        		// check if the execution monitor was canceled
-            	if (done % 30 == 0) {
-            		exec.checkCanceled();
-            		exec.setProgress(done / (double)(n_rows*n_rows), 
-            				"Done " + done + " alignments");
-            	}
-        	}
+        int n = vec.size();
+        OrderedTaskExecutor<AlignmentBatch> executor = make_executor(exec, container);
+        try {
+        	AlignmentBatch batch = null;
+	        for (SequenceValue a1 : vec) {
+	        	for (SequenceValue a2 : vec) {
+	        		if (m_align_self.getBooleanValue() || a1 != a2) {	
+	        			if (batch == null)
+	        				batch = new AlignmentBatch(align_id, outputSpec, gap_open_penalty, gap_extend_penalty);
+	        			batch.add(a1, a2);
+	        			align_id++;
+	        			if (batch.size() >= PAIRS_PER_TASK) {
+	        				batch.setProgress(align_id / (double)(n*n));
+	        				executor.submit(batch);
+	        				batch = null;
+	        			}
+	        		}
+	        	}
+	        	exec.checkCanceled();
+	        }
+	        if (batch != null) {
+	        	batch.setProgress(1.0);
+	        	executor.submit(batch);
+	        }
+	        executor.finish();
+        } finally {
+        	executor.shutdown();
         }
         
         // once we are done, we close the container and return its table
@@ -282,57 +352,71 @@ public class SequenceAlignerNodeModel extends NodeModel {
         CloseableRowIterator it = inData[0].iterator();
         
         int align_no = 1;
-     
-        while (it.hasNext()) {
-        	DataRow r = it.next();
+        OrderedTaskExecutor<AlignmentBatch> executor = make_executor(exec, container);
+        try {
+	        AlignmentBatch batch = null;
+	        while (it.hasNext()) {
+	        	DataRow r = it.next();
         	
-        	DataCell c1 = r.getCell(sequence_col);
-        	DataCell c2 = r.getCell(sequence2_col);
-        	if (c1.isMissing() || c2.isMissing()) 
-        		continue;
-        	SequenceValue[] vec = null;
-        	if (c2.getType().isCollectionType()) {
-        		if (c2 instanceof ListCell) {
-	        		ListCell l2 = (ListCell) c2;
-	        		if (l2.size() < 1) 
-	        			continue;
-	        		vec = new SequenceValue[l2.size()];
-	        		int cnt = 0;
-	        		for (DataCell c : l2) {
-	        			vec[cnt++] = (SequenceValue) c;
+	        	DataCell c1 = r.getCell(sequence_col);
+	        	DataCell c2 = r.getCell(sequence2_col);
+	        	if (c1.isMissing() || c2.isMissing()) 
+	        		continue;
+	        	SequenceValue[] vec = null;
+	        	if (c2.getType().isCollectionType()) {
+	        		if (c2 instanceof ListCell) {
+		        		ListCell l2 = (ListCell) c2;
+		        		if (l2.size() < 1) 
+		        			continue;
+		        		vec = new SequenceValue[l2.size()];
+		        		int cnt = 0;
+		        		for (DataCell c : l2) {
+		        			vec[cnt++] = (SequenceValue) c;
+		        		}
+		        		l2 = null;
+	        		} else if (c2 instanceof SetCell) {
+	        			SetCell s2 = (SetCell) c2;
+	        			if (s2.size()< 1) 
+	        				continue;
+	        			vec = new SequenceValue[s2.size()];
+	        			int cnt = 0;
+	        			for (DataCell c : s2) {
+	        				vec[cnt++] = (SequenceValue) c;
+	        			}
+	        		} else {
+	        			throw new Exception("Unknown collection cell: "+c2.getType().toString()+ ", aborting!");
 	        		}
-	        		l2 = null;
-        		} else if (c2 instanceof SetCell) {
-        			SetCell s2 = (SetCell) c2;
-        			if (s2.size()< 1) 
-        				continue;
-        			vec = new SequenceValue[s2.size()];
-        			int cnt = 0;
-        			for (DataCell c : s2) {
-        				vec[cnt++] = (SequenceValue) c;
-        			}
-        		} else {
-        			throw new Exception("Unknown collection cell: "+c2.getType().toString()+ ", aborting!");
-        		}
-        	} else {
-        		vec = new SequenceValue[] { (SequenceValue) c2 };
-        	}
-        	SequenceValue s1 = (SequenceValue) c1;
-        	for (SequenceValue s2 : vec) {
-	        	//logger.info("Lengths for sequences: " + str1.length() + " " + str2.length() );
-	        	container.addRowToTable(do_alignment(align_no, s1, s2, m_align_type.getStringValue(), alignment_spec, gap_open_penalty, gap_extend_penalty));
-	        	align_no++;
-        	}
-        	vec = null;
-        	done++;
+	        	} else {
+	        		vec = new SequenceValue[] { (SequenceValue) c2 };
+	        	}
+	        	SequenceValue s1 = (SequenceValue) c1;
+	        	done++;
+	        	for (SequenceValue s2 : vec) {
+		        	if (batch == null)
+		        		batch = new AlignmentBatch(align_no, alignment_spec, gap_open_penalty, gap_extend_penalty);
+		        	batch.add(s1, s2);
+		        	align_no++;
+		        	if (batch.size() >= PAIRS_PER_TASK) {
+		        		batch.setProgress(done / (double)n_rows);
+		        		executor.submit(batch);
+		        		batch = null;
+		        	}
+	        	}
+	        	vec = null;
         		
-        	// check if the execution monitor was canceled
-        	if (done % 30 == 0) {
-        		exec.checkCanceled();
-        		exec.setProgress(done / (double)n_rows, 
-        				"Done " + done + " rows");
-        	}
-        	r = null;
+	        	// check if the execution monitor was canceled
+	        	if (done % 30 == 0) {
+	        		exec.checkCanceled();
+	        	}
+	        	r = null;
+	        }
+	        if (batch != null) {
+	        	batch.setProgress(1.0);
+	        	executor.submit(batch);
+	        }
+	        executor.finish();
+        } finally {
+        	executor.shutdown();
         }
         
         // once we are done, we close the container and return its table
@@ -341,30 +425,137 @@ public class SequenceAlignerNodeModel extends NodeModel {
         return new BufferedDataTable[]{out};
     }
     
+    /**
+     * Returns an executor which adds the rows from each batch of alignments to the container, in the order the batches were submitted
+     */
+    private OrderedTaskExecutor<AlignmentBatch> make_executor(final ExecutionContext exec, final BufferedDataContainer container) {
+    	int n_threads = m_threads.getIntValue();
+    	return new OrderedTaskExecutor<AlignmentBatch>(n_threads, 4 * n_threads, 
+    			new OrderedTaskExecutor.ResultHandler<AlignmentBatch>() {
+    		private int m_done = 0;
+    		
+			@Override
+			public void process(AlignmentBatch b) throws Exception {
+				for (DataRow r : b.getRows()) {
+					container.addRowToTable(r);
+				}
+				m_done += b.size();
+				exec.checkCanceled();
+				exec.setProgress(b.getProgress(), "Done " + m_done + " alignments");
+			}
+    		
+    	});
+    }
+    
+    /**
+     * A consecutively numbered group of alignments, performed together by one worker thread
+     */
+    private class AlignmentBatch implements Callable<AlignmentBatch> {
+    	private final int                 m_first_id;
+    	private final DataTableSpec       m_spec;
+    	private final String              m_type;
+    	private final double              m_gap_open, m_gap_extend;
+    	private final List<SequenceValue> m_a1 = new ArrayList<SequenceValue>(PAIRS_PER_TASK);
+    	private final List<SequenceValue> m_a2 = new ArrayList<SequenceValue>(PAIRS_PER_TASK);
+    	private final List<DataRow>       m_rows = new ArrayList<DataRow>(PAIRS_PER_TASK);
+    	private double                    m_progress = 0.0;
+    	
+    	public AlignmentBatch(int first_align_id, final DataTableSpec spec, double gap_open_penalty, double gap_extend_penalty) {
+    		m_first_id   = first_align_id;
+    		m_spec       = spec;
+    		m_type       = m_align_type.getStringValue();
+    		m_gap_open   = gap_open_penalty;
+    		m_gap_extend = gap_extend_penalty;
+    	}
+    	
+    	public void add(final SequenceValue a1, final SequenceValue a2) {
+    		m_a1.add(a1);
+    		m_a2.add(a2);
+    	}
+    	
+    	public int size() {
+    		return m_a1.size();
+    	}
+    	
+    	/**
+    	 * Fraction of the execution complete once this batch is added to the output
+    	 */
+    	public void setProgress(double progress) {
+    		m_progress = progress;
+    	}
+    	
+    	public double getProgress() {
+    		return m_progress;
+    	}
+    	
+    	public List<DataRow> getRows() {
+    		return m_rows;
+    	}
+    	
+		@Override
+		public AlignmentBatch call() throws Exception {
+			for (int i=0; i<m_a1.size(); i++) {
+				m_rows.add(do_alignment(m_first_id + i, m_a1.get(i), m_a2.get(i), m_type, m_spec, m_gap_open, m_gap_extend));
+			}
+			return this;
+		}
+    }
+    
     private DataRow do_alignment(int align_id, SequenceValue a1, SequenceValue a2, String align_type, 
     				DataTableSpec spec, double gap_open_penalty, double gap_extend_penalty) 
     					throws FileNotFoundException, IOException, InvalidSequenceException, IncompatibleScoringSchemeException, InvalidScoringMatrixException {
     
 		AlignmentReporter ar;
-		if (align_type.indexOf("Local - JAligner") >= 0) {
+		if (align_type.indexOf("Striped") >= 0) {
+			Sequence seq1 = new Sequence(a1.getStringValue());
+			Sequence seq2 = new Sequence(a2.getStringValue());
+			seq1.setId(a1.getID());
+			seq2.setId(a2.getID());
+			boolean is_local = align_type.startsWith("Local");
+			if (m_score_only) {
+				// identities are not wanted (see execute())
+				int score = m_striped.score(seq1, seq2, is_local);
+				return AlignmentReporter.getScoreRow(align_id, spec, a1, a2, new PairwiseScorer.Result(score, 0L));
+			}
+			ar = new AlignmentReporter(m_striped.align(seq1, seq2, is_local), a1, a2);
+		} else if (align_type.indexOf("Local - JAligner") >= 0) {
 			Sequence seq1 = new Sequence(a1.getStringValue());
 			Sequence seq2 = new Sequence(a2.getStringValue());
-			Alignment a = SmithWatermanGotoh.align(seq1, seq2, m_jalign_matrix, (float) gap_open_penalty, (float) gap_extend_penalty);
+			if (m_score_only) {
+				PairwiseScorer.Result r = PairwiseScorer.alignLocalAffine(seq1, seq2, m_jalign_matrix.get(), 
+												(float) gap_open_penalty, (float) gap_extend_penalty);
+				return AlignmentReporter.getScoreRow(align_id, spec, a1, a2, r);
+			}
+			Alignment a = SmithWatermanGotoh.align(seq1, seq2, m_jalign_matrix.get(), (float) gap_open_penalty, (float) gap_extend_penalty);
 			ar = new AlignmentReporter(a, a1, a2);
 		} else {
 			StringReader sr1 = new StringReader(a1.getStringValue());
 			StringReader sr2 = new StringReader(a2.getStringValue());
+			boolean is_local = align_type.startsWith("Local");
+			if (m_score_only && (align_type.endsWith("Waterman") || align_type.endsWith("Wunsch"))) {
+				PairwiseScorer.Result r = PairwiseScorer.alignLinear(new CharSequence(sr1), new CharSequence(sr2), 
+												m_neobio_matrix.get(), is_local);
+				return AlignmentReporter.getScoreRow(align_id, spec, a1, a2, r);
+			}
 			PairwiseAlignmentAlgorithm algorithm;
-			if (align_type.startsWith("Local")) {
+			if (is_local) {
 				algorithm = align_type.endsWith("Waterman") ? new SmithWaterman() : new CrochemoreLandauZivUkelsonLocalAlignment();
 			} else {
 				algorithm = align_type.endsWith("Wunsch") ? new NeedlemanWunsch() : new CrochemoreLandauZivUkelsonGlobalAlignment();
 			}
 		
 			// TODO: neobio does not support gap open/extend cost model... fix this?
-			algorithm.setScoringScheme (m_neobio_matrix);
+			algorithm.setScoringScheme (m_neobio_matrix.get());
 			algorithm.loadSequences (sr1, sr2);
 	
+			if (m_score_only) {
+				// only the score is wanted (see execute()) which neobio computes without the alignment
+				int score = algorithm.getScore();
+				sr1.close();
+				sr2.close();
+				return AlignmentReporter.getScoreRow(align_id, spec, a1, a2, new PairwiseScorer.Result(score, 0L));
+			}
+			
 			// now compute the alignment
 			PairwiseAlignment alignment = algorithm.getPairwiseAlignment();
 			sr1.close();
@@ -406,6 +597,7 @@ public class SequenceAlignerNodeModel extends NodeModel {
         m_is_pairwise.saveSettingsTo(settings);
         m_wanted.saveSettingsTo(settings);
         m_align_self.saveSettingsTo(settings);
+        m_threads.saveSettingsTo(settings);
     }
 
     /**
@@ -426,6 +618,11 @@ public class SequenceAlignerNodeModel extends NodeModel {
         if (settings.containsKey(CFG_ALIGN_SELF)) {
         	m_align_self.loadSettingsFrom(settings);
         }
+        if (settings.containsKey(CFG_THREADS)) {
+        	m_threads.loadSettingsFrom(settings);
+        } else {
+        	m_threads.setIntValue(1);
+        }
     }
 
     /**
@@ -446,6 +643,9 @@ public class SequenceAlignerNodeModel extends NodeModel {
         if (settings.containsKey(CFG_ALIGN_SELF)) {
         	m_align_self.loadSettingsFrom(settings);
         }
+        if (settings.containsKey(CFG_THREADS)) {
+        	m_threads.validateSettings(settings);
+        }
     }
     
     /**
@@ -0,0 +1,515 @@
+package au.edu.unimelb.plantcell.io.ws.multialign;
+
+import jaligner.Alignment;
+import jaligner.Markups;
+import jaligner.Sequence;
+import jaligner.matrix.Matrix;
+
+/**
+ * Pairwise aligner for affine gap penalties (a gap of length k costs <code>open + (k-1) * extend</code>, as per JAligner)
+ * which needs memory only linear in the length of the sequences.
+ *
+ * Scores are computed with Farrar's striped layout: the query is split into {@link #LANES} interleaved segments held in
+ * plain <code>int[]</code> arrays so that each lane of a column of the dynamic programming matrix is computed by a short,
+ * branch-light loop, with vertical gaps crossing from one lane into the next corrected afterwards (the "lazy F" loop).
+ * Alignments are constructed by the Myers-Miller (Hirschberg for affine gaps) divide and conquer method, after locating the
+ * ends of a local alignment with two striped passes.
+ *
+ * Scores are exact integers, so the scoring matrix and gap penalties must be whole numbers (see {@link #isIntegral(Matrix, float, float)}),
+ * as they are for all the matrices supplied with JAligner. Instances are immutable and may be shared between threads.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class StripedAligner {
+	public static final int LANES = 8;
+	private static final int NEG  = Integer.MIN_VALUE / 4;		// minus infinity, with room to subtract penalties without overflow
+
+	private static final int LOCAL    = 0;		// Smith-Waterman
+	private static final int GLOBAL   = 1;		// Needleman-Wunsch
+	private static final int ANCHORED = 2;		// must start at the beginning of both sequences, but may end anywhere
+
+	private final Matrix  m_matrix;
+	private final int[][] m_scores;
+	private final int     m_open, m_extend;
+
+	/**
+	 * @throws IllegalArgumentException if the matrix or penalties are not whole numbers
+	 */
+	public StripedAligner(final Matrix matrix, float open, float extend) {
+		if (!isIntegral(matrix, open, extend))
+			throw new IllegalArgumentException("Scoring matrix and gap penalties must be whole numbers!");
+		float[][] scores = matrix.getScores();
+		m_matrix = matrix;
+		m_scores = new int[scores.length][];
+		for (int i=0; i<scores.length; i++) {
+			m_scores[i] = new int[scores[i].length];
+			for (int j=0; j<scores[i].length; j++) {
+				m_scores[i][j] = (int) scores[i][j];
+			}
+		}
+		m_open   = (int) open;
+		// if extending a gap costs more than opening one, the recurrences always open a new gap: which is the same as extend == open
+		m_extend = (int) Math.min(open, extend);
+	}
+
+	/**
+	 * Returns true if the matrix and gap penalties can be used by a <code>StripedAligner</code>
+	 */
+	public static boolean isIntegral(final Matrix matrix, float open, float extend) {
+		if (!isIntegral(open) || !isIntegral(extend))
+			return false;
+		for (float[] row : matrix.getScores()) {
+			for (float f : row) {
+				if (!isIntegral(f))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isIntegral(float f) {
+		return (Math.rint(f) == f && Math.abs(f) < (1 << 20));
+	}
+
+	/**
+	 * Returns the score of an optimal local (or, if <code>local</code> is false, global) alignment of the two sequences
+	 */
+	public int score(final Sequence s1, final Sequence s2, boolean local) {
+		return stripe(s1.toArray(), s2.toArray(), local ? LOCAL : GLOBAL)[0];
+	}
+
+	/**
+	 * Returns an optimal local (or global) alignment of the two sequences. The alignment may differ from JAligner's
+	 * when there is more than one optimal alignment, but the score will not.
+	 */
+	public Alignment align(final Sequence s1, final Sequence s2, boolean local) {
+		char[] a = s1.toArray();
+		char[] b = s2.toArray();
+		int a_start = 0, a_end = a.length;
+		int b_start = 0, b_end = b.length;
+		int score;
+		if (local) {
+			// the forward pass finds where the alignment ends, an anchored pass over the reversed prefixes finds where it starts
+			int[] end = stripe(a, b, LOCAL);
+			score = end[0];
+			a_end = end[1];
+			b_end = end[2];
+			if (score > 0) {
+				int[] start = stripe(reverse(a, a_end), reverse(b, b_end), ANCHORED);
+				assert(start[0] == score);
+				a_start = a_end - start[1];
+				b_start = b_end - start[2];
+			} else {
+				a_start = a_end = b_start = b_end = 0;
+			}
+		} else {
+			score = stripe(a, b, GLOBAL)[0];
+		}
+
+		Traceback tb = new Traceback(a, b, a_start, b_start, b_end - b_start);
+		tb.diff(a_start, b_start, a_end - a_start, b_end - b_start, m_open - m_extend, m_open - m_extend);
+		return tb.getAlignment(s1, s2, a_start, b_start, score);
+	}
+
+	private static char[] reverse(final char[] x, int len) {
+		char[] ret = new char[len];
+		for (int i=0; i<len; i++) {
+			ret[i] = x[len-1-i];
+		}
+		return ret;
+	}
+
+	/**
+	 * Penalty for a gap of length <code>k</code>
+	 */
+	private int gap(int k) {
+		return (k <= 0) ? 0 : m_open + (k-1) * m_extend;
+	}
+
+	private int[] row(char c) {
+		if (c >= m_scores.length)
+			throw new IllegalArgumentException("Residue not in scoring matrix: "+c);
+		return m_scores[c];
+	}
+
+	/**
+	 * Computes the best score for the chosen <code>mode</code>. Returns <code>{ score, i, j }</code> where the score is
+	 * attained after <code>i</code> residues of <code>q</code> and <code>j</code> of <code>t</code> (the first such cell,
+	 * by column then row, for local and anchored alignments).
+	 */
+	private int[] stripe(final char[] q, final char[] t, int mode) {
+		int m = q.length;
+		int n = t.length;
+		boolean clamp = (mode == LOCAL);
+		if (m == 0 || n == 0) {
+			return (mode == GLOBAL) ? new int[] { -gap(Math.max(m, n)), m, n } : new int[] { 0, 0, 0 };
+		}
+
+		int seg_len = (m + LANES - 1) / LANES;
+		int size    = seg_len * LANES;
+		int[][] profile = new int[m_scores.length][];	// scores for each query position against a residue, built as needed
+		int[] h_prev = new int[size];
+		int[] h_cur  = new int[size];
+		int[] e      = new int[size];
+		int[] best_col = (mode == GLOBAL) ? null : new int[size];
+		int[] vh     = new int[LANES];
+		int[] vf     = new int[LANES];
+		// query position i is held in lane i / seg_len of segment i % seg_len
+		for (int s=0; s<seg_len; s++) {
+			for (int l=0; l<LANES; l++) {
+				int i = l * seg_len + s;
+				h_prev[s*LANES+l] = clamp ? 0 : -gap(i+1);
+				e[s*LANES+l]      = NEG;
+			}
+		}
+
+		int best = (mode == GLOBAL) ? NEG : 0;
+		int best_i = 0, best_j = 0;
+		int last = (seg_len-1) * LANES;
+		for (int j=1; j<=n; j++) {
+			char c = t[j-1];
+			if (c >= profile.length)
+				throw new IllegalArgumentException("Residue not in scoring matrix: "+c);
+			int[] p = profile[c];
+			if (p == null) {
+				p = new int[size];
+				for (int s=0; s<seg_len; s++) {
+					for (int l=0; l<LANES; l++) {
+						int i = l * seg_len + s;
+						p[s*LANES+l] = (i < m) ? row(q[i])[c] : 0;
+					}
+				}
+				profile[c] = p;
+			}
+
+			// the diagonal for the first segment is the last segment of the previous column, shifted down one lane
+			for (int l=LANES-1; l>0; l--) {
+				vh[l] = h_prev[last+l-1];
+				vf[l] = NEG;
+			}
+			vh[0] = clamp ? 0 : -gap(j-1);
+			vf[0] = (clamp ? 0 : -gap(j)) - m_open;
+			int floor   = clamp ? 0 : NEG;
+			int col_max = NEG;
+			// lanes are independent until the lazy F loop, so each is run down its segments in turn: without SIMD there is
+			// nothing to gain from stepping all lanes together, and this keeps the running diagonal and gap out of memory
+			for (int l=0; l<LANES; l++) {
+				int diag = vh[l];
+				int f    = vf[l];
+				for (int o=l; o<size; o += LANES) {
+					int ev = e[o];
+					int h  = Math.max(Math.max(diag + p[o], ev), Math.max(f, floor));
+					h_cur[o] = h;
+					if (h > col_max)
+						col_max = h;
+					int ho = h - m_open;
+					e[o]  = Math.max(ev - m_extend, ho);
+					f     = Math.max(f - m_extend, ho);
+					diag  = h_prev[o];
+				}
+				vf[l] = f;
+			}
+
+			// lazy F: vertical gaps which cross from one lane into the next were not seen by the pass above. Taking the lanes in
+			// order, the gap entering each is known exactly, so each lane is corrected once and only until the gap stops improving it
+			int carry = NEG;
+			for (int l=1; l<LANES; l++) {
+				int f = Math.max(carry, vf[l-1]);
+				carry = NEG;
+				if (f <= NEG)
+					continue;
+				int s;
+				for (s=0; s<seg_len; s++) {
+					int o = s * LANES + l;
+					int h = h_cur[o];
+					if (f > h) {
+						h_cur[o] = f;
+						if (f > col_max)
+							col_max = f;
+						int fo = f - m_open;
+						if (fo > e[o])
+							e[o] = fo;
+					} else if (f - m_extend <= h - m_open) {
+						break;		// from here on the pass above already had the better gap
+					}
+					f -= m_extend;
+				}
+				if (s == seg_len)
+					carry = f;
+			}
+
+			// the row is only needed for the final best column, so keep a copy of it rather than searching every improved column
+			if (mode != GLOBAL && col_max > best) {
+				best   = col_max;
+				best_j = j;
+				System.arraycopy(h_cur, 0, best_col, 0, size);
+			}
+			int[] tmp = h_prev;
+			h_prev = h_cur;
+			h_cur  = tmp;
+		}
+
+		if (mode == GLOBAL) {
+			return new int[] { h_prev[((m-1) % seg_len) * LANES + (m-1) / seg_len], m, n };
+		}
+		if (best_j > 0) {
+			for (int i=0; i<m; i++) {
+				if (best_col[(i % seg_len) * LANES + (i / seg_len)] == best) {
+					best_i = i + 1;
+					break;
+				}
+			}
+		}
+		return new int[] { best, best_i, best_j };
+	}
+
+	/**
+	 * Myers and Miller's linear space global alignment with affine gaps. Costs (negated scores) are minimised, and
+	 * a gap of length k costs <code>g + h * k</code>. The alignment is appended column by column as it is found.
+	 */
+	private class Traceback {
+		private final char[] m_a, m_b;
+		private final int[]  m_cc, m_dd, m_rr, m_ss;
+		private final int    m_g, m_h;
+		private final StringBuilder m_out1 = new StringBuilder();
+		private final StringBuilder m_out2 = new StringBuilder();
+		private int m_pa, m_pb;		// next residue of each sequence to be output
+
+		public Traceback(final char[] a, final char[] b, int a_start, int b_start, int max_n) {
+			m_a  = a;
+			m_b  = b;
+			m_pa = a_start;
+			m_pb = b_start;
+			m_cc = new int[max_n+1];
+			m_dd = new int[max_n+1];
+			m_rr = new int[max_n+1];
+			m_ss = new int[max_n+1];
+			m_g  = m_open - m_extend;
+			m_h  = m_extend;
+		}
+
+		private int w(char a, char b) {
+			return -row(a)[b];
+		}
+
+		private int gap(int k) {
+			return (k <= 0) ? 0 : m_g + m_h * k;
+		}
+
+		private void del(int k) {
+			while (k-- > 0) {
+				m_out1.append(m_a[m_pa++]);
+				m_out2.append(Alignment.GAP);
+			}
+		}
+
+		private void ins(int k) {
+			while (k-- > 0) {
+				m_out1.append(Alignment.GAP);
+				m_out2.append(m_b[m_pb++]);
+			}
+		}
+
+		private void rep() {
+			m_out1.append(m_a[m_pa++]);
+			m_out2.append(m_b[m_pb++]);
+		}
+
+		/**
+		 * Aligns <code>a[ai..ai+M)</code> with <code>b[bj..bj+N)</code>, where <code>tb</code> (<code>te</code>) is the cost
+		 * of opening a deletion at the beginning (end): zero if it continues a deletion in the neighbouring sub-problem.
+		 */
+		public int diff(int ai, int bj, int M, int N, int tb, int te) {
+			if (N <= 0) {
+				del(M);
+				return gap(M);
+			}
+			if (M <= 1) {
+				if (M <= 0) {
+					ins(N);
+					return gap(N);
+				}
+				// a single residue: either deleted (the cheaper end for the deletion is used) or aligned to one of b
+				boolean del_first = (tb <= te);
+				int midc = Math.min(tb, te) + m_h + gap(N);
+				int midj = 0;
+				char ca  = m_a[ai];
+				for (int j=1; j<=N; j++) {
+					int c = gap(j-1) + w(ca, m_b[bj+j-1]) + gap(N-j);
+					if (c < midc) {
+						midc = c;
+						midj = j;
+					}
+				}
+				if (midj == 0) {
+					if (del_first) {
+						del(1);
+						ins(N);
+					} else {
+						ins(N);
+						del(1);
+					}
+				} else {
+					ins(midj-1);
+					rep();
+					ins(N-midj);
+				}
+				return midc;
+			}
+
+			int g = m_g, h = m_h;
+			int midi = M / 2;
+			// forward pass over the first half of a
+			int t = g;
+			m_cc[0] = 0;
+			for (int j=1; j<=N; j++) {
+				t += h;
+				m_cc[j] = t;
+				m_dd[j] = t + g;
+			}
+			t = tb;
+			for (int i=1; i<=midi; i++) {
+				int s = m_cc[0];
+				t += h;
+				int c = t;
+				m_cc[0] = c;
+				int e = t + g;
+				int[] wa = row(m_a[ai+i-1]);
+				for (int j=1; j<=N; j++) {
+					c += g + h;
+					e += h;
+					if (c < e)
+						e = c;
+					c = m_cc[j] + g + h;
+					int d = m_dd[j] + h;
+					if (c < d)
+						d = c;
+					c = s - wa[m_b[bj+j-1]];
+					if (e < c)
+						c = e;
+					if (d < c)
+						c = d;
+					s = m_cc[j];
+					m_cc[j] = c;
+					m_dd[j] = d;
+				}
+			}
+			m_dd[0] = m_cc[0];
+
+			// reverse pass over the second half
+			t = g;
+			m_rr[N] = 0;
+			for (int j=N-1; j>=0; j--) {
+				t += h;
+				m_rr[j] = t;
+				m_ss[j] = t + g;
+			}
+			t = te;
+			for (int i=M-1; i>=midi; i--) {
+				int s = m_rr[N];
+				t += h;
+				int c = t;
+				m_rr[N] = c;
+				int e = t + g;
+				int[] wa = row(m_a[ai+i]);
+				for (int j=N-1; j>=0; j--) {
+					c += g + h;
+					e += h;
+					if (c < e)
+						e = c;
+					c = m_rr[j] + g + h;
+					int d = m_ss[j] + h;
+					if (c < d)
+						d = c;
+					c = s - wa[m_b[bj+j]];
+					if (e < c)
+						c = e;
+					if (d < c)
+						c = d;
+					s = m_rr[j];
+					m_rr[j] = c;
+					m_ss[j] = d;
+				}
+			}
+			m_ss[N] = m_rr[N];
+
+			// find where an optimal path crosses the middle row: either between two cells or within a deletion
+			int midc = m_cc[0] + m_rr[0];
+			int midj = 0;
+			boolean in_gap = false;
+			for (int j=1; j<=N; j++) {
+				int c = m_cc[j] + m_rr[j];
+				if (c < midc) {
+					midc = c;
+					midj = j;
+				}
+			}
+			for (int j=N; j>=0; j--) {
+				int c = m_dd[j] + m_ss[j] - g;
+				if (c < midc) {
+					midc   = c;
+					midj   = j;
+					in_gap = true;
+				}
+			}
+
+			if (!in_gap) {
+				diff(ai, bj, midi, midj, tb, g);
+				diff(ai+midi, bj+midj, M-midi, N-midj, g, te);
+			} else {
+				diff(ai, bj, midi-1, midj, tb, 0);
+				del(2);
+				diff(ai+midi+1, bj+midj, M-midi-1, N-midj, 0, te);
+			}
+			return midc;
+		}
+
+		/**
+		 * Returns the alignment found by {@link #diff(int, int, int, int, int, int)} in JAligner's representation
+		 */
+		public Alignment getAlignment(final Sequence s1, final Sequence s2, int start1, int start2, int score) {
+			int len = m_out1.length();
+			char[] seq1   = new char[len];
+			char[] seq2   = new char[len];
+			char[] markup = new char[len];
+			m_out1.getChars(0, len, seq1, 0);
+			m_out2.getChars(0, len, seq2, 0);
+			int identity = 0, similarity = 0, gaps = 0;
+			for (int i=0; i<len; i++) {
+				char c1 = seq1[i];
+				char c2 = seq2[i];
+				if (c1 == Alignment.GAP || c2 == Alignment.GAP) {
+					markup[i] = Markups.GAP;
+					gaps++;
+				} else if (c1 == c2) {
+					markup[i] = Markups.IDENTITY;
+					identity++;
+					similarity++;
+				} else if (row(c1)[c2] > 0) {
+					markup[i] = Markups.SIMILARITY;
+					similarity++;
+				} else {
+					markup[i] = Markups.MISMATCH;
+				}
+			}
+
+			Alignment a = new Alignment();
+			a.setSequence1(seq1);
+			a.setSequence2(seq2);
+			a.setMarkupLine(markup);
+			a.setStart1(start1);
+			a.setStart2(start2);
+			a.setName1(s1.getId());
+			a.setName2(s2.getId());
+			a.setMatrix(m_matrix);
+			a.setOpen(m_open);
+			a.setExtend(m_extend);
+			a.setScore(score);
+			a.setIdentity(identity);
+			a.setSimilarity(similarity);
+			a.setGaps(gaps);
+			return a;
+		}
+	}
+}
@@ -28,6 +28,7 @@ import org.knime.core.node.defaultnodesettings.SettingsModelStringArray;
 
 import au.edu.unimelb.plantcell.core.MyDataContainer;
 import au.edu.unimelb.plantcell.core.biojava.tasks.BioJavaProcessorTask;
+import au.edu.unimelb.plantcell.core.biojava.tasks.IncrementalWindowTask;
 import au.edu.unimelb.plantcell.core.cells.SequenceValue;
 import au.edu.unimelb.plantcell.misc.biojava.BioJavaProcessorNodeModel;
 
@@ -137,6 +138,12 @@ public class SequenceWindow2ColumnsNodeModel extends NodeModel {
     	   // each call to getStringValue() returns the current window and *not* the entire sequence
     	   DataRow new_row = new DefaultRow(r.getKey(), cells);
     	  
+    	   // tasks which support it are told which residues enter and leave each window, rather than recomputing it
+    	   IncrementalWindowTask iwt = (t instanceof IncrementalWindowTask && ((IncrementalWindowTask)t).startWindows(sv)) ? 
+    			   							(IncrementalWindowTask) t : null;
+    	   String seq = sv.getStringValue();
+    	   int from = 0, to = 0;		// residues [from, to) are currently in the incremental window
+    	   
     	   while (wsc.hasNextWindow()) {
     		   ArrayList<DataCell> out_cells = new ArrayList<DataCell>(cells.length+10);
     		   out_cells.add(new StringCell(sv.getID()));
@@ -145,7 +152,31 @@ public class SequenceWindow2ColumnsNodeModel extends NodeModel {
     		   out_cells.add(new StringCell(wsc.peekStringWindow()));		// must call wsc.peekStringWindow() before position is updated in wsc
     		   
     		   // compute desired (windowed) metric
-    		   cells = t.getCells(new_row);
+    		   cells = null;
+    		   if (iwt != null) {
+    			   // window starts and ends never decrease, so residues only leave from the start and enter at the end
+    			   int start = wsc.getStart() - 1;
+    			   int end   = wsc.getEnd() - 1;
+    			   while (from < start && from < to) {
+    				   iwt.residueLeft(seq.charAt(from++));
+    			   }
+    			   if (from < start) {
+    				   from = to = start;
+    			   }
+    			   while (to < end) {
+    				   iwt.residueEntered(seq.charAt(to++));
+    			   }
+    			   cells = iwt.getWindowCells();
+    			   if (cells != null)
+    				   wsc.nextWindow();
+    		   }
+    		   if (cells == null) {
+    			   int start = wsc.getStart();
+    			   cells = t.getCells(new_row);
+    			   // not all tasks fetch the window (eg. when they reject the sequence) so make sure the window moves on
+    			   if (wsc.getStart() == start)
+    				   wsc.nextWindow();
+    		   }
     		   
     		   for (DataCell dc: cells) {
     			   out_cells.add(dc);
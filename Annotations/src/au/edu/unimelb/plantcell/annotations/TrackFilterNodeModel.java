@@ -16,7 +16,6 @@ import org.knime.core.data.DataTableSpec;
 import org.knime.core.data.DataType;
 import org.knime.core.data.RowIterator;
 import org.knime.core.data.def.StringCell;
-import org.knime.core.data.vector.bitvector.DenseBitVector;
 import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.CanceledExecutionException;
 import org.knime.core.node.ExecutionContext;
@@ -37,6 +36,7 @@ import au.edu.unimelb.plantcell.core.cells.Track;
 import au.edu.unimelb.plantcell.core.cells.TrackColumnPropertiesCreator;
 import au.edu.unimelb.plantcell.core.cells.TrackCreator;
 import au.edu.unimelb.plantcell.core.regions.RegionInterface;
+import au.edu.unimelb.plantcell.core.regions.RegionOverlaps;
 import au.edu.unimelb.plantcell.core.regions.RegionsAnnotation;
 
 
@@ -125,7 +125,6 @@ public class TrackFilterNodeModel extends NodeModel {
                 made_output_spec = true;
         	}
         	
-        	// HACK: O(n^n) complexity for now
         	SequenceCell hits = report_events(c1, sv, sa1, sa2);
         	if (hits != null) {
         		DataCell[] cells = new DataCell[1];
@@ -175,16 +174,14 @@ public class TrackFilterNodeModel extends NodeModel {
 		Track			 hits_b = sc.getTrackByName(FILTER_HIT_TRACK_B, getTrackCreator());
 		
 		if (op.indexOf("not overlapping") >= 0) {
-			DenseBitVector bv_b = asBitVector(sv.getLength(), sa2.getRegions());
+			List<RegionInterface> regions_a = sa1.getRegions();
+			RegionOverlaps ro = new RegionOverlaps(regions_a, sa2.getRegions());
 			RegionsAnnotation results = (RegionsAnnotation) hits_a.getAnnotation();
-			for (RegionInterface a : sa1.getRegions()) {
-				DenseBitVector bv_a = new DenseBitVector(sv.getLength());
-				bv_a.set(a.getZStart(), a.getZEnd());
-				if (!bv_a.intersects(bv_b)) {
-					report_event(c1, sv, a, null, "A does not overlap any region in B");
-					results.addRegion(a);
-					cnt++;
-				}
+			for (int i : ro.getANotOverlapping()) {
+				RegionInterface a = regions_a.get(i);
+				report_event(c1, sv, a, null, "A does not overlap any region in B");
+				results.addRegion(a);
+				cnt++;
 			}
 		} else if (op.startsWith("a empty")) {		// A empty, B not
 			if (sa1.countAnnotations() == 0 && sa2.countAnnotations() > 0) {
@@ -195,41 +192,45 @@ public class TrackFilterNodeModel extends NodeModel {
 			if (sa1.countAnnotations() == 0 || sa2.countAnnotations() == 0)
 				return null;
 			
-			for (RegionInterface a : sa1.getRegions()) {
-				DenseBitVector bv_a = asBitVector(sv.getLength(), a);
-				RegionsAnnotation a_results = (RegionsAnnotation) hits_a.getAnnotation();
-				RegionsAnnotation b_results = (RegionsAnnotation) hits_b.getAnnotation();
-				for (RegionInterface b : sa2.getRegions()) {
-					//logger.info("Comparing: "+a+" to "+b);
-					DenseBitVector bv_b = new DenseBitVector(sv.getLength());
-					bv_b.set(b.getZStart(), b.getZEnd());
-					if (op.indexOf("overlaps") >= 0) {
-						DenseBitVector anded = bv_a.and(bv_b);
-						if (anded.cardinality() > 0) {
-							a.setRegionOfInterest(anded);
-							b.setRegionOfInterest(anded);
-							report_event(c1, sv, a, b, "A overlaps B");
-							cnt++;
-							a_results.addRegion(a);
-							b_results.addRegion(b);
-						}
-					} else if (op.startsWith("a completely within")) {
-						DenseBitVector res = bv_a.and(bv_b);
-						if (res.cardinality() >= bv_a.cardinality()) {
-							report_event(c1, sv, a, b, "A completely within B");
-							cnt++;
-							a_results.addRegion(a);
-							b_results.addRegion(b);
-						}
-					} else { // b completely within a?
-						DenseBitVector res = bv_a.and(bv_b);
-						if (res.cardinality() >= bv_b.cardinality()) {
-							report_event(c1, sv, a, b, "B completely within A");
-							cnt++;
-							a_results.addRegion(b);
-							b_results.addRegion(a);
-						}
-					}
+			// pairs are reported in the order of a nested loop over the regions in A, then B
+			List<RegionInterface> regions_a = sa1.getRegions();
+			List<RegionInterface> regions_b = sa2.getRegions();
+			RegionOverlaps ro = new RegionOverlaps(regions_a, regions_b);
+			RegionsAnnotation a_results = (RegionsAnnotation) hits_a.getAnnotation();
+			RegionsAnnotation b_results = (RegionsAnnotation) hits_b.getAnnotation();
+			if (op.indexOf("overlaps") >= 0) {
+				int[] pairs = ro.getOverlapping();
+				for (int k=0; k<pairs.length; k += 2) {
+					RegionInterface a = regions_a.get(pairs[k]);
+					RegionInterface b = regions_b.get(pairs[k+1]);
+					int start = ro.getOverlapStart(pairs[k], pairs[k+1]);
+					int end   = ro.getOverlapEnd(pairs[k], pairs[k+1]);
+					a.setRegionOfInterest(start, end);
+					b.setRegionOfInterest(start, end);
+					report_event(c1, sv, a, b, "A overlaps B");
+					cnt++;
+					a_results.addRegion(a);
+					b_results.addRegion(b);
+				}
+			} else if (op.startsWith("a completely within")) {
+				int[] pairs = ro.getAWithinB();
+				for (int k=0; k<pairs.length; k += 2) {
+					RegionInterface a = regions_a.get(pairs[k]);
+					RegionInterface b = regions_b.get(pairs[k+1]);
+					report_event(c1, sv, a, b, "A completely within B");
+					cnt++;
+					a_results.addRegion(a);
+					b_results.addRegion(b);
+				}
+			} else { // b completely within a?
+				int[] pairs = ro.getBWithinA();
+				for (int k=0; k<pairs.length; k += 2) {
+					RegionInterface a = regions_a.get(pairs[k]);
+					RegionInterface b = regions_b.get(pairs[k+1]);
+					report_event(c1, sv, a, b, "B completely within A");
+					cnt++;
+					a_results.addRegion(b);
+					b_results.addRegion(a);
 				}
 			}
 		}
@@ -243,24 +244,6 @@ public class TrackFilterNodeModel extends NodeModel {
 		return (cnt > 0) ? sc : null;
 	}
 
-	private DenseBitVector asBitVector(int length, RegionInterface a) {
-		assert(length > 0);
-		DenseBitVector ret = new DenseBitVector(length);
-		ret.set(a.getZStart(), a.getZEnd());
-		return ret;
-	}
-
-	private DenseBitVector asBitVector(int length, List<RegionInterface> regions) {
-		assert(length > 0);
-		DenseBitVector ret = new DenseBitVector(length);
-		
-		for (RegionInterface ri : regions) {
-			DenseBitVector v = asBitVector(length, ri);
-			ret.or(v);
-		}
-		return ret;
-	}
-
 	private void report_event(MyDataContainer c1, SequenceValue sv, 
 							RegionInterface a, RegionInterface b, String msg) {
 		DataCell[] cells = new DataCell[c1.getTableSpec().getNumColumns()];
@@ -19,6 +19,7 @@ public class WindowSequenceCell extends SequenceCell {
 	 */
 	private static final long serialVersionUID = -4668767149193490953L;
 	private SequenceValue m_sv;
+	private String m_residues;		// held for every window (the sequence only softly caches its decoded residues)
 	private int m_size, m_step;
 	private int m_pos;	
 	
@@ -29,6 +30,7 @@ public class WindowSequenceCell extends SequenceCell {
 		m_size = size;
 		m_step = step;
 		m_sv   = sv;
+		m_residues = sv.getStringValue();
 		m_pos  = -1;
 	}
 	
@@ -48,12 +50,19 @@ public class WindowSequenceCell extends SequenceCell {
 	@Override 
 	public String getStringValue() {
 		String ret = peekStringWindow();
+		nextWindow();
+		return ret;
+	}
+	
+	/**
+	 * Moves to the next window without computing the current one
+	 */
+	public void nextWindow() {
 		if (m_pos < 0) {
 			m_pos = m_step + 1;
 		} else {
 			m_pos += m_step;
 		}
-		return ret;
 	}
 	
 	/**
@@ -82,7 +91,6 @@ public class WindowSequenceCell extends SequenceCell {
 	public String peekStringWindow() {
 		int start = getStart() - 1;
 		int end   = getEnd() - 1;
-		String seq = m_sv.getStringValue();
-		return seq.substring(start, end);
+		return m_residues.substring(start, end);
 	}
 }
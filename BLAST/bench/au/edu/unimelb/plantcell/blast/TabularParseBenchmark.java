@@ -0,0 +1,279 @@
+package au.edu.unimelb.plantcell.blast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.def.StringCell;
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeLogger;
+
+import au.edu.unimelb.plantcell.core.UniqueID;
+import au.edu.unimelb.plantcell.core.cells.SequenceCell;
+import au.edu.unimelb.plantcell.core.cells.SequenceType;
+import au.edu.unimelb.plantcell.core.cells.SequenceValue;
+import au.edu.unimelb.plantcell.core.regions.BlastHitRegion;
+
+/**
+ * Times the parsing of "-outfmt 7" hit lines by {@link TabbedCSVLogger} against the parser it replaced, which split each
+ * line with a regex, put the columns into a <code>HashMap</code> for every hit, matched the query id against <code>UniqueID</code>'s
+ * regex on every line and converted numbers with <code>Double.parseDouble()</code>. Both produce the cells for the TSV output port
+ * and the hits for each query of a batch.
+ *
+ * The synthetic output has the 12 default columns and is parsed in 20 batches of 1000 queries (ie. 500 hits per query
+ * for 10 million lines). Each batch is parsed by both and the hits compared field by field before timing.
+ *
+ * Not part of the plugin build. Compile against the plugin classes, the PlantCell core plugin and KNIME core, and run with eg.
+ * <pre>java -Xmx2g -cp bin:bench-bin:plantcell-core.jar:knime-core.jar au.edu.unimelb.plantcell.blast.TabularParseBenchmark [lines]</pre>
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class TabularParseBenchmark {
+	private static final String[] FIELDS = new String[] { "query id", "subject id", "% identity", "alignment length", "mismatches",
+		"gap opens", "q. start", "q. end", "s. start", "s. end", "evalue", "bit score" };
+	private static final int BATCHES = 20;
+	private static final int QUERIES = 1000;
+	private static final int RUNS    = 3;
+
+	// the TSV cells of the last hit parsed, so that neither parser's cells can be optimised away
+	private static DataCell[] s_cells;
+
+	public static void main(String[] args) throws Exception {
+		int n_lines = (args.length > 0) ? Integer.parseInt(args[0]) : 10 * 1000 * 1000;
+		int per_batch = n_lines / BATCHES;
+		Random r = new Random(42);
+		double old_ms = 0.0d, new_ms = 0.0d;
+		for (int b=0; b<BATCHES; b++) {
+			Map<UniqueID,SequenceValue> batch = new HashMap<UniqueID,SequenceValue>();
+			List<UniqueID> queries = new ArrayList<UniqueID>(QUERIES);
+			for (int q=0; q<QUERIES; q++) {
+				UniqueID uid = new UniqueID();
+				batch.put(uid, new SequenceCell(SequenceType.AA, "sp|Q"+b+"_"+q+"|PROT_ARATH", "MKVLAAGIVGLLLA"));
+				queries.add(uid);
+			}
+			String[] lines = hits(r, queries, per_batch);
+
+			// warm up both on the first batch
+			for (int i=0; b == 0 && i<RUNS; i++) {
+				parseOld(batch, lines);
+				parseNew(batch, lines);
+			}
+			check(parseOld(batch, lines), parseNew(batch, lines).getResults());
+
+			double[] old_runs = new double[RUNS], new_runs = new double[RUNS];
+			for (int run=0; run<RUNS; run++) {
+				long start = System.nanoTime();
+				parseOld(batch, lines);
+				old_runs[run] = (System.nanoTime() - start) / 1e6;
+				start = System.nanoTime();
+				parseNew(batch, lines);
+				new_runs[run] = (System.nanoTime() - start) / 1e6;
+			}
+			old_ms += median(old_runs);
+			new_ms += median(new_runs);
+		}
+		System.out.printf("%,d hit lines in %d batches: split() and maps %.1f s, TabbedCSVLogger %.1f s (%.1fx)%n",
+				per_batch * BATCHES, BATCHES, old_ms / 1000.0d, new_ms / 1000.0d, old_ms / new_ms);
+	}
+
+	private static Results parseNew(final Map<UniqueID,SequenceValue> batch, final String[] lines) {
+		TabbedCSVLogger tsv = new TabbedCSVLogger(NodeLogger.getLogger(TabularParseBenchmark.class), null);
+		tsv.setColumns(FIELDS);
+		tsv.setBatch(batch);
+		for (String line : lines) {
+			s_cells = tsv.parseHit(line);
+		}
+		Results ret = new Results(batch);
+		tsv.walkResults(ret);
+		return ret;
+	}
+
+	/**
+	 * The hit line parsing of TabbedCSVLogger and BlastHitRegion before they were rewritten
+	 */
+	private static Map<UniqueID,List<BlastHitRegion>> parseOld(final Map<UniqueID,SequenceValue> batch, final String[] lines) {
+		Map<String,Integer> col2idx = new HashMap<String,Integer>();
+		Map<Integer,String> idx2col = new HashMap<Integer,String>();
+		for (int i=0; i<FIELDS.length; i++) {
+			col2idx.put(FIELDS[i], new Integer(i));
+			idx2col.put(new Integer(i), FIELDS[i]);
+		}
+		Map<UniqueID,List<BlastHitRegion>> results = new HashMap<UniqueID,List<BlastHitRegion>>();
+		for (String line : lines) {
+			String[] tabbed_fields = line.split("\t");
+			DataCell[] cells = new DataCell[FIELDS.length];
+			Map<String,String> fields = new HashMap<String,String>();
+			Integer want_idx = col2idx.get("query id");
+			UniqueID uid = null;
+			for (int i=0; i<FIELDS.length; i++) {
+				if (want_idx != null && want_idx.intValue() == i) {
+					try {
+						uid = new UniqueID(tabbed_fields[i]);
+						SequenceValue sv = batch.get(uid);
+						if (sv != null)
+							tabbed_fields[i] = sv.getID();
+					} catch (InvalidSettingsException ise) {
+						ise.printStackTrace();
+					}
+				}
+				cells[i] = new StringCell(tabbed_fields[i]);
+				fields.put(idx2col.get(new Integer(i)), tabbed_fields[i]);
+			}
+			s_cells = cells;
+			BlastHitRegion bhr = oldHit(fields);
+			bhr.setOffset(1);
+			if (uid != null) {
+				List<BlastHitRegion> l = results.get(uid);
+				if (l == null) {
+					l = new ArrayList<BlastHitRegion>();
+					results.put(uid, l);
+				}
+				l.add(bhr);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * The former <code>BlastHitRegion(Map)</code> constructor (its query id setter is private, so the hit is created last)
+	 */
+	private static BlastHitRegion oldHit(final Map<String,String> fields) {
+		int start = -1, end = -1, len = -1;
+		double evalue = -1d, score = -1d, identity = -1d;
+		String query = "", subject = "";
+		for (String key : fields.keySet()) {
+			String val = fields.get(key);
+			if (key.equals("q. start")) {
+				start = Integer.parseInt(val);
+			} else if (key.equals("q. end")) {
+				end = Integer.parseInt(val);
+			} else if (key.equals("evalue")) {
+				evalue = Double.parseDouble(val);
+			} else if (key.equals("bit score")) {
+				score = Double.parseDouble(val);
+			} else if (key.equals("% identity")) {
+				identity = Double.parseDouble(val);
+			} else if (key.equals("alignment length")) {
+				len = Integer.parseInt(val);
+			} else if (key.equals("query id")) {
+				query = val;
+			} else if (key.equals("subject id")) {
+				subject = val;
+			}
+		}
+		BlastHitRegion bhr = new BlastHitRegion(start, end, query, subject);
+		bhr.setEvalue(evalue);
+		bhr.setScore(score);
+		bhr.setIdentity(identity);
+		bhr.setAlignmentLength(len);
+		return bhr;
+	}
+
+	private static void check(final Map<UniqueID,List<BlastHitRegion>> expected, final Map<UniqueID,List<BlastHitRegion>> got) {
+		if (!expected.keySet().equals(got.keySet()))
+			throw new IllegalStateException("Different queries have hits");
+		for (UniqueID uid : expected.keySet()) {
+			List<BlastHitRegion> a = expected.get(uid);
+			List<BlastHitRegion> b = got.get(uid);
+			if (a.size() != b.size())
+				throw new IllegalStateException("Different number of hits for "+uid);
+			for (int i=0; i<a.size(); i++) {
+				BlastHitRegion x = a.get(i);
+				BlastHitRegion y = b.get(i);
+				if (!x.getQuery().equals(y.getQuery()) || !x.getSubject().equals(y.getSubject()) || x.getStart() != y.getStart()
+						|| x.getEnd() != y.getEnd() || x.getOffset() != y.getOffset() || x.getAlignmentLength() != y.getAlignmentLength()
+						|| Double.compare(x.getEvalue(), y.getEvalue()) != 0 || Double.compare(x.getScore(), y.getScore()) != 0
+						|| Double.compare(x.getIdentity(), y.getIdentity()) != 0)
+					throw new IllegalStateException("Hit "+i+" for "+uid+" differs");
+			}
+		}
+	}
+
+	/**
+	 * Returns <code>n</code> hit lines, grouped by query as BLAST reports them
+	 */
+	private static String[] hits(final Random r, final List<UniqueID> queries, int n) {
+		String[] ret = new String[n];
+		StringBuilder sb = new StringBuilder(200);
+		for (int i=0; i<n; i++) {
+			UniqueID uid = queries.get((int) ((long) i * queries.size() / n));
+			int len    = 30 + r.nextInt(500);
+			int qstart = 1 + r.nextInt(1000);
+			int sstart = 1 + r.nextInt(5000);
+			int mismatches = r.nextInt(len / 2);
+			sb.setLength(0);
+			sb.append(uid.toString()).append('\t');
+			sb.append("gi|").append(100000 + r.nextInt(900000)).append("|ref|XP_").append(r.nextInt(999999)).append(".1|\t");
+			sb.append(identity(r)).append('\t');
+			sb.append(len).append('\t');
+			sb.append(mismatches).append('\t');
+			sb.append(r.nextInt(10)).append('\t');
+			sb.append(qstart).append('\t').append(qstart + len - 1).append('\t');
+			sb.append(sstart).append('\t').append(sstart + len - 1).append('\t');
+			sb.append(evalue(r)).append('\t');
+			sb.append(bitscore(r));
+			ret[i] = sb.toString();
+		}
+		return ret;
+	}
+
+	private static String identity(final Random r) {
+		int hundredths = 2000 + r.nextInt(8001);
+		return (hundredths == 10000) ? "100.00" : (hundredths / 100)+"."+(hundredths % 100 < 10 ? "0" : "")+(hundredths % 100);
+	}
+
+	/**
+	 * BLAST+ style e-values eg. "0.0", "3e-158", "2.1e-05", "0.003", "1.4"
+	 */
+	private static String evalue(final Random r) {
+		switch (r.nextInt(5)) {
+		case 0:  return "0.0";
+		case 1:  return (1 + r.nextInt(9))+"e-"+(20 + r.nextInt(160));
+		case 2:  return (1 + r.nextInt(9))+"."+r.nextInt(10)+"e-"+(10 + r.nextInt(10));
+		case 3:  return "0.00"+(1 + r.nextInt(9));
+		default: return r.nextInt(10)+"."+r.nextInt(10);
+		}
+	}
+
+	private static String bitscore(final Random r) {
+		return (r.nextBoolean()) ? String.valueOf(100 + r.nextInt(900)) : (20 + r.nextInt(80))+"."+r.nextInt(10);
+	}
+
+	private static double median(final double[] vals) {
+		double[] sorted = vals.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	/**
+	 * Collects the hits reported by {@link TabbedCSVLogger#walkResults(BlastResultsWalker)}, keyed by query
+	 */
+	private static class Results implements BlastResultsWalker {
+		private final Map<UniqueID,List<BlastHitRegion>> m_hits = new HashMap<UniqueID,List<BlastHitRegion>>();
+		private final Map<String,UniqueID> m_uids = new HashMap<String,UniqueID>();
+
+		public Results(final Map<UniqueID,SequenceValue> batch) {
+			for (UniqueID uid : batch.keySet()) {
+				m_uids.put(batch.get(uid).getID(), uid);
+			}
+		}
+
+		@Override
+		public void hit(SequenceValue hit, List<BlastHitRegion> hits) {
+			m_hits.put(m_uids.get(hit.getID()), hits);
+		}
+
+		@Override
+		public void nohit(SequenceValue hit) {
+		}
+
+		public Map<UniqueID,List<BlastHitRegion>> getResults() {
+			return m_hits;
+		}
+	}
+}
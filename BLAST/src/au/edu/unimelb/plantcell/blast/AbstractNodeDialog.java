@@ -21,6 +21,13 @@ public abstract class AbstractNodeDialog extends DefaultNodeSettingsPane {
     	init(true, true, ".fasta|.fa");
     }
     
+    /**
+     * Only nodes which BLAST their queries in batches support running several BLAST processes at once
+     */
+    protected boolean show_concurrent_processes() {
+    	return false;
+    }
+    
     protected void init(boolean show_program, boolean show_matrix, String file_extensions) {
     	createNewGroup("What database to BLAST against?");
         addDialogComponent(new DialogComponentFileChooser(
@@ -32,7 +39,11 @@ public abstract class AbstractNodeDialog extends DefaultNodeSettingsPane {
         	addDialogComponent(new DialogComponentStringSelection(new SettingsModelString(BLASTPlusNodeModel.CFGKEY_BLAST_PROG, "blastp"), "Program", new String[] { "blastp", "blastx", "blastn", "tblastn", "tblastx" }));
         }
         addDialogComponent(new DialogComponentNumber(new SettingsModelDouble(BLASTPlusNodeModel.CFGKEY_EVAL, 0.00001), "E-Value cutoff", 0.01));
-        addDialogComponent(new DialogComponentNumber(new SettingsModelIntegerBounded(BLASTPlusNodeModel.CFGKEY_NUM_THREADS, 1, 1, 8), "Number of threads", 1));
+        addDialogComponent(new DialogComponentNumber(new SettingsModelIntegerBounded(BLASTPlusNodeModel.CFGKEY_NUM_THREADS, 1, 1, BLASTPlusNodeModel.MAX_THREADS), "Number of threads", 1));
+        if (show_concurrent_processes()) {
+        	addDialogComponent(new DialogComponentNumber(new SettingsModelIntegerBounded(BLASTPlusNodeModel.CFGKEY_PROCESSES, 1, 1, BLASTPlusNodeModel.MAX_THREADS), 
+        			"Concurrent BLAST processes (sharing the threads)", 1));
+        }
         
         
         createNewTab("Advanced");
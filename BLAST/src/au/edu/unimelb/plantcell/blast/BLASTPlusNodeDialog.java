@@ -33,6 +33,11 @@ public class BLASTPlusNodeDialog extends AbstractNodeDialog {
         // hook for common widgets to all blast nodes
         init();
     }
+    
+    @Override
+    protected boolean show_concurrent_processes() {
+    	return true;
+    }
   
 }
 
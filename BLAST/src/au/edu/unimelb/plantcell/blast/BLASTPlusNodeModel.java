@@ -1,7 +1,9 @@
 package au.edu.unimelb.plantcell.blast;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -10,6 +12,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
@@ -41,6 +45,7 @@ import au.edu.unimelb.plantcell.core.ErrorLogger;
 import au.edu.unimelb.plantcell.core.ExecutorUtils;
 import au.edu.unimelb.plantcell.core.ExternalProgram;
 import au.edu.unimelb.plantcell.core.MyDataContainer;
+import au.edu.unimelb.plantcell.core.OrderedTaskExecutor;
 import au.edu.unimelb.plantcell.core.Preferences;
 import au.edu.unimelb.plantcell.core.SequenceProcessor;
 import au.edu.unimelb.plantcell.core.UniqueID;
@@ -85,12 +90,16 @@ public class BLASTPlusNodeModel extends NodeModel {
     public static final String CFGKEY_FILTER         = "low-complexity-sequence-filter";
     public static final String CFGKEY_RESULTS        = "result-columns";
     public static final String CFGKEY_ANNOTATE_WHAT  = "annotate-which-sequences?";
+    public static final String CFGKEY_PROCESSES      = "concurrent-blast-processes";
+    
+    public static final int MAX_THREADS = 64;
     
     private SettingsModelString m_db          = new SettingsModelString(CFGKEY_DATABASE, "");
     private SettingsModelString m_q_db        = new SettingsModelString(CFGKEY_QUERY_DATABASE, "");
     private SettingsModelDouble m_eval_cutoff = new SettingsModelDouble(CFGKEY_EVAL, 0.00001);
     private SettingsModelString m_ncbi_prog   = new SettingsModelString(CFGKEY_BLAST_PROG, "blastp");
-    private SettingsModelIntegerBounded m_threads = new SettingsModelIntegerBounded(CFGKEY_NUM_THREADS, 1, 1, 8);
+    private SettingsModelIntegerBounded m_threads = new SettingsModelIntegerBounded(CFGKEY_NUM_THREADS, 1, 1, MAX_THREADS);
+    private SettingsModelIntegerBounded m_processes = new SettingsModelIntegerBounded(CFGKEY_PROCESSES, 1, 1, MAX_THREADS);
     
     private SettingsModelString m_matrix      = new SettingsModelString(CFGKEY_MATRIX, "BLOSUM62");
     private SettingsModelString m_other       = new SettingsModelString(CFGKEY_OTHER, "");
@@ -99,7 +108,7 @@ public class BLASTPlusNodeModel extends NodeModel {
     private SettingsModelString m_what_annotations = new SettingsModelString(CFGKEY_ANNOTATE_WHAT, "all");
 
     // internal state (not persisted)
-    private File m_tmp_fasta;		// holds the current batch of query sequences
+    private File m_tmp_fasta;		// holds the batch of query sequences whose command line is being built
     
     /**
      * Constructor for the node model.
@@ -299,33 +308,21 @@ public class BLASTPlusNodeModel extends NodeModel {
     		throw new InvalidSettingsException("Unable to locate "+m_ncbi_prog.getStringValue()+" program - re-configure?");
     	}
     	
-    	/**
-    	 * We batch the query sequences to 
-    	 * 1) provide an estimate in the progress bar and
-    	 * 2) 
-    	 */
-        m_tmp_fasta = File.createTempFile("in_seq", ".queries.fasta");
-        
-
     	/**
     	 *  this node is tricky: it doesnt specify an output table spec until the fields are 
     	 *  known from the stream or, if an error occurs, a silly output table is created to keep KNIME happy
     	 */
     	
     	logger.info("Running "+blast.getAbsolutePath());
-    	CommandLine cmdLine = new CommandLine(blast);
     	
     	// run makeblastdb if needed
     	make_blastdb(new File(getBLASTDatabase(false)));
-   
-    	// add arguments to BLAST
-    	addArguments(cmdLine);
     	
     	// up to 1000 query sequences per invocation of blast...
     	BatchFastaIterator bfi = new BatchFastaIterator(new File(m_q_db.getStringValue()), 
     			is_protein_blast() ? SequenceType.AA : SequenceType.Nucleotide, 1000, 20 * 1024 * 1024);
     	    	
-    	TabbedCSVLogger tsv = new TabbedCSVLogger(logger, exec);
+    	final TabbedCSVLogger tsv = new TabbedCSVLogger(logger, exec);
 
     	// for the BLAST from fasta file node, we know that there is no tracks to begin
     	// with (cant be: no input ports to the node) so we dont have to merge existing tracks
@@ -338,74 +335,163 @@ public class BLASTPlusNodeModel extends NodeModel {
     	
 		final MyDataContainer c_seq = new MyDataContainer(exec.createDataContainer(new DataTableSpec(col)), "Query");
 		
-    	while (bfi.hasNext()) {
-    		HashMap<UniqueID,SequenceValue> batch_map = bfi.nextAsMap();
-    		if (batch_map == null)
-    			break;
-   
-    		logger.info("Got batch of "+batch_map.size()+" sequences.");
-    		new FastaWriter(m_tmp_fasta, batch_map).write();
-    		logger.info("Saved batch to "+m_tmp_fasta.getAbsolutePath());
-    		
-    		// run blast on batch
-	    	DefaultExecutor exe = new DefaultExecutor();
-	    	exe.setExitValues(new int[] {0, 1});
-	    	tsv.setBatch(batch_map);
-	    	exe.setStreamHandler(new PumpStreamHandler(tsv, new ErrorLogger(logger)));
-	    	exe.setWorkingDirectory(getQueryDatabaseFile().getParentFile());		// arbitrary choice
-	    	exe.setWatchdog(new ExecuteWatchdog(ExecuteWatchdog.INFINITE_TIMEOUT));
-	    	
-	    	int exitCode = new ExecutorUtils(exe, logger).run(cmdLine);
-	    	
-	    	if (exe.isFailure(exitCode)) {
-	    		if (exe.getWatchdog().killedProcess())
-	    			throw new Exception("BLAST failed - watchdog says no...");
-	    		else
-	    			throw new Exception("BLAST failed - check console messages and input data");
-	    	}
-	    	
-	    	// user want annotated sequences?
-	    	tsv.walkResults(new BlastResultsWalker() {
-
-				@Override
-				public void hit(SequenceValue hit, List<BlastHitRegion> hits) {
-					if (!reportHits())
-						return;
-		    		BlastHitRegion longest_bh = find_longest_bh(hits);
-		    		BlastHitRegion lowest_eval= find_best_eval_bh(hits);
-		    		List<BlastHitRegion> top20= find_best_20(hits);
+		// user want annotated sequences?
+		final BlastResultsWalker walker = new BlastResultsWalker() {
+
+			@Override
+			public void hit(SequenceValue hit, List<BlastHitRegion> hits) {
+				if (!reportHits())
+					return;
+	    		BlastHitRegion longest_bh = find_longest_bh(hits);
+	    		BlastHitRegion lowest_eval= find_best_eval_bh(hits);
+	    		List<BlastHitRegion> top20= find_best_20(hits);
+	    		
+	    		// add non-null result tracks to sc
+	    		SequenceCell sc;
+				try {
+					sc = new SequenceCell(hit);
+		    		addTrack(sc, Track.BLAST_BEST_EVAL_TRACK, lowest_eval);
+		    		addTrack(sc, Track.BLAST_LONGEST_TRACK,   longest_bh);
+		    		addTrack(sc, Track.BLAST_TOP20_TRACK,     top20);
 		    		
-		    		// add non-null result tracks to sc
-		    		SequenceCell sc;
-					try {
-						sc = new SequenceCell(hit);
-			    		addTrack(sc, Track.BLAST_BEST_EVAL_TRACK, lowest_eval);
-			    		addTrack(sc, Track.BLAST_LONGEST_TRACK,   longest_bh);
-			    		addTrack(sc, Track.BLAST_TOP20_TRACK,     top20);
-			    		
-			    		c_seq.addRow(new DataCell[] { sc });
-					} catch (InvalidSettingsException e) {
-						e.printStackTrace();
-					}
+		    		c_seq.addRow(new DataCell[] { sc });
+				} catch (InvalidSettingsException e) {
+					e.printStackTrace();
 				}
+			}
 
-				@Override
-				public void nohit(SequenceValue hit) {
-					if (!reportNoHits()) 
-						return;
-					try {
-						c_seq.addRow(new DataCell[] { new SequenceCell(hit) });
-					} catch (InvalidSettingsException e) {
-						e.printStackTrace();
-					}
+			@Override
+			public void nohit(SequenceValue hit) {
+				if (!reportNoHits()) 
+					return;
+				try {
+					c_seq.addRow(new DataCell[] { new SequenceCell(hit) });
+				} catch (InvalidSettingsException e) {
+					e.printStackTrace();
 				}
-	    		
-	    	});
-	    
+			}
+    		
+    	};
+    	
+    	/*
+    	 * Each batch is saved to its own FASTA file (on this thread, ahead of the running batches) and BLAST'ed by one of
+    	 * up to n_processes concurrent processes which share the configured number of threads. The results of each batch
+    	 * are merged, in batch order, on this thread whilst later batches are still running.
+    	 */
+    	int n_processes = getConcurrentProcesses();
+    	logger.info("Running up to "+n_processes+" BLAST processes at once, each using "+getThreadsPerProcess()+" threads.");
+    	final File tmp_folder = Files.createTempDirectory("blast_batches").toFile();
+    	final Set<ExecuteWatchdog> running = Collections.synchronizedSet(new HashSet<ExecuteWatchdog>());
+    	OrderedTaskExecutor<BlastBatch> executor = new OrderedTaskExecutor<BlastBatch>(n_processes, 2 * n_processes,
+    			new OrderedTaskExecutor.ResultHandler<BlastBatch>() {
+
+					@Override
+					public void process(BlastBatch b) throws Exception {
+						try {
+							tsv.setBatch(b.getBatch());
+							tsv.processResults(b.getResultsFile());
+							exec.checkCanceled();
+							tsv.walkResults(walker);
+						} finally {
+							b.cleanup();
+						}
+					}
+    		
+    	});
+    	try {
+    		int id = 0;
+	    	while (bfi.hasNext()) {
+	    		HashMap<UniqueID,SequenceValue> batch_map = bfi.nextAsMap();
+	    		if (batch_map == null)
+	    			break;
+	   
+	    		logger.info("Got batch of "+batch_map.size()+" sequences.");
+	    		executor.submit(new BlastBatch(blast, tmp_folder, ++id, batch_map, running));
+	    		exec.checkCanceled();
+	    	}
+	    	executor.finish();
+    	} finally {
+    		executor.shutdown();
+    		synchronized (running) {
+    			for (ExecuteWatchdog wd : running) {
+    				wd.destroyProcess();
+    			}
+    		}
+    		for (File f : tmp_folder.listFiles()) {
+    			f.delete();
+    		}
+    		tmp_folder.delete();
     	}
     	
         return new BufferedDataTable[] { tsv.getTSVTable(), c_seq.close() };
     }
+    
+    /**
+     * A batch of query sequences, saved to its own FASTA file, and a BLAST run over them which saves
+     * the results to another file
+     */
+    private class BlastBatch implements Callable<BlastBatch> {
+    	private final Map<UniqueID,SequenceValue> m_batch;
+    	private final File m_query;
+    	private final File m_results;
+    	private final CommandLine m_cmd;
+    	private final Set<ExecuteWatchdog> m_running;
+    	
+    	/**
+    	 * Must be constructed on the node thread as the command line is built via <code>addArguments()</code>
+    	 */
+    	public BlastBatch(final File blast, final File folder, int id, final Map<UniqueID,SequenceValue> batch_map,
+    			final Set<ExecuteWatchdog> running) throws IOException {
+    		m_batch   = batch_map;
+    		m_query   = new File(folder, "batch"+id+".queries.fasta");
+    		m_results = new File(folder, "batch"+id+".results.tsv");
+    		m_running = running;
+    		new FastaWriter(m_query, batch_map).write();
+    		
+    		m_tmp_fasta = m_query;
+    		m_cmd = new CommandLine(blast);
+    		addArguments(m_cmd);
+    	}
+    	
+    	public Map<UniqueID,SequenceValue> getBatch() {
+    		return m_batch;
+    	}
+    	
+    	public File getResultsFile() {
+    		return m_results;
+    	}
+    	
+    	public void cleanup() {
+    		m_query.delete();
+    		m_results.delete();
+    	}
+
+		@Override
+		public BlastBatch call() throws Exception {
+			DefaultExecutor exe = new DefaultExecutor();
+	    	exe.setExitValues(new int[] {0, 1});
+	    	FileOutputStream out = new FileOutputStream(m_results);
+	    	ExecuteWatchdog wd = new ExecuteWatchdog(ExecuteWatchdog.INFINITE_TIMEOUT);
+	    	m_running.add(wd);
+	    	try {
+		    	exe.setStreamHandler(new PumpStreamHandler(out, new ErrorLogger(logger)));
+		    	exe.setWorkingDirectory(m_query.getParentFile());		// must match addQueryDatabase() semantics
+		    	exe.setWatchdog(wd);
+		    	
+		    	int exitCode = new ExecutorUtils(exe, logger).run(m_cmd);
+		    	if (exe.isFailure(exitCode)) {
+		    		if (exe.getWatchdog().killedProcess())
+		    			throw new Exception("BLAST failed - watchdog says no...");
+		    		else
+		    			throw new Exception("BLAST failed - check console messages and input data");
+		    	}
+	    	} finally {
+	    		m_running.remove(wd);
+	    		out.close();
+	    	}
+	    	return this;
+		}
+    }
 
     /**
      * Merges the tracks from any existing column properties and creates a single column with the
@@ -528,6 +614,20 @@ public class BLASTPlusNodeModel extends NodeModel {
     	return m_threads.getIntValue();
     }
     
+    /**
+     * Returns the number of BLAST processes to run at once: never more than the number of threads
+     */
+    protected int getConcurrentProcesses() {
+    	return Math.max(1, Math.min(m_processes.getIntValue(), getNumThreads()));
+    }
+    
+    /**
+     * Returns the number of threads for each BLAST process, so that all processes together use at most <code>getNumThreads()</code>
+     */
+    protected int getThreadsPerProcess() {
+    	return Math.max(1, getNumThreads() / getConcurrentProcesses());
+    }
+    
     /**
      * Called during {@link addArguments} this method is responsible for adding
      * the name/path of the query file (FASTA format typically). The implementation
@@ -561,7 +661,7 @@ public class BLASTPlusNodeModel extends NodeModel {
     	cmdLine.addArgument("-query");
     	addQueryDatabase(cmdLine);
     	cmdLine.addArgument("-num_threads");
-    	cmdLine.addArgument(String.valueOf(getNumThreads()));
+    	cmdLine.addArgument(String.valueOf(getThreadsPerProcess()));
     	cmdLine.addArgument("-outfmt");
     	// turn off automatic quoting as this breaks mac compatibility
     	cmdLine.addArgument(getOutFmtString(m_results.getStringArrayValue()), false);			// tabbed separated values
@@ -709,6 +809,7 @@ public class BLASTPlusNodeModel extends NodeModel {
     	m_matrix.saveSettingsTo(settings);
     	m_results.saveSettingsTo(settings);
     	m_what_annotations.saveSettingsTo(settings);
+    	m_processes.saveSettingsTo(settings);
     }
 
     /**
@@ -736,6 +837,11 @@ public class BLASTPlusNodeModel extends NodeModel {
     	} else {
     		m_what_annotations.setStringValue(ANNOTATION_GROUP[0]);
     	}
+    	if (settings.containsKey(CFGKEY_PROCESSES)) {
+    		m_processes.loadSettingsFrom(settings);
+    	} else {
+    		m_processes.setIntValue(1);
+    	}
     }
 
     /**
@@ -759,6 +865,9 @@ public class BLASTPlusNodeModel extends NodeModel {
     	if (settings.containsKey(CFGKEY_ANNOTATE_WHAT)) {
     		m_what_annotations.validateSettings(settings);
     	}
+    	if (settings.containsKey(CFGKEY_PROCESSES)) {
+    		m_processes.validateSettings(settings);
+    	}
     }
     
     /**
@@ -1,6 +1,9 @@
 package au.edu.unimelb.plantcell.blast;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -36,11 +39,18 @@ public class TabbedCSVLogger extends LogOutputStream {
 	private MyDataContainer m_c_tsv = null;		// TSV output port for BLAST
 	private int n_cols;
 	private boolean is_cancelled;
-	private final Map<String,Integer> m_col2idx = new HashMap<String,Integer>();
-	private final Map<Integer,String> m_idx2col = new HashMap<Integer,String>();
+	private int[] m_fields;			// BlastHitRegion.FIELD_* for each column
+	private String[] m_values;		// values for each column of the current line (reused for every line)
+	private int m_query_col;		// index of the query id column or -1 if none
 	private Map<UniqueID,SequenceValue> m_batch;
 	private final Map<UniqueID,List<BlastHitRegion>> m_results;
 	
+	// BLAST reports the hits for each query together, so these are only computed when the query id changes
+	private String m_last_query;
+	private String m_last_query_name;
+	private UniqueID m_last_uid;
+	private List<BlastHitRegion> m_last_hits;
+	
 	/**
 	 * Constructor for {@link TabbedCSVLogger}. 
 	 * @param l
@@ -51,6 +61,7 @@ public class TabbedCSVLogger extends LogOutputStream {
 		m_logger      = l;
 		m_exec        = exec;
 		n_cols        = 0;
+		m_query_col   = -1;
 		is_cancelled  = false;
 		m_results     = new HashMap<UniqueID, List<BlastHitRegion>>();
 	}
@@ -70,16 +81,12 @@ public class TabbedCSVLogger extends LogOutputStream {
 				if (m_c_tsv == null) {
 					String remaining = line.substring(10);
 					String[] fields = remaining.split("\\s*,\\s+");
-					n_cols = fields.length;
+					setColumns(fields);
 					m_logger.info("Found "+n_cols+" columns in results from BLAST");
-					m_col2idx.clear();
-					m_idx2col.clear();
 					
 					DataColumnSpec[] cols = new DataColumnSpec[n_cols];
 					for (int i=0; i<fields.length; i++) {
 						cols[i] = new DataColumnSpecCreator(fields[i], StringCell.TYPE).createSpec();
-						m_col2idx.put(fields[i], new Integer(i));
-						m_idx2col.put(new Integer(i), fields[i]);
 					}
 					m_c_tsv = new MyDataContainer(m_exec.createDataContainer(new DataTableSpec(cols)), "Hit");
 				}
@@ -89,58 +96,101 @@ public class TabbedCSVLogger extends LogOutputStream {
 			return;
 		}
 		
-		// skip blank lines
-		if (line.trim().length() < 1) {
+		// skip blank lines (and hits before the fields line, as the columns are not known)
+		if (m_fields == null || line.trim().length() < 1) {
 			return;
 		}
 		
-		// else
-		String[] tabbed_fields = line.split("\t");
-		
+		DataCell[] cells = parseHit(line);
+		if (m_c_tsv != null) {
+			m_c_tsv.addRow(cells);
+		}
+	}
+	
+	/**
+	 * Records the columns named by the "# Fields:" line, in the order BLAST reports them
+	 */
+	void setColumns(final String[] fields) {
+		n_cols      = fields.length;
+		m_fields    = new int[n_cols];
+		m_values    = new String[n_cols];
+		m_query_col = -1;
+		for (int i=0; i<n_cols; i++) {
+			m_fields[i] = BlastHitRegion.getField(fields[i]);
+			if (m_fields[i] == BlastHitRegion.FIELD_QUERY && m_query_col < 0)
+				m_query_col = i;
+		}
+	}
+	
+	/**
+	 * Adds the hit on the specified (non-blank) line to the results for its query and returns the cells for the TSV
+	 * output port. <code>setColumns()</code> must have been called first.
+	 */
+	DataCell[] parseHit(final String line) {
+		// scan the tab separated fields in place, in the column order given by the fields line
 		DataCell[] cells = new DataCell[n_cols];
-		Map<String,String> fields = new HashMap<String,String>();
-		SequenceValue sv = null;
-		Integer want_idx = m_col2idx.get("query id");
-		UniqueID     uid = null;
+		int len = line.length();
+		int pos = 0;
 		for (int i=0; i<n_cols; i++) {
-			// map input query id to sequence batch id?
-			if (want_idx != null && want_idx.intValue() == i) {
-				try {
-					uid = new UniqueID(tabbed_fields[i]);
-					sv = m_batch.get(uid);
-					if (sv != null)
-						tabbed_fields[i] = sv.getID();
-				} catch (InvalidSettingsException ise) {		// handle invalid sequence ID
-					ise.printStackTrace();
+			int end = (pos < len) ? line.indexOf('\t', pos) : -1;
+			if (end < 0)
+				end = len;
+			String val;
+			if (i == m_query_col) {
+				// map input query id to sequence batch id?
+				if (m_last_query == null || m_last_query.length() != end - pos || 
+						!line.regionMatches(pos, m_last_query, 0, end - pos)) {
+					setQuery(line.substring(pos, end));
 				}
-			} 
-			cells[i] = new StringCell(tabbed_fields[i]);
-			fields.put(m_idx2col.get(new Integer(i)), tabbed_fields[i]);
+				val = m_last_query_name;
+			} else {
+				val = (pos < end) ? line.substring(pos, end) : "";
+			}
+			m_values[i] = val;
+			cells[i]    = new StringCell(val);
+			pos = end + 1;
 		}
 		
 		// add hit to list for query
 		try {
-			BlastHitRegion bhr = new BlastHitRegion(fields);
+			BlastHitRegion bhr = new BlastHitRegion(m_fields, m_values);
 
 			bhr.setOffset(1);
-			if (uid != null) {
-				List<BlastHitRegion> l = m_results.get(uid);
-				if (l == null) {
-					l = new ArrayList<BlastHitRegion>();
-					m_results.put(uid, l);
+			if (m_last_uid != null) {
+				if (m_last_hits == null) {
+					m_last_hits = m_results.get(m_last_uid);
+					if (m_last_hits == null) {
+						m_last_hits = new ArrayList<BlastHitRegion>();
+						m_results.put(m_last_uid, m_last_hits);
+					}
 				}
-				l.add(bhr);
-				//Logger.getAnonymousLogger().info(sv.getID()+" has size "+l.size());
+				m_last_hits.add(bhr);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		if (m_c_tsv != null) {
-			m_c_tsv.addRow(cells);
-		}
+		return cells;
 	}
 
 	
+	/**
+	 * Called when the query id column differs from the previous hit
+	 */
+	private void setQuery(final String query_id) {
+		m_last_query      = query_id;
+		m_last_query_name = query_id;
+		m_last_uid        = null;
+		m_last_hits       = null;
+		try {
+			m_last_uid = new UniqueID(query_id);
+			SequenceValue sv = (m_batch != null) ? m_batch.get(m_last_uid) : null;
+			if (sv != null)
+				m_last_query_name = sv.getID();
+		} catch (InvalidSettingsException ise) {		// handle invalid sequence ID
+			ise.printStackTrace();
+		}
+	}
+	
 	/**
 	 * This routine may only be called once after the BLAST has finished.
 	 * 
@@ -177,9 +227,29 @@ public class TabbedCSVLogger extends LogOutputStream {
 		super.write(cc);
 	}
 
+	/**
+	 * Processes BLAST output which was saved to the specified file, as if BLAST had written it to this stream
+	 */
+	public void processResults(final File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			byte[] buf = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				write(buf, 0, n);
+			}
+			flush();
+		} finally {
+			in.close();
+		}
+	}
+	
 	public void setBatch(final Map<UniqueID, SequenceValue> batch_map) {
 		m_batch = batch_map;
 		m_results.clear();
+		m_last_query = null;
+		m_last_uid   = null;
+		m_last_hits  = null;
 	}
 
 	public void walkResults(BlastResultsWalker walk) {
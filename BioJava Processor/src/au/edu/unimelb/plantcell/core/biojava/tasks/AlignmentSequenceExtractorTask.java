@@ -103,4 +103,8 @@ public class AlignmentSequenceExtractorTask extends BioJavaProcessorTask {
 		return new DataCell[] { CollectionCellFactory.createListCell(out) };
 	}
 
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
 }
@@ -117,4 +117,9 @@ public class AlternateTranslationTask extends BioJavaProcessorTask {
 			return missing_cells(m_tables.length);
 		}
 	}
+
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
 }
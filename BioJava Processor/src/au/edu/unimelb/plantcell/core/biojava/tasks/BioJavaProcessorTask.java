@@ -199,6 +199,24 @@ public abstract class BioJavaProcessorTask extends AbstractCellFactory {
 		return false;
 	}
 	
+	/**
+	 * Returns <code>true</code> if <code>getCells()</code> only reads the state established by <code>init()</code>, so that
+	 * several threads may process rows with this instance at once. Tasks which change their fields for each row must return
+	 * false (the default): each thread then uses its own instance (see {@link #newInstance()}).
+	 */
+	public boolean isStateless() {
+		return false;
+	}
+	
+	/**
+	 * Returns a new instance of this task with the same advanced parameters. The caller must <code>init()</code> it.
+	 */
+	public BioJavaProcessorTask newInstance() throws Exception {
+		BioJavaProcessorTask t = getClass().newInstance();
+		t.m_advanced.putAll(m_advanced);
+		return t;
+	}
+	
 	/**
 	 * Converts <code>sv</code> to the specified type of sequence using BioJava. The only
 	 * valid translations are: DNA -> Protein, DNA -> RNA, RNA -> Protein. Other types of
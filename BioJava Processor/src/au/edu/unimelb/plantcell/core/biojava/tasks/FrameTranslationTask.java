@@ -144,4 +144,8 @@ public class FrameTranslationTask extends BioJavaProcessorTask {
 		}
 	}
 
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
 }
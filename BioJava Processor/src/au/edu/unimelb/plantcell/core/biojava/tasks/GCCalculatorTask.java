@@ -15,7 +15,10 @@ import au.edu.unimelb.plantcell.core.cells.SequenceValue;
  * @author andrew.cassin
  *
  */
-public class GCCalculatorTask extends BioJavaProcessorTask {
+public class GCCalculatorTask extends BioJavaProcessorTask implements IncrementalWindowTask {
+	// running totals for the current window (see IncrementalWindowTask)
+	private boolean m_win_dna;
+	private int m_win_len, m_win_gc, m_win_at, m_win_n, m_win_other;
 	
 	public GCCalculatorTask() {
 		super();
@@ -31,6 +34,11 @@ public class GCCalculatorTask extends BioJavaProcessorTask {
 		return true;
 	}
 	
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
+	
 	public static BioJavaProcessorTask getInstance() {
 		return new GCCalculatorTask();
 	}
@@ -85,6 +93,10 @@ public class GCCalculatorTask extends BioJavaProcessorTask {
 				other++;
 			}
 		}
+		return make_cells(gc, at, other, n);
+	}
+
+	private DataCell[] make_cells(int gc, int at, int other, int n) {
 		DataCell[] cells = new DataCell[3];
 		cells[0] = new DoubleCell(100.0 * ((double)gc) / (gc+at));
 		cells[1] = new DoubleCell(100.0 * ((double)at) / gc);
@@ -92,4 +104,49 @@ public class GCCalculatorTask extends BioJavaProcessorTask {
 		return cells;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public boolean startWindows(SequenceValue sv) {
+		m_win_dna = sv.getSequenceType().isDNA();
+		m_win_len = m_win_gc = m_win_at = m_win_n = m_win_other = 0;
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void residueEntered(char ch) {
+		update_window(ch, 1);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void residueLeft(char ch) {
+		update_window(ch, -1);
+	}
+
+	private void update_window(char ch, int delta) {
+		m_win_len += delta;
+		if (Character.isWhitespace(ch))
+			return;
+		if (Character.isLetter(ch)) {
+			m_win_n += delta;
+		}
+		if (ch == 'G' || ch == 'C') {
+			m_win_gc += delta;
+		} else if (ch == 'A' || ch == 'T') {
+			m_win_at += delta;
+		} else {
+			m_win_other += delta;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public DataCell[] getWindowCells() {
+		if (!m_win_dna || m_win_len < 1) {
+			return missing_cells(getColumnSpecs().length);
+		}
+		return make_cells(m_win_gc, m_win_at, m_win_other, m_win_n);
+	}
+
 }
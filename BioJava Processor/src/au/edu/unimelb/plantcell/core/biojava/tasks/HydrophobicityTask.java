@@ -1,5 +1,6 @@
 package au.edu.unimelb.plantcell.core.biojava.tasks;
 
+import java.util.Arrays;
 import java.util.HashMap;
 
 import org.knime.core.data.DataCell;
@@ -17,13 +18,18 @@ import au.edu.unimelb.plantcell.core.cells.SequenceValue;
  * @author andrew.cassin
  *
  */
-public class HydrophobicityTask extends BioJavaProcessorTask { 
+public class HydrophobicityTask extends BioJavaProcessorTask implements IncrementalWindowTask { 
     private static HashMap<String, Double> kyteDoolittle = new HashMap<String, Double>();
     private static HashMap<String, Double> hoppWoods = new HashMap<String, Double>();
     private static HashMap<String, Double> cornette = new HashMap<String, Double>();
     private static HashMap<String, Double> eisenberg = new HashMap<String, Double>();
     private static HashMap<String, Double> janin = new HashMap<String, Double>();
     private static HashMap<String, Double> engelman = new HashMap<String, Double>();
+    
+    // residue counts for the current window (see IncrementalWindowTask), the scales are summed from these as needed
+    private boolean m_win_protein;
+    private final int[] m_win_counts = new int[128];
+    private int m_win_len;
 
     // WARNING HACK TODO: these values have not been manually checked! Are they right?
     static {
@@ -159,6 +165,11 @@ public class HydrophobicityTask extends BioJavaProcessorTask {
 		return true;
 	}
 	
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
+	
 	@Override 
 	public String getHTMLDescription(String task) {
 		return "<html>Adds six different measures of hydrophobicity from Eisenberg, Hopp-Woods and many others" +
@@ -229,4 +240,73 @@ public class HydrophobicityTask extends BioJavaProcessorTask {
 		return cells;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public boolean startWindows(SequenceValue sv) {
+		m_win_protein = sv.getSequenceType().isProtein();
+		Arrays.fill(m_win_counts, 0);
+		m_win_len = 0;
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void residueEntered(char residue) {
+		if (residue < m_win_counts.length)
+			m_win_counts[residue]++;
+		m_win_len++;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void residueLeft(char residue) {
+		if (residue < m_win_counts.length)
+			m_win_counts[residue]--;
+		m_win_len--;
+	}
+
+	/**
+	 * Same as <code>getCells()</code> except that each scale is summed over the residue counts rather than residue by residue,
+	 * so the values may differ from <code>getCells()</code> in the last decimal places
+	 */
+	@Override
+	public DataCell[] getWindowCells() {
+		DataCell[] cells = missing_cells(getColumnSpecs().length);
+		if (!m_win_protein)
+			return cells;
+		double kyte = 0.0;
+		double hopp = 0.0;
+		double cornette = 0.0;
+		double eisenberg = 0.0;
+		double janin = 0.0;
+		double engelman = 0.0;
+		int valid = 0;
+		for (String aa : kyteDoolittle.keySet()) {
+			char c = aa.charAt(0);
+			int n = (aa.length() == 1 && c < m_win_counts.length) ? m_win_counts[c] : 0;
+			if (n == 0)
+				continue;
+			valid     += n;
+			kyte      += n * kyteDoolittle.get(aa);
+			hopp      += n * hoppWoods.get(aa);
+			cornette  += n * HydrophobicityTask.cornette.get(aa);
+			eisenberg += n * HydrophobicityTask.eisenberg.get(aa);
+			janin     += n * HydrophobicityTask.janin.get(aa);
+			engelman  += n * HydrophobicityTask.engelman.get(aa);
+		}
+		
+		int invalid = m_win_len - valid;
+		if (invalid > 0) {
+			cells[6] = new IntCell(invalid);
+		} else {
+			cells[1] = new DoubleCell(kyte);
+			cells[2] = new DoubleCell(hopp);
+			cells[3] = new DoubleCell(cornette);
+			cells[0] = new DoubleCell(eisenberg);
+			cells[4] = new DoubleCell(janin);
+			cells[5] = new DoubleCell(engelman);
+			cells[6] = new IntCell(0);
+		}
+		return cells;
+	}
 }
@@ -0,0 +1,39 @@
+package au.edu.unimelb.plantcell.core.biojava.tasks;
+
+import org.knime.core.data.DataCell;
+
+import au.edu.unimelb.plantcell.core.cells.SequenceValue;
+
+/**
+ * Implemented by {@link BioJavaProcessorTask}'s which can compute their cells for a sliding window from running
+ * totals. Rather than recomputing each window from scratch, the task is told which residues leave (from the start)
+ * and enter (at the end) the window as it moves along the sequence, so each window costs <code>O(1)</code> per residue moved.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public interface IncrementalWindowTask {
+
+	/**
+	 * Resets the running totals to an empty window at the start of the specified sequence.
+	 *
+	 * @return false if the sequence cannot be processed incrementally (<code>getCells()</code> is then used for every window)
+	 */
+	public boolean startWindows(SequenceValue sv);
+
+	/**
+	 * The residue has been appended to the end of the window
+	 */
+	public void residueEntered(char residue);
+
+	/**
+	 * The residue has been removed from the start of the window
+	 */
+	public void residueLeft(char residue);
+
+	/**
+	 * Returns the cells for the residues currently in the window, as <code>getCells()</code> would for a sequence of just
+	 * those residues. May return null if this window must be computed by <code>getCells()</code> instead.
+	 */
+	public DataCell[] getWindowCells();
+}
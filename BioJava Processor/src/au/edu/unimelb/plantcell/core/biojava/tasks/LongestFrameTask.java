@@ -188,4 +188,8 @@ public class LongestFrameTask extends BioJavaProcessorTask {
         return allColSpecs;
     }
 
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
 }
@@ -42,6 +42,11 @@ public class PositionByResidueTask extends BioJavaProcessorTask {
 		return true;
 	}
 	
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
+	
 	@Override
 	public void init(String task, int col) throws Exception {
 		super.init(task, col);
@@ -1,6 +1,7 @@
 package au.edu.unimelb.plantcell.core.biojava.tasks;
 
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import org.biojava.bio.proteomics.IsoelectricPointCalc;
@@ -11,8 +12,11 @@ import org.biojava.bio.proteomics.aaindex.SimpleSymbolPropertyTableDB;
 import org.biojava.bio.seq.DNATools;
 import org.biojava.bio.seq.ProteinTools;
 import org.biojava.bio.seq.RNATools;
+import org.biojava.bio.symbol.Symbol;
 import org.biojava.bio.symbol.SymbolList;
 import org.biojava.bio.symbol.SymbolPropertyTable;
+import org.biojava.utils.math.BinarySearch;
+import org.biojava.utils.math.ComputeObject;
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
@@ -33,7 +37,7 @@ import au.edu.unimelb.plantcell.core.cells.SequenceValue;
  * @author acassin
  *
  */
-public class ProteinChargeSummaryTask extends BioJavaProcessorTask {
+public class ProteinChargeSummaryTask extends BioJavaProcessorTask implements IncrementalWindowTask {
 	private MassCalc mc, mc_mi;
 	private AAindex hydrophobicity;
 	private IsoelectricPointCalc ic;
@@ -42,6 +46,17 @@ public class ProteinChargeSummaryTask extends BioJavaProcessorTask {
 	private HashMap<String,Double> zimmerman_bulkiness = new HashMap<String,Double>();
 	private HashMap<String,Double> zimmerman_polarity = new HashMap<String,Double>();
 	private HashMap<String,Double> zimmerman_hydrophobicity = new HashMap<String,Double>();
+	
+	// state for the current window (see IncrementalWindowTask): the value of each standard residue for each column
+	// (indexed by residue letter) and the residue counts. Everything except pI is additive over the residues.
+	private static final String STANDARD_AA = "ARNDCEQGHILKMFPSTWYV";
+	private double[][] m_res_values;			// [column][residue]
+	private double[]   m_base_mass;				// mass (avg, mono) of a peptide with no residues
+	private double[]   m_pk, m_pk_nterm, m_pk_cterm;	// as used by IsoelectricPointCalc, 0 if none
+	private char[]     m_ionisable;				// residues with a side chain pK
+	private final int[] m_win_counts = new int[128];
+	private final ResidueWindow m_win = new ResidueWindow();
+	private int m_win_nonstd;
 
 	
 	public ProteinChargeSummaryTask() {
@@ -161,6 +176,7 @@ public class ProteinChargeSummaryTask extends BioJavaProcessorTask {
 		SimpleSymbolPropertyTableDB db = new SimpleSymbolPropertyTableDB(new AAindexStreamReader(new InputStreamReader(FileLocator.openStream(plugin, p, false))));
 		hydrophobicity = (AAindex) db.table("CIDH920105");
 		m_cols = getColumnSpecs().length;
+		m_res_values = null;
 	}
 	
 	/** {@inheritDoc} */
@@ -251,6 +267,168 @@ public class ProteinChargeSummaryTask extends BioJavaProcessorTask {
 		}
 	}
 
+	/**
+	 * Computes the per-residue values for the standard amino acids from the same BioJava tables used by <code>getCells()</code>.
+	 * The mass of a residue is the increase in mass when it is added to a peptide.
+	 */
+	private void init_window_tables() throws Exception {
+		SymbolPropertyTable pk       = ProteinTools.getSymbolPropertyTable(SymbolPropertyTable.PK);
+		SymbolPropertyTable pk_nterm = ProteinTools.getSymbolPropertyTable(SymbolPropertyTable.PK_Nterm);
+		SymbolPropertyTable pk_cterm = ProteinTools.getSymbolPropertyTable(SymbolPropertyTable.PK_Cterm);
+		m_pk         = new double[128];
+		m_pk_nterm   = new double[128];
+		m_pk_cterm   = new double[128];
+		StringBuilder ionisable = new StringBuilder();
+		m_base_mass  = new double[2];
+		double[][] values = new double[8][128];
+		for (int i=0; i<STANDARD_AA.length(); i++) {
+			char c = STANDARD_AA.charAt(i);
+			SymbolList one = ProteinTools.createProtein(""+c);
+			SymbolList two = ProteinTools.createProtein(""+c+c);
+			Symbol sym = one.symbolAt(1);
+			String aa  = sym.getName().toLowerCase();
+			values[1][c] = mc.getMass(two) - mc.getMass(one);
+			values[2][c] = mc_mi.getMass(two) - mc_mi.getMass(one);
+			values[3][c] = hydrophobicity.getDoubleValue(sym);
+			values[4][c] = grantham.get(aa);
+			values[5][c] = zimmerman_bulkiness.get(aa);
+			values[6][c] = zimmerman_polarity.get(aa);
+			values[7][c] = zimmerman_hydrophobicity.get(aa);
+			if (i == 0) {
+				m_base_mass[0] = mc.getMass(one) - values[1][c];
+				m_base_mass[1] = mc_mi.getMass(one) - values[2][c];
+			}
+			// IsoelectricPointCalc ignores pK's of (almost) zero
+			m_pk[c]       = as_pk(pk.getDoubleValue(sym));
+			m_pk_nterm[c] = as_pk(pk_nterm.getDoubleValue(sym));
+			m_pk_cterm[c] = as_pk(pk_cterm.getDoubleValue(sym));
+			if (m_pk[c] != 0.0)
+				ionisable.append(c);
+		}
+		m_ionisable  = ionisable.toString().toCharArray();
+		m_res_values = values;
+	}
+	
+	private static double as_pk(double val) {
+		return (Math.abs(val) > 0.01) ? val : 0.0;
+	}
+	
+	/**
+	 * Only protein sequences are computed incrementally, as the translation of a nucleotide window depends on where it starts
+	 */
+	@Override
+	public boolean startWindows(SequenceValue sv) {
+		if (!sv.getSequenceType().isProtein())
+			return false;
+		try {
+			if (m_res_values == null)
+				init_window_tables();
+		} catch (Exception e) {
+			e.printStackTrace();
+			return false;
+		}
+		Arrays.fill(m_win_counts, 0);
+		m_win.clear();
+		m_win_nonstd = 0;
+		return true;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void residueEntered(char residue) {
+		m_win.append(residue);
+		update_counts(residue, 1);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void residueLeft(char residue) {
+		m_win.removeFirst();
+		update_counts(residue, -1);
+	}
+	
+	private void update_counts(char residue, int delta) {
+		if (STANDARD_AA.indexOf(residue) >= 0) {
+			m_win_counts[residue] += delta;
+		} else {
+			m_win_nonstd += delta;
+		}
+	}
+	
+	/**
+	 * Windows with anything other than the standard amino acids (eg. a stop codon or ambiguous residues) are left to
+	 * <code>getCells()</code>. The values may differ from <code>getCells()</code> in the last decimal places, as they are
+	 * summed over the residue counts rather than residue by residue.
+	 */
+	@Override
+	public DataCell[] getWindowCells() {
+		int len = m_win.length();
+		if (len < 1)
+			return missing_cells(m_cols);
+		if (m_win_nonstd > 0)
+			return null;
+		
+		try {
+			double[] sums = new double[8];
+			sums[1] = m_base_mass[0];
+			sums[2] = m_base_mass[1];
+			for (int i=0; i<STANDARD_AA.length(); i++) {
+				char c = STANDARD_AA.charAt(i);
+				int  n = m_win_counts[c];
+				if (n == 0)
+					continue;
+				for (int col=1; col<sums.length; col++) {
+					sums[col] += n * m_res_values[col][c];
+				}
+			}
+			
+			DataCell[] cells = missing_cells(m_cols);
+			cells[0] = new DoubleCell(window_pI());
+			cells[1] = new DoubleCell(sums[1]);
+			cells[2] = new DoubleCell(sums[2]);
+			for (int col=3; col<sums.length; col++) {
+				cells[col] = new DoubleCell(sums[col] / len);
+			}
+			return cells;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return missing_cells(m_cols);
+		}
+	}
+	
+	/**
+	 * Solves for the pH where the window has no net charge, as <code>IsoelectricPointCalc</code> does (assuming free termini)
+	 * but from the residue counts rather than the residues. Negative pK's are for acidic groups.
+	 */
+	private double window_pI() throws Exception {
+		final double pk_nterm = m_pk_nterm[m_win.charAt(0)];
+		final double pk_cterm = m_pk_cterm[m_win.charAt(m_win.length()-1)];
+		return BinarySearch.solve(0.0, 14.0, 0.0001, new ComputeObject() {
+
+			@Override
+			public double compute(double ph) {
+				double charge = 0.0;
+				for (char c : m_ionisable) {
+					int n = m_win_counts[c];
+					if (n == 0)
+						continue;
+					double pk = m_pk[c];
+					if (pk < 0.0) {
+						charge -= n / (Math.pow(10.0, -pk - ph) + 1.0);
+					} else {
+						charge += n / (Math.pow(10.0, ph - pk) + 1.0);
+					}
+				}
+				if (pk_nterm != 0.0)
+					charge += 1.0 / (Math.pow(10.0, ph - pk_nterm) + 1.0);
+				if (pk_cterm != 0.0)
+					charge -= 1.0 / (Math.pow(10.0, -pk_cterm - ph) + 1.0);
+				return charge;
+			}
+			
+		});
+	}
+	
 	@Override
 	public DataColumnSpec[] getColumnSpecs() {
 		DataColumnSpec[] allColSpecs = new DataColumnSpec[8];
@@ -23,6 +23,11 @@ public class ResidueAnalysisTask extends BioJavaProcessorTask {
 		return true;
 	}
 	
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
+	
 	@Override
 	public void init(String task_name, int col) throws Exception {
 		super.init(task_name, col);
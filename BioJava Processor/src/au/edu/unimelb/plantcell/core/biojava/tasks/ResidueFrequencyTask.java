@@ -1,6 +1,7 @@
 package au.edu.unimelb.plantcell.core.biojava.tasks;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Set;
@@ -20,11 +21,18 @@ import au.edu.unimelb.plantcell.core.cells.SequenceValue;
  * @author acassin
  *
  */
-public class ResidueFrequencyTask extends BioJavaProcessorTask {
+public class ResidueFrequencyTask extends BioJavaProcessorTask implements IncrementalWindowTask {
 	private boolean m_single_residue, m_tri_mers;
 	private final HashMap<String, Integer> m_colmap = new HashMap<String,Integer>(); // maps column name (ie. symbol name) to a corresponding column id
 	private String m_task;
 	
+	// state for the current window (see IncrementalWindowTask): the residues in the window and the count for
+	// each column, with columns looked up by k-mer (letters A-Z as base 26 digits) rather than by name
+	private int     m_k;
+	private int[]   m_kmer2col;
+	private int[]   m_win_counts;
+	private final ResidueWindow m_win = new ResidueWindow();
+	
 	public ResidueFrequencyTask() {
 	}
 	
@@ -38,6 +46,11 @@ public class ResidueFrequencyTask extends BioJavaProcessorTask {
 		return true;
 	}
 	
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
+	
 	public static BioJavaProcessorTask getInstance() {
 		return new ResidueFrequencyTask();
 	}
@@ -160,6 +173,105 @@ public class ResidueFrequencyTask extends BioJavaProcessorTask {
 		}
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public boolean startWindows(SequenceValue sv) {
+		// same k-mer as getCells() uses for windows long enough to report counts
+		m_k = m_tri_mers ? 3 : (m_single_residue ? 1 : 2);
+		int n = 1;
+		for (int i=0; i<m_k; i++) {
+			n *= 26;
+		}
+		if (m_kmer2col == null || m_kmer2col.length != n || m_win_counts.length != m_colmap.size()) {
+			m_kmer2col = new int[n];
+			Arrays.fill(m_kmer2col, -1);
+			for (String kmer : m_colmap.keySet()) {
+				int code = encode(kmer, 0, kmer.length());
+				if (kmer.length() == m_k && code >= 0)
+					m_kmer2col[code] = m_colmap.get(kmer).intValue();
+			}
+			m_win_counts = new int[m_colmap.size()];
+		}
+		Arrays.fill(m_win_counts, 0);
+		m_win.clear();
+		return true;
+	}
+	
+	/**
+	 * Returns the k-mer as a base 26 number or -1 if it contains anything other than the letters A-Z (ignoring case)
+	 */
+	private static int encode(CharSequence kmer, int start, int end) {
+		int code = 0;
+		for (int i=start; i<end; i++) {
+			char c = Character.toUpperCase(kmer.charAt(i));
+			if (c < 'A' || c > 'Z')
+				return -1;
+			code = code * 26 + (c - 'A');
+		}
+		return code;
+	}
+	
+	/**
+	 * Returns the column for the k-mer starting at offset <code>i</code> in the window or -1 if it is not counted
+	 */
+	private int window_kmer_column(int i) {
+		int code = 0;
+		for (int j=i; j<i+m_k; j++) {
+			char c = Character.toUpperCase(m_win.charAt(j));
+			if (c < 'A' || c > 'Z')
+				return -1;
+			code = code * 26 + (c - 'A');
+		}
+		return m_kmer2col[code];
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void residueEntered(char residue) {
+		m_win.append(residue);
+		if (m_win.length() >= m_k) {
+			int col = window_kmer_column(m_win.length() - m_k);
+			if (col >= 0)
+				m_win_counts[col]++;
+		}
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void residueLeft(char residue) {
+		if (m_win.length() >= m_k) {
+			int col = window_kmer_column(0);
+			if (col >= 0)
+				m_win_counts[col]--;
+		}
+		m_win.removeFirst();
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public DataCell[] getWindowCells() {
+		DataCell[] cells = missing_cells(m_win_counts.length);
+		int len = m_win.length();
+		if (m_tri_mers && len == 2) {
+			// getCells() counts di-mers, which never match a tri-mer column
+			for (int k=0; k<cells.length; k++) {
+				cells[k] = new IntCell(0);
+			}
+			return cells;
+		}
+		if (len < m_k)
+			return cells;
+		boolean as_percent = (m_single_residue && m_task.indexOf("%") >= 0);
+		for (int k=0; k<cells.length; k++) {
+			if (as_percent) {
+				cells[k] = new DoubleCell(((double)m_win_counts[k]) * 100.0 / len);
+			} else {
+				cells[k] = new IntCell(m_win_counts[k]);
+			}
+		}
+		return cells;
+	}
+	
 	@Override
 	public DataColumnSpec[] getColumnSpecs() {
 		
@@ -0,0 +1,52 @@
+package au.edu.unimelb.plantcell.core.biojava.tasks;
+
+/**
+ * The residues currently in a sliding window, for {@link IncrementalWindowTask}'s which need more than running totals
+ * (eg. the neighbours of a residue). Residues are appended at the end and removed from the start in constant time.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class ResidueWindow {
+	private char[] m_buf = new char[1024];		// ring buffer, length is always a power of two
+	private int    m_head, m_len;
+
+	public void clear() {
+		m_head = 0;
+		m_len  = 0;
+	}
+
+	public int length() {
+		return m_len;
+	}
+
+	/**
+	 * Returns the i'th residue (from 0) in the window
+	 */
+	public char charAt(int i) {
+		assert(i >= 0 && i < m_len);
+		return m_buf[(m_head + i) & (m_buf.length - 1)];
+	}
+
+	public void append(char residue) {
+		if (m_len == m_buf.length) {
+			char[] grown = new char[m_buf.length * 2];
+			for (int i=0; i<m_len; i++) {
+				grown[i] = charAt(i);
+			}
+			m_buf  = grown;
+			m_head = 0;
+		}
+		m_buf[(m_head + m_len) & (m_buf.length - 1)] = residue;
+		m_len++;
+	}
+
+	/**
+	 * Removes the first residue from the window
+	 */
+	public void removeFirst() {
+		assert(m_len > 0);
+		m_head = (m_head + 1) & (m_buf.length - 1);
+		m_len--;
+	}
+}
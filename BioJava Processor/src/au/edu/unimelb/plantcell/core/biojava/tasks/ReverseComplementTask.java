@@ -80,4 +80,8 @@ public class ReverseComplementTask extends BioJavaProcessorTask {
 		}
 	}
 
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
 }
@@ -103,4 +103,9 @@ public class SNPAssistedFrameshiftDetector extends BioJavaProcessorTask {
 		//cols[1] = new DataColumnSpecCreator("Debug", StringCell.TYPE).createSpec();
 		return cols;
 	}
+
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
 }
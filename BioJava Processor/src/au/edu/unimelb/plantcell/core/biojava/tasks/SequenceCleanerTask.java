@@ -216,4 +216,9 @@ public class SequenceCleanerTask extends BioJavaProcessorTask {
 			return missing_cells(2);
 		}
 	}
+
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
 }
@@ -118,4 +118,8 @@ public class SequenceTranslationTask extends BioJavaProcessorTask {
         return allColSpecs;
 	}
 
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
 }
@@ -24,6 +24,11 @@ public class WeightedHomopolymerRateTask extends BioJavaProcessorTask {
 		return true;
 	}
 	
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
+	
 	public static BioJavaProcessorTask getInstance() {
 		return new WeightedHomopolymerRateTask();
 	}
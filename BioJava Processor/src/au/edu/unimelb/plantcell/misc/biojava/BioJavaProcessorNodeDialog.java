@@ -32,6 +32,8 @@ import org.knime.core.data.DataTableSpec;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.defaultnodesettings.DefaultNodeSettingsPane;
+import org.knime.core.node.defaultnodesettings.DialogComponentNumber;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 
 import au.edu.unimelb.plantcell.core.biojava.tasks.BioJavaProcessorTask;
 
@@ -177,6 +179,10 @@ public class BioJavaProcessorNodeDialog extends DefaultNodeSettingsPane {
 			
 			Logger.getAnonymousLogger().warning(sw.toString());
         }
+        
+        createNewGroup("Performance");
+        addDialogComponent(new DialogComponentNumber((SettingsModelIntegerBounded) BioJavaProcessorNodeModel.make(BioJavaProcessorNodeModel.CFGKEY_THREADS), 
+        		"Number of threads (rows are processed in parallel if more than one)", 1));
         this.addTab("Advanced", new JScrollPane(new JPanel()));
     }
     
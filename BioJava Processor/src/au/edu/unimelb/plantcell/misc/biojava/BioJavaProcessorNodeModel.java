@@ -21,8 +21,10 @@ import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.NotConfigurableException;
 import org.knime.core.node.defaultnodesettings.SettingsModel;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 
+import au.edu.unimelb.plantcell.core.OrderedTaskExecutor;
 import au.edu.unimelb.plantcell.core.biojava.tasks.AlignmentSequenceExtractorTask;
 import au.edu.unimelb.plantcell.core.biojava.tasks.AlternateTranslationTask;
 import au.edu.unimelb.plantcell.core.biojava.tasks.BioJavaProcessorTask;
@@ -61,6 +63,9 @@ public class BioJavaProcessorNodeModel extends NodeModel {
 	static final String CFGKEY_TASK         = "task";
 	static final String CFGKEY_SEQUENCE_COL = "sequence-column";
 	static final String CFGKEY_CATEGORY     = "category";		// currently selected task category in configure dialog
+	static final String CFGKEY_THREADS      = "parallel-threads";
+	
+	public static final int MAX_THREADS = 64;
 	
     /** initial default task */
     private static final String DEFAULT_TASK         = "";
@@ -73,6 +78,7 @@ public class BioJavaProcessorNodeModel extends NodeModel {
     private final SettingsModelString m_task            = make_as_string(CFGKEY_TASK);
     private final SettingsModelString m_column          = make_as_string(CFGKEY_SEQUENCE_COL);	// this node may process columns other than String columns
     private final SettingsModelString m_category        = make_as_string(CFGKEY_CATEGORY);
+    private final SettingsModelIntegerBounded m_threads = (SettingsModelIntegerBounded) make(CFGKEY_THREADS);
     
     // state which is not persisted
     private int     m_sequence_idx;
@@ -95,10 +101,16 @@ public class BioJavaProcessorNodeModel extends NodeModel {
     		return new SettingsModelString(CFGKEY_SEQUENCE_COL, DEFAULT_SEQUENCE_COL);
     	} else if (cfgkey.equals(CFGKEY_CATEGORY)) {
     		return new SettingsModelString(CFGKEY_CATEGORY, DEFAULT_CATEGORY);
+    	} else if (cfgkey.equals(CFGKEY_THREADS)) {
+    		return new SettingsModelIntegerBounded(CFGKEY_THREADS, getDefaultThreadCount(), 1, MAX_THREADS);
     	}
     	return null;
     }
     
+    public static int getDefaultThreadCount() {
+    	return Math.min(MAX_THREADS, OrderedTaskExecutor.getDefaultThreadCount());
+    }
+    
     public static SettingsModelString make_as_string(String cfgkey) {
     	return (SettingsModelString) make(cfgkey);
     }
@@ -255,8 +267,9 @@ public class BioJavaProcessorNodeModel extends NodeModel {
         // create the column rearranger
         ColumnRearranger outputTable = new ColumnRearranger(inData[0].getDataTableSpec());
       
-        // append the new column
-        outputTable.append(bjpi);
+        // append the new columns, computing the rows on several threads (the output keeps the input row order)
+        logger.info("Processing rows using "+m_threads.getIntValue()+" threads.");
+        outputTable.append(new ParallelTaskCellFactory(bjpi, m_task.getStringValue(), m_sequence_idx, m_threads.getIntValue()));
         
         BufferedDataTable out = exec.createColumnRearrangeTable(inData[0], outputTable, exec);
       
@@ -292,6 +305,7 @@ public class BioJavaProcessorNodeModel extends NodeModel {
         m_task.saveSettingsTo(settings);
         m_column.saveSettingsTo(settings);
         m_category.saveSettingsTo(settings);
+        m_threads.saveSettingsTo(settings);
     }
 
     /**
@@ -308,6 +322,11 @@ public class BioJavaProcessorNodeModel extends NodeModel {
         } else {
         	m_category.setStringValue(DEFAULT_CATEGORY);
         }
+        if (settings.containsKey(CFGKEY_THREADS)) {
+        	m_threads.loadSettingsFrom(settings);
+        } else {
+        	m_threads.setIntValue(getDefaultThreadCount());
+        }
     }
 
     /**
@@ -322,6 +341,9 @@ public class BioJavaProcessorNodeModel extends NodeModel {
         if (settings.containsKey(CFGKEY_CATEGORY)) {
         	m_category.validateSettings(settings);
         }
+        if (settings.containsKey(CFGKEY_THREADS)) {
+        	m_threads.validateSettings(settings);
+        }
     }
     
     /**
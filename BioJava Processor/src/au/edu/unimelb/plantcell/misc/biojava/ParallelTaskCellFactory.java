@@ -0,0 +1,71 @@
+package au.edu.unimelb.plantcell.misc.biojava;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataRow;
+import org.knime.core.data.container.AbstractCellFactory;
+
+import au.edu.unimelb.plantcell.core.biojava.tasks.BioJavaProcessorTask;
+
+/**
+ * Computes the cells for a {@link BioJavaProcessorTask} using several threads: KNIME hands rows to the threads
+ * and appends the results to the output table in the order of the input rows.
+ *
+ * Stateless tasks (see {@link BioJavaProcessorTask#isStateless()}) share the one instance between threads. Other tasks
+ * are lent, one row at a time, from a pool of instances which grows as needed, so there is at most one per thread.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class ParallelTaskCellFactory extends AbstractCellFactory {
+	// rows queued for processing per thread (bounds the memory held by results waiting for an earlier row)
+	private static final int ROWS_PER_THREAD = 100;
+
+	private final BioJavaProcessorTask m_task;
+	private final String m_task_name;
+	private final int    m_column;
+	private final ConcurrentLinkedQueue<BioJavaProcessorTask> m_idle = new ConcurrentLinkedQueue<BioJavaProcessorTask>();
+
+	/**
+	 * @param task an initialised task (ie. <code>init(task_name, column)</code> has been called)
+	 * @param n_threads rows are processed by the caller if less than two
+	 */
+	public ParallelTaskCellFactory(final BioJavaProcessorTask task, final String task_name, int column, int n_threads) {
+		super(task.getColumnSpecs());
+		m_task      = task;
+		m_task_name = task_name;
+		m_column    = column;
+		m_idle.add(task);
+		if (n_threads > 1) {
+			setParallelProcessing(true, n_threads, n_threads * ROWS_PER_THREAD);
+		}
+	}
+
+	@Override
+	public DataCell[] getCells(final DataRow row) {
+		if (m_task.isStateless())
+			return m_task.getCells(row);
+
+		BioJavaProcessorTask t = m_idle.poll();
+		if (t == null) {
+			t = make_task();
+		}
+		try {
+			return t.getCells(row);
+		} finally {
+			m_idle.add(t);
+		}
+	}
+
+	private BioJavaProcessorTask make_task() {
+		try {
+			BioJavaProcessorTask t = m_task.newInstance();
+			t.init(m_task_name, m_column);
+			t.getColumnSpecs();		// some tasks map their output columns here
+			return t;
+		} catch (Exception e) {
+			throw new IllegalStateException("Unable to create another instance of task: "+m_task_name, e);
+		}
+	}
+}
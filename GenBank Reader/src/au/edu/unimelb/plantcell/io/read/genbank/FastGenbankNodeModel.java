@@ -1,8 +1,10 @@
 package au.edu.unimelb.plantcell.io.read.genbank;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -10,14 +12,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
 import java.util.zip.GZIPInputStream;
 
 import org.knime.core.data.DataCell;
 import org.knime.core.data.DataColumnSpec;
 import org.knime.core.data.DataColumnSpecCreator;
+import org.knime.core.data.DataRow;
 import org.knime.core.data.DataTableSpec;
 import org.knime.core.data.DataType;
 import org.knime.core.data.collection.CollectionCellFactory;
@@ -34,9 +35,12 @@ import org.knime.core.node.NodeModel;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.core.node.defaultnodesettings.SettingsModelStringArray;
 
+import au.edu.unimelb.plantcell.core.OrderedTaskExecutor;
+
 /**
  * Non-biojava based implementation which should be much faster and resilient to poor annotation
  * The factory class now instantiates this node model rather than the biojava-based one, but changing
@@ -45,7 +49,7 @@ import org.knime.core.node.defaultnodesettings.SettingsModelStringArray;
  * @author andrew.cassin
  *
  */
-public class FastGenbankNodeModel extends NodeModel implements GenbankFeatureListener {
+public class FastGenbankNodeModel extends NodeModel {
 	// number of columns in first output port
 	private final static int  NCOLS_PORT0 = 10;		// summary data output port
 	private final static int  NCOLS_PORT1 = 10;		// source properties eg. /organism
@@ -63,25 +67,29 @@ public class FastGenbankNodeModel extends NodeModel implements GenbankFeatureLis
 	static final String CFGKEY_SOURCE_FEATURES = "output-source-features?";
 	static final String CFGKEY_CDS_FEATURES    = "output-cgs-features?";
 	static final String CFGKEY_FILENAME_FILTER = "filename-filter-keywords";
+	static final String CFGKEY_THREADS         = "parallel-threads";
+	
+	public static final int MAX_THREADS = 64;
+	
+	// uncompressed files larger than this are split into chunks (at record boundaries) which are read concurrently
+	private final static long CHUNK_SIZE = 32 * 1024 * 1024;
 	
 	private final SettingsModelStringArray  m_files      = new SettingsModelStringArray(CFGKEY_FILES, new String[] { "c:/temp/gb.seq.gz" });
 	private final SettingsModelString  m_taxonomy_filter = new SettingsModelString(CFGKEY_TAXONOMY_FILTER, "Lolium");
 	private final SettingsModelBoolean m_source_features = new SettingsModelBoolean(CFGKEY_SOURCE_FEATURES, true);
 	private final SettingsModelBoolean m_cds_features    = new SettingsModelBoolean(CFGKEY_CDS_FEATURES, true);
 	private final SettingsModelString  m_fname_filter    = new SettingsModelString(CFGKEY_FILENAME_FILTER, "");
-	
-	// HACK: as the GenbankFeatureListener is called before the taxonomy filter is applied, we must save the rows temporarily... yuk!
-	private Vector<DefaultRow> m_container2_rows;
-	private Vector<DefaultRow> m_container3_rows;
-	private static int src_id;
-	private static int cds_id;
-	private final static Pattern feature_match = Pattern.compile("\\s/(\\w+)=\"([^\"]+?)\"\\s*$", Pattern.MULTILINE | Pattern.DOTALL);
+	private final SettingsModelIntegerBounded m_threads  = new SettingsModelIntegerBounded(CFGKEY_THREADS, getDefaultThreadCount(), 1, MAX_THREADS);
 
 	
 	protected FastGenbankNodeModel() {
 		super(0, 3);
 	}
 
+	public static int getDefaultThreadCount() {
+		return Math.min(MAX_THREADS, OrderedTaskExecutor.getDefaultThreadCount());
+	}
+
 	@Override
 	protected void loadInternals(File nodeInternDir, ExecutionMonitor exec)
 			throws IOException, CanceledExecutionException {
@@ -255,13 +263,64 @@ public class FastGenbankNodeModel extends NodeModel implements GenbankFeatureLis
     	return m_taxonomy_filter.getStringValue().split("\\s+");
     }
     
+    /**
+     * Splits the files into units of work: compressed (and small) files are read as a whole, larger
+     * uncompressed files are split into chunks which start at a record boundary (ie. after a // line)
+     */
+    protected List<GenbankChunk> make_chunks(final List<File> files) throws IOException {
+    	List<GenbankChunk> ret = new ArrayList<GenbankChunk>();
+    	for (File f : files) {
+    		long len = f.length();
+    		if (f.getName().endsWith(".gz") || len <= 2 * CHUNK_SIZE) {
+    			ret.add(new GenbankChunk(f, 0, -1, true));
+    			continue;
+    		}
+    		long start = 0;
+    		while (start < len) {
+    			long end = (len - start > 2 * CHUNK_SIZE) ? find_record_boundary(f, start + CHUNK_SIZE) : len;
+    			ret.add(new GenbankChunk(f, start, end, end >= len));
+    			start = end;
+    		}
+    	}
+    	return ret;
+    }
+    
+    /**
+     * Returns the offset of the first line which follows a line starting with // at or after <code>pos</code>,
+     * or the length of the file if there is no such line
+     */
+    protected long find_record_boundary(final File f, long pos) throws IOException {
+    	assert(pos > 0);
+    	InputStream is = new BufferedInputStream(new RangeInputStream(new FileInputStream(f), pos - 1, f.length()));
+    	try {
+    		boolean line_start = (is.read() == '\n');
+    		int state = line_start ? 0 : -1;		// 0: at line start, 1: seen '/', 2: seen "//", -1: elsewhere in line
+    		int c;
+    		while ((c = is.read()) >= 0) {
+    			if (c == '\n') {
+    				if (state == 2)
+    					return pos + 1;
+    				state = 0;
+    			} else if (c == '/' && (state == 0 || state == 1)) {
+    				state++;
+    			} else if (state != 2) {
+    				state = -1;
+    			}
+    			pos++;
+    		}
+    		return f.length();
+    	} finally {
+    		is.close();
+    	}
+    }
+    
     @Override
     protected BufferedDataTable[] execute(final BufferedDataTable[] inData,
             final ExecutionContext exec) throws Exception {
 
     	
     	List<File> files_to_read   = files2process();
-        DataTableSpec[] out_tables = make_output_cols();
+        final DataTableSpec[] out_tables = make_output_cols();
         
         // the execution context will provide us with storage capacity, in this
         // case a data container to which we will add rows sequentially
@@ -271,127 +330,33 @@ public class FastGenbankNodeModel extends NodeModel implements GenbankFeatureLis
         final BufferedDataContainer container2= exec.createDataContainer(out_tables[1]);
         final BufferedDataContainer container3= exec.createDataContainer(out_tables[2]);
         
-        int done_files = 0;
-        int hit = 1;
-        src_id  = 1;
-        cds_id  = 1;
-        
-        // setup the match data structure (int[]) for the taxa
-        String[] taxa = getFilteringTaxa();
-		boolean has_taxa_filter = false;
-		for (String t : taxa) {
-			if (t.length() > 0) {
-				has_taxa_filter = true;
-				break;
-			}
-		}
+        final String[] taxa = getFilteringTaxa();
+        final List<GenbankChunk> chunks = make_chunks(files_to_read);
+        int n_threads = Math.min(m_threads.getIntValue(), chunks.size());
+        logger.info("Reading "+chunks.size()+" chunks of GenBank data using "+n_threads+" threads.");
 		
-		// process the files
-		int failed_files = 0;
-    	for (File f : files_to_read) {
-    		int cnt = 0;
-    		int accepted = 0;
-    		
-    	    		
-    		// make a new stream rather than use one which has been partially read
-    		BufferedReader rdr = null;
-    		
-    		try {
-    			rdr = new BufferedReader(new InputStreamReader(make_input_stream(f)));
-    		
-    			String line;
-    			while ((line = rdr.readLine()) != null) {
-    				if (!line.startsWith("LOCUS")) {
-    					continue;
-    				}
-        			StringBuffer rec = new StringBuffer(10*1024);
-					rec.append(line);
-					rec.append('\n');
-					while ((line = rdr.readLine()) != null) {
-						rec.append(line);
-						rec.append('\n');
-						if (line.startsWith("//")) {
-							cnt++;
-							break;
-						}
-					}	    					
-					
-					m_container2_rows = null;
-					m_container3_rows = null;
-					GenbankRecord gbr = new GenbankRecord(rec, this);
-					// HACK: for now we only support filtering by organism or lineage... 
-					if (has_taxa_filter) {
-	    				boolean found = false;
-	    				String lineage = gbr.get_taxonomy();
-	    				for (String term : taxa) {
-	    					if (term.length() < 1)
-	    						continue;
-	    					if (lineage.toLowerCase().indexOf(term.toLowerCase()) >= 0) {
-	    						found = true;
-	    						break;
-	    					}
-	    				}
-	    				if (!found)
-	    					continue;
-	    			}
-										
-					// add the row to the first output port, since it has passed the taxonomy filter (if any)
-	    			DataCell[] cells = new DataCell[NCOLS_PORT0];
-	    			cells[0] = safe_cell(gbr.get_locus_name());
-	    			cells[1] = safe_cell(gbr.get_filtered_sequence());
-	    			cells[2] = new StringCell(f.getName());
-	    			
-	    			cells[3] = safe_cell(gbr.get_molecule_type());
-	    			cells[4] = safe_cell(gbr.get_last_modified());
-	    			cells[5] = safe_cell(gbr.get_version());
-	    			cells[6] = safe_cell(gbr.get_comment());
-	    			cells[7] = safe_cell(gbr.get_accession());
-	    			cells[8] = safe_cell(gbr.get_definition());
-	    			cells[9] = safe_cell(gbr.get_taxonomy());
-	    			
-	    			accepted++;
-	    			String row_key = "GB"+hit;
-	    			container.addRowToTable(new DefaultRow(row_key, cells));
-	    			
-	    			// add the cells to the feature output ports
-	    			if (m_container2_rows != null) {
-		    			for (DefaultRow r : m_container2_rows) {
-		    				container2.addRowToTable(r);
-		    			}
-	    			}
-	    			if (m_container3_rows != null) {
-		    			for (DefaultRow r : m_container3_rows) {
-		    				container3.addRowToTable(r);
-		    			}
-	    			}
-	    			
-	    			hit++;
-	    			if (hit % 200 == 0) {
-	    				exec.checkCanceled();
-	    			}
-	    			
-					// TODO...
-					if (line == null)
-						break;
-    			}
-        		rdr.close();
+        // each chunk is read into its own tables by a worker thread, the rows are then added to the output ports
+        // (with the same row IDs as reading the files one at a time) in the order the chunks were submitted
+        final ChunkMerger merger = new ChunkMerger(exec, chunks.size(), container, container2, container3);
+        OrderedTaskExecutor<GenbankChunk> executor = new OrderedTaskExecutor<GenbankChunk>(n_threads, 2 * n_threads, merger);
+        try {
+        	for (final GenbankChunk c : chunks) {
+        		executor.submit(new Callable<GenbankChunk>() {
 
-	    		logger.info("Processed "+cnt+" genbank entries (accepted "+accepted+") in "+f.getName());
-    		} catch (Exception e) {
-    			if (rdr != null)
-    				rdr.close();
-    			failed_files++;
-    			logger.warn("Error in genbank record in "+f.getName()+" error msg is: ");
-    			logger.warn(e.getMessage());
-    			e.printStackTrace();
-    		}
-    		
-    		done_files++;
-    		exec.checkCanceled();
-    		exec.setProgress(((double) done_files) / files_to_read.size());
-    	}
+					@Override
+					public GenbankChunk call() throws Exception {
+						new ChunkReader(c, taxa).read(exec, out_tables);
+						return c;
+					}
+        			
+        		});
+        	}
+        	executor.finish();
+        } finally {
+        	executor.shutdown();
+        }
     	
-    	logger.info("Processed "+done_files+" files ("+failed_files+" contained errors). Loading complete.");
+    	logger.info("Processed "+files_to_read.size()+" files ("+merger.getFailedFiles()+" contained errors). Loading complete.");
     	
         // once we are done, we close the container and return its table
         container.close();
@@ -413,6 +378,7 @@ public class FastGenbankNodeModel extends NodeModel implements GenbankFeatureLis
     	m_source_features.saveSettingsTo(settings);
     	m_cds_features.saveSettingsTo(settings);
     	m_fname_filter.saveSettingsTo(settings);
+    	m_threads.saveSettingsTo(settings);
     }
 
     /**
@@ -426,6 +392,11 @@ public class FastGenbankNodeModel extends NodeModel implements GenbankFeatureLis
     	m_source_features.loadSettingsFrom(settings);
     	m_cds_features.loadSettingsFrom(settings);
     	m_fname_filter.loadSettingsFrom(settings);
+    	if (settings.containsKey(CFGKEY_THREADS)) {
+    		m_threads.loadSettingsFrom(settings);
+    	} else {
+    		m_threads.setIntValue(getDefaultThreadCount());
+    	}
     }
 
     /**
@@ -439,56 +410,273 @@ public class FastGenbankNodeModel extends NodeModel implements GenbankFeatureLis
     	m_source_features.validateSettings(settings);
     	m_cds_features.validateSettings(settings);
     	m_fname_filter.validateSettings(settings);
+    	if (settings.containsKey(CFGKEY_THREADS)) {
+    		m_threads.validateSettings(settings);
+    	}
     }
 
 	@Override
 	protected void reset() {
 	}
 
-	@Override
-	public void parse_section(String title, String accsn, String content)
-			throws InvalidGenbankRecordException {
-
-		if (title.equals("source") && m_source_features.getBooleanValue()) {
-			if (m_container2_rows == null) 
-				m_container2_rows = new Vector<DefaultRow>();
-			HashMap<String,String> feature_properties = new HashMap<String,String>();
-			//TODO... do something with feature position?
-			Matcher m = feature_match.matcher(content);
-			while (m.find()) {
-				feature_properties.put(m.group(1).toLowerCase(), m.group(2));
+	protected DataCell[] make_source_cells(String accsn, String content) {
+		HashMap<String,String> feature_properties = new HashMap<String,String>();
+		//TODO... do something with feature position?
+		GenbankParser.parse_qualifiers(content, feature_properties);
+		DataCell[] cells = new DataCell[NCOLS_PORT1];
+		cells[0] = safe_cell(accsn);
+		cells[1] = safe_feature(feature_properties, "organism");
+		cells[2] = safe_feature(feature_properties, "mol_type");
+		cells[3] = safe_feature(feature_properties, "strain");
+		cells[4] = safe_feature(feature_properties, "db_xref");
+		cells[5] = safe_feature(feature_properties, "clone");
+		cells[6] = safe_feature(feature_properties, "tissue_type");
+		cells[7] = safe_feature(feature_properties, "dev_stage");
+		cells[8] = safe_feature(feature_properties, "clone_lib");
+		cells[9] = safe_feature(feature_properties, "note");
+		return cells;
+	}
+	
+	protected DataCell[] make_cds_cells(String accsn, String content) {
+		HashMap<String,String> feature_properties = new HashMap<String,String>();
+		GenbankParser.parse_qualifiers(content, feature_properties);
+		DataCell[] cells = new DataCell[NCOLS_PORT2];
+		cells[0] = safe_cell(accsn);
+		cells[1] = safe_feature(feature_properties, "gene");
+		cells[2] = safe_feature(feature_properties, "product");
+		cells[3] = safe_feature(feature_properties, "db_xref");
+		cells[4] = safe_feature(feature_properties, "translation");
+		cells[5] = safe_feature(feature_properties, "note");
+		cells[6] = safe_feature(feature_properties, "protein_id");
+		cells[7] = safe_feature(feature_properties, "function");
+		return cells;
+	}
+	
+	/**
+	 * A byte range of a GenBank file (or the whole file) and, once read, the tables of rows from it
+	 */
+	protected static class GenbankChunk {
+		private final File    m_file;
+		private final long    m_start, m_end;		// m_end is -1 for the whole (possibly compressed) file
+		private final boolean m_last;				// last chunk of the file?
+		
+		// results of reading the chunk
+		private BufferedDataTable[] m_tables;
+		private int       m_records, m_accepted;
+		private Exception m_error;
+		
+		public GenbankChunk(final File f, long start, long end, boolean last) {
+			m_file  = f;
+			m_start = start;
+			m_end   = end;
+			m_last  = last;
+		}
+	}
+	
+	/**
+	 * Limits reading to the specified byte range of a stream
+	 */
+	private static class RangeInputStream extends FilterInputStream {
+		private long m_remaining;
+		
+		public RangeInputStream(final InputStream is, long start, long end) throws IOException {
+			super(is);
+			m_remaining = end - start;
+			while (start > 0) {
+				long n = is.skip(start);
+				if (n <= 0)
+					throw new IOException("Unable to skip to offset "+start);
+				start -= n;
+			}
+		}
+		
+		@Override
+		public int read() throws IOException {
+			if (m_remaining <= 0)
+				return -1;
+			int c = super.read();
+			if (c >= 0)
+				m_remaining--;
+			return c;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (m_remaining <= 0)
+				return -1;
+			int n = super.read(b, off, (int) Math.min(len, m_remaining));
+			if (n > 0)
+				m_remaining -= n;
+			return n;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(Math.min(n, m_remaining));
+			m_remaining -= skipped;
+			return skipped;
+		}
+		
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(super.available(), m_remaining);
+		}
+	}
+	
+	/**
+	 * Reads the records from a single chunk on a worker thread. Features are saved until their record is
+	 * complete, so that the rows for each record are added together.
+	 */
+	private class ChunkReader implements GenbankFeatureListener {
+		private final GenbankChunk m_chunk;
+		private final String[]     m_taxa;
+		private final List<DataCell[]> m_source_rows = new ArrayList<DataCell[]>();
+		private final List<DataCell[]> m_cds_rows    = new ArrayList<DataCell[]>();
+		
+		public ChunkReader(final GenbankChunk c, final String[] taxa) {
+			m_chunk = c;
+			m_taxa  = taxa;
+		}
+		
+		public void read(final ExecutionContext exec, final DataTableSpec[] specs) throws Exception {
+			BufferedDataContainer[] out = new BufferedDataContainer[3];
+			for (int i=0; i<out.length; i++) {
+				out[i] = exec.createDataContainer(specs[i]);
+			}
+			
+			BufferedReader rdr = null;
+			GenbankParser parser = null;
+			int id = 1;
+			try {
+				InputStream is = (m_chunk.m_end < 0) ? make_input_stream(m_chunk.m_file) :
+								new RangeInputStream(new FileInputStream(m_chunk.m_file), m_chunk.m_start, m_chunk.m_end);
+				rdr = new BufferedReader(new InputStreamReader(is));
+				parser = new GenbankParser(rdr, this);
+				parser.setTaxonomyFilter(m_taxa);
+				
+				GenbankRecord gbr;
+				while ((gbr = parser.next()) != null) {
+					DataCell[] cells = new DataCell[NCOLS_PORT0];
+	    			cells[0] = safe_cell(gbr.get_locus_name());
+	    			cells[1] = safe_cell(gbr.get_filtered_sequence());
+	    			cells[2] = new StringCell(m_chunk.m_file.getName());
+	    			
+	    			cells[3] = safe_cell(gbr.get_molecule_type());
+	    			cells[4] = safe_cell(gbr.get_last_modified());
+	    			cells[5] = safe_cell(gbr.get_version());
+	    			cells[6] = safe_cell(gbr.get_comment());
+	    			cells[7] = safe_cell(gbr.get_accession());
+	    			cells[8] = safe_cell(gbr.get_definition());
+	    			cells[9] = safe_cell(gbr.get_taxonomy());
+	    			
+	    			// row IDs are assigned when the chunks are merged
+	    			out[0].addRowToTable(new DefaultRow("R"+id++, cells));
+	    			for (DataCell[] r : m_source_rows) {
+	    				out[1].addRowToTable(new DefaultRow("R"+id++, r));
+	    			}
+	    			for (DataCell[] r : m_cds_rows) {
+	    				out[2].addRowToTable(new DefaultRow("R"+id++, r));
+	    			}
+	    			m_source_rows.clear();
+	    			m_cds_rows.clear();
+	    			m_chunk.m_accepted++;
+	    			if (m_chunk.m_accepted % 200 == 0) {
+	    				exec.checkCanceled();
+	    			}
+				}
+			} catch (CanceledExecutionException ce) {
+				throw ce;
+			} catch (Exception e) {
+				// rows for records before the error are kept, as for reading the file in a single pass
+				m_chunk.m_error = e;
+			} finally {
+				if (rdr != null)
+					rdr.close();
+				m_chunk.m_records = (parser != null) ? parser.getRecordCount() : 0;
+				m_chunk.m_tables  = new BufferedDataTable[out.length];
+				for (int i=0; i<out.length; i++) {
+					out[i].close();
+					m_chunk.m_tables[i] = out[i].getTable();
+				}
+			}
+		}
+		
+		@Override
+		public void parse_section(String title, String accsn, String content)
+				throws InvalidGenbankRecordException {
+			if (title.equals("source") && m_source_features.getBooleanValue()) {
+				m_source_rows.add(make_source_cells(accsn, content));
+			} else if (title.equals("cds") && m_cds_features.getBooleanValue()) {
+				m_cds_rows.add(make_cds_cells(accsn, content));
+			}
+		}
+	}
+	
+	/**
+	 * Adds the rows from each chunk to the output ports on the node thread, in file order. Once a chunk reports
+	 * an error, the remaining chunks of that file are ignored.
+	 */
+	private class ChunkMerger implements OrderedTaskExecutor.ResultHandler<GenbankChunk> {
+		private final ExecutionContext        m_exec;
+		private final int                     m_n_chunks;
+		private final BufferedDataContainer[] m_out;
+		private int  m_hit = 1, m_src_id = 1, m_cds_id = 1;
+		private int  m_done = 0, m_failed_files = 0;
+		private int  m_file_records = 0, m_file_accepted = 0;
+		private File m_failed = null;
+		
+		public ChunkMerger(final ExecutionContext exec, int n_chunks, final BufferedDataContainer... out) {
+			m_exec     = exec;
+			m_n_chunks = n_chunks;
+			m_out      = out;
+		}
+		
+		public int getFailedFiles() {
+			return m_failed_files;
+		}
+		
+		@Override
+		public void process(final GenbankChunk c) throws Exception {
+			if (!c.m_file.equals(m_failed)) {
+				m_hit    = copy_rows(c.m_tables[0], m_out[0], "GB", m_hit);
+				m_src_id = copy_rows(c.m_tables[1], m_out[1], "S", m_src_id);
+				m_cds_id = copy_rows(c.m_tables[2], m_out[2], "CDS", m_cds_id);
+				m_file_records  += c.m_records;
+				m_file_accepted += c.m_accepted;
+				
+				if (c.m_error != null) {
+					m_failed = c.m_file;
+					m_failed_files++;
+					logger.warn("Error in genbank record in "+c.m_file.getName()+" error msg is: ");
+	    			logger.warn(c.m_error.getMessage());
+	    			c.m_error.printStackTrace();
+				} else if (c.m_last) {
+					logger.info("Processed "+m_file_records+" genbank entries (accepted "+m_file_accepted+") in "+c.m_file.getName());
+				}
+			}
+			for (BufferedDataTable t : c.m_tables) {
+				m_exec.clearTable(t);
+			}
+			c.m_tables = null;
+			if (c.m_last) {
+				m_file_records  = 0;
+				m_file_accepted = 0;
 			}
-			DataCell[] cells = new DataCell[NCOLS_PORT1];
-			cells[0] = safe_cell(accsn);
-			cells[1] = safe_feature(feature_properties, "organism");
-			cells[2] = safe_feature(feature_properties, "mol_type");
-			cells[3] = safe_feature(feature_properties, "strain");
-			cells[4] = safe_feature(feature_properties, "db_xref");
-			cells[5] = safe_feature(feature_properties, "clone");
-			cells[6] = safe_feature(feature_properties, "tissue_type");
-			cells[7] = safe_feature(feature_properties, "dev_stage");
-			cells[8] = safe_feature(feature_properties, "clone_lib");
-			cells[9] = safe_feature(feature_properties, "note");
-			m_container2_rows.add(new DefaultRow("S"+src_id++, cells));
-		} else if (title.equals("cds") && m_cds_features.getBooleanValue()) {
 			
-			if (m_container3_rows == null) 
-				m_container3_rows = new Vector<DefaultRow>();
-			HashMap<String,String> feature_properties = new HashMap<String,String>();
-			Matcher m = feature_match.matcher(content);
-			while (m.find()) {
-				feature_properties.put(m.group(1).toLowerCase(), m.group(2));
+			m_done++;
+    		m_exec.checkCanceled();
+    		m_exec.setProgress(((double) m_done) / m_n_chunks);
+		}
+		
+		private int copy_rows(final BufferedDataTable in, final BufferedDataContainer out, final String prefix, int id) {
+			for (DataRow r : in) {
+				DataCell[] cells = new DataCell[r.getNumCells()];
+				for (int i=0; i<cells.length; i++) {
+					cells[i] = r.getCell(i);
+				}
+				out.addRowToTable(new DefaultRow(prefix+id++, cells));
 			}
-			DataCell[] cells = new DataCell[NCOLS_PORT2];
-			cells[0] = safe_cell(accsn);
-			cells[1] = safe_feature(feature_properties, "gene");
-			cells[2] = safe_feature(feature_properties, "product");
-			cells[3] = safe_feature(feature_properties, "db_xref");
-			cells[4] = safe_feature(feature_properties, "translation");
-			cells[5] = safe_feature(feature_properties, "note");
-			cells[6] = safe_feature(feature_properties, "protein_id");
-			cells[7] = safe_feature(feature_properties, "function");
-			m_container3_rows.add(new DefaultRow("CDS"+cds_id++, cells));
+			return id;
 		}
 	}
 }
@@ -25,8 +25,10 @@ import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.NotConfigurableException;
 import org.knime.core.node.defaultnodesettings.DefaultNodeSettingsPane;
 import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
+import org.knime.core.node.defaultnodesettings.DialogComponentNumber;
 import org.knime.core.node.defaultnodesettings.DialogComponentString;
 import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.core.node.defaultnodesettings.SettingsModelStringArray;
 
@@ -173,6 +175,12 @@ public class GenBankReaderNodeDialog extends DefaultNodeSettingsPane {
         		new SettingsModelString(FastGenbankNodeModel.CFGKEY_FILENAME_FILTER, ""),
         		"Filter by filename (space separated)", false, 80)
         );
+        
+        createNewGroup("Performance");
+        addDialogComponent(new DialogComponentNumber(
+        		new SettingsModelIntegerBounded(FastGenbankNodeModel.CFGKEY_THREADS, FastGenbankNodeModel.getDefaultThreadCount(), 1, FastGenbankNodeModel.MAX_THREADS),
+        		"Number of threads (files, and chunks of large uncompressed files, are read in parallel)", 1)
+        );
     }
     
     @Override
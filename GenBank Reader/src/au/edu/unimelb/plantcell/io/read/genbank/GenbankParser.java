@@ -0,0 +1,322 @@
+package au.edu.unimelb.plantcell.io.read.genbank;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line-driven parser for GenBank flat files. Each record is parsed as its lines are read: nothing is buffered
+ * apart from the header sections of interest, the current feature and the residues (in buffers reused for every
+ * record). Features are passed to the {@link GenbankFeatureListener} as each one ends.
+ *
+ * The taxonomy filter (if any) is applied when the FEATURES (or ORIGIN) section is reached, so the remainder
+ * of a rejected record is skipped without parsing its features or sequence.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class GenbankParser {
+	private final BufferedReader         m_rdr;
+	private final GenbankFeatureListener m_listener;
+	private String[] m_taxa = null;			// lowercase terms, null for no filtering
+	private int      m_records = 0;
+
+	// reused for every record
+	private final StringBuilder m_section  = new StringBuilder(1024);
+	private final StringBuilder m_feature  = new StringBuilder(8 * 1024);
+	private final StringBuilder m_residues = new StringBuilder(64 * 1024);
+	private String m_feature_key;
+
+	public GenbankParser(final BufferedReader rdr, final GenbankFeatureListener l) {
+		assert(rdr != null);
+		m_rdr      = rdr;
+		m_listener = l;
+	}
+
+	/**
+	 * Only records whose taxonomy (SOURCE section) contains at least one of the specified terms (case insensitive)
+	 * are returned by <code>next()</code>. Empty terms are ignored and no terms means no filtering.
+	 */
+	public void setTaxonomyFilter(final String[] terms) {
+		List<String> l = new ArrayList<String>();
+		if (terms != null) {
+			for (String t : terms) {
+				if (t.length() > 0)
+					l.add(t.toLowerCase());
+			}
+		}
+		m_taxa = (l.size() > 0) ? l.toArray(new String[0]) : null;
+	}
+
+	/**
+	 * Returns the number of complete records (ie. terminated by //) read so far, including rejected records
+	 */
+	public int getRecordCount() {
+		return m_records;
+	}
+
+	/**
+	 * Returns the next record which passes the taxonomy filter or null if there are no more records
+	 *
+	 * @throws InvalidGenbankRecordException if the LOCUS line of a record cannot be parsed
+	 */
+	public GenbankRecord next() throws IOException, InvalidGenbankRecordException {
+		String line;
+		while ((line = m_rdr.readLine()) != null) {
+			if (!line.startsWith("LOCUS"))
+				continue;
+			GenbankRecord gbr = parse_record(line);
+			if (gbr != null)
+				return gbr;
+		}
+		return null;
+	}
+
+	/**
+	 * Parses the lines up to and including the record terminator (or end of file), returning null if the record
+	 * was rejected by the taxonomy filter
+	 */
+	private GenbankRecord parse_record(final String locus) throws IOException, InvalidGenbankRecordException {
+		GenbankRecord gbr = new GenbankRecord();
+		parse_locus(locus, gbr);
+
+		m_section.setLength(0);
+		m_residues.setLength(0);
+		m_feature_key = null;
+		String  tag     = null;			// current section or null if not of interest
+		boolean decided = false;
+		String line;
+		while ((line = m_rdr.readLine()) != null) {
+			if (line.startsWith("//")) {
+				m_records++;
+				break;
+			}
+
+			char c = (line.length() > 0) ? line.charAt(0) : ' ';
+			if (Character.isLetter(c) && Character.isUpperCase(c)) {
+				// start of a new section
+				end_section(gbr, tag);
+				tag = get_tag(line);
+				if (tag != null && !decided && (tag.equals("FEATURES") || tag.equals("ORIGIN"))) {
+					decided = true;
+					if (!accept(gbr)) {
+						skip_record();
+						return null;
+					}
+				}
+				if (tag != null && tag.equals("ORIGIN")) {
+					add_residues(line, tag.length());
+				} else if (tag != null) {
+					m_section.setLength(0);
+					m_section.append(line, tag.length(), line.length());
+				}
+			} else if (tag == null) {
+				continue;
+			} else if (tag.equals("ORIGIN")) {
+				add_residues(line, 0);
+			} else if (tag.equals("FEATURES")) {
+				feature_line(line, gbr);
+			} else {
+				m_section.append('\n');
+				m_section.append(line);
+			}
+		}
+		end_section(gbr, tag);
+
+		if (!decided && !accept(gbr))
+			return null;
+		if (m_residues.length() > 0)
+			gbr.set_sequence(m_residues.toString());
+		return gbr;
+	}
+
+	private void skip_record() throws IOException {
+		String line;
+		while ((line = m_rdr.readLine()) != null) {
+			if (line.startsWith("//")) {
+				m_records++;
+				return;
+			}
+		}
+	}
+
+	private boolean accept(final GenbankRecord gbr) {
+		if (m_taxa == null)
+			return true;
+		String lineage = gbr.get_taxonomy();
+		if (lineage == null)
+			return false;
+		lineage = lineage.toLowerCase();
+		for (String term : m_taxa) {
+			if (lineage.indexOf(term) >= 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the section name (only upper case letters followed by whitespace) or null if the line does not start
+	 * one of the sections recorded by this parser
+	 */
+	private static String get_tag(final String line) {
+		int len = line.length();
+		int i = 0;
+		while (i < len && line.charAt(i) >= 'A' && line.charAt(i) <= 'Z') {
+			i++;
+		}
+		if (i < len && !is_space(line.charAt(i)))
+			return null;
+
+		String tag = line.substring(0, i);
+		if (tag.equals("DEFINITION") || tag.equals("SOURCE") || tag.equals("COMMENT") || tag.equals("ACCESSION") ||
+				tag.equals("VERSION") || tag.equals("FEATURES") || tag.equals("ORIGIN"))
+			return tag;
+		return null;
+	}
+
+	private void end_section(final GenbankRecord gbr, final String tag) throws InvalidGenbankRecordException {
+		if (tag == null || tag.equals("ORIGIN"))
+			return;
+		if (tag.equals("FEATURES")) {
+			end_feature(gbr);
+		} else if (tag.equals("DEFINITION")) {
+			gbr.set_definition(m_section.toString());
+		} else if (tag.equals("SOURCE")) {
+			gbr.set_taxonomy(m_section.toString());
+		} else if (tag.equals("COMMENT")) {
+			gbr.set_comment(m_section.toString());
+		} else if (tag.equals("ACCESSION")) {
+			gbr.set_accession(m_section.toString().trim());
+		} else if (tag.equals("VERSION")) {
+			gbr.set_version(m_section.toString().trim());
+		}
+	}
+
+	/**
+	 * A line indented by less than nine whitespace characters starts a feature (the key is the letters which follow),
+	 * otherwise it continues the current feature
+	 */
+	private void feature_line(final String line, final GenbankRecord gbr) throws InvalidGenbankRecordException {
+		int len = line.length();
+		int n_spaces = 0;
+		while (n_spaces < len && Character.isWhitespace(line.charAt(n_spaces))) {
+			n_spaces++;
+		}
+		if (n_spaces < 9) {
+			// the previous feature includes the indentation of this line
+			if (m_feature_key != null) {
+				m_feature.append('\n');
+				m_feature.append(line, 0, n_spaces);
+				end_feature(gbr);
+			}
+			int end = n_spaces;
+			while (end < len && Character.isLetter(line.charAt(end))) {
+				end++;
+			}
+			m_feature_key = line.substring(n_spaces, end).toLowerCase();
+			m_feature.setLength(0);
+			m_feature.append(line, end, len);
+		} else if (m_feature_key != null) {
+			m_feature.append('\n');
+			m_feature.append(line);
+		}
+	}
+
+	private void end_feature(final GenbankRecord gbr) throws InvalidGenbankRecordException {
+		if (m_feature_key == null)
+			return;
+		if (m_listener != null)
+			m_listener.parse_section(m_feature_key, gbr.get_accession(), m_feature.toString());
+		m_feature_key = null;
+	}
+
+	private void add_residues(final String line, int start) {
+		for (int i=start; i<line.length(); i++) {
+			char c = line.charAt(i);
+			if (Character.isLetter(c))
+				m_residues.append(c);
+		}
+	}
+
+	private static void parse_locus(final String line, final GenbankRecord gbr) throws InvalidGenbankRecordException {
+		List<String> tok = new ArrayList<String>(8);
+		int len = line.length();
+		for (int i=0; i<len; ) {
+			while (i < len && is_space(line.charAt(i))) {
+				i++;
+			}
+			int start = i;
+			while (i < len && !is_space(line.charAt(i))) {
+				i++;
+			}
+			if (i > start)
+				tok.add(line.substring(start, i));
+		}
+		if (tok.size() < 7) {
+			throw new InvalidGenbankRecordException("Cannot match locus: <"+line+">");
+		}
+		gbr.set_locus_name(tok.get(1));
+		if (tok.get(3).equals("aa") || tok.get(3).equals("bp")) {
+			gbr.set_locus_length(tok.get(2)+tok.get(3));
+		} else {
+			gbr.set_locus_length(tok.get(2));
+		}
+		gbr.set_molecule_type(tok.get(4)+' '+tok.get(5));
+		gbr.set_division(tok.get(6));
+		gbr.set_last_modified(tok.get(tok.size()-1));
+	}
+
+	/**
+	 * Adds the <code>/name="value"</code> qualifiers from the content of a feature to <code>props</code>, with the
+	 * names in lower case. As for the regular expression <code>\s/(\w+)="([^"]+?)"\s*$</code> used previously, a
+	 * qualifier is only recognised if it follows whitespace and its (non-empty) value ends the line.
+	 */
+	public static void parse_qualifiers(final String content, final Map<String,String> props) {
+		int len = content.length();
+		int i   = content.indexOf('/');
+		while (i >= 0) {
+			if (i > 0 && is_space(content.charAt(i-1))) {
+				int name_end = i + 1;
+				while (name_end < len && is_word(content.charAt(name_end))) {
+					name_end++;
+				}
+				if (name_end > i + 1 && name_end + 1 < len &&
+						content.charAt(name_end) == '=' && content.charAt(name_end+1) == '"') {
+					int value_start = name_end + 2;
+					int value_end   = content.indexOf('"', value_start);
+					if (value_end > value_start && ends_line(content, value_end+1)) {
+						props.put(content.substring(i+1, name_end).toLowerCase(), content.substring(value_start, value_end));
+						i = content.indexOf('/', value_end+1);
+						continue;
+					}
+				}
+			}
+			i = content.indexOf('/', i+1);
+		}
+	}
+
+	/**
+	 * Returns true if only whitespace lies between <code>pos</code> and the end of the line
+	 */
+	private static boolean ends_line(final String s, int pos) {
+		int len = s.length();
+		for (; pos < len; pos++) {
+			char c = s.charAt(pos);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+				return true;
+			if (!is_space(c))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean is_space(char c) {
+		return (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r');
+	}
+
+	private static boolean is_word(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+}
@@ -0,0 +1,94 @@
+package au.edu.unimelb.plantcell.algorithms.orthology;
+
+import java.util.Arrays;
+
+/**
+ * Maps each distinct accession to a dense integer ID (0, 1, 2...) so that BLAST hits can be kept in
+ * primitive arrays. Also records which BLAST results (if any) each accession was a query in, as this
+ * identifies the species it comes from. Not thread-safe.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class AccessionIndex {
+	private int[]    m_slots    = new int[4096];		// open addressing: ID+1 or 0 if empty
+	private String[] m_accsns   = new String[1024];		// by ID
+	private int[]    m_owner    = new int[1024];		// by ID
+	private int      m_n        = 0;
+
+	public AccessionIndex() {
+		Arrays.fill(m_owner, -1);
+	}
+
+	/**
+	 * Returns the ID for the specified accession, allocating a new ID if it has not been seen before
+	 */
+	public int intern(final String accsn) {
+		int mask = m_slots.length - 1;
+		int slot = hash(accsn) & mask;
+		int id;
+		while ((id = m_slots[slot]) != 0) {
+			if (m_accsns[id-1].equals(accsn))
+				return id-1;
+			slot = (slot + 1) & mask;
+		}
+
+		id = m_n++;
+		if (id >= m_accsns.length) {
+			m_accsns = Arrays.copyOf(m_accsns, m_accsns.length * 2);
+			int old_len = m_owner.length;
+			m_owner  = Arrays.copyOf(m_owner, old_len * 2);
+			Arrays.fill(m_owner, old_len, m_owner.length, -1);
+		}
+		m_accsns[id] = accsn;
+		m_slots[slot] = id+1;
+		if (m_n * 2 > m_slots.length)
+			rehash();
+		return id;
+	}
+
+	private static int hash(final String s) {
+		int h = s.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private void rehash() {
+		int[] slots = new int[m_slots.length * 2];
+		int mask = slots.length - 1;
+		for (int id=0; id<m_n; id++) {
+			int slot = hash(m_accsns[id]) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id+1;
+		}
+		m_slots = slots;
+	}
+
+	/**
+	 * Returns the number of distinct accessions seen
+	 */
+	public int size() {
+		return m_n;
+	}
+
+	public String getAccession(int id) {
+		return m_accsns[id];
+	}
+
+	/**
+	 * Records that the accession is a query in the specified BLAST results, unless it was a query in
+	 * earlier results
+	 */
+	public void setOwner(int id, int table) {
+		if (m_owner[id] < 0)
+			m_owner[id] = table;
+	}
+
+	/**
+	 * Returns the index of the BLAST results the accession is a query in or -1 if it was only ever a subject
+	 */
+	public int getOwner(int id) {
+		return m_owner[id];
+	}
+}
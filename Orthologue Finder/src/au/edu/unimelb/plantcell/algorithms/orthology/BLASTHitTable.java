@@ -0,0 +1,104 @@
+package au.edu.unimelb.plantcell.algorithms.orthology;
+
+import java.util.Arrays;
+
+/**
+ * The hits from a single BLAST results file, kept as columns of primitive arrays (accessions are
+ * represented by their {@link AccessionIndex} ID). Once loaded, <code>sortByQuery()</code> groups the hits
+ * for each query together.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class BLASTHitTable {
+	private int[]    m_query    = new int[1024];
+	private int[]    m_subject  = new int[1024];
+	private double[] m_evalue   = new double[1024];
+	private double[] m_bitscore = new double[1024];
+	private int      m_n        = 0;
+	private int[]    m_start;			// hits for query q are [m_start[q], m_start[q+1]) once sorted
+
+	public void add(int query, int subject, double evalue, double bitscore) {
+		if (m_n >= m_query.length) {
+			int len = m_query.length * 2;
+			m_query    = Arrays.copyOf(m_query, len);
+			m_subject  = Arrays.copyOf(m_subject, len);
+			m_evalue   = Arrays.copyOf(m_evalue, len);
+			m_bitscore = Arrays.copyOf(m_bitscore, len);
+		}
+		m_query[m_n]    = query;
+		m_subject[m_n]  = subject;
+		m_evalue[m_n]   = evalue;
+		m_bitscore[m_n] = bitscore;
+		m_n++;
+		m_start = null;
+	}
+
+	/**
+	 * Groups the hits by query ID (a counting sort, so the input order of each query's hits is kept). Does not
+	 * require BLAST to have reported each query's hits together.
+	 *
+	 * @param n_ids the number of accession IDs (ie. <code>AccessionIndex.size()</code>)
+	 */
+	public void sortByQuery(int n_ids) {
+		int[] start = new int[n_ids+1];
+		for (int i=0; i<m_n; i++) {
+			start[m_query[i]+1]++;
+		}
+		for (int q=0; q<n_ids; q++) {
+			start[q+1] += start[q];
+		}
+
+		int[] next        = Arrays.copyOf(start, n_ids);
+		int[] query       = new int[m_n];
+		int[] subject     = new int[m_n];
+		double[] evalue   = new double[m_n];
+		double[] bitscore = new double[m_n];
+		for (int i=0; i<m_n; i++) {
+			int dest = next[m_query[i]]++;
+			query[dest]    = m_query[i];
+			subject[dest]  = m_subject[i];
+			evalue[dest]   = m_evalue[i];
+			bitscore[dest] = m_bitscore[i];
+		}
+		m_query    = query;
+		m_subject  = subject;
+		m_evalue   = evalue;
+		m_bitscore = bitscore;
+		m_start    = start;
+	}
+
+	public int size() {
+		return m_n;
+	}
+
+	/**
+	 * Returns the index of the first hit for the specified query (only valid after <code>sortByQuery()</code>)
+	 */
+	public int getStart(int query) {
+		return m_start[query];
+	}
+
+	/**
+	 * Returns one past the index of the last hit for the specified query (only valid after <code>sortByQuery()</code>)
+	 */
+	public int getEnd(int query) {
+		return m_start[query+1];
+	}
+
+	public int getQuery(int hit) {
+		return m_query[hit];
+	}
+
+	public int getSubject(int hit) {
+		return m_subject[hit];
+	}
+
+	public double getEvalue(int hit) {
+		return m_evalue[hit];
+	}
+
+	public double getBitScore(int hit) {
+		return m_bitscore[hit];
+	}
+}
@@ -33,6 +33,11 @@ public class OrthologueFinderNodeDialog extends DefaultNodeSettingsPane {
         addDialogComponent(new DialogComponentFileChooser(new SettingsModelString(OrthologueFinderNodeModel.CFGKEY_RESULTS_DB2, ""), "db2-history", ".csv|.tsv|.txt"));
 
         addDialogComponent(new DialogComponentString(new SettingsModelString(OrthologueFinderNodeModel.CFGKEY_EPSILON, "1e-50"), "Epsilon"));            
+        
+        createNewGroup("Performance");
+        addDialogComponent(new DialogComponentNumber(new SettingsModelIntegerBounded(OrthologueFinderNodeModel.CFGKEY_THREADS, 
+        		OrthologueFinderNodeModel.getDefaultThreadCount(), 1, OrthologueFinderNodeModel.MAX_THREADS), 
+        		"Number of threads (the hits for each organism are processed in parallel)", 1));
     }
 }
 
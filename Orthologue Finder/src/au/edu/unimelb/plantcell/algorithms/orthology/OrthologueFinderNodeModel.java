@@ -6,13 +6,9 @@ import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 
 import org.knime.base.node.util.BufferedFileReader;
 import org.knime.core.data.DataCell;
@@ -56,14 +52,15 @@ public class OrthologueFinderNodeModel extends NodeModel {
     public static final String CFGKEY_RESULTS_DB2 = "results-db2";
     public static final String CFGKEY_ALGORITHM   = "algorithm";
 	public static final String CFGKEY_EPSILON     = "epsilon";
+	public static final String CFGKEY_THREADS     = "parallel-threads";
+	
+	public static final int MAX_THREADS = 64;
     
     private final SettingsModelString m_hits_db1 = new SettingsModelString(CFGKEY_RESULTS_DB1, "");
     private final SettingsModelString m_hits_db2 = new SettingsModelString(CFGKEY_RESULTS_DB2, "");
     private final SettingsModelString m_algo     = new SettingsModelString(CFGKEY_ALGORITHM, "RBH");
     private final SettingsModelString m_epsilon  = new SettingsModelString(CFGKEY_EPSILON, "1e-50");
-    
-    // internal state (not persisted)
-    private final Map<String,BLASTBucket> m_hits = new HashMap<String,BLASTBucket>();
+    private final SettingsModelIntegerBounded m_threads = new SettingsModelIntegerBounded(CFGKEY_THREADS, getDefaultThreadCount(), 1, MAX_THREADS);
     
     /**
      * Constructor for the node model.
@@ -71,6 +68,13 @@ public class OrthologueFinderNodeModel extends NodeModel {
     protected OrthologueFinderNodeModel() {
        super(0, 2);
     }
+    
+    /**
+     * Returns the default number of threads: one per processor
+     */
+    public static int getDefaultThreadCount() {
+    	return Math.min(MAX_THREADS, Math.max(1, Runtime.getRuntime().availableProcessors()));
+    }
 
     /**
      * {@inheritDoc}
@@ -81,49 +85,51 @@ public class OrthologueFinderNodeModel extends NodeModel {
 
         logger.info("Extracting putative orthologs from BLAST results: epsilon "+m_epsilon.getStringValue());
 
+        double epsilon;
+        try {
+        	epsilon = Double.parseDouble(m_epsilon.getStringValue());
+        } catch (NumberFormatException nfe) {
+        	throw new InvalidSettingsException("Invalid epsilon: "+m_epsilon.getStringValue());
+        }
+        
         DataTableSpec[] tables = make_output_specs();
-        File h1 = new File(m_hits_db1.getStringValue());
-        File h2 = new File(m_hits_db2.getStringValue());
-        BufferedReader rdr1 = new BufferedReader(new InputStreamReader(new FileInputStream(h1)));
-        BufferedReader rdr2 = new BufferedReader(new InputStreamReader(new FileInputStream(h2)));
+        File[] files = new File[] { new File(m_hits_db1.getStringValue()), new File(m_hits_db2.getStringValue()) };
         BufferedDataContainer c = exec.createDataContainer(tables[0]);
         BufferedDataContainer c2= exec.createDataContainer(tables[1]);
         
-        // load blast hits into internal structure
-        m_hits.clear();
-        process_blast_hits(rdr1, c2, true);
-        process_blast_hits(rdr2, c2, false);
-        
+        // load blast hits into internal structure: each file is the hits for one species' sequences
+        AccessionIndex accsns = new AccessionIndex();
+        List<BLASTHitTable> hits = new ArrayList<BLASTHitTable>();
+        for (int t=0; t<files.length; t++) {
+        	BufferedReader rdr = new BufferedReader(new InputStreamReader(new FileInputStream(files[t])));
+        	try {
+        		hits.add(process_blast_hits(rdr, c2, t, accsns, exec));
+        	} finally {
+        		rdr.close();
+        	}
+        	logger.info("Loaded "+hits.get(t).size()+" hits from "+files[t].getName());
+        }
         
         // check best hit reciprocally and output to port where suitable...
-        HashSet<PutativeOrthologue> done = new HashSet<PutativeOrthologue>();
+        ReciprocalBestHits rbh = new ReciprocalBestHits(accsns, hits, epsilon);
+        rbh.run(m_threads.getIntValue());
+        exec.checkCanceled();
         int id = 1;
-        for (String key : m_hits.keySet()) {
-        	BLASTBucket               b1 = m_hits.get(key);
-        	OrthologueFilterInterface ofi = new BestHitOnly();
-        	List<BLASTBucket>  possibles = b1.getBest(m_hits);
-        	
-        	for (BLASTBucket b2 : possibles) {
-        		PutativeOrthologue[] orthos = b1.getOrthologues(ofi, b2, m_hits);
-        		
-        		for (PutativeOrthologue o : orthos) {
-	        		if (!done.contains(o)) {
-	        			DataCell[] accsn = new DataCell[2];
-	        			accsn = new DataCell[] { new StringCell(o.getKey(true)), new StringCell(o.getKey(false)) };
-	        			
-	        			c.addRowToTable(new DefaultRow(new RowKey("r"+id++), accsn));
-	        			// never again report an ortholog for the pair denoted by o
-	        			done.add(o);
-	        		}
+        for (int i=0; i<files.length; i++) {
+        	for (int j=i+1; j<files.length; j++) {
+        		int[] orthos = rbh.getOrthologues(i, j);
+        		for (int k=0; k<orthos.length; k += 2) {
+        			DataCell[] accsn = new DataCell[] { new StringCell(accsns.getAccession(orthos[k])), 
+        												new StringCell(accsns.getAccession(orthos[k+1])) };
+        			c.addRowToTable(new DefaultRow(new RowKey("r"+id++), accsn));
         		}
         	}
         }
+        logger.info("Found "+(id-1)+" putative orthologues.");
         
         // once we are done, we close the container and return its table
         c.close();
         c2.close();
-        rdr1.close();
-        rdr2.close();
         
         BufferedDataTable out = c.getTable();
         BufferedDataTable out2= c2.getTable();
@@ -131,34 +137,80 @@ public class OrthologueFinderNodeModel extends NodeModel {
     }
 
     /**
-     * Reads each line from the specified <code>Reader</code> and populates the internal member
-     * with the key data structure for examination of the blast results
+     * Reads each line from the specified <code>Reader</code>, adding each hit to the raw output port and
+     * returning the hits for examination. The fields are located in place (no regular expressions) and the
+     * accessions are interned so that repeated accessions share the same string.
      * 
      * @param rdr
+     * @param table index of the BLAST results being read (0 for A, 1 for B...)
      * @throws IOException
      */
-    private void process_blast_hits(BufferedReader rdr, BufferedDataContainer raw_port, boolean is_A) throws IOException {
+    private BLASTHitTable process_blast_hits(BufferedReader rdr, BufferedDataContainer raw_port, int table, 
+    		final AccessionIndex accsns, final ExecutionContext exec) throws IOException, CanceledExecutionException {
+    	BLASTHitTable ret = new BLASTHitTable();
+    	String prefix = String.valueOf((char) ('A' + table));
+    	int[] start = new int[12];
+    	int[] end   = new int[12];
     	String line = null;
+    	String last_query = null;
+    	int    last_qid   = -1;
     	while ((line = rdr.readLine()) != null) {
-    		if (line == null || line.trim().length() < 1 || line.startsWith("#")) {
+    		if (line.trim().length() < 1 || line.startsWith("#")) {
     			continue;
     		}
-    		String[] fields = line.split("\\t");
-    		if (fields.length != 12) {
-    			throw new IOException("Wrong number of BLAST fields: expected 12 got "+fields.length);
+    		int n = 0;
+    		int pos = 0;
+    		while (true) {
+    			int tab = line.indexOf('\t', pos);
+    			if (n < 12) {
+    				start[n] = pos;
+    				end[n]   = (tab < 0) ? line.length() : tab;
+    			}
+    			n++;
+    			if (tab < 0)
+    				break;
+    			pos = tab + 1;
+    		}
+    		if (n != 12) {
+    			throw new IOException("Wrong number of BLAST fields: expected 12 got "+n);
     		}
     		
-    		BLASTRecord br = new BLASTRecord(fields, is_A);
-    		raw_port.addRowToTable(br.asRow());
-    		String k = br.getQueryAccsn();
-    		BLASTBucket l = m_hits.get(k);
-    		if (l == null) {
-    			BLASTBucket al = new BLASTBucket(new BigDecimal(m_epsilon.getStringValue()), br);
-    			m_hits.put(k, al);
+    		// hits for a query are usually together, so avoid interning the query each time
+    		int qid;
+    		if (last_query != null && last_query.length() == end[0] && line.startsWith(last_query)) {
+    			qid = last_qid;
     		} else {
-    			l.add(br);
+    			qid = accsns.intern(line.substring(0, end[0]));
+    			accsns.setOwner(qid, table);
+    			last_query = accsns.getAccession(qid);
+    			last_qid   = qid;
+    		}
+    		int sid = accsns.intern(line.substring(start[1], end[1]));
+    		
+    		try {
+	    		double evalue   = Double.parseDouble(line.substring(start[10], end[10]));
+	    		double bitscore = Double.parseDouble(line.substring(start[11], end[11]).trim());
+	    		ret.add(qid, sid, evalue, bitscore);
+	    		
+	    		DataCell[] cells = new DataCell[12];
+	    		cells[0] = new StringCell(last_query);
+	    		cells[1] = new StringCell(accsns.getAccession(sid));
+	    		cells[2] = new DoubleCell(Double.parseDouble(line.substring(start[2], end[2])));
+	    		for (int i=3; i<10; i++) {
+	    			cells[i] = new IntCell(Integer.parseInt(line.substring(start[i], end[i])));
+	    		}
+	    		cells[10]= new DoubleCell(evalue);
+	    		cells[11]= new DoubleCell(bitscore);
+	    		raw_port.addRowToTable(new DefaultRow(new RowKey(prefix+(ret.size())), cells));
+    		} catch (NumberFormatException nfe) {
+    			throw new IOException("Invalid BLAST hit: "+line);
+    		}
+    		
+    		if (ret.size() % 10000 == 0) {
+    			exec.checkCanceled();
     		}
     	}
+    	return ret;
 	}
 
 	/**
@@ -235,6 +287,7 @@ public class OrthologueFinderNodeModel extends NodeModel {
     	m_hits_db2.saveSettingsTo(settings);
     	m_algo.saveSettingsTo(settings);
     	m_epsilon.saveSettingsTo(settings);
+    	m_threads.saveSettingsTo(settings);
     }
 
     /**
@@ -249,6 +302,10 @@ public class OrthologueFinderNodeModel extends NodeModel {
 
     	if (settings.containsKey(CFGKEY_ALGORITHM))
     		m_algo.loadSettingsFrom(settings);
+    	if (settings.containsKey(CFGKEY_THREADS))
+    		m_threads.loadSettingsFrom(settings);
+    	else
+    		m_threads.setIntValue(getDefaultThreadCount());
     }
 
     /**
@@ -263,6 +320,8 @@ public class OrthologueFinderNodeModel extends NodeModel {
 
     	if (settings.containsKey(CFGKEY_ALGORITHM))
     		m_algo.validateSettings(settings);
+    	if (settings.containsKey(CFGKEY_THREADS))
+    		m_threads.validateSettings(settings);
     }
     
     /**
@@ -0,0 +1,205 @@
+package au.edu.unimelb.plantcell.algorithms.orthology;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes reciprocal best hits (RBH) between any number of species. Each {@link BLASTHitTable} holds the hits
+ * for the proteins of one species (as queries) against the other species, so the species of an accession is the
+ * table it is a query in. The best hits of each query are computed separately for each other species: these are
+ * the hits whose e-value is within epsilon of the top hit (highest bitscore, then lowest e-value) to that species.
+ * A pair of accessions from different species is reported if each is a best hit of the other.
+ *
+ * The best hits for each table, and then the orthologues for each pair of tables, are computed in parallel.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class ReciprocalBestHits {
+	private final AccessionIndex      m_accsns;
+	private final List<BLASTHitTable> m_tables;
+	private final double              m_epsilon;
+
+	// best hits for accession q are m_best[m_owner(q)][m_best_start[q]..m_best_end[q]) ie. subject IDs
+	private final int[][] m_best;
+	private final int[]   m_best_start;
+	private final int[]   m_best_end;
+
+	// orthologues for tables (i, j) as flattened (accession from i, accession from j) pairs
+	private final int[][][] m_orthologues;
+
+	public ReciprocalBestHits(final AccessionIndex accsns, final List<BLASTHitTable> tables, double epsilon) {
+		assert(accsns != null && tables != null);
+		m_accsns     = accsns;
+		m_tables     = tables;
+		m_epsilon    = epsilon;
+		m_best       = new int[tables.size()][];
+		m_best_start = new int[accsns.size()];
+		m_best_end   = new int[accsns.size()];
+		m_orthologues= new int[tables.size()][tables.size()][];
+	}
+
+	/**
+	 * Computes the orthologues for every pair of tables, using up to the specified number of threads
+	 */
+	public void run(int n_threads) throws Exception {
+		final int n_ids = m_accsns.size();
+		ExecutorService es = Executors.newFixedThreadPool(Math.max(1, n_threads));
+		try {
+			List<Future<?>> l = new ArrayList<Future<?>>();
+			for (int t=0; t<m_tables.size(); t++) {
+				final int table = t;
+				l.add(es.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						m_tables.get(table).sortByQuery(n_ids);
+						m_best[table] = computeBestHits(table);
+						return null;
+					}
+
+				}));
+			}
+			waitFor(l);
+
+			l.clear();
+			for (int i=0; i<m_tables.size(); i++) {
+				for (int j=i+1; j<m_tables.size(); j++) {
+					final int a = i;
+					final int b = j;
+					l.add(es.submit(new Callable<Void>() {
+
+						@Override
+						public Void call() throws Exception {
+							m_orthologues[a][b] = computeOrthologues(a, b);
+							return null;
+						}
+
+					}));
+				}
+			}
+			waitFor(l);
+		} finally {
+			es.shutdownNow();
+		}
+	}
+
+	private void waitFor(final List<Future<?>> l) throws Exception {
+		try {
+			for (Future<?> f : l) {
+				f.get();
+			}
+		} catch (ExecutionException ee) {
+			Throwable t = ee.getCause();
+			if (t instanceof Exception)
+				throw (Exception) t;
+			throw ee;
+		}
+	}
+
+	/**
+	 * Returns the orthologues for the two (different) tables as flattened pairs: the even elements are from
+	 * table <code>a</code> and the odd elements from <code>b</code>. Only valid after <code>run()</code>.
+	 */
+	public int[] getOrthologues(int a, int b) {
+		assert(a != b);
+		if (a < b)
+			return m_orthologues[a][b];
+		int[] swapped = m_orthologues[b][a].clone();
+		for (int k=0; k<swapped.length; k += 2) {
+			int tmp = swapped[k];
+			swapped[k]   = swapped[k+1];
+			swapped[k+1] = tmp;
+		}
+		return swapped;
+	}
+
+	/**
+	 * Single pass over the query-sorted hits of the specified table, recording the best hits of each query
+	 * to each other species. Returns the best hit subject IDs (the range for each query is recorded in
+	 * <code>m_best_start</code> and <code>m_best_end</code>).
+	 */
+	private int[] computeBestHits(int table) {
+		BLASTHitTable hits = m_tables.get(table);
+		int n_ids = m_accsns.size();
+		int[] top = new int[m_tables.size()];		// index of top hit to each species for the current query
+		Arrays.fill(top, -1);
+		int[] best = new int[1024];
+		int n = 0;
+
+		for (int q=0; q<n_ids; q++) {
+			int start = hits.getStart(q);
+			int end   = hits.getEnd(q);
+			if (start == end || m_accsns.getOwner(q) != table)
+				continue;
+
+			for (int i=start; i<end; i++) {
+				int species = m_accsns.getOwner(hits.getSubject(i));
+				if (species < 0 || species == table)
+					continue;
+				int cur = top[species];
+				if (cur < 0 || hits.getBitScore(i) > hits.getBitScore(cur) ||
+						(hits.getBitScore(i) == hits.getBitScore(cur) && hits.getEvalue(i) < hits.getEvalue(cur))) {
+					top[species] = i;
+				}
+			}
+
+			m_best_start[q] = n;
+			for (int i=start; i<end; i++) {
+				int subject = hits.getSubject(i);
+				int species = m_accsns.getOwner(subject);
+				if (species < 0 || species == table)
+					continue;
+				if (Math.abs(hits.getEvalue(i) - hits.getEvalue(top[species])) >= m_epsilon)
+					continue;
+				// BLAST may report several HSPs for the same subject
+				if (contains(best, m_best_start[q], n, subject))
+					continue;
+				if (n >= best.length)
+					best = Arrays.copyOf(best, best.length * 2);
+				best[n++] = subject;
+			}
+			m_best_end[q] = n;
+			Arrays.fill(top, -1);
+		}
+		return Arrays.copyOf(best, n);
+	}
+
+	/**
+	 * Returns the pairs (query from table a, query from table b) which are each others best hit
+	 */
+	private int[] computeOrthologues(int a, int b) {
+		int[] ret = new int[1024];
+		int n = 0;
+		int[] best_a = m_best[a];
+		int[] best_b = m_best[b];
+		for (int q=0; q<m_accsns.size(); q++) {
+			if (m_accsns.getOwner(q) != a)
+				continue;
+			for (int k=m_best_start[q]; k<m_best_end[q]; k++) {
+				int s = best_a[k];
+				if (m_accsns.getOwner(s) != b || !contains(best_b, m_best_start[s], m_best_end[s], q))
+					continue;
+				if (n + 2 > ret.length)
+					ret = Arrays.copyOf(ret, ret.length * 2);
+				ret[n++] = q;
+				ret[n++] = s;
+			}
+		}
+		return Arrays.copyOf(ret, n);
+	}
+
+	private static boolean contains(final int[] a, int start, int end, int val) {
+		for (int i=start; i<end; i++) {
+			if (a[i] == val)
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,97 @@
+package au.edu.unimelb.plantcell.core.cells;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures {@link SequenceImplSerializer} throughput (millions of residues per second) for nucleotide and protein sequences
+ * of 1kb, 100kb and 100Mb, in memory via the {@link CellDataOutputBuffer} and {@link CellDataInputBuffer} used for tracks.
+ * Deserialised cells keep their residues packed until used, so the time to deserialise and then decode the residues to a
+ * <code>String</code> is also reported. Each copy is checked against the original.
+ *
+ * Not part of the plugin build. Compile against the plugin classes and KNIME core, and run with eg.
+ * <pre>java -Xmx2g -cp bin:bench-bin:knime-core.jar au.edu.unimelb.plantcell.core.cells.SequenceSerializerBenchmark</pre>
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class SequenceSerializerBenchmark {
+	private static final int[] LENGTHS = new int[] { 1000, 100 * 1000, 100 * 1000 * 1000 };
+	private static final long  RESIDUES_PER_RUN = 200L * 1000L * 1000L;
+	private static final int   RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+		SequenceImplSerializer<SequenceCell> ser = new SequenceImplSerializer<SequenceCell>();
+		Random r = new Random(42);
+		for (SequenceType st : new SequenceType[] { SequenceType.DNA, SequenceType.AA }) {
+			String alphabet = st.isNucleotides() ? "ACGT" : "ACDEFGHIKLMNPQRSTVWY";
+			for (int len : LENGTHS) {
+				SequenceCell cell = new SequenceCell(st, "seq1", random(r, alphabet, len));
+				int reps = (int) Math.max(1L, RESIDUES_PER_RUN / len);
+				CellDataOutputBuffer out = new CellDataOutputBuffer();
+
+				double[] ser_rate   = new double[RUNS];
+				double[] deser_rate = new double[RUNS];
+				double[] decode_rate= new double[RUNS];
+				for (int run=0; run<RUNS; run++) {
+					long start = System.nanoTime();
+					for (int i=0; i<reps; i++) {
+						out.reset();
+						ser.serialize(cell, out);
+					}
+					ser_rate[run] = rate(len, reps, start);
+
+					byte[] bytes = bytes(out);
+					SequenceCell copy = null;
+					start = System.nanoTime();
+					for (int i=0; i<reps; i++) {
+						copy = ser.deserialize(new CellDataInputBuffer(bytes));
+					}
+					deser_rate[run] = rate(len, reps, start);
+
+					String residues = null;
+					start = System.nanoTime();
+					for (int i=0; i<reps; i++) {
+						residues = ser.deserialize(new CellDataInputBuffer(bytes)).getStringValue();
+					}
+					decode_rate[run] = rate(len, reps, start);
+					if (!copy.getStringValue().equals(cell.getStringValue()) || !residues.equals(cell.getStringValue()))
+						throw new IllegalStateException("Sequence changed by serialisation: "+st+" "+len);
+				}
+				System.out.printf("%s %,d residues (%,d bytes): serialize %.0f, deserialize %.0f, deserialize and decode %.0f M residues/s%n",
+						st, len, out.size(), median(ser_rate), median(deser_rate), median(decode_rate));
+			}
+		}
+	}
+
+	private static String random(final Random r, final String alphabet, int len) {
+		char[] c = new char[len];
+		for (int i=0; i<len; i++) {
+			c[i] = alphabet.charAt(r.nextInt(alphabet.length()));
+		}
+		return new String(c);
+	}
+
+	private static double rate(int len, int reps, long start_nanos) {
+		double secs = (System.nanoTime() - start_nanos) / 1e9;
+		return ((double) len) * reps / secs / 1e6;
+	}
+
+	/**
+	 * Returns what was written to <code>out</code>, without the length prefix
+	 */
+	private static byte[] bytes(final CellDataOutputBuffer out) throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream(out.size() + 4);
+		out.writeWithLength(new DataOutputStream(b));
+		return Arrays.copyOfRange(b.toByteArray(), 4, b.size());
+	}
+
+	private static double median(final double[] vals) {
+		double[] sorted = vals.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
@@ -0,0 +1,156 @@
+package au.edu.unimelb.plantcell.core.regions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares two tracks of 10,000 regions (1 to 2000 residues, eg. BLAST hits) on a 10Mb sequence with {@link RegionOverlaps},
+ * for each of the Track Filter modes, against the bit vector loop it replaced: a sequence-length bit vector for every region
+ * of A and for every (A, B) pair, ANDed together. For the pairwise modes the bit vector loop is only timed for the first
+ * few regions of A and extrapolated to the whole track. <code>java.util.BitSet</code> stands in for KNIME's <code>DenseBitVector</code>, which
+ * likewise allocates <code>length / 64</code> words per vector.
+ *
+ * Before timing, both are run on small random tracks (including empty regions) and must report the same pairs and overlap extents.
+ *
+ * Not part of the plugin build. Compile against the plugin classes and run with eg.
+ * <pre>java -cp bin:bench-bin au.edu.unimelb.plantcell.core.regions.RegionOverlapsBenchmark [regions] [sequence length]</pre>
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class RegionOverlapsBenchmark {
+	private static final String[] MODES = new String[] { "overlaps", "A completely within B", "B completely within A", "A not overlapping B" };
+	private static final int MAX_WIDTH   = 2000;
+	private static final int BITVECTOR_A = 5;
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int n_regions = (args.length > 0) ? Integer.parseInt(args[0]) : 10 * 1000;
+		int seq_len   = (args.length > 1) ? Integer.parseInt(args[1]) : 10 * 1000 * 1000;
+		Random r = new Random(42);
+
+		int n_checked = 0;
+		for (int t=0; t<500; t++) {
+			int len = 20 + r.nextInt(500);
+			List<RegionInterface> a = random(r, r.nextInt(40), len, 1 + r.nextInt(60), true);
+			List<RegionInterface> b = random(r, r.nextInt(40), len, 1 + r.nextInt(60), true);
+			RegionOverlaps ro = new RegionOverlaps(a, b);
+			for (int mode=0; mode<MODES.length; mode++) {
+				List<Integer> extents = new ArrayList<Integer>();
+				int[] expected = bitvectors(a, b, mode, len, extents);
+				int[] got      = sweep(ro, mode);
+				if (!Arrays.equals(expected, got))
+					throw new IllegalStateException("Results differ for "+MODES[mode]+" on track pair "+t);
+				for (int k=0; mode == 0 && k<got.length; k += 2) {
+					if (ro.getOverlapStart(got[k], got[k+1]) != extents.get(k) || ro.getOverlapEnd(got[k], got[k+1]) != extents.get(k+1))
+						throw new IllegalStateException("Overlap extent differs on track pair "+t);
+				}
+				n_checked += got.length;
+			}
+		}
+		System.out.printf("500 small track pairs agree (%,d results)%n", n_checked);
+
+		List<RegionInterface> a = random(r, n_regions, seq_len, MAX_WIDTH, false);
+		List<RegionInterface> b = random(r, n_regions, seq_len, MAX_WIDTH, false);
+		System.out.printf("%,d regions per track on %,d residues%n", n_regions, seq_len);
+		for (int mode=0; mode<MODES.length; mode++) {
+			double[] ms = new double[RUNS];
+			int n = 0;
+			for (int run=0; run<RUNS; run++) {
+				long start = System.nanoTime();
+				n = sweep(new RegionOverlaps(a, b), mode).length;
+				ms[run] = (System.nanoTime() - start) / 1e6;
+			}
+			if (mode != 3)
+				n /= 2;
+
+			// the pairwise modes are extrapolated from the first few regions of A, but not overlapping is linear so is run in full
+			int sample = (mode == 3) ? a.size() : Math.min(BITVECTOR_A, a.size());
+			long start = System.nanoTime();
+			bitvectors(a.subList(0, sample), b, mode, seq_len, null);
+			double bv_secs = (System.nanoTime() - start) / 1e9 * a.size() / sample;
+			System.out.printf("%-22s sweep %.1f ms (%,d results), bit vectors %.1f s%s%n", MODES[mode], median(ms), n, bv_secs,
+					(sample < a.size()) ? " (extrapolated from "+sample+" regions of A)" : "");
+		}
+	}
+
+	private static int[] sweep(final RegionOverlaps ro, int mode) {
+		switch (mode) {
+		case 0:  return ro.getOverlapping();
+		case 1:  return ro.getAWithinB();
+		case 2:  return ro.getBWithinA();
+		default: return ro.getANotOverlapping();
+		}
+	}
+
+	/**
+	 * The loops used by TrackFilterNodeModel before {@link RegionOverlaps}. For the overlap mode, the first and one past the last
+	 * shared residue of each pair are added to <code>extents</code> (if not null).
+	 */
+	private static int[] bitvectors(final List<RegionInterface> a, final List<RegionInterface> b, int mode, int len, final List<Integer> extents) {
+		List<Integer> ret = new ArrayList<Integer>();
+		if (mode == 3) {
+			BitSet bv_b = new BitSet(len);
+			for (RegionInterface ri : b) {
+				bv_b.or(bitvector(len, ri));
+			}
+			for (int i=0; i<a.size(); i++) {
+				if (!bitvector(len, a.get(i)).intersects(bv_b))
+					ret.add(i);
+			}
+		} else {
+			for (int i=0; i<a.size(); i++) {
+				BitSet bv_a = bitvector(len, a.get(i));
+				for (int j=0; j<b.size(); j++) {
+					BitSet anded = bitvector(len, b.get(j));
+					int b_card = anded.cardinality();
+					anded.and(bv_a);
+					int card = anded.cardinality();
+					boolean hit = (mode == 0) ? card > 0 : (mode == 1) ? card >= bv_a.cardinality() : card >= b_card;
+					if (hit) {
+						ret.add(i);
+						ret.add(j);
+						if (mode == 0 && extents != null) {
+							extents.add(anded.nextSetBit(0));
+							extents.add(anded.length());
+						}
+					}
+				}
+			}
+		}
+		int[] vec = new int[ret.size()];
+		for (int i=0; i<vec.length; i++) {
+			vec[i] = ret.get(i);
+		}
+		return vec;
+	}
+
+	private static BitSet bitvector(int len, final RegionInterface ri) {
+		BitSet ret = new BitSet(len);
+		if (ri.getZEnd() > ri.getZStart())
+			ret.set(ri.getZStart(), ri.getZEnd());
+		return ret;
+	}
+
+	/**
+	 * Returns <code>n</code> regions of 1 to <code>max_width</code> residues (or, if <code>empties</code>, about one in six empty)
+	 */
+	private static List<RegionInterface> random(final Random r, int n, int len, int max_width, boolean empties) {
+		List<RegionInterface> ret = new ArrayList<RegionInterface>(n);
+		for (int i=0; i<n; i++) {
+			int start = r.nextInt(len);
+			int width = (empties && r.nextInt(6) == 0) ? 0 : 1 + r.nextInt(max_width);
+			ret.add(new Region(start, Math.min(len, start + width), "r"+i));
+		}
+		return ret;
+	}
+
+	private static double median(final double[] vals) {
+		double[] sorted = vals.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
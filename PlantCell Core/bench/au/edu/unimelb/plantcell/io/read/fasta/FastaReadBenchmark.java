@@ -0,0 +1,161 @@
+package au.edu.unimelb.plantcell.io.read.fasta;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the throughput of {@link MappedFastaReader} with the line-based loop it replaced
+ * (<code>BufferedReader.readLine()</code>, <code>split("\\x01")</code>, <code>trim()</code> and a <code>StringBuffer</code> per record)
+ * on a synthetic FASTA file. Both readers must report the same number of records and residues.
+ *
+ * Not part of the plugin build. Compile against the plugin classes and run with eg.
+ * <pre>java -Xmx1g -cp bin:bench-bin au.edu.unimelb.plantcell.io.read.fasta.FastaReadBenchmark [MB] [file]</pre>
+ * The file (default 1024MB in the temporary folder) is generated once, with a fixed seed, and re-used by later runs.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class FastaReadBenchmark {
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+		long mb = (args.length > 0) ? Long.parseLong(args[0]) : 1024L;
+		File f  = (args.length > 1) ? new File(args[1]) : new File(System.getProperty("java.io.tmpdir"), "fasta-bench-"+mb+"MB.fa");
+		if (!f.exists() || f.length() < mb * 1024L * 1024L) {
+			System.out.println("Generating "+f+"...");
+			generate(f, mb * 1024L * 1024L);
+		}
+		System.out.println(f+": "+f.length()+" bytes");
+
+		double[] old_mbs = new double[RUNS];
+		double[] new_mbs = new double[RUNS];
+		long[] expected = null;
+		for (int run=0; run<RUNS; run++) {
+			long start = System.nanoTime();
+			long[] got_old = readLines(f);
+			old_mbs[run] = rate(f, start);
+
+			start = System.nanoTime();
+			long[] got_new = readMapped(f);
+			new_mbs[run] = rate(f, start);
+
+			if (expected == null)
+				expected = got_old;
+			if (!Arrays.equals(expected, got_old) || !Arrays.equals(expected, got_new))
+				throw new IllegalStateException("Readers disagree: "+Arrays.toString(got_old)+" "+Arrays.toString(got_new));
+			System.out.printf("run %d: line-based %.1f MB/s, mapped %.1f MB/s%n", run+1, old_mbs[run], new_mbs[run]);
+		}
+		System.out.printf("%d records, %d residues%n", expected[0], expected[1]);
+		System.out.printf("median: line-based %.1f MB/s, mapped %.1f MB/s%n", median(old_mbs), median(new_mbs));
+	}
+
+	/**
+	 * The loop used by FastaReaderNodeModel before the mapped reader, without creating KNIME cells
+	 */
+	private static long[] readLines(final File f) throws IOException {
+		long n_seqs = 0, n_residues = 0;
+		BufferedReader rdr = new BufferedReader(new InputStreamReader(new FileInputStream(f)));
+		try {
+			String line = rdr.readLine();
+			while (line != null && !line.startsWith(">")) {
+				line = rdr.readLine();
+			}
+			while (line != null) {
+				String[] entries = line.split("\\x01");
+				String header = entries[0].substring(1);
+				StringBuffer seq = new StringBuffer(10 * 1024);
+				while ((line = rdr.readLine()) != null) {
+					String tline = line.trim();
+					if (tline.length() == 0)
+						continue;
+					char first_c = tline.charAt(0);
+					if (first_c == '>')
+						break;
+					if (Character.isLetter(first_c) || first_c == '*' || first_c == '-')
+						seq.append(tline);
+				}
+				String residues = seq.toString();
+				if (header.length() > 0) {
+					n_seqs++;
+					n_residues += residues.length();
+				}
+			}
+		} finally {
+			rdr.close();
+		}
+		return new long[] { n_seqs, n_residues };
+	}
+
+	private static long[] readMapped(final File f) throws IOException {
+		long n_seqs = 0, n_residues = 0;
+		MappedFastaReader rdr = new MappedFastaReader(f);
+		try {
+			while (rdr.next()) {
+				String header   = rdr.getHeader();
+				String residues = rdr.getSequence();
+				if (header.length() > 0) {
+					n_seqs++;
+					n_residues += residues.length();
+				}
+			}
+		} finally {
+			rdr.close();
+		}
+		return new long[] { n_seqs, n_residues };
+	}
+
+	/**
+	 * Writes protein records of 50 to 3000 residues, 60 residues per line, until the file reaches <code>size</code> bytes
+	 */
+	private static void generate(final File f, long size) throws IOException {
+		final String aa = "ACDEFGHIKLMNPQRSTVWY";
+		Random r = new Random(42);
+		Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), "US-ASCII"), 1024 * 1024);
+		try {
+			long written = 0;
+			char[] line = new char[61];
+			line[60] = '\n';
+			for (int id=1; written < size; id++) {
+				String hdr = ">seq"+id+" synthetic protein "+r.nextInt(100000)+" OS=Arabidopsis thaliana\n";
+				w.write(hdr);
+				written += hdr.length();
+				int len = 50 + r.nextInt(2951);
+				for (int done=0; done < len; done += 60) {
+					int n = Math.min(60, len - done);
+					for (int i=0; i<n; i++) {
+						line[i] = aa.charAt(r.nextInt(aa.length()));
+					}
+					if (n < 60) {
+						w.write(line, 0, n);
+						w.write('\n');
+					} else {
+						w.write(line);
+					}
+					written += n + 1;
+				}
+			}
+		} finally {
+			w.close();
+		}
+	}
+
+	private static double rate(final File f, long start_nanos) {
+		double secs = (System.nanoTime() - start_nanos) / 1e9;
+		return f.length() / (1024.0 * 1024.0) / secs;
+	}
+
+	private static double median(final double[] vals) {
+		double[] sorted = vals.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
@@ -0,0 +1,291 @@
+package au.edu.unimelb.plantcell.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+import org.eclipse.jface.preference.IPreferenceStore;
+
+/**
+ * Implements a simple-minded TTL persistent cache. Each service has its own log file in the cache folder (see {@link CacheStore})
+ * which is shared by all instances for that service, so it is safe for concurrent node threads to use separate instances.
+ * Recently used entries are also kept in memory, again shared by service (see {@link MemoryCacheTier}). 
+ * The time each entry was stored is recorded and used by {@link #contains(String)}.
+ * 
+ * @author andrew.cassin
+ *
+ */
+public class Cache {
+	// "global" preference settings from File->Preferences in the Workbench
+	public static final String PREF_KEY_FOLDER    = "au.edu.unimelb.plantcell.core.cache.folder";	// where cache data is to be stored
+	public static final String PREF_KEY_FRESHNESS = "au.edu.unimelb.plantcell.core.cache.freshness"; // ignore cached data older than this (days)
+	
+	// properties which this implementation supports
+	public final static String CACHE_MAX_SIZE    = "au.edu.unimelb.plantcell.core.cache.max.entries";	// integer (default: no limit)
+	public final static String CACHE_MAX_BYTES   = "au.edu.unimelb.plantcell.core.cache.max.bytes";		// long (default: no limit)
+	public final static String CACHE_AUTO_COMMIT = "au.edu.unimelb.plantcell.core.cache.autocommit";	// true or false: force each put to disk
+	public final static String CACHE_COMPRESS    = "au.edu.unimelb.plantcell.core.cache.compress";		// true or false: compress large values
+	public final static String CACHE_MEMORY_ENTRIES = "au.edu.unimelb.plantcell.core.cache.memory.entries"; // integer: entries kept in memory
+	
+	private final static long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+	
+	// internal state
+	private final File       m_file;
+	private final Properties m_props;
+	private CacheStore m_store;
+	private final MemoryCacheTier m_memory;
+	private boolean    m_auto_commit;
+	private int m_freshness;			// in days (180 is default)
+	private boolean m_enabled;
+	
+	/**
+	 * Construct a cache from the specified path (basename) and cache properties. If 
+	 * something goes wrong an Exception will be thrown.
+	 * 
+	 * The only way to get a valid cache object: takes the KNIME preferences and service
+	 * name into account. If caching is disabled (no folder specified) then the cache
+	 * object will have zero-effect.
+	 * 
+	 * @param service_basename eg. 'uniprot' (determines the cache filename)
+	 * @param p
+	 * @throws Exception
+	 */
+	public Cache(String service_basename, Properties p) throws Exception {
+		IPreferenceStore prefs = CorePlugin.getDefault().getPreferenceStore();
+		m_freshness            = prefs.getInt(PREF_KEY_FRESHNESS);
+		String folder          = prefs.getString(PREF_KEY_FOLDER);
+		if (folder.length() > 0) {
+			// ensure the folder exists (be silent if it fails)
+			try {
+				new File(folder).mkdir();
+			} catch (Exception e) {
+				// BE SILENT AND CONTINUE (since it probably exists already anyway)
+			}
+			
+			// setup the final name for the cache file
+			folder += "/" + service_basename;
+		}
+		m_enabled = (m_freshness > 0 && folder != null && folder.length() > 0);
+		m_file    = m_enabled ? new File(folder + ".cache") : null;
+		m_props   = (p != null) ? p : new Properties();
+		m_store   = null;
+		m_memory  = m_enabled ? MemoryCacheTier.forService(service_basename) : null;
+	}
+	
+	public void init() throws Exception {
+		if (!m_enabled)
+			return;
+		
+		if (m_store != null)
+			throw new Exception("Cache already initialised!");
+		
+		try {
+			m_store = CacheStore.acquire(m_file);
+			m_store.setLimits(getLong(CACHE_MAX_SIZE), getLong(CACHE_MAX_BYTES), 
+						Boolean.parseBoolean(m_props.getProperty(CACHE_COMPRESS, "false")));
+			m_auto_commit = Boolean.parseBoolean(m_props.getProperty(CACHE_AUTO_COMMIT, "false"));
+			long mem_entries = getLong(CACHE_MEMORY_ENTRIES);
+			if (mem_entries > 0)
+				m_memory.setMaxEntries((int) Math.min(mem_entries, Integer.MAX_VALUE));
+		} catch (Exception e) {
+			Logger.getAnonymousLogger().warning(e.getMessage());
+			throw e;
+		}
+	}
+	
+	private long getLong(String prop) throws Exception {
+		String val = m_props.getProperty(prop);
+		if (val == null || val.trim().length() < 1)
+			return -1L;
+		return Long.parseLong(val.trim());
+	}
+	
+	/**
+	 * Has the user requested caching?
+	 * @return
+	 */
+	public boolean isEnabled() {
+		return m_enabled;
+	}
+	
+	/**
+	 * Returns the maximum age of an object (in days) for which <code>containsKey()</code> returns true
+	 * 
+	 * @throws Exception
+	 */
+	public int getFreshness() {
+		return m_freshness;
+	}
+	
+	public void shutdown() throws Exception {
+		if (!m_enabled || m_store == null)
+			return;
+		
+		Logger.getAnonymousLogger().info("Cache "+m_store+", "+m_memory.getHitCount()+" hits in memory");
+		m_store.release();
+		m_store = null;
+	}
+	
+	public void put(String primary_key, String value) throws IOException {
+		if (!m_enabled)
+			return;
+		
+		long now = System.currentTimeMillis();
+		m_memory.put(primary_key, value, now);
+		m_store.put(primary_key, value, now, m_auto_commit);
+	}
+	
+	/**
+	 * Stores each of the specified entries, more efficiently than calling {@link #put(String, String)} for each
+	 */
+	public void putAll(Map<String,String> entries) throws IOException {
+		if (!m_enabled || entries.size() < 1)
+			return;
+		
+		long now = System.currentTimeMillis();
+		for (String key : entries.keySet()) {
+			m_memory.put(key, entries.get(key), now);
+		}
+		m_store.putAll(entries, now, m_auto_commit);
+	}
+	
+	/**
+	 * Returns true if the object with the specified primary key is present in the
+	 * cache AND it has not expired, false otherwise. This implementation will
+	 * delete stale objects which are tested, providing limited garbage collection
+	 * 
+	 * @param primary_key
+	 * @return
+	 */
+	public boolean contains(String primary_key) throws Exception {
+		if (!m_enabled)
+			return false;
+		
+		MemoryCacheTier.Entry e = m_memory.peek(primary_key);
+		long stamp = (e != null) ? e.stamp : m_store.getStamp(primary_key);
+		if (stamp < 0)
+			return false;
+		// object stale?
+		if (stamp < System.currentTimeMillis() - m_freshness * MILLIS_PER_DAY) {
+			m_memory.remove(primary_key);
+			m_store.remove(primary_key);		// stale object
+			return false;
+		}
+		
+		// nope, must be good
+		return true;
+	}
+	
+	/**
+	 * Return a (potentially stale) object with the given primary key
+	 * 
+	 * @param primary_key
+	 * @return  <code>null</code> if there is no cached object available
+	 * @throws Exception
+	 */
+	public String get(String primary_key) throws Exception {
+		assert(primary_key != null && primary_key.length() > 0);
+		if (!m_enabled)
+			return null;
+
+		MemoryCacheTier.Entry e = m_memory.get(primary_key);
+		if (e != null)
+			return e.value;
+		long[] stamp = new long[1];
+		String value = m_store.get(primary_key, stamp);
+		if (value != null)
+			m_memory.put(primary_key, value, stamp[0]);
+		return value;
+	}
+	
+	/**
+	 * Returns the fresh object for the specified key if the cache has one, otherwise the loader is called to obtain it
+	 * and (unless it returns <code>null</code>) its result is cached. Concurrent requests for the same key 
+	 * (from any instance for the same service) wait for a single call to a loader rather than each calling their own.
+	 * 
+	 * @param primary_key
+	 * @param loader eg. fetches the object from a web service
+	 * @return the object or <code>null</code> if the loader returned <code>null</code>
+	 * @throws Exception as thrown by the loader
+	 */
+	public String get(final String primary_key, final Callable<String> loader) throws Exception {
+		assert(loader != null);
+		if (!m_enabled)
+			return loader.call();
+		
+		String value = contains(primary_key) ? get(primary_key) : null;
+		if (value != null)
+			return value;
+		return m_memory.load(primary_key, new Callable<String>() {
+
+			@Override
+			public String call() throws Exception {
+				// another thread may have finished fetching this object just before the request was made
+				if (contains(primary_key)) {
+					String v = get(primary_key);
+					if (v != null)
+						return v;
+				}
+				String v = loader.call();
+				if (v != null)
+					put(primary_key, v);
+				return v;
+			}
+			
+		});
+	}
+	
+	/**
+	 * Returns the (potentially stale) objects available for the specified keys. Keys with no cached
+	 * object are not present in the returned map.
+	 */
+	public Map<String,String> getAll(Collection<String> primary_keys) throws Exception {
+		if (!m_enabled)
+			return Collections.emptyMap();
+		
+		HashMap<String,String> ret = new HashMap<String,String>();
+		ArrayList<String> todo = new ArrayList<String>();
+		for (String key : primary_keys) {
+			MemoryCacheTier.Entry e = m_memory.get(key);
+			if (e != null) {
+				ret.put(key, e.value);
+			} else {
+				todo.add(key);
+			}
+		}
+		if (todo.size() > 0) {
+			HashMap<String,Long> stamps = new HashMap<String,Long>();
+			Map<String,String> found = m_store.getAll(todo, stamps);
+			for (String key : found.keySet()) {
+				m_memory.put(key, found.get(key), stamps.get(key));
+			}
+			ret.putAll(found);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Number of objects found in memory or on disk since the cache was opened (shared by all instances for the same service)
+	 */
+	public long getHitCount() {
+		return (m_store != null) ? m_store.getHitCount() + m_memory.getHitCount() : 0L;
+	}
+	
+	public long getMissCount() {
+		return (m_store != null) ? m_store.getMissCount() : 0L;
+	}
+	
+	/**
+	 * Number of objects removed to keep the cache within the bounds set by {@link #CACHE_MAX_SIZE} and {@link #CACHE_MAX_BYTES}
+	 */
+	public long getEvictionCount() {
+		return (m_store != null) ? m_store.getEvictionCount() : 0L;
+	}
+}
@@ -0,0 +1,762 @@
+package au.edu.unimelb.plantcell.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Storage engine for {@link Cache}. Entries are appended to a single log file, which is the only
+ * persistent state: an open-addressing hash index (held off-heap, in a direct buffer) is rebuilt by scanning the
+ * log when the store is opened. A torn write at the end of the log (eg. after a crash) is detected by its checksum and discarded.
+ *
+ * Readers share a read lock and may run concurrently: completely written 64MB segments of the log are read via memory-mapping,
+ * the remainder via positional reads. Writers (put, remove, eviction and compaction) hold the write lock. When the store exceeds
+ * its entry count or size bound, entries are evicted in approximately least-recently-used order (the oldest of a small random sample).
+ * Replaced and evicted entries leave dead space in the log which is reclaimed by rewriting the log once most of it is dead.
+ *
+ * Only one instance exists per file in this JVM (see {@link #acquire(File)}) and the file is locked against use by other processes.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+class CacheStore {
+	private static final Charset UTF8           = Charset.forName("UTF-8");
+	private static final byte[]  MAGIC          = "PCCACHE".getBytes(Charset.forName("US-ASCII"));
+	private static final int     FORMAT_VERSION = 1;
+	private static final int     HEADER_SIZE    = 16;	// magic, version, padding
+	private static final long    SEGMENT_SIZE   = 64L * 1024L * 1024L;
+	private static final long    MIN_COMPACT_SIZE = 16L * 1024L * 1024L;
+	private static final int     COMPRESS_THRESHOLD = 512;	// values smaller than this (in bytes) are never compressed
+	private static final int     EVICTION_SAMPLES = 16;
+
+	// record flags
+	private static final byte FLAG_COMPRESSED = 1;
+	private static final byte FLAG_REMOVED    = 2;
+	// record layout: int length (of what follows), byte flags, long stamp, int key length, key, int value length, value, int crc
+	private static final int  RECORD_OVERHEAD = 4 + 1 + 8 + 4 + 4 + 4;
+
+	// index slot layout: long hash, long record offset, long stamp, long last access, int record length, int padding
+	private static final int  SLOT_SIZE      = 40;
+	private static final long EMPTY          = 0L;
+	private static final long DELETED        = -1L;
+	private static final double MAX_LOAD     = 0.7d;
+
+	private static final Map<File,CacheStore> s_open = new HashMap<File,CacheStore>();
+
+	private final File  m_file;
+	private final ReentrantReadWriteLock m_rwlock = new ReentrantReadWriteLock();
+	private int         m_refs;				// guarded by CacheStore.class
+	private RandomAccessFile m_raf;
+	private FileChannel m_channel;
+	private FileLock    m_lock;
+	private long        m_end;				// offset at which the next record is appended
+	private volatile MappedByteBuffer[] m_segments = new MappedByteBuffer[0];	// copy-on-write, so readers need not lock
+
+	// index state
+	private ByteBuffer  m_slots;
+	private int         m_capacity;			// always a power of two
+	private int         m_size;				// live entries
+	private int         m_used;				// live + deleted slots
+	private long        m_live_bytes;		// log space occupied by live records
+	private final AtomicLong m_clock = new AtomicLong();
+	private final Random m_random = new Random();
+
+	// limits
+	private long        m_max_entries = Long.MAX_VALUE;
+	private long        m_max_bytes   = Long.MAX_VALUE;
+	private boolean     m_compress    = false;
+
+	// statistics since the store was opened
+	private final AtomicLong m_hits      = new AtomicLong();
+	private final AtomicLong m_misses    = new AtomicLong();
+	private final AtomicLong m_evictions = new AtomicLong();
+
+	private CacheStore(final File f) throws IOException {
+		m_file = f;
+		m_refs = 0;
+		open();
+	}
+
+	/**
+	 * Returns the store for the specified log file, opening it if necessary. Each call must be paired with a call to {@link #release()}
+	 */
+	public static CacheStore acquire(final File f) throws IOException {
+		File canon = f.getCanonicalFile();
+		synchronized (CacheStore.class) {
+			CacheStore s = s_open.get(canon);
+			if (s == null) {
+				s = new CacheStore(canon);
+				s_open.put(canon, s);
+			}
+			s.m_refs++;
+			return s;
+		}
+	}
+
+	/**
+	 * The store is closed once every caller of {@link #acquire(File)} has released it
+	 */
+	public void release() throws IOException {
+		// closed under the class lock, so that acquire() cannot re-open the file while this JVM still holds its lock
+		synchronized (CacheStore.class) {
+			if (--m_refs > 0)
+				return;
+			s_open.remove(m_file);
+			m_rwlock.writeLock().lock();
+			try {
+				close();
+			} finally {
+				m_rwlock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Widens the bounds on the store. As the store is shared, the most generous bounds requested by any user are applied.
+	 *
+	 * @param max_entries maximum number of entries (zero or negative for no limit)
+	 * @param max_bytes   maximum size of live entries in bytes (zero or negative for no limit)
+	 * @param compress    true if large values are to be compressed
+	 */
+	public void setLimits(long max_entries, long max_bytes, boolean compress) {
+		m_rwlock.writeLock().lock();
+		try {
+			boolean first = (m_refs <= 1);
+			long e = (max_entries > 0) ? max_entries : Long.MAX_VALUE;
+			long b = (max_bytes > 0)   ? max_bytes   : Long.MAX_VALUE;
+			m_max_entries = first ? e : Math.max(m_max_entries, e);
+			m_max_bytes   = first ? b : Math.max(m_max_bytes, b);
+			m_compress    = compress || (!first && m_compress);
+		} finally {
+			m_rwlock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the value for the specified key, or <code>null</code> if not present
+	 */
+	public String get(final String key) throws IOException {
+		return get(key, null);
+	}
+	
+	/**
+	 * Returns the value for the specified key, or <code>null</code> if not present. If present and <code>stamp</code>
+	 * is not null, the time the value was stored is placed in <code>stamp[0]</code>
+	 */
+	public String get(final String key, final long[] stamp) throws IOException {
+		m_rwlock.readLock().lock();
+		try {
+			return read(key, stamp);
+		} finally {
+			m_rwlock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the values for those keys which are present. If <code>stamps</code> is not null, the time each returned
+	 * value was stored is placed into it (by key).
+	 */
+	public Map<String,String> getAll(final Collection<String> keys, final Map<String,Long> stamps) throws IOException {
+		HashMap<String,String> ret = new HashMap<String,String>();
+		long[] stamp = new long[1];
+		m_rwlock.readLock().lock();
+		try {
+			for (String key : keys) {
+				String val = read(key, stamp);
+				if (val != null) {
+					ret.put(key, val);
+					if (stamps != null)
+						stamps.put(key, stamp[0]);
+				}
+			}
+		} finally {
+			m_rwlock.readLock().unlock();
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the time (milliseconds since the epoch) the value for the key was stored, or -1 if not present. Does not
+	 * count as a use of the entry.
+	 */
+	public long getStamp(final String key) throws IOException {
+		m_rwlock.readLock().lock();
+		try {
+			int slot = find(key.getBytes(UTF8));
+			return (slot < 0) ? -1L : m_slots.getLong(slot * SLOT_SIZE + 16);
+		} finally {
+			m_rwlock.readLock().unlock();
+		}
+	}
+
+	public void put(final String key, final String value, long stamp, boolean force) throws IOException {
+		m_rwlock.writeLock().lock();
+		try {
+			write(key, value, stamp);
+			evict();
+			if (force)
+				m_channel.force(false);
+			compactIfNeeded();
+		} finally {
+			m_rwlock.writeLock().unlock();
+		}
+	}
+
+	public void putAll(final Map<String,String> entries, long stamp, boolean force) throws IOException {
+		m_rwlock.writeLock().lock();
+		try {
+			for (String key : entries.keySet()) {
+				write(key, entries.get(key), stamp);
+			}
+			evict();
+			if (force)
+				m_channel.force(false);
+			compactIfNeeded();
+		} finally {
+			m_rwlock.writeLock().unlock();
+		}
+	}
+
+	public void remove(final String key) throws IOException {
+		m_rwlock.writeLock().lock();
+		try {
+			byte[] kb = key.getBytes(UTF8);
+			int slot = find(kb);
+			if (slot >= 0) {
+				append(FLAG_REMOVED, 0L, kb, new byte[0], 0);
+				removeSlot(slot);
+			}
+		} finally {
+			m_rwlock.writeLock().unlock();
+		}
+	}
+
+	public long getHitCount() {
+		return m_hits.get();
+	}
+
+	public long getMissCount() {
+		return m_misses.get();
+	}
+
+	public long getEvictionCount() {
+		return m_evictions.get();
+	}
+
+	public int size() {
+		m_rwlock.readLock().lock();
+		try {
+			return m_size;
+		} finally {
+			m_rwlock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return m_file.getName()+": "+size()+" entries, "+getHitCount()+" hits, "+getMissCount()+" misses, "+getEvictionCount()+" evictions";
+	}
+
+	/************************************* LOG FILE ******************************************/
+
+	private void open() throws IOException {
+		m_raf     = new RandomAccessFile(m_file, "rw");
+		m_channel = m_raf.getChannel();
+		try {
+			m_lock = m_channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			m_lock = null;
+		}
+		if (m_lock == null) {
+			m_channel.close();
+			m_raf.close();
+			throw new IOException("Cache is in use by another program: "+m_file.getAbsolutePath());
+		}
+		m_segments = new MappedByteBuffer[0];
+		m_end      = m_channel.size();
+		resetIndex(1024);
+
+		if (!hasValidHeader()) {
+			m_channel.truncate(0L);
+			ByteBuffer hdr = ByteBuffer.allocate(HEADER_SIZE);
+			hdr.put(MAGIC).putInt(FORMAT_VERSION);
+			hdr.rewind();
+			writeFully(hdr, 0L);
+			m_end = HEADER_SIZE;
+		} else {
+			scan();
+		}
+	}
+
+	private boolean hasValidHeader() throws IOException {
+		if (m_end < HEADER_SIZE)
+			return false;
+		byte[] hdr = new byte[HEADER_SIZE];
+		readFully(0L, hdr, 0, HEADER_SIZE);
+		ByteBuffer bb = ByteBuffer.wrap(hdr);
+		byte[] magic = new byte[MAGIC.length];
+		bb.get(magic);
+		return Arrays.equals(magic, MAGIC) && bb.getInt() == FORMAT_VERSION;
+	}
+
+	/**
+	 * Rebuilds the index from the log, discarding any incomplete or corrupt record (and everything after it)
+	 */
+	private void scan() throws IOException {
+		long pos  = HEADER_SIZE;
+		long size = m_end;
+		byte[] len_buf = new byte[4];
+		CRC32 crc = new CRC32();
+		while (pos + 4 <= size) {
+			readFully(pos, len_buf, 0, 4);
+			int len = ByteBuffer.wrap(len_buf).getInt();
+			if (len < RECORD_OVERHEAD - 4 || pos + 4 + len > size)
+				break;
+			byte[] rec = new byte[len];
+			readFully(pos + 4, rec, 0, len);
+			crc.reset();
+			crc.update(rec, 0, len - 4);
+			ByteBuffer bb = ByteBuffer.wrap(rec);
+			if ((int) crc.getValue() != bb.getInt(len - 4))
+				break;
+			byte flags = bb.get();
+			long stamp = bb.getLong();
+			int   klen = bb.getInt();
+			if (klen < 0 || klen > len - (RECORD_OVERHEAD - 4))
+				break;
+			byte[] kb = Arrays.copyOfRange(rec, bb.position(), bb.position() + klen);
+			int slot = find(kb);
+			if ((flags & FLAG_REMOVED) != 0) {
+				if (slot >= 0)
+					removeSlot(slot);
+			} else {
+				insert(slot, hash(kb), pos, stamp, 4 + len);
+			}
+			pos += 4 + len;
+		}
+		if (pos < size) {
+			Logger.getAnonymousLogger().warning("Discarding "+(size - pos)+" bytes of incomplete data from cache: "+m_file.getName());
+			m_segments = new MappedByteBuffer[0];
+			m_channel.truncate(pos);
+		}
+		m_end = pos;
+	}
+
+	private void close() throws IOException {
+		m_segments = new MappedByteBuffer[0];
+		m_slots    = null;
+		try {
+			if (m_lock != null && m_lock.isValid())
+				m_lock.release();
+		} finally {
+			m_channel.close();
+			m_raf.close();
+		}
+	}
+
+	/**
+	 * Copies <code>len</code> bytes at the specified offset in the log into <code>dst</code>
+	 */
+	private void readFully(long pos, byte[] dst, int off, int len) throws IOException {
+		int  seg     = (int) (pos / SEGMENT_SIZE);
+		long seg_end = (seg + 1) * SEGMENT_SIZE;
+		if (pos + len <= seg_end && seg_end <= m_end) {
+			// completely written segments never change (until compaction, which holds the write lock) so may be mapped
+			ByteBuffer b = getSegment(seg).duplicate();
+			b.position((int) (pos - seg * SEGMENT_SIZE));
+			b.get(dst, off, len);
+			return;
+		}
+		ByteBuffer bb = ByteBuffer.wrap(dst, off, len);
+		while (bb.hasRemaining()) {
+			int n = m_channel.read(bb, pos + bb.position() - off);
+			if (n < 0)
+				throw new IOException("Unexpected end of cache file: "+m_file.getName());
+		}
+	}
+
+	private MappedByteBuffer getSegment(int seg) throws IOException {
+		MappedByteBuffer[] segs = m_segments;
+		if (seg < segs.length && segs[seg] != null)
+			return segs[seg];
+		synchronized (this) {
+			segs = m_segments;
+			if (seg < segs.length && segs[seg] != null)
+				return segs[seg];
+			// publish a fully populated copy so that unsynchronized readers never see a partly initialised array
+			MappedByteBuffer[] copy = Arrays.copyOf(segs, Math.max(segs.length, seg + 1));
+			copy[seg] = m_channel.map(FileChannel.MapMode.READ_ONLY, seg * SEGMENT_SIZE, SEGMENT_SIZE);
+			m_segments = copy;
+			return copy[seg];
+		}
+	}
+
+	private void writeFully(final ByteBuffer bb, long pos) throws IOException {
+		while (bb.hasRemaining()) {
+			pos += m_channel.write(bb, pos);
+		}
+	}
+
+	/**
+	 * Appends a record to the log and returns its offset
+	 */
+	private long append(byte flags, long stamp, final byte[] kb, final byte[] vb, int vlen) throws IOException {
+		int len = RECORD_OVERHEAD - 4 + kb.length + vlen;
+		ByteBuffer bb = ByteBuffer.allocate(4 + len);
+		bb.putInt(len);
+		bb.put(flags);
+		bb.putLong(stamp);
+		bb.putInt(kb.length);
+		bb.put(kb);
+		bb.putInt(vlen);
+		bb.put(vb, 0, vlen);
+		CRC32 crc = new CRC32();
+		crc.update(bb.array(), 4, len - 4);
+		bb.putInt((int) crc.getValue());
+		bb.flip();
+		long pos = m_end;
+		writeFully(bb, pos);
+		m_end += 4 + len;
+		return pos;
+	}
+
+	private void write(final String key, final String value, long stamp) throws IOException {
+		assert(key != null && value != null);
+		byte[] kb   = key.getBytes(UTF8);
+		byte[] vb   = value.getBytes(UTF8);
+		int    vlen = vb.length;
+		byte  flags = 0;
+		if (m_compress && vlen >= COMPRESS_THRESHOLD) {
+			byte[] packed = deflate(vb);
+			if (packed.length < vlen) {
+				vb    = packed;
+				vlen  = packed.length;
+				flags = FLAG_COMPRESSED;
+			}
+		}
+		long pos = append(flags, stamp, kb, vb, vlen);
+		insert(find(kb), hash(kb), pos, stamp, RECORD_OVERHEAD + kb.length + vlen);
+	}
+
+	private String read(final String key, final long[] stamp) throws IOException {
+		byte[] kb = key.getBytes(UTF8);
+		int slot  = find(kb);
+		if (slot < 0) {
+			m_misses.incrementAndGet();
+			return null;
+		}
+		int    base = slot * SLOT_SIZE;
+		long    pos = m_slots.getLong(base + 8);
+		int     len = m_slots.getInt(base + 32);
+		byte[]  rec = new byte[len];
+		readFully(pos, rec, 0, len);
+		ByteBuffer bb = ByteBuffer.wrap(rec);
+		bb.position(4);
+		byte flags = bb.get();
+		bb.position(4 + 1 + 8 + 4 + kb.length);
+		int vlen   = bb.getInt();
+		int voff   = bb.position();
+
+		m_slots.putLong(base + 24, m_clock.incrementAndGet());	// racy, but only approximate recency is needed
+		m_hits.incrementAndGet();
+		if (stamp != null)
+			stamp[0] = m_slots.getLong(base + 16);
+		if ((flags & FLAG_COMPRESSED) != 0) {
+			return new String(inflate(rec, voff, vlen), UTF8);
+		}
+		return new String(rec, voff, vlen, UTF8);
+	}
+
+	private static byte[] deflate(final byte[] b) {
+		Deflater d = new Deflater(Deflater.BEST_SPEED);
+		try {
+			d.setInput(b);
+			d.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(b.length / 2 + 64);
+			byte[] buf = new byte[8 * 1024];
+			while (!d.finished()) {
+				int n = d.deflate(buf);
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			d.end();
+		}
+	}
+
+	private static byte[] inflate(final byte[] b, int off, int len) throws IOException {
+		Inflater inf = new Inflater();
+		try {
+			inf.setInput(b, off, len);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(len * 4);
+			byte[] buf = new byte[8 * 1024];
+			while (!inf.finished()) {
+				int n = inf.inflate(buf);
+				if (n == 0 && (inf.needsInput() || inf.needsDictionary()))
+					throw new IOException("Corrupt compressed value in cache");
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException dfe) {
+			throw new IOException(dfe);
+		} finally {
+			inf.end();
+		}
+	}
+
+	/**
+	 * Evict entries until the store is within its bounds. Caller must hold the write lock.
+	 */
+	private void evict() throws IOException {
+		while (m_size > 0 && (m_size > m_max_entries || m_live_bytes > m_max_bytes)) {
+			int victim = -1;
+			long oldest = Long.MAX_VALUE;
+			int i = m_random.nextInt(m_capacity);
+			for (int seen=0, n=0; seen < EVICTION_SAMPLES && n < m_capacity; n++, i = (i + 1) & (m_capacity - 1)) {
+				long h = m_slots.getLong(i * SLOT_SIZE);
+				if (h == EMPTY || h == DELETED)
+					continue;
+				seen++;
+				long access = m_slots.getLong(i * SLOT_SIZE + 24);
+				if (access < oldest) {
+					oldest = access;
+					victim = i;
+				}
+			}
+			if (victim < 0)
+				break;
+			byte[] rec = new byte[m_slots.getInt(victim * SLOT_SIZE + 32)];
+			readFully(m_slots.getLong(victim * SLOT_SIZE + 8), rec, 0, rec.length);
+			int klen = ByteBuffer.wrap(rec).getInt(4 + 1 + 8);
+			append(FLAG_REMOVED, 0L, Arrays.copyOfRange(rec, 4 + 1 + 8 + 4, 4 + 1 + 8 + 4 + klen), new byte[0], 0);
+			removeSlot(victim);
+			m_evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Rewrites the log with only the live records, once most of the log is dead space. Caller must hold the write lock.
+	 */
+	private void compactIfNeeded() throws IOException {
+		if (m_end < MIN_COMPACT_SIZE || m_end - HEADER_SIZE <= 2 * m_live_bytes)
+			return;
+
+		// the compacted log is locked before it replaces the old one, and the old lock is only released afterwards,
+		// so another process cannot open the cache part way through
+		File tmp = new File(m_file.getPath() + ".compact");
+		RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+		FileChannel dest = out.getChannel();
+		FileLock dest_lock = null;
+		boolean swapped = false;
+		try {
+			try {
+				dest_lock = dest.tryLock();
+			} catch (OverlappingFileLockException e) {
+				dest_lock = null;
+			}
+			if (dest_lock == null) {
+				Logger.getAnonymousLogger().warning("Unable to compact cache (in use): "+m_file.getName());
+				return;
+			}
+			out.setLength(0L);
+			ByteBuffer hdr = ByteBuffer.allocate(HEADER_SIZE);
+			hdr.put(MAGIC).putInt(FORMAT_VERSION);
+			hdr.rewind();
+			long pos = 0L;
+			while (hdr.hasRemaining()) {
+				pos += dest.write(hdr, pos);
+			}
+			// the index is only updated once the new log is in place, so it remains valid if the swap fails
+			long[] new_offsets = new long[m_capacity];
+			for (int i=0; i<m_capacity; i++) {
+				int base = i * SLOT_SIZE;
+				long h = m_slots.getLong(base);
+				if (h == EMPTY || h == DELETED)
+					continue;
+				byte[] rec = new byte[m_slots.getInt(base + 32)];
+				readFully(m_slots.getLong(base + 8), rec, 0, rec.length);
+				new_offsets[i] = pos;
+				ByteBuffer bb = ByteBuffer.wrap(rec);
+				while (bb.hasRemaining()) {
+					pos += dest.write(bb, pos);
+				}
+			}
+			dest.force(false);
+
+			try {
+				Files.move(tmp.toPath(), m_file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// eg. the old log is still mapped on Windows: keep using it
+				Logger.getAnonymousLogger().warning("Unable to compact cache: "+m_file.getName()+": "+e.getMessage());
+				return;
+			}
+			swapped = true;
+
+			RandomAccessFile old_raf = m_raf;
+			FileChannel old_channel  = m_channel;
+			FileLock    old_lock     = m_lock;
+			m_raf      = out;
+			m_channel  = dest;
+			m_lock     = dest_lock;
+			m_segments = new MappedByteBuffer[0];
+			m_end      = pos;
+			for (int i=0; i<m_capacity; i++) {
+				long h = m_slots.getLong(i * SLOT_SIZE);
+				if (h != EMPTY && h != DELETED)
+					m_slots.putLong(i * SLOT_SIZE + 8, new_offsets[i]);
+			}
+			try {
+				if (old_lock != null && old_lock.isValid())
+					old_lock.release();
+			} finally {
+				old_channel.close();
+				old_raf.close();
+			}
+		} finally {
+			if (!swapped) {
+				try {
+					if (dest_lock != null && dest_lock.isValid())
+						dest_lock.release();
+				} finally {
+					out.close();
+					tmp.delete();
+				}
+			}
+		}
+	}
+
+	/************************************* OFF-HEAP INDEX ******************************************/
+
+	private void resetIndex(int capacity) {
+		m_capacity   = capacity;
+		m_slots      = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+		m_size       = 0;
+		m_used       = 0;
+		m_live_bytes = 0L;
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the key, never {@link #EMPTY} or {@link #DELETED}
+	 */
+	private static long hash(final byte[] kb) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : kb) {
+			h ^= (b & 0xFF);
+			h *= 0x100000001b3L;
+		}
+		return (h == EMPTY || h == DELETED) ? 1L : h;
+	}
+
+	private int home(long h) {
+		return (int) (h ^ (h >>> 32)) & (m_capacity - 1);
+	}
+
+	/**
+	 * Returns the slot for the specified key or -1 if the key is not present. Since hashes may collide, the key stored
+	 * in the log is compared.
+	 */
+	private int find(final byte[] kb) throws IOException {
+		long h = hash(kb);
+		int  i = home(h);
+		for (int n=0; n<m_capacity; n++, i = (i + 1) & (m_capacity - 1)) {
+			long sh = m_slots.getLong(i * SLOT_SIZE);
+			if (sh == EMPTY)
+				return -1;
+			if (sh == h && keyEquals(m_slots.getLong(i * SLOT_SIZE + 8), kb))
+				return i;
+		}
+		return -1;
+	}
+
+	private boolean keyEquals(long pos, final byte[] kb) throws IOException {
+		byte[] hdr = new byte[4 + 1 + 8 + 4];
+		readFully(pos, hdr, 0, hdr.length);
+		if (ByteBuffer.wrap(hdr).getInt(4 + 1 + 8) != kb.length)
+			return false;
+		byte[] key = new byte[kb.length];
+		readFully(pos + hdr.length, key, 0, key.length);
+		return Arrays.equals(key, kb);
+	}
+
+	/**
+	 * Records a (new) location for the key
+	 * @param slot existing slot for the key (as returned by {@link #find(byte[])}) or -1 if none
+	 */
+	private void insert(int slot, long h, long pos, long stamp, int len) {
+		if (slot >= 0) {
+			m_live_bytes -= m_slots.getInt(slot * SLOT_SIZE + 32);
+		} else {
+			if (m_used + 1 > m_capacity * MAX_LOAD) {
+				rehash((m_size + 1 > m_capacity * MAX_LOAD / 2) ? m_capacity * 2 : m_capacity);
+			}
+			slot = home(h);
+			long sh;
+			while ((sh = m_slots.getLong(slot * SLOT_SIZE)) != EMPTY && sh != DELETED) {
+				slot = (slot + 1) & (m_capacity - 1);
+			}
+			if (sh == EMPTY)
+				m_used++;
+			m_size++;
+		}
+		int base = slot * SLOT_SIZE;
+		m_slots.putLong(base, h);
+		m_slots.putLong(base + 8, pos);
+		m_slots.putLong(base + 16, stamp);
+		m_slots.putLong(base + 24, m_clock.incrementAndGet());
+		m_slots.putInt(base + 32, len);
+		m_live_bytes += len;
+	}
+
+	private void removeSlot(int slot) {
+		int base = slot * SLOT_SIZE;
+		m_slots.putLong(base, DELETED);
+		m_live_bytes -= m_slots.getInt(base + 32);
+		m_size--;
+	}
+
+	/**
+	 * Moves all live entries into a new table of the specified capacity, discarding deleted slots
+	 */
+	private void rehash(int new_capacity) {
+		ByteBuffer old   = m_slots;
+		int old_capacity = m_capacity;
+		long live_bytes  = m_live_bytes;
+		resetIndex(new_capacity);
+		for (int i=0; i<old_capacity; i++) {
+			long h = old.getLong(i * SLOT_SIZE);
+			if (h == EMPTY || h == DELETED)
+				continue;
+			int slot = home(h);
+			while (m_slots.getLong(slot * SLOT_SIZE) != EMPTY) {
+				slot = (slot + 1) & (m_capacity - 1);
+			}
+			for (int j=0; j<SLOT_SIZE; j += 8) {
+				m_slots.putLong(slot * SLOT_SIZE + j, old.getLong(i * SLOT_SIZE + j));
+			}
+			m_size++;
+			m_used++;
+		}
+		m_live_bytes = live_bytes;
+	}
+}
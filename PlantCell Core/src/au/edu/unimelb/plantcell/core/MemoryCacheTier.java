@@ -0,0 +1,145 @@
+package au.edu.unimelb.plantcell.core;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * In-memory, least-recently-used tier in front of the on-disk {@link CacheStore}. One tier exists per service
+ * (ie. cache basename) and is shared by every {@link Cache} for that service in this JVM, so nodes annotating overlapping
+ * sets of accessions re-use each others results without disk access.
+ *
+ * The tier also coalesces requests: while one thread is fetching the value for a key, other threads asking for the
+ * same key wait for that fetch rather than repeating it (see {@link #load(String, Callable)}).
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+class MemoryCacheTier {
+	/**
+	 * default bounds on each tier
+	 */
+	public static final int  DEFAULT_MAX_ENTRIES = 10000;
+	public static final long DEFAULT_MAX_CHARS   = 32L * 1024L * 1024L;
+
+	private static final Map<String,MemoryCacheTier> s_tiers = new HashMap<String,MemoryCacheTier>();
+
+	private final LinkedHashMap<String,Entry> m_entries = new LinkedHashMap<String,Entry>(1024, 0.75f, true);	// access order
+	private final ConcurrentHashMap<String,FutureTask<String>> m_inflight = new ConcurrentHashMap<String,FutureTask<String>>();
+	private int  m_max_entries = DEFAULT_MAX_ENTRIES;
+	private long m_max_chars   = DEFAULT_MAX_CHARS;
+	private long m_chars       = 0L;
+	private long m_hits        = 0L;
+
+	/**
+	 * A cached value and the time (milliseconds since the epoch) it was stored
+	 */
+	public static class Entry {
+		public final String value;
+		public final long   stamp;
+
+		public Entry(final String value, long stamp) {
+			this.value = value;
+			this.stamp = stamp;
+		}
+	}
+
+	private MemoryCacheTier() {
+	}
+
+	/**
+	 * Returns the tier for the specified service, creating it if need be
+	 */
+	public static MemoryCacheTier forService(final String service_basename) {
+		assert(service_basename != null);
+		synchronized (s_tiers) {
+			MemoryCacheTier t = s_tiers.get(service_basename);
+			if (t == null) {
+				t = new MemoryCacheTier();
+				s_tiers.put(service_basename, t);
+			}
+			return t;
+		}
+	}
+
+	/**
+	 * Widens the bounds on the tier (it is shared, so the most generous bound requested is used)
+	 */
+	public synchronized void setMaxEntries(int max_entries) {
+		if (max_entries > m_max_entries)
+			m_max_entries = max_entries;
+	}
+
+	public synchronized Entry get(final String key) {
+		Entry e = m_entries.get(key);
+		if (e != null)
+			m_hits++;
+		return e;
+	}
+	
+	/**
+	 * As per {@link #get(String)} but not counted as a hit
+	 */
+	public synchronized Entry peek(final String key) {
+		return m_entries.get(key);
+	}
+	
+	/**
+	 * Returns the number of successful calls to {@link #get(String)}
+	 */
+	public synchronized long getHitCount() {
+		return m_hits;
+	}
+
+	public synchronized void put(final String key, final String value, long stamp) {
+		assert(key != null && value != null);
+		Entry old = m_entries.put(key, new Entry(value, stamp));
+		if (old != null)
+			m_chars -= old.value.length();
+		m_chars += value.length();
+
+		// evict least recently used entries until within bounds
+		Iterator<Entry> it = m_entries.values().iterator();
+		while ((m_entries.size() > m_max_entries || m_chars > m_max_chars) && it.hasNext()) {
+			Entry e = it.next();
+			m_chars -= e.value.length();
+			it.remove();
+		}
+	}
+
+	public synchronized void remove(final String key) {
+		Entry old = m_entries.remove(key);
+		if (old != null)
+			m_chars -= old.value.length();
+	}
+
+	/**
+	 * Runs the loader to obtain the value for the key, unless another thread is already doing so for the same
+	 * key, in which case its result is returned instead. Exceptions thrown by the loader are re-thrown to all waiting callers.
+	 */
+	public String load(final String key, final Callable<String> loader) throws Exception {
+		FutureTask<String> task = new FutureTask<String>(loader);
+		FutureTask<String> existing = m_inflight.putIfAbsent(key, task);
+		try {
+			if (existing != null)
+				return existing.get();
+			task.run();
+			return task.get();
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw ee;
+		} finally {
+			if (existing == null)
+				m_inflight.remove(key, task);
+		}
+	}
+}
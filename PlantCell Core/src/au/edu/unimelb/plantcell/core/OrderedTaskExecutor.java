@@ -0,0 +1,133 @@
+package au.edu.unimelb.plantcell.core;
+
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a bounded pool of worker threads, but hands their results to a {@link ResultHandler} on the
+ * <b>calling</b> thread, in the order the tasks were submitted. This suits KNIME nodes: the expensive work
+ * is done in parallel whilst the data containers are only touched by the node thread, so output row order
+ * is deterministic. At most <code>max_pending</code> results are held in memory at once: <code>submit()</code>
+ * processes the oldest result (waiting for it if necessary) before accepting more work.
+ *
+ * Callers must call {@link #finish()} once all tasks are submitted and {@link #shutdown()} in a finally block.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ * @param <T> type of result computed by each task
+ */
+public class OrderedTaskExecutor<T> {
+	private final ExecutorService           m_pool;
+	private final LinkedList<Future<T>>     m_pending = new LinkedList<Future<T>>();
+	private final int                       m_max_pending;
+	private final ResultHandler<T>          m_handler;
+	private int                             m_done;
+
+	/**
+	 * Called on the submitting thread with each result, in submission order
+	 */
+	public interface ResultHandler<T> {
+		public void process(T result) throws Exception;
+	}
+
+	/**
+	 *
+	 * @param n_threads number of worker threads (at least one)
+	 * @param max_pending maximum number of submitted tasks whose results have not yet been processed
+	 * @param rh destination for results (must not be null)
+	 */
+	public OrderedTaskExecutor(int n_threads, int max_pending, final ResultHandler<T> rh) {
+		assert(rh != null);
+		if (n_threads < 1)
+			n_threads = 1;
+		if (max_pending < n_threads)
+			max_pending = n_threads;
+		m_max_pending = max_pending;
+		m_handler     = rh;
+		m_done        = 0;
+		m_pool        = Executors.newFixedThreadPool(n_threads, new ThreadFactory() {
+			private final AtomicInteger m_id = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "PlantCell worker "+m_id.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+
+		});
+	}
+
+	/**
+	 * Returns a sensible default thread count for CPU-bound work on this computer
+	 */
+	public static int getDefaultThreadCount() {
+		return Math.max(1, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Queue the task for execution. If too many results are outstanding, the oldest is processed first
+	 *
+	 * @param task
+	 * @throws Exception as thrown by the task or the {@link ResultHandler}
+	 */
+	public void submit(final Callable<T> task) throws Exception {
+		assert(task != null);
+		while (m_pending.size() >= m_max_pending) {
+			processOldest();
+		}
+		m_pending.add(m_pool.submit(task));
+	}
+
+	/**
+	 * Waits for all outstanding tasks to complete, processing their results in submission order
+	 * @throws Exception
+	 */
+	public void finish() throws Exception {
+		while (!m_pending.isEmpty()) {
+			processOldest();
+		}
+	}
+
+	/**
+	 * Returns the number of results which have been passed to the {@link ResultHandler} so far
+	 */
+	public int countDone() {
+		return m_done;
+	}
+
+	/**
+	 * Cancels any outstanding tasks and terminates the worker threads. Safe to call more than once.
+	 */
+	public void shutdown() {
+		for (Future<T> f : m_pending) {
+			f.cancel(true);
+		}
+		m_pending.clear();
+		m_pool.shutdownNow();
+	}
+
+	private void processOldest() throws Exception {
+		Future<T> f = m_pending.removeFirst();
+		T result;
+		try {
+			result = f.get();
+		} catch (ExecutionException ee) {
+			// re-throw what the task threw so that the node reports the real problem
+			Throwable cause = ee.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw ee;
+		}
+		m_handler.process(result);
+		m_done++;
+	}
+}
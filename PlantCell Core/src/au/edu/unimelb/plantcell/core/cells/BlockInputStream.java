@@ -0,0 +1,91 @@
+package au.edu.unimelb.plantcell.core.cells;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads data written by a {@link BlockOutputStream}. End of stream is reported at the terminating zero-length
+ * block. Callers which stop reading early must call {@link #skipToEnd()} so that the underlying input is positioned
+ * after the data.
+ * 
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+class BlockInputStream extends InputStream {
+	private final DataInput m_in;
+	private int             m_remaining;	// bytes left in the current block
+	private boolean         m_eof;
+	
+	public BlockInputStream(final DataInput in) {
+		assert(in != null);
+		m_in        = in;
+		m_remaining = 0;
+		m_eof       = false;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextBlock())
+			return -1;
+		m_remaining--;
+		return m_in.readByte() & 0xFF;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!nextBlock())
+			return -1;
+		int n = Math.min(len, m_remaining);
+		m_in.readFully(b, off, n);
+		m_remaining -= n;
+		return n;
+	}
+	
+	@Override
+	public int available() {
+		return m_remaining;
+	}
+	
+	/**
+	 * Skips over the rest of the data without reading it into memory
+	 */
+	public void skipToEnd() throws IOException {
+		while (nextBlock()) {
+			skipFully(m_in, m_remaining);
+			m_remaining = 0;
+		}
+	}
+	
+	/**
+	 * Skips exactly <code>n</code> bytes of the specified input
+	 */
+	static void skipFully(final DataInput in, int n) throws IOException {
+		while (n > 0) {
+			int skipped = in.skipBytes(n);
+			if (skipped <= 0) {
+				// skipBytes() may legitimately skip nothing, so fall back to reading
+				in.readByte();
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+	
+	private boolean nextBlock() throws IOException {
+		while (m_remaining == 0) {
+			if (m_eof)
+				return false;
+			m_remaining = m_in.readInt();
+			if (m_remaining < 0)
+				throw new IOException("Corrupt block length: "+m_remaining);
+			if (m_remaining == 0) {
+				m_eof = true;
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,71 @@
+package au.edu.unimelb.plantcell.core.cells;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes data to the underlying {@link DataOutput} as a series of blocks, each at most {@link #BLOCK_SIZE} bytes
+ * and preceded by its length. A zero-length block marks the end of the data, so there is no limit on the total length
+ * and a reader need not know it in advance (see {@link BlockInputStream}).
+ * 
+ * {@link #close()} must be called to write the final block, but does not close the underlying output.
+ * 
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+class BlockOutputStream extends OutputStream {
+	public static final int BLOCK_SIZE = 64 * 1024;
+	
+	private final DataOutput m_out;
+	private final byte[]     m_buf;
+	private int              m_n;
+	private boolean          m_closed;
+	
+	public BlockOutputStream(final DataOutput out) {
+		assert(out != null);
+		m_out    = out;
+		m_buf    = new byte[BLOCK_SIZE];
+		m_n      = 0;
+		m_closed = false;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (m_n == m_buf.length) {
+			writeBlock();
+		}
+		m_buf[m_n++] = (byte) b;
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (m_n == m_buf.length) {
+				writeBlock();
+			}
+			int n = Math.min(len, m_buf.length - m_n);
+			System.arraycopy(b, off, m_buf, m_n, n);
+			m_n += n;
+			off += n;
+			len -= n;
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (m_closed)
+			return;
+		writeBlock();
+		m_out.writeInt(0);
+		m_closed = true;
+	}
+	
+	private void writeBlock() throws IOException {
+		if (m_n < 1)
+			return;
+		m_out.writeInt(m_n);
+		m_out.write(m_buf, 0, m_n);
+		m_n = 0;
+	}
+}
@@ -0,0 +1,27 @@
+package au.edu.unimelb.plantcell.core.cells;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataCellDataInput;
+
+/**
+ * Reads an object (eg. a {@link Track}) from bytes previously captured by a {@link CellDataOutputBuffer}.
+ * Nested {@link DataCell}'s are not supported.
+ * 
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+class CellDataInputBuffer extends DataInputStream implements DataCellDataInput {
+
+	public CellDataInputBuffer(final byte[] data) {
+		super(new ByteArrayInputStream(data));
+	}
+	
+	@Override
+	public DataCell readDataCell() throws IOException {
+		throw new IOException("Nested cells are not supported by "+getClass().getName());
+	}
+}
@@ -0,0 +1,59 @@
+package au.edu.unimelb.plantcell.core.cells;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataCellDataOutput;
+
+/**
+ * An in-memory {@link DataCellDataOutput} which lets a serializer find out how many bytes an object
+ * (eg. a {@link Track}) needs, so that it can be written with a length prefix. Nested {@link DataCell}'s are not supported.
+ * 
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+class CellDataOutputBuffer extends DataOutputStream implements DataCellDataOutput {
+	
+	public CellDataOutputBuffer() {
+		super(new Buffer(4 * 1024));
+	}
+	
+	/**
+	 * Discards everything written so far, so that the buffer can be re-used
+	 */
+	public void reset() {
+		((Buffer)out).reset();
+		written = 0;
+	}
+	
+	/**
+	 * Writes the length of the buffered data followed by the data itself
+	 */
+	public void writeWithLength(final DataOutput dest) throws IOException {
+		flush();
+		Buffer b = (Buffer) out;
+		dest.writeInt(b.size());
+		b.writeTo(dest);
+	}
+
+	@Override
+	public void writeDataCell(DataCell cell) throws IOException {
+		throw new IOException("Nested cells are not supported by "+getClass().getName());
+	}
+	
+	/**
+	 * Provides access to the underlying array without copying it
+	 */
+	private static class Buffer extends ByteArrayOutputStream {
+		public Buffer(int initial_size) {
+			super(initial_size);
+		}
+		
+		public void writeTo(final DataOutput dest) throws IOException {
+			dest.write(buf, 0, count);
+		}
+	}
+}
@@ -0,0 +1,551 @@
+package au.edu.unimelb.plantcell.core.cells;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataCellDataInput;
+import org.knime.core.data.DataCellDataOutput;
+import org.knime.core.data.DataColumnSpec;
+import org.knime.core.data.DataColumnSpecCreator;
+import org.knime.core.data.DataType;
+import org.knime.core.data.collection.CollectionCellFactory;
+import org.knime.core.data.collection.ListCell;
+import org.knime.core.data.def.DoubleCell;
+import org.knime.core.data.def.IntCell;
+import org.knime.core.data.vector.bitvector.DenseBitVector;
+import org.knime.core.node.InvalidSettingsException;
+
+import au.edu.unimelb.plantcell.core.regions.RegionInterface;
+
+/**
+ * A track of quantitative data for the sequence (eg. probabilities along the sequence).
+ * Values are held in a primitive array whose precision is chosen at construction (see {@link Precision}):
+ * full double precision is the default. The minimum and maximum are maintained as values are set, where possible.
+ * Positions which were never set are <code>NaN</code> and are ignored by the range.
+ * 
+ * @author andrew.cassin
+ *
+ */
+public class NumericAnnotation extends SequenceAnnotation implements RegionInterface, TrackRendererInterface {
+	/**
+	 * How the values are stored. Quantized storage maps the values linearly into a fixed range
+	 * (specified at construction), values outside the range are clamped to it.
+	 */
+	public enum Precision {
+		DOUBLE, FLOAT, QUANTIZED_16BIT, QUANTIZED_8BIT;
+	}
+	
+	/**
+	 * The original persisted form is the (non-negative) number of values followed by each value as a double.
+	 * This is still used for {@link Precision#DOUBLE} so that older versions can read it. Other precisions
+	 * start with this (negative) version number instead.
+	 */
+	private static final int VERSION_COMPACT = -1;
+	
+	private static final int VALUES_PER_SLICE = 8 * 1024;	// how many values to (de)serialize at once
+	
+	private Precision m_precision;
+	private int      m_size;
+	private double[] m_doubles;		// only one of these arrays is used, depending on m_precision
+	private float[]  m_floats;
+	private short[]  m_shorts;
+	private byte[]   m_bytes;
+	private double   m_quant_min, m_quant_max;	// quantized precisions only
+	private boolean m_range_known   = false;
+	private double  m_min, m_max;
+	
+	// not persisted state: used only by the track filter
+	private int m_start, m_end;
+	
+	// default constructor
+	public NumericAnnotation() {
+		this(200);
+	}
+	
+	public NumericAnnotation(int initial_capacity) {
+		this(initial_capacity, Precision.DOUBLE);
+	}
+	
+	/**
+	 * Construct an annotation with {@link Precision#DOUBLE} or {@link Precision#FLOAT} storage
+	 */
+	public NumericAnnotation(int initial_capacity, final Precision p) {
+		this(initial_capacity, p, 0.0d, 1.0d);
+		if (p != Precision.DOUBLE && p != Precision.FLOAT)
+			throw new IllegalArgumentException("Quantized storage requires the range of values: "+p);
+	}
+	
+	/**
+	 * Construct an annotation with the chosen storage. For quantized storage, values are stored with respect to the
+	 * range <code>[min, max]</code> (eg. probabilities would use <code>[0, 1]</code>), otherwise the range is ignored.
+	 */
+	public NumericAnnotation(int initial_capacity, final Precision p, double min, double max) {
+		assert(p != null);
+		if (!(max > min))
+			throw new IllegalArgumentException("Invalid range for numeric annotation: ["+min+", "+max+"]");
+		m_precision        = p;
+		m_quant_min        = min;
+		m_quant_max        = max;
+		m_size             = 0;
+		allocate(Math.max(initial_capacity, 0));
+		m_range_known      = false;
+		m_start            = -1;	// no region of interest defined ie. whole vector
+		m_end			   = -1;
+	}
+	
+	public Precision getPrecision() {
+		return m_precision;
+	}
+	
+	private void allocate(int capacity) {
+		m_doubles = null;
+		m_floats  = null;
+		m_shorts  = null;
+		m_bytes   = null;
+		switch (m_precision) {
+		case DOUBLE:          m_doubles = new double[capacity]; break;
+		case FLOAT:           m_floats  = new float[capacity];  break;
+		case QUANTIZED_16BIT: m_shorts  = new short[capacity];  break;
+		case QUANTIZED_8BIT:  m_bytes   = new byte[capacity];   break;
+		}
+	}
+	
+	private int capacity() {
+		switch (m_precision) {
+		case DOUBLE:          return m_doubles.length;
+		case FLOAT:           return m_floats.length;
+		case QUANTIZED_16BIT: return m_shorts.length;
+		default:              return m_bytes.length;
+		}
+	}
+	
+	/**
+	 * Grows the storage to hold at least <code>new_size</code> values. New positions are <code>NaN</code>
+	 */
+	private void grow(int new_size) {
+		if (new_size > capacity()) {
+			int cap = Math.max(new_size, capacity() + (capacity() >> 1) + 16);
+			switch (m_precision) {
+			case DOUBLE:          m_doubles = Arrays.copyOf(m_doubles, cap); break;
+			case FLOAT:           m_floats  = Arrays.copyOf(m_floats, cap);  break;
+			case QUANTIZED_16BIT: m_shorts  = Arrays.copyOf(m_shorts, cap);  break;
+			case QUANTIZED_8BIT:  m_bytes   = Arrays.copyOf(m_bytes, cap);   break;
+			}
+		}
+		for (int i=m_size; i<new_size; i++) {
+			store(i, Double.NaN);
+		}
+		m_size = new_size;
+	}
+	
+	/**
+	 * Number of annotations is always the length of the sequence the annotation relates to
+	 */
+	@Override
+	public int countAnnotations() {
+		return m_size;
+	}
+
+	/**
+	 * 
+	 * @param pos the annotation is grown to the necessary size as needed
+	 * @param d   new value
+	 */
+	public void setPosition(int pos, double d) throws IndexOutOfBoundsException {
+		if (pos < 0)
+			throw new IndexOutOfBoundsException("Negative position: "+pos);
+		if (pos >= m_size) {
+			grow(pos+1);
+		}
+		double old = getValue(pos);
+		store(pos, d);
+		d = getValue(pos);		// take into account any loss of precision
+		
+		// maintain the range where possible, otherwise it is recomputed when next needed
+		if (m_range_known) {
+			if (!Double.isNaN(old) && (old <= m_min || old >= m_max) && old != d) {
+				m_range_known = false;
+			} else if (!Double.isNaN(d)) {
+				if (d < m_min)
+					m_min = d;
+				if (d > m_max)
+					m_max = d;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the value at the specified position (<code>NaN</code> if never set)
+	 */
+	public double getValue(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos >= m_size)
+			throw new IndexOutOfBoundsException("No such position: "+pos);
+		switch (m_precision) {
+		case DOUBLE:          return m_doubles[pos];
+		case FLOAT:           return m_floats[pos];
+		case QUANTIZED_16BIT: return dequantize(m_shorts[pos] & 0xFFFF, 0xFFFF);
+		default:              return dequantize(m_bytes[pos] & 0xFF, 0xFF);
+		}
+	}
+	
+	private void store(int pos, double d) {
+		switch (m_precision) {
+		case DOUBLE:          m_doubles[pos] = d;                           break;
+		case FLOAT:           m_floats[pos]  = (float) d;                   break;
+		case QUANTIZED_16BIT: m_shorts[pos]  = (short) quantize(d, 0xFFFF); break;
+		case QUANTIZED_8BIT:  m_bytes[pos]   = (byte) quantize(d, 0xFF);    break;
+		}
+	}
+	
+	/**
+	 * The largest code (<code>max_code</code>) is reserved for <code>NaN</code>
+	 */
+	private int quantize(double d, int max_code) {
+		if (Double.isNaN(d))
+			return max_code;
+		double frac = (d - m_quant_min) / (m_quant_max - m_quant_min);
+		if (frac <= 0.0d)
+			return 0;
+		if (frac >= 1.0d)
+			return max_code - 1;
+		return (int) Math.round(frac * (max_code - 1));
+	}
+	
+	private double dequantize(int code, int max_code) {
+		if (code == max_code)
+			return Double.NaN;
+		return m_quant_min + (m_quant_max - m_quant_min) * code / (max_code - 1);
+	}
+	
+	@Override
+	public AnnotationType getAnnotationType() {
+		return AnnotationType.NUMERIC;
+	}
+
+	@Override
+	public void serialize(DataCellDataOutput output) throws IOException {
+		output.writeUTF(getAnnotationType().name());
+		int cnt = countAnnotations();
+		if (m_precision != Precision.DOUBLE) {
+			output.writeInt(VERSION_COMPACT);
+			output.writeByte(m_precision.ordinal());
+			output.writeDouble(m_quant_min);
+			output.writeDouble(m_quant_max);
+		}
+		output.writeInt(cnt);
+		
+		// convert a slice at a time to avoid a second copy of large annotations in memory
+		int bytes_per_value = getBytesPerValue(m_precision);
+		ByteBuffer bb = ByteBuffer.allocate(Math.min(cnt, VALUES_PER_SLICE) * bytes_per_value);
+		for (int i=0; i<cnt; i += VALUES_PER_SLICE) {
+			int n = Math.min(VALUES_PER_SLICE, cnt - i);
+			bb.clear();
+			switch (m_precision) {
+			case DOUBLE:          bb.asDoubleBuffer().put(m_doubles, i, n); break;
+			case FLOAT:           bb.asFloatBuffer().put(m_floats, i, n);   break;
+			case QUANTIZED_16BIT: bb.asShortBuffer().put(m_shorts, i, n);   break;
+			case QUANTIZED_8BIT:  bb.put(m_bytes, i, n);                    break;
+			}
+			output.write(bb.array(), 0, n * bytes_per_value);
+		}
+	}
+
+	@Override
+	public SequenceAnnotation deserialize(DataCellDataInput input)
+			throws IOException {
+		// NB: caller has already loaded annotation type... so skip that field here
+		int  cnt = input.readInt();
+		if (cnt == VERSION_COMPACT) {
+			int p = input.readByte();
+			if (p < 0 || p >= Precision.values().length)
+				throw new IOException("Unknown numeric annotation precision: "+p);
+			m_precision = Precision.values()[p];
+			m_quant_min = input.readDouble();
+			m_quant_max = input.readDouble();
+			cnt         = input.readInt();
+		} else if (cnt >= 0) {
+			m_precision = Precision.DOUBLE;
+		} else {
+			throw new IOException("Unsupported numeric annotation version: "+cnt+" (newer plugin needed?)");
+		}
+		allocate(cnt);
+		m_size        = cnt;
+		m_range_known = false;
+		
+		int bytes_per_value = getBytesPerValue(m_precision);
+		byte[] b = new byte[Math.min(cnt, VALUES_PER_SLICE) * bytes_per_value];
+		for (int i=0; i<cnt; i += VALUES_PER_SLICE) {
+			int n = Math.min(VALUES_PER_SLICE, cnt - i);
+			input.readFully(b, 0, n * bytes_per_value);
+			ByteBuffer bb = ByteBuffer.wrap(b, 0, n * bytes_per_value);
+			switch (m_precision) {
+			case DOUBLE:          bb.asDoubleBuffer().get(m_doubles, i, n); break;
+			case FLOAT:           bb.asFloatBuffer().get(m_floats, i, n);   break;
+			case QUANTIZED_16BIT: bb.asShortBuffer().get(m_shorts, i, n);   break;
+			case QUANTIZED_8BIT:  bb.get(m_bytes, i, n);                    break;
+			}
+		}
+		return this;
+	}
+	
+	private static int getBytesPerValue(final Precision p) {
+		switch (p) {
+		case DOUBLE:          return 8;
+		case FLOAT:           return 4;
+		case QUANTIZED_16BIT: return 2;
+		default:              return 1;
+		}
+	}
+
+	public Iterable<Double> getValues() {
+		return new AbstractList<Double>() {
+
+			@Override
+			public Double get(int index) {
+				return Double.valueOf(getValue(index));
+			}
+
+			@Override
+			public int size() {
+				return m_size;
+			}
+			
+		};
+	}
+
+	public double[] getValuesAsArray() {
+		return getValuesAsArray(0, m_size);
+	}
+	
+	private double[] getValuesAsArray(int start, int end) {
+		if (m_precision == Precision.DOUBLE)
+			return Arrays.copyOfRange(m_doubles, start, end);
+		double[] ret = new double[end - start];
+		for (int i=0; i<ret.length; i++) {
+			ret[i] = getValue(start+i);
+		}
+		return ret;
+	}
+	
+	private void compute_range() {
+		m_min = Double.MAX_VALUE;
+		m_max = Double.NEGATIVE_INFINITY;
+
+		for (int i=0; i<m_size; i++) {
+			double v = getValue(i);
+			if (Double.isNaN(v))
+				continue;
+			if (m_max < v) {
+				m_max = v;
+			} 
+			if (m_min > v) {
+				m_min = v;
+			}
+		}
+		m_range_known = true;
+	}
+	
+	public double getMinimumValue() {
+		if (!m_range_known) {
+			compute_range();
+		}
+		return m_min;
+	}
+	
+	public double getMaximumValue() {
+		if (!m_range_known) {
+			compute_range();
+		}
+		return m_max;
+	}
+	
+	public double range(double d) {
+		if (!m_range_known) {
+			compute_range();
+		}
+		return (d - m_min) / (m_max - m_min);
+	}
+
+	/**
+	 * Needs to be overriden to provide a usable summary of the track for the summary sequence renderer
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(512);
+		sb.append("" + m_size + " datapoints: ");
+		sb.append("[" + getMinimumValue()+ ", "+getMaximumValue()+"]");
+		return sb.toString();
+	}
+
+	@Override
+	public List<DataColumnSpec> asColumnSpec(String prefix) {
+		ArrayList<DataColumnSpec> cols = new ArrayList<DataColumnSpec>();
+		cols.add(new DataColumnSpecCreator(prefix+": Start", IntCell.TYPE).createSpec());
+		cols.add(new DataColumnSpecCreator(prefix+": End",   IntCell.TYPE).createSpec());
+		cols.add(new DataColumnSpecCreator(prefix+": N",          IntCell.TYPE).createSpec());
+		cols.add(new DataColumnSpecCreator(prefix+": Datapoints", ListCell.getCollectionType(DoubleCell.TYPE)).createSpec());
+		
+		return cols;
+	}
+
+	/**
+	 * HACK BUG TODO: this supports only extraction of contiguous regions for now... a bit silly really!
+	 */
+	@Override
+	public void setRegionOfInterest(DenseBitVector bv) throws InvalidSettingsException {
+		long start = bv.nextSetBit(0);
+		if (start == -1) {
+			m_start = 0;
+			m_end   = m_size;
+			return;
+		}
+		long pos   = start;
+		long end   = start;
+		while ((pos = bv.nextSetBit(pos+1)) > 0) {
+			end = pos;
+		}
+		end++;	// include last set bit
+		setRegionOfInterest((int) start, (int) end);
+	}
+	
+	@Override
+	public void setRegionOfInterest(int start, int end) throws InvalidSettingsException {
+		if (end < start)
+			throw new InvalidSettingsException("End must be >= start: "+end+" - "+ start);
+		if (end >= m_size)
+			throw new InvalidSettingsException("End must < length of annotation: "+end);
+		m_start = start;
+		m_end   = end;
+	}
+	
+	public double[] getRegionOfInterest() {
+		if (m_start < 0) {
+			return getValuesAsArray();
+		}
+			
+		// else only return the region of interest
+		return getValuesAsArray(m_start, m_end);
+	}
+	
+	@Override
+	public Map<String, DataCell> asCells(String prefix) {
+		double[] roi = getRegionOfInterest();
+		Map<String,DataCell> map = new HashMap<String,DataCell>();
+		int start = m_start;
+		if (start < 0)
+			start = 0;
+		int end   = m_end;
+		if (end < 0 || end >= m_size)
+			end   = m_size;
+		map.put(prefix+": Start", new IntCell(start));
+		map.put(prefix+": End",   new IntCell(end));
+		map.put(prefix+": N",     new IntCell(roi.length));
+		
+		if (roi.length > 0) {
+			List<DataCell> roi_cells = new ArrayList<DataCell>(roi.length);
+			for (int i=0; i<roi.length; i++) {
+				roi_cells.add(new DoubleCell(roi[i]));
+			}
+			map.put(prefix+": Datapoints", CollectionCellFactory.createListCell(roi_cells));
+		} else {
+			map.put(prefix+": Datapoints", DataType.getMissingCell());
+		}
+		return map;
+	}
+
+	@Override
+	public int getZStart() {
+		return 0;
+	}
+
+	@Override
+	public int getZEnd() {
+		return m_size;
+	}
+
+	@Override
+	public boolean isSingleSite() {
+		return (m_size == 1);
+	}
+
+	@Override
+	public String getLabel() {
+		return "";
+	}
+
+	@Override
+	public final String getID() {
+		return "n/a";
+	}
+	
+	/**
+	 * a numeric annotation implements a single region: the entire vector
+	 */
+	@Override
+	public List<RegionInterface> getRegions() {
+		ArrayList<RegionInterface> ret = new ArrayList<RegionInterface>();
+		ret.add(this);
+		return ret;
+	}
+
+	@Override
+	public SequenceValue getFeatureSequence(SequenceValue sv) {
+		return sv; 
+	}
+	
+	@Override
+	public TrackRendererInterface getRenderer() {
+		return this;
+	}
+
+	@Override
+	public void paintLabel(final Graphics g, final String l, int offset) {
+		g.setColor(Color.BLACK);
+		g.drawString(l, 3, 12+offset);
+	}
+	
+	@Override
+	public Dimension paintTrack(Map<String, Integer> props, Graphics g,
+			SequenceValue sv, Track t) {
+		NumericAnnotation na = (NumericAnnotation) t.getAnnotation();
+		double frac   = ((double) props.get("track.width")) / sv.getLength();
+		int offset    = props.get("height");
+		
+		paintLabel(g, t.getName(), offset);
+		
+		double height = 20.0d;
+		double[]    d = na.getValuesAsArray();
+		int[] xPoints = new int[d.length];
+		int[] yPoints = new int[d.length];
+		for (int idx=0; idx<d.length; idx++) {
+			xPoints[idx] = 200 + (int) (idx * frac);
+			yPoints[idx] = offset - (int)(height * na.range(d[idx]));
+		}
+		g.setColor(Color.BLUE);
+		g.drawRect(200, offset-(int)height, 400, (int)height);
+		g.setColor(Color.DARK_GRAY);
+		g.drawString(""+na.getMaximumValue(), 605, offset - 38);
+		g.drawString(""+na.getMinimumValue(), 605, offset);
+		g.setColor(Color.BLACK);
+		g.drawPolyline(xPoints, yPoints, d.length);
+		
+		Integer width = props.get("label.width") + props.get("track.width");
+		return new Dimension(width, (int)height);
+	}
+
+	@Override
+	public String asGFF(SequenceValue sv, Track t) {
+		// TODO: not supported (yet) for this type of annotation
+		return null;
+	}
+}
@@ -0,0 +1,351 @@
+package au.edu.unimelb.plantcell.core.cells;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Compact, immutable storage for the residues of a {@link SequenceImpl}. Depending on the sequence type and content one of
+ * several representations is chosen:
+ * <ul>
+ * <li>nucleotides: 2 bits per base (ACGT or ACGU), with runs of other symbols (eg. N, IUPAC codes, gaps) kept as exceptions</li>
+ * <li>amino acids: 5 bits per residue over the standard, ambiguous and stop/gap symbols</li>
+ * <li>otherwise: 1 byte per residue (US-ASCII) or, for non-ASCII data, the original <code>String</code></li>
+ * </ul>
+ * Lower-case (eg. soft-masked) residues are recorded as runs so that the packed formats are lossless. If a sequence
+ * has too many exceptions to pack well, the byte-per-residue form is used instead.
+ *
+ * The <code>String</code> form of the sequence is only built when {@link #decode()} is called, and is softly cached.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+class PackedResidues {
+	// representations (also used as the persisted format tag, so never renumber these)
+	static final byte FORMAT_STRING = 0;
+	static final byte FORMAT_ASCII  = 1;
+	static final byte FORMAT_DNA    = 2;
+	static final byte FORMAT_RNA    = 3;
+	static final byte FORMAT_AA     = 4;
+
+	private static final String DNA_ALPHABET = "ACGT";
+	private static final String RNA_ALPHABET = "ACGU";
+	private static final String AA_ALPHABET  = "ACDEFGHIKLMNPQRSTVWYBJOUXZ*-";	// must be no more than 32 symbols
+
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+	private static final int WORDS_PER_SLICE = 8 * 1024;	// how much packed data to (de)serialize at once
+	private static final Charset UTF8     = Charset.forName("UTF-8");
+
+	private final byte   m_format;
+	private final int    m_length;
+
+	// FORMAT_STRING only
+	private final String m_string;
+
+	// FORMAT_ASCII only
+	private final byte[] m_ascii;
+
+	// packed formats only: symbols are packed into longs from the least significant bits up
+	private final long[] m_words;
+	private final int[]  m_exc_start, m_exc_len;		// runs of symbols not in the alphabet
+	private final byte[] m_exc_char;
+	private final int[]  m_lc_start, m_lc_len;		    // runs of lower case residues
+
+	private transient SoftReference<String> m_decoded;
+
+	private PackedResidues(byte format, int len, String s, byte[] ascii, long[] words,
+			int[] exc_start, int[] exc_len, byte[] exc_char, int[] lc_start, int[] lc_len) {
+		m_format   = format;
+		m_length   = len;
+		m_string   = s;
+		m_ascii    = ascii;
+		m_words    = words;
+		m_exc_start= exc_start;
+		m_exc_len  = exc_len;
+		m_exc_char = exc_char;
+		m_lc_start = lc_start;
+		m_lc_len   = lc_len;
+		m_decoded  = null;
+	}
+
+	/**
+	 * Returns the most compact representation of <code>seq</code> suitable for the specified type of sequence
+	 *
+	 * @param st type of sequence (determines the packing to try)
+	 * @param seq must not be null
+	 */
+	public static PackedResidues pack(final SequenceType st, final String seq) {
+		assert(seq != null);
+		int len = seq.length();
+		for (int i=0; i<len; i++) {
+			if (seq.charAt(i) > 127) {
+				return new PackedResidues(FORMAT_STRING, len, seq, null, null, null, null, null, null, null);
+			}
+		}
+
+		PackedResidues ret = null;
+		if (st != null && len > 0) {
+			if (st.isRNA()) {
+				ret = pack(FORMAT_RNA, seq);
+			} else if (st.isDNA()) {
+				ret = pack(FORMAT_DNA, seq);
+			} else if (st.isProtein()) {
+				ret = pack(FORMAT_AA, seq);
+			}
+		}
+		if (ret == null) {
+			ret = new PackedResidues(FORMAT_ASCII, len, null, seq.getBytes(US_ASCII), null, null, null, null, null, null);
+		}
+		return ret;
+	}
+
+	private static PackedResidues pack(byte format, final String seq) {
+		String alphabet = getAlphabet(format);
+		int       nbits = getBitsPerSymbol(format);
+		int    per_word = 64 / nbits;
+		int         len = seq.length();
+		// give up if the exceptions would take more memory than byte-per-residue storage
+		int    max_runs = len / 16 + 16;
+		long[]    words = new long[(len + per_word - 1) / per_word];
+		RunList     exc = new RunList();
+		RunList      lc = new RunList();
+
+		for (int i=0; i<len; i++) {
+			char c = seq.charAt(i);
+			if (c >= 'a' && c <= 'z') {
+				lc.add(i, (byte) 0);
+				c = (char) (c - 'a' + 'A');
+			}
+			int code = alphabet.indexOf(c);
+			if (code < 0) {
+				exc.add(i, (byte) c);
+				code = 0;
+			}
+			words[i / per_word] |= ((long) code) << ((i % per_word) * nbits);
+			if (exc.size() + lc.size() > max_runs)
+				return null;
+		}
+		return new PackedResidues(format, len, null, null, words, exc.starts(), exc.lengths(), exc.chars(), lc.starts(), lc.lengths());
+	}
+
+	private static String getAlphabet(byte format) {
+		switch (format) {
+		case FORMAT_DNA: return DNA_ALPHABET;
+		case FORMAT_RNA: return RNA_ALPHABET;
+		case FORMAT_AA:  return AA_ALPHABET;
+		default:
+			throw new IllegalArgumentException("No alphabet for residue format: "+format);
+		}
+	}
+
+	private static int getBitsPerSymbol(byte format) {
+		return (format == FORMAT_AA) ? 5 : 2;
+	}
+
+	public int length() {
+		return m_length;
+	}
+
+	public byte getFormat() {
+		return m_format;
+	}
+
+	/**
+	 * Returns a hash of the residues without decoding them. Packing is deterministic, so sequences of the same type
+	 * with the same residues have the same hash.
+	 */
+	public int contentHash() {
+		int h = 31 * m_format + m_length;
+		h = 31 * h + ((m_string != null) ? m_string.hashCode() : 0);
+		h = 31 * h + Arrays.hashCode(m_ascii);
+		h = 31 * h + Arrays.hashCode(m_words);
+		h = 31 * h + Arrays.hashCode(m_exc_start);
+		h = 31 * h + Arrays.hashCode(m_exc_len);
+		h = 31 * h + Arrays.hashCode(m_exc_char);
+		h = 31 * h + Arrays.hashCode(m_lc_start);
+		h = 31 * h + Arrays.hashCode(m_lc_len);
+		return h;
+	}
+
+	/**
+	 * Returns the residues as a <code>String</code>, decoding them if necessary
+	 */
+	public String decode() {
+		if (m_format == FORMAT_STRING)
+			return m_string;
+		SoftReference<String> ref = m_decoded;
+		String ret = (ref != null) ? ref.get() : null;
+		if (ret == null) {
+			ret = (m_format == FORMAT_ASCII) ? new String(m_ascii, US_ASCII) : new String(unpack());
+			m_decoded = new SoftReference<String>(ret);
+		}
+		return ret;
+	}
+
+	private char[] unpack() {
+		String alphabet = getAlphabet(m_format);
+		int       nbits = getBitsPerSymbol(m_format);
+		int    per_word = 64 / nbits;
+		long       mask = (1L << nbits) - 1;
+		char[]      ret = new char[m_length];
+
+		int pos = 0;
+		for (long w : m_words) {
+			for (int j=0; j<per_word && pos < m_length; j++) {
+				ret[pos++] = alphabet.charAt((int) (w & mask));
+				w >>>= nbits;
+			}
+		}
+		for (int i=0; i<m_exc_start.length; i++) {
+			char c = (char) m_exc_char[i];
+			int end = m_exc_start[i] + m_exc_len[i];
+			for (int j=m_exc_start[i]; j<end; j++) {
+				ret[j] = c;
+			}
+		}
+		for (int i=0; i<m_lc_start.length; i++) {
+			int end = m_lc_start[i] + m_lc_len[i];
+			for (int j=m_lc_start[i]; j<end; j++) {
+				ret[j] = Character.toLowerCase(ret[j]);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Persist the residues. Unlike <code>DataOutput.writeUTF()</code> there is no limit on the length of the sequence.
+	 */
+	public void serialize(final DataOutput out) throws IOException {
+		out.writeByte(m_format);
+		out.writeInt(m_length);
+		switch (m_format) {
+		case FORMAT_STRING:
+			byte[] utf8 = m_string.getBytes(UTF8);
+			out.writeInt(utf8.length);
+			out.write(utf8);
+			break;
+		case FORMAT_ASCII:
+			out.write(m_ascii);
+			break;
+		default:
+			// convert a slice at a time so that very long sequences do not need a second copy in memory
+			ByteBuffer bb = ByteBuffer.allocate(Math.min(m_words.length, WORDS_PER_SLICE) * 8);
+			for (int i=0; i<m_words.length; i += WORDS_PER_SLICE) {
+				int n = Math.min(WORDS_PER_SLICE, m_words.length - i);
+				bb.clear();
+				bb.asLongBuffer().put(m_words, i, n);
+				out.write(bb.array(), 0, n * 8);
+			}
+			writeRuns(out, m_exc_start, m_exc_len, m_exc_char);
+			writeRuns(out, m_lc_start, m_lc_len, null);
+			break;
+		}
+	}
+
+	/**
+	 * Reads residues written by {@link #serialize(DataOutput)}
+	 */
+	public static PackedResidues deserialize(final DataInput in) throws IOException {
+		byte format = in.readByte();
+		int  len    = in.readInt();
+		switch (format) {
+		case FORMAT_STRING:
+			byte[] utf8 = new byte[in.readInt()];
+			in.readFully(utf8);
+			return new PackedResidues(format, len, new String(utf8, UTF8), null, null, null, null, null, null, null);
+		case FORMAT_ASCII:
+			byte[] ascii = new byte[len];
+			in.readFully(ascii);
+			return new PackedResidues(format, len, null, ascii, null, null, null, null, null, null);
+		case FORMAT_DNA:
+		case FORMAT_RNA:
+		case FORMAT_AA:
+			int per_word = 64 / getBitsPerSymbol(format);
+			long[] words = new long[(len + per_word - 1) / per_word];
+			byte[] b = new byte[Math.min(words.length, WORDS_PER_SLICE) * 8];
+			for (int i=0; i<words.length; i += WORDS_PER_SLICE) {
+				int n = Math.min(WORDS_PER_SLICE, words.length - i);
+				in.readFully(b, 0, n * 8);
+				ByteBuffer.wrap(b, 0, n * 8).asLongBuffer().get(words, i, n);
+			}
+			RunList exc = readRuns(in, true);
+			RunList lc  = readRuns(in, false);
+			return new PackedResidues(format, len, null, null, words, exc.starts(), exc.lengths(), exc.chars(), lc.starts(), lc.lengths());
+		default:
+			throw new IOException("Unknown residue format: "+format);
+		}
+	}
+
+	private static void writeRuns(final DataOutput out, int[] starts, int[] lengths, byte[] chars) throws IOException {
+		out.writeInt(starts.length);
+		for (int i=0; i<starts.length; i++) {
+			out.writeInt(starts[i]);
+			out.writeInt(lengths[i]);
+			if (chars != null) {
+				out.writeByte(chars[i]);
+			}
+		}
+	}
+
+	private static RunList readRuns(final DataInput in, boolean has_chars) throws IOException {
+		int n = in.readInt();
+		RunList ret = new RunList();
+		for (int i=0; i<n; i++) {
+			int start = in.readInt();
+			int len   = in.readInt();
+			ret.addRun(start, len, has_chars ? in.readByte() : 0);
+		}
+		return ret;
+	}
+
+	/**
+	 * Accumulates runs of identical symbols at consecutive positions
+	 */
+	private static class RunList {
+		private int[]  m_start = new int[4];
+		private int[]  m_len   = new int[4];
+		private byte[] m_char  = new byte[4];
+		private int    m_n     = 0;
+
+		public void add(int pos, byte c) {
+			if (m_n > 0 && m_char[m_n-1] == c && m_start[m_n-1] + m_len[m_n-1] == pos) {
+				m_len[m_n-1]++;
+			} else {
+				addRun(pos, 1, c);
+			}
+		}
+
+		public void addRun(int start, int len, byte c) {
+			if (m_n == m_start.length) {
+				int new_size = m_n * 2;
+				m_start = Arrays.copyOf(m_start, new_size);
+				m_len   = Arrays.copyOf(m_len,   new_size);
+				m_char  = Arrays.copyOf(m_char,  new_size);
+			}
+			m_start[m_n] = start;
+			m_len[m_n]   = len;
+			m_char[m_n]  = c;
+			m_n++;
+		}
+
+		public int size() {
+			return m_n;
+		}
+
+		public int[] starts() {
+			return Arrays.copyOf(m_start, m_n);
+		}
+
+		public int[] lengths() {
+			return Arrays.copyOf(m_len, m_n);
+		}
+
+		public byte[] chars() {
+			return Arrays.copyOf(m_char, m_n);
+		}
+	}
+}
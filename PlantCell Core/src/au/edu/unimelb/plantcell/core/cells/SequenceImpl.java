@@ -0,0 +1,330 @@
+package au.edu.unimelb.plantcell.core.cells;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.knime.core.node.InvalidSettingsException;
+
+/**
+ * The residues are stored exactly as given, so callers must remove any whitespace first. They are held
+ * in packed form (see {@link PackedResidues}) and only converted to a <code>String</code> on demand.
+ * Similarly, tracks read from a table are kept in serialized form until first used, since most
+ * nodes only need the residues and ID.
+ * 
+ * @author andrew.cassin
+ *
+ */
+public class SequenceImpl implements SequenceValue {
+	private PackedResidues m_seq;	// immutable so may be shared between copies
+	private String m_id;		    // kept here rather than as an annotation
+	private SequenceType m_type;    // ditto
+	private List<Track> m_tracks;
+	private volatile List<byte[]> m_pending_tracks;	// serialized tracks not yet needed (null once materialised)
+	
+	public SequenceImpl(SequenceType st, String accsn, String seq) throws InvalidSettingsException {
+		this(st, accsn, (seq != null) ? PackedResidues.pack(st, seq) : null);
+	}
+	
+	/**
+	 * Used by the serializer to construct a sequence from already packed residues
+	 */
+	SequenceImpl(SequenceType st, String accsn, PackedResidues seq) {
+		m_type = st;
+		m_id   = accsn;
+		m_seq  = seq;
+		m_tracks = null;
+		m_pending_tracks = null;
+	}
+
+	/**
+	 * deep copy the sequence data from the input {@link SequenceValue}
+	 * @param sv
+	 */
+	public SequenceImpl(SequenceValue sv) {
+		m_type   = SequenceType.valueOf(sv.getSequenceType().name());
+		m_id     = new String(sv.getID());
+		// packed residues are immutable so they need not be copied
+		if (sv instanceof SequenceCell) {
+			m_seq = ((SequenceCell)sv).getPackedResidues();
+		} else if (sv instanceof SequenceImpl) {
+			m_seq = ((SequenceImpl)sv).getPackedResidues();
+		} else {
+			String seq = sv.getStringValue();
+			m_seq = (seq != null) ? PackedResidues.pack(m_type, seq) : null;
+		}
+		m_tracks = null;
+		m_pending_tracks = null;
+		// serialized tracks are immutable too, so avoid reading them just to copy them
+		List<byte[]> pending = null;
+		if (sv instanceof SequenceCell) {
+			pending = ((SequenceCell)sv).getPendingTracks();
+		} else if (sv instanceof SequenceImpl) {
+			pending = ((SequenceImpl)sv).getPendingTracks();
+		}
+		if (pending != null) {
+			m_pending_tracks = pending;
+		} else if (sv.countTracks() > 0) {
+			ensure_tracks();
+			for (Track t : sv.getTracks()) {
+				m_tracks.add(new Track(t));
+			}
+		}
+	}
+
+	/**
+	 * Records the serialized form of each track (as written by {@link Track#serialize(org.knime.core.data.DataCellDataOutput)}).
+	 * They are only deserialized when a method needs the tracks. Must be called before any tracks are added.
+	 */
+	void setPendingTracks(final List<byte[]> serialized_tracks) {
+		assert(m_tracks == null);
+		m_pending_tracks = (serialized_tracks != null && serialized_tracks.size() > 0) ? serialized_tracks : null;
+	}
+	
+	/**
+	 * Returns the tracks which have not yet been deserialized or <code>null</code> if there are none
+	 */
+	List<byte[]> getPendingTracks() {
+		return m_pending_tracks;
+	}
+	
+	private void materialise_tracks() {
+		if (m_pending_tracks == null)
+			return;
+		synchronized (this) {
+			List<byte[]> pending = m_pending_tracks;
+			if (pending == null)
+				return;
+			List<Track> tracks = new ArrayList<Track>(pending.size());
+			try {
+				for (byte[] b : pending) {
+					Track t = new Track("");
+					t.deserialize(new CellDataInputBuffer(b));
+					tracks.add(t);
+				}
+			} catch (IOException ioe) {
+				throw new IllegalStateException("Unable to read tracks for "+getID(), ioe);
+			}
+			m_tracks = tracks;
+			m_pending_tracks = null;
+		}
+	}
+	
+	private List<Track> ensure_tracks() {
+		materialise_tracks();
+		if (m_tracks != null)
+			return m_tracks;
+		m_tracks = new ArrayList<Track>();
+		return m_tracks;
+	}
+	
+	@Override
+	public String toString() {
+		return getStringValue();
+	}
+	
+	@Override
+	public String getStringValue() {
+		return (m_seq != null) ? m_seq.decode() : null;
+	}
+	
+	PackedResidues getPackedResidues() {
+		return m_seq;
+	}
+
+	@Override
+	public String getID() {
+		return m_id;
+	}
+
+	@Override
+	public int hashCode() {
+		// consistent with equals() and avoids decoding the residues
+		return (m_id != null) ? m_id.hashCode() : 0;
+	}
+	
+	/**
+	 * Sequences compare equal if their *IDs* match
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof SequenceValue) {
+			SequenceValue sv2 = (SequenceValue) o;
+			return (getID().equals(sv2.getID()));
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Sequences ONLY compare equal if they are of the same type, length, and composed of the same
+	 * residues in order. Other definitions of sequence equality will need to implemented separately.
+	 * This implementation will throw a {@link ClassCastException} if the sequences are not of the same type.
+	 */
+	@Override
+	public int compareTo(SequenceValue s2) {
+		if (!getSequenceType().equals(s2.getSequenceType())) 
+			throw new ClassCastException("Sequences cannot be compared: "+getSequenceType()+" versus "+s2.getSequenceType());
+		int ret = getStringValue().compareTo(s2.getStringValue());
+		return ret;
+	}
+
+	@Override
+	public SequenceType getSequenceType() {
+		return m_type;
+	}
+
+	@Override
+	public int countTracks() {
+		List<byte[]> pending = m_pending_tracks;
+		if (pending != null)
+			return pending.size();
+		return (m_tracks == null) ? 0 : m_tracks.size();
+	}
+
+	@Override
+	public Track addTrack(Track t) {
+		assert(t != null);
+		ensure_tracks();
+		m_tracks.add(t);
+		return t;
+	}
+
+	@Override
+	public Iterable<Track> getTracks() {
+		materialise_tracks();
+		return (m_tracks != null) ? m_tracks : null;
+	}
+
+	protected int findTrack(String name) {
+		materialise_tracks();
+		int idx = 0;
+		if (m_tracks == null)
+			return -1;
+		for (Track t : m_tracks) {
+			if (t.hasName(name)) {
+				return idx;
+			}
+			idx++;
+		}
+		
+		return -1;
+	}
+	
+	public void removeTrackByName(String name) {
+		int idx = findTrack(name);
+		if (idx >= 0) {
+			m_tracks.remove(idx);
+		}
+	}
+
+	@Override
+	public void removeTrack(Track t) {
+		materialise_tracks();
+		if (m_tracks != null) {
+			m_tracks.remove(t);
+		}
+	}
+
+	@Override
+	public Track getTrackByName(String name, TrackCreator tc) throws InvalidSettingsException {
+		int idx = findTrack(name);
+		if (idx >= 0) {
+			return m_tracks.get(idx);
+		}
+		if (tc == null)
+			return null;
+		Track t = tc.createTrack(name);
+		addTrack(t);
+		return t;
+	}
+
+	@Override
+	public Track getTrackByType(AnnotationType at) {
+		materialise_tracks();
+		if (m_tracks == null)
+			return null;
+		for (Track t : m_tracks) {
+			if (t.hasType(at))
+				return t;
+		}
+		return null;
+	}
+
+	@Override
+	public void setID(String accsn) {
+		assert(accsn != null);
+		m_id = accsn;
+	}
+
+	@Override
+	public void setSequenceType(SequenceType st) {
+		assert(st != null);
+		m_type = st;
+	}
+
+	@Override
+	public int getLength() {
+		return (m_seq != null) ? m_seq.length() : 0;
+	}
+
+	@Override
+	public boolean isValid() {
+		// not yet implemented so...
+		return true;
+	}
+
+	@Override
+	public void addComment(Comment c) throws InvalidSettingsException {
+		assert(c != null);
+		Track t = getTrackByName("Summary", new TrackCreator() {
+
+			@Override
+			public Track createTrack(String name)
+					 throws InvalidSettingsException {
+				Track t = new Track(name);
+				t.addAnnotation(new CommentsAnnotation());
+				return t;
+			}
+			
+		});
+		CommentsAnnotation ca = (CommentsAnnotation) t.getAnnotation();
+		ca.addComment(c);
+	}
+
+	@Override
+	public Track addTrack(String trackName, TrackCreator tc) {
+		Track t = null;
+		removeTrackByName(trackName);
+		if (tc != null) {
+			try {
+				t = tc.createTrack(trackName);
+			} catch (InvalidSettingsException ise) {
+				ise.printStackTrace();
+			}
+		}
+		if (t == null) {
+			t = new Track(trackName);
+		}
+		return addTrack(t);
+	}
+
+	@Override
+	public boolean hasDescription() {
+		String descr = getDescription();
+		return (descr != null && descr.length() > 0);
+	}
+
+	@Override
+	public String getDescription() {
+		Track t = getTrackByType(AnnotationType.COMMENTS);	 // TODO: only consider the first comment track
+		if (t == null)
+			return null;
+		CommentsAnnotation ca = (CommentsAnnotation) t.getAnnotation();
+		for (Comment c : ca.getComments()) {
+			if (c.hasType(CommentType.Description))
+				return c.getText();
+		}
+		return null;	// no suitable description
+	}
+}
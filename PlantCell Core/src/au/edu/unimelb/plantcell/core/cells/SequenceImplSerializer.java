@@ -0,0 +1,122 @@
+package au.edu.unimelb.plantcell.core.cells;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.knime.core.data.DataCellDataInput;
+import org.knime.core.data.DataCellDataOutput;
+import org.knime.core.data.DataCellSerializer;
+import org.knime.core.node.InvalidSettingsException;
+
+/**
+ * Persists a {@link SequenceCell}. The original format began with the (non-negative) number of tracks
+ * and stored the residues via <code>writeUTF()</code>. Newer formats begin with a negative version number instead,
+ * so that tables saved by older versions of the plugin can still be read.
+ * 
+ * @author andrew.cassin
+ *
+ * @param <T>
+ */
+public class SequenceImplSerializer<T extends SequenceCell> implements DataCellSerializer<T> {
+	/**
+	 * version 2: residues are stored via {@link PackedResidues} rather than <code>writeUTF()</code>
+	 */
+	private static final int VERSION_PACKED = -2;
+	
+	/**
+	 * version 3: packed residues are written in length-prefixed blocks (see {@link BlockOutputStream}) and 
+	 * each track is preceded by its length in bytes, so that readers can skip data they do not need. Tracks are
+	 * kept in this form by the cell until first accessed.
+	 */
+	private static final int VERSION_CHUNKED = -3;
+	
+	@Override
+	public void serialize(T cell, DataCellDataOutput output) throws IOException {
+		String id  = cell.getID();
+		int n_tracks = cell.countTracks();
+		output.writeInt(VERSION_CHUNKED);
+		output.writeInt(n_tracks);
+		output.writeUTF(cell.getSequenceType().name());
+		output.writeUTF(id);
+		
+		BlockOutputStream bos = new BlockOutputStream(output);
+		DataOutputStream  dos = new DataOutputStream(bos);
+		cell.getPackedResidues().serialize(dos);
+		dos.flush();
+		bos.close();
+		
+		// dump each track incl. track/annotation specific data. Tracks which were never used since being read are copied as-is
+		List<byte[]> pending = cell.getPendingTracks();
+		if (pending != null) {
+			for (byte[] b : pending) {
+				output.writeInt(b.length);
+				output.write(b);
+			}
+		} else if (n_tracks > 0) {
+			CellDataOutputBuffer buf = new CellDataOutputBuffer();
+			for (Track t : cell.getTracks()) {
+				buf.reset();
+				t.serialize(buf);
+				buf.writeWithLength(output);
+			}
+		}
+	}
+
+	@SuppressWarnings({ "unchecked" })
+	@Override
+	public T deserialize(DataCellDataInput input) throws IOException {
+		int version = input.readInt();
+		int n_tracks;
+		if (version >= 0) {
+			// legacy format: the first field is the number of tracks
+			n_tracks = version;
+		} else if (version == VERSION_PACKED || version == VERSION_CHUNKED) {
+			n_tracks = input.readInt();
+		} else {
+			throw new IOException("Unsupported sequence cell version: "+version+" (newer plugin needed?)");
+		}
+		SequenceType st = SequenceType.valueOf(input.readUTF());
+		String id = input.readUTF();
+		// instantiate the cell and return (all going well)
+		try {
+			SequenceValue c;
+			if (version >= 0) {
+				c = new SequenceCell(st, id, input.readUTF());
+			} else if (version == VERSION_PACKED) {
+				c = new SequenceCell(st, id, PackedResidues.deserialize(input));
+			} else {
+				BlockInputStream bis = new BlockInputStream(input);
+				c = new SequenceCell(st, id, PackedResidues.deserialize(new DataInputStream(bis)));
+				bis.skipToEnd();
+			}
+
+			if (version == VERSION_CHUNKED) {
+				// defer decoding the tracks until (if ever) they are needed
+				if (n_tracks > 0) {
+					List<byte[]> tracks = new ArrayList<byte[]>(n_tracks);
+					for (int i=0; i<n_tracks; i++) {
+						byte[] b = new byte[input.readInt()];
+						input.readFully(b);
+						tracks.add(b);
+					}
+					((SequenceCell)c).setPendingTracks(tracks);
+				}
+			} else {
+				for (int i=0; i<n_tracks; i++) {
+					Track t = new Track("");
+					t.deserialize(input);
+					c.addTrack(t);
+				}
+			}
+		
+			return (T) c;
+		} catch (InvalidSettingsException ise) {
+			ise.printStackTrace();
+			throw new IOException(ise.getMessage());
+		}
+	}
+
+}
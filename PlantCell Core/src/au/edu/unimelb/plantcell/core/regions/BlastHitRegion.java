@@ -0,0 +1,305 @@
+package au.edu.unimelb.plantcell.core.regions;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataCellDataInput;
+import org.knime.core.data.DataCellDataOutput;
+import org.knime.core.data.DataType;
+import org.knime.core.data.def.DoubleCell;
+import org.knime.core.data.def.IntCell;
+import org.knime.core.data.def.StringCell;
+
+/**
+ * Records a single blast hit record associated with a region of a sequence. The fields
+ * tracked are similar to "-outfmt 7" ie. tab separated output values from BLAST.
+ * 
+ * @author andrew.cassin
+ *
+ */
+public class BlastHitRegion extends ScoredRegion {
+	private String m_q_id;
+	private double m_evalue;
+	private String m_frame;
+	private int    m_alignment_length;
+	private double m_identity;
+	// NB: bitscore is kept by the superclass it is Score member
+	
+	// columns of the BLAST+ tsv output recorded by this class, see getField()
+	public static final int FIELD_IGNORED          = -1;
+	public static final int FIELD_QSTART           = 0;
+	public static final int FIELD_QEND             = 1;
+	public static final int FIELD_EVALUE           = 2;
+	public static final int FIELD_BITSCORE         = 3;
+	public static final int FIELD_IDENTITY         = 4;
+	public static final int FIELD_ALIGNMENT_LENGTH = 5;
+	public static final int FIELD_FRAME            = 6;
+	public static final int FIELD_QUERY            = 7;
+	public static final int FIELD_SUBJECT          = 8;
+	public static final int FIELD_LABEL            = 9;
+	
+	private static final double[] POW10 = new double[] { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	
+	/**
+	 * Default constructor, used only during deserialisation
+	 */
+	public BlastHitRegion() {
+		this(-1, -1, "", "");
+	}
+	
+	public BlastHitRegion(int qstart, int qend, String query_id, String subject_id) {
+		super(qstart, qend, subject_id);
+		setQuery(query_id);
+		setFrame("");
+		setEvalue(-1d);
+		setScore(-1d);
+		setAlignmentLength(-1);
+		setIdentity(-1d);
+	}
+	
+	/**
+	 * The field names are as set by NCBI BLAST+ with its tsv format column names
+	 * @param fields
+	 */
+	public BlastHitRegion(Map<String,String> fields) {
+		// NB: we dont call super(fields) here because we call the methods explicitly below where provided
+		for (String key : fields.keySet()) {
+			setField(getField(key), fields.get(key));
+		}
+	}
+	
+	/**
+	 * Equivalent to the map constructor, but with the column names already converted by <code>getField()</code>. Used
+	 * when parsing large BLAST results, where the column names are the same for every hit.
+	 * 
+	 * @param fields <code>FIELD_*</code> constant for each column
+	 * @param values value for each column (same length as <code>fields</code>)
+	 */
+	public BlastHitRegion(final int[] fields, final String[] values) {
+		for (int i=0; i<fields.length; i++) {
+			setField(fields[i], values[i]);
+		}
+	}
+	
+	/**
+	 * Returns the <code>FIELD_*</code> constant for the specified NCBI BLAST+ tsv column name
+	 * or <code>FIELD_IGNORED</code> if the column is not recorded by this class
+	 */
+	public static int getField(final String column_name) {
+		if (column_name.equals("q. start")) {
+			return FIELD_QSTART;
+		} else if (column_name.equals("q. end")) {
+			return FIELD_QEND;
+		} else if (column_name.equals("evalue")) {
+			return FIELD_EVALUE;
+		} else if (column_name.equals("bit score")) {
+			return FIELD_BITSCORE;
+		} else if (column_name.equals("% identity")) {
+			return FIELD_IDENTITY;
+		} else if (column_name.equals("alignment length")) {
+			return FIELD_ALIGNMENT_LENGTH;
+		} else if (column_name.equals("frame")) {
+			return FIELD_FRAME;
+		} else if (column_name.equals("query id")) {
+			return FIELD_QUERY;
+		} else if (column_name.equals("subject id")) {
+			return FIELD_SUBJECT;
+		} else if (column_name.equals("label")) {
+			return FIELD_LABEL;
+		}
+		return FIELD_IGNORED;
+	}
+	
+	private void setField(int field, final String val) {
+		switch (field) {
+		case FIELD_QSTART:
+			setStart(Integer.parseInt(val));
+			break;
+		case FIELD_QEND:
+			setEnd(Integer.parseInt(val));
+			break;
+		case FIELD_EVALUE:
+			setEvalue(parseDouble(val));
+			break;
+		case FIELD_BITSCORE:
+			setScore(parseDouble(val));
+			break;
+		case FIELD_IDENTITY:
+			setIdentity(parseDouble(val));
+			break;
+		case FIELD_ALIGNMENT_LENGTH:
+			setAlignmentLength(Integer.parseInt(val));
+			break;
+		case FIELD_FRAME:
+			setFrame(val);
+			break;
+		case FIELD_QUERY:
+			setQuery(val);
+			break;
+		case FIELD_SUBJECT:
+			setSubject(val);
+			break;
+		case FIELD_LABEL:
+			setLabel(val);
+			break;
+		}
+	}
+	
+	/**
+	 * Same result as <code>Double.parseDouble()</code>, but much faster for the short decimal values BLAST
+	 * reports eg. "98.45", "0.0" or "2e-10". A value is computed directly only when it has at most 15 significant
+	 * digits and a power of ten which is exactly representable, since the result is then correctly rounded.
+	 */
+	private static double parseDouble(final String s) {
+		int len = s.length();
+		int i   = 0;
+		boolean neg = false;
+		if (len > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+			neg = (s.charAt(0) == '-');
+			i++;
+		}
+		long mantissa = 0;
+		int digits    = 0;		// significant digits (ie. excluding leading zeros)
+		int scale     = 0;
+		boolean seen_digit = false;
+		boolean seen_point = false;
+		for (; i<len; i++) {
+			char c = s.charAt(i);
+			if (c == '.' && !seen_point) {
+				seen_point = true;
+				continue;
+			}
+			if (c < '0' || c > '9')
+				break;
+			seen_digit = true;
+			if (digits > 0 || c != '0')
+				digits++;
+			if (digits > 15)
+				return Double.parseDouble(s);
+			mantissa = mantissa * 10 + (c - '0');
+			if (seen_point)
+				scale--;
+		}
+		if (!seen_digit)
+			return Double.parseDouble(s);
+		if (i < len && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+			i++;
+			boolean neg_exp = false;
+			if (i < len && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+				neg_exp = (s.charAt(i) == '-');
+				i++;
+			}
+			int start = i;
+			int exp   = 0;
+			for (; i<len && i-start < 4; i++) {
+				char c = s.charAt(i);
+				if (c < '0' || c > '9')
+					break;
+				exp = exp * 10 + (c - '0');
+			}
+			if (i == start)
+				return Double.parseDouble(s);
+			scale += neg_exp ? -exp : exp;
+		}
+		if (i != len || scale < -22 || scale > 22)
+			return Double.parseDouble(s);
+		double d = mantissa;
+		if (scale > 0) {
+			d *= POW10[scale];
+		} else if (scale < 0) {
+			d /= POW10[-scale];
+		}
+		return neg ? -d : d;
+	}
+	
+	public String getQuery() {
+		return m_q_id;
+	}
+	
+	public String getSubject() {
+		return getLabel();
+	}
+	
+	public double getEvalue() {
+		return m_evalue;
+	}
+	
+	public double getIdentity() {
+		return m_identity;
+	}
+	
+	public String getFrame() {
+		return m_frame;
+	}
+	
+	public int getAlignmentLength() {
+		return m_alignment_length;
+	}
+	
+	private void setQuery(String val) {
+		m_q_id = val;
+	}
+
+	private void setSubject(String val) {
+		this.setLabel(val);
+	}
+	
+	public void setEvalue(double ev) {
+		m_evalue = ev;
+	}
+	
+	public void setFrame(String frame) {
+		m_frame = frame;
+	}
+	
+	public void setAlignmentLength(int len) {
+		m_alignment_length = len;
+	}
+	
+	public void setIdentity(double id) {
+		m_identity = id;
+	}
+	
+	@Override
+	public String getIDPrefix() {
+		return "bhreg";		// must be unique to this Region subclass
+	}
+	
+	@Override
+	public void serialize(DataCellDataOutput output) throws IOException {
+		super.serialize(output);
+		
+		output.writeUTF((m_q_id != null) ? m_q_id : "");
+		output.writeDouble(m_evalue);
+		output.writeDouble(m_identity);
+		output.writeInt(m_alignment_length);
+		if (m_frame == null)
+			output.writeUTF("");
+		else 
+			output.writeUTF(m_frame);
+	}
+	
+	@Override 
+	public RegionInterface deserialize(DataCellDataInput input) throws IOException {
+		super.deserialize(input);
+		m_q_id             = input.readUTF();
+		m_evalue           = input.readDouble();
+		m_identity         = input.readDouble();
+		m_alignment_length = input.readInt();
+		m_frame            = input.readUTF();
+		return this;
+	}
+	
+	public Map<String,DataCell> asCells(String prefix) {
+		Map<String,DataCell> ret = super.asCells(prefix);
+		ret.put(prefix+": Query ID", new StringCell(getQuery()));
+		ret.put(prefix+": E-Value", new DoubleCell(getEvalue()));
+		ret.put(prefix+": %Identity", new DoubleCell(getIdentity()));
+		ret.put(prefix+": Alignment length", new IntCell(getAlignmentLength()));
+		String frame = getFrame();
+		ret.put(prefix+": Frame", (frame == null) ? DataType.getMissingCell() : new StringCell(frame));
+		return ret;
+	}
+}
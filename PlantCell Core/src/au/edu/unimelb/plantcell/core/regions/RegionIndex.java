@@ -0,0 +1,247 @@
+package au.edu.unimelb.plantcell.core.regions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable index over a set of regions which answers overlap, containment and nearest-region
+ * queries in <code>O(log n + k)</code> time (for <code>k</code> regions reported). The regions are sorted by start
+ * and laid out as an implicit, augmented binary search tree: each node records the largest end in its subtree
+ * so that whole subtrees can be skipped during a query.
+ *
+ * Regions are treated as zero-relative half-open intervals: <code>[getZStart(), getZEnd())</code>. A region whose end
+ * is not after its start (eg. a site) is treated as covering the single residue at its start. The index does not notice
+ * changes to the regions after it is built. Results are reported in order of start (then end).
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class RegionIndex {
+	private static final int SCAN_LEVEL = 3;		// subtrees at or below this level are scanned linearly
+
+	private final RegionInterface[] m_regions;
+	private final int[] m_start, m_end;
+	private final int[] m_max;				// largest end in the subtree rooted at each position
+	private final int[] m_prefix_max;		// index of the region with the largest end amongst m_regions[0..i]
+	private final int   m_max_level;
+
+	public RegionIndex(final List<? extends RegionInterface> regions) {
+		assert(regions != null);
+		int n = regions.size();
+		m_regions = regions.toArray(new RegionInterface[n]);
+		Arrays.sort(m_regions, new Comparator<RegionInterface>() {
+
+			@Override
+			public int compare(RegionInterface a, RegionInterface b) {
+				int diff = Integer.compare(a.getZStart(), b.getZStart());
+				return (diff != 0) ? diff : Integer.compare(getEnd(a), getEnd(b));
+			}
+
+		});
+		m_start      = new int[n];
+		m_end        = new int[n];
+		m_max        = new int[n];
+		m_prefix_max = new int[n];
+		for (int i=0; i<n; i++) {
+			m_start[i] = m_regions[i].getZStart();
+			m_end[i]   = getEnd(m_regions[i]);
+			m_prefix_max[i] = (i > 0 && m_end[m_prefix_max[i-1]] >= m_end[i]) ? m_prefix_max[i-1] : i;
+		}
+		m_max_level = build();
+	}
+
+	private static int getEnd(final RegionInterface r) {
+		int start = r.getZStart();
+		int end   = r.getZEnd();
+		return (end > start) ? end : start + 1;
+	}
+
+	/**
+	 * Computes <code>m_max</code> for every node, bottom-up. Leaves are at the even positions, level <code>k</code> nodes
+	 * at positions <code>(2^k - 1) + i * 2^(k+1)</code>. The tree need not be complete, so the largest end of the rightmost
+	 * (partial) subtree is carried up separately.
+	 *
+	 * @return the level of the root
+	 */
+	private int build() {
+		int n = m_start.length;
+		if (n == 0)
+			return -1;
+		int last_i = 0, last = 0;
+		for (int i=0; i<n; i += 2) {
+			last_i   = i;
+			last     = m_end[i];
+			m_max[i] = last;
+		}
+		int k;
+		for (k=1; (1L << k) <= n; k++) {
+			int x    = 1 << (k-1);
+			int step = x << 2;
+			for (int i = (x << 1) - 1; i < n; i += step) {
+				int el = m_max[i - x];
+				int er = (i + x < n) ? m_max[i + x] : last;
+				m_max[i] = Math.max(m_end[i], Math.max(el, er));
+			}
+			last_i = (((last_i >> k) & 1) != 0) ? last_i - x : last_i + x;
+			if (last_i < n && m_max[last_i] > last) {
+				last = m_max[last_i];
+			}
+		}
+		return k - 1;
+	}
+
+	public int size() {
+		return m_regions.length;
+	}
+
+	/**
+	 * Returns the regions which share at least one residue with the zero-relative range <code>[start, end)</code>
+	 */
+	public List<RegionInterface> getOverlapping(int start, int end) {
+		ArrayList<RegionInterface> ret = new ArrayList<RegionInterface>();
+		int[] hits = overlaps(start, end);
+		for (int i : hits) {
+			ret.add(m_regions[i]);
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns true if any region shares at least one residue with <code>[start, end)</code>
+	 */
+	public boolean hasOverlap(int start, int end) {
+		return overlaps(start, end).length > 0;
+	}
+
+	/**
+	 * Returns the regions which lie entirely within <code>[start, end)</code>
+	 */
+	public List<RegionInterface> getContainedIn(int start, int end) {
+		ArrayList<RegionInterface> ret = new ArrayList<RegionInterface>();
+		for (int i : overlaps(start, end)) {
+			if (m_start[i] >= start && m_end[i] <= end) {
+				ret.add(m_regions[i]);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the regions which entirely cover <code>[start, end)</code>
+	 */
+	public List<RegionInterface> getContaining(int start, int end) {
+		ArrayList<RegionInterface> ret = new ArrayList<RegionInterface>();
+		for (int i : overlaps(start, end)) {
+			if (m_start[i] <= start && m_end[i] >= end) {
+				ret.add(m_regions[i]);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns a region covering the specified (zero-relative) position or, if there is none, the region closest
+	 * to it (preferring the region before the position in the event of a tie). Returns null if the index is empty.
+	 */
+	public RegionInterface getNearest(int pos) {
+		int n = m_regions.length;
+		if (n == 0)
+			return null;
+		int[] hits = overlaps(pos, pos+1);
+		if (hits.length > 0)
+			return m_regions[hits[0]];
+
+		// first region starting after pos
+		int right = upperBound(pos);
+		// no region covers pos, so the region ending last amongst those starting at or before pos is the closest before it
+		int left  = (right > 0) ? m_prefix_max[right-1] : -1;
+		if (left < 0)
+			return m_regions[right];
+		if (right >= n)
+			return m_regions[left];
+		int dist_left  = pos - m_end[left] + 1;
+		int dist_right = m_start[right] - pos;
+		return (dist_left <= dist_right) ? m_regions[left] : m_regions[right];
+	}
+
+	/**
+	 * Returns the index of the first region whose start is greater than <code>pos</code>
+	 */
+	private int upperBound(int pos) {
+		int lo = 0, hi = m_start.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (m_start[mid] <= pos) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the (sorted) positions of all regions overlapping <code>[start, end)</code>
+	 */
+	private int[] overlaps(int start, int end) {
+		int n = m_start.length;
+		if (n == 0 || end <= start)
+			return new int[0];
+		int[] ret  = new int[16];
+		int   n_ret= 0;
+
+		// explicit stack of (node, level, left subtree done?)
+		int[] stack = new int[3 * (m_max_level + 2) * 2];
+		int   sp    = 0;
+		stack[sp++] = (1 << m_max_level) - 1;
+		stack[sp++] = m_max_level;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			int w = stack[--sp];
+			int k = stack[--sp];
+			int x = stack[--sp];
+			if (k <= SCAN_LEVEL) {
+				int i0 = (x >> k) << k;
+				int i1 = Math.min(i0 + (1 << (k+1)) - 1, n);
+				for (int i=i0; i<i1 && m_start[i] < end; i++) {
+					if (start < m_end[i]) {
+						if (n_ret == ret.length)
+							ret = Arrays.copyOf(ret, n_ret * 2);
+						ret[n_ret++] = i;
+					}
+				}
+			} else if (w == 0) {
+				// visit the left subtree first, if anything in it can reach start
+				int y = x - (1 << (k-1));
+				stack[sp++] = x;
+				stack[sp++] = k;
+				stack[sp++] = 1;
+				if (y >= n || m_max[y] > start) {
+					stack[sp++] = y;
+					stack[sp++] = k-1;
+					stack[sp++] = 0;
+				}
+			} else if (x < n && m_start[x] < end) {
+				if (start < m_end[x]) {
+					if (n_ret == ret.length)
+						ret = Arrays.copyOf(ret, n_ret * 2);
+					ret[n_ret++] = x;
+				}
+				stack[sp++] = x + (1 << (k-1));
+				stack[sp++] = k-1;
+				stack[sp++] = 0;
+			}
+		}
+		return Arrays.copyOf(ret, n_ret);
+	}
+
+	/**
+	 * Returns the indexed regions in order of start (then end)
+	 */
+	public List<RegionInterface> getSortedRegions() {
+		return Collections.unmodifiableList(Arrays.asList(m_regions));
+	}
+}
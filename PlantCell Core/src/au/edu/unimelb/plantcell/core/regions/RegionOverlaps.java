@@ -0,0 +1,237 @@
+package au.edu.unimelb.plantcell.core.regions;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares two sets of regions (A and B) by sorting them on start and sweeping along the sequence, so that the
+ * cost is <code>O((|A| + |B|) log(|A| + |B|) + k)</code> for <code>k</code> reported pairs regardless of the sequence length.
+ *
+ * Regions are treated as the zero-relative residues <code>[getZStart(), getZEnd())</code>, so a region whose end is not
+ * after its start covers no residues: it overlaps nothing but lies within every region. Pairs are returned flattened
+ * (even elements index A, odd elements index B) in order of A then B, ie. the order of a nested loop over both lists.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class RegionOverlaps {
+	private final int[] m_a_start, m_a_end;
+	private final int[] m_b_start, m_b_end;
+
+	public RegionOverlaps(final List<? extends RegionInterface> a, final List<? extends RegionInterface> b) {
+		assert(a != null && b != null);
+		m_a_start = new int[a.size()];
+		m_a_end   = new int[a.size()];
+		m_b_start = new int[b.size()];
+		m_b_end   = new int[b.size()];
+		init(a, m_a_start, m_a_end);
+		init(b, m_b_start, m_b_end);
+	}
+
+	private static void init(final List<? extends RegionInterface> l, final int[] start, final int[] end) {
+		int i = 0;
+		for (RegionInterface r : l) {
+			start[i] = r.getZStart();
+			end[i]   = Math.max(start[i], r.getZEnd());
+			i++;
+		}
+	}
+
+	/**
+	 * Returns the first residue shared by the specified pair (only meaningful for overlapping pairs)
+	 */
+	public int getOverlapStart(int a, int b) {
+		return Math.max(m_a_start[a], m_b_start[b]);
+	}
+
+	/**
+	 * Returns one past the last residue shared by the specified pair (only meaningful for overlapping pairs)
+	 */
+	public int getOverlapEnd(int a, int b) {
+		return Math.min(m_a_end[a], m_b_end[b]);
+	}
+
+	/**
+	 * Returns the number of residues shared by the specified pair
+	 */
+	public int getOverlapLength(int a, int b) {
+		return Math.max(0, getOverlapEnd(a, b) - getOverlapStart(a, b));
+	}
+
+	/**
+	 * Returns the pairs which share at least one residue
+	 */
+	public int[] getOverlapping() {
+		return decode(sweep());
+	}
+
+	/**
+	 * Returns the pairs where every residue of the region from A is also in the region from B
+	 */
+	public int[] getAWithinB() {
+		return decode(within(sweep(), m_a_start, m_a_end, m_b_start.length, true));
+	}
+
+	/**
+	 * Returns the pairs where every residue of the region from B is also in the region from A
+	 */
+	public int[] getBWithinA() {
+		return decode(within(sweep(), m_b_start, m_b_end, m_a_start.length, false));
+	}
+
+	/**
+	 * Returns the indexes (in order) of the regions in A which share no residue with any region in B
+	 */
+	public int[] getANotOverlapping() {
+		// merge B into disjoint, sorted ranges
+		int[] order = sortByStart(m_b_start, m_b_end);
+		int[] u_start = new int[order.length];
+		int[] u_end   = new int[order.length];
+		int n = 0;
+		for (int i : order) {
+			if (n > 0 && m_b_start[i] <= u_end[n-1]) {
+				u_end[n-1] = Math.max(u_end[n-1], m_b_end[i]);
+			} else {
+				u_start[n] = m_b_start[i];
+				u_end[n]   = m_b_end[i];
+				n++;
+			}
+		}
+
+		int[] ret = new int[m_a_start.length];
+		int n_ret = 0;
+		for (int a=0; a<m_a_start.length; a++) {
+			int start = m_a_start[a];
+			int end   = m_a_end[a];
+			// last union range starting before the end of a
+			int lo = 0, hi = n;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (u_start[mid] < end) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			if (start >= end || lo == 0 || u_end[lo-1] <= start)
+				ret[n_ret++] = a;
+		}
+		return Arrays.copyOf(ret, n_ret);
+	}
+
+	/**
+	 * Returns the overlapping (non-empty) pairs encoded as <code>(a &lt;&lt; 32) | b</code>, in increasing order
+	 */
+	private long[] sweep() {
+		int[] a_order = sortByStart(m_a_start, m_a_end);
+		int[] b_order = sortByStart(m_b_start, m_b_end);
+		int[] a_active = new int[16];
+		int[] b_active = new int[16];
+		int n_a_active = 0, n_b_active = 0;
+		long[] ret = new long[64];
+		int n_ret = 0;
+
+		int i = 0, j = 0;
+		while (i < a_order.length || j < b_order.length) {
+			boolean next_a = (j >= b_order.length) ||
+							 (i < a_order.length && m_a_start[a_order[i]] <= m_b_start[b_order[j]]);
+			if (next_a) {
+				int a = a_order[i++];
+				int start = m_a_start[a];
+				// pair with the active B regions, dropping those which end before this one starts
+				int k = 0;
+				for (int x=0; x<n_b_active; x++) {
+					int b = b_active[x];
+					if (m_b_end[b] <= start)
+						continue;
+					b_active[k++] = b;
+					if (n_ret == ret.length)
+						ret = Arrays.copyOf(ret, n_ret * 2);
+					ret[n_ret++] = ((long) a << 32) | b;
+				}
+				n_b_active = k;
+				if (n_a_active == a_active.length)
+					a_active = Arrays.copyOf(a_active, n_a_active * 2);
+				a_active[n_a_active++] = a;
+			} else {
+				int b = b_order[j++];
+				int start = m_b_start[b];
+				int k = 0;
+				for (int x=0; x<n_a_active; x++) {
+					int a = a_active[x];
+					if (m_a_end[a] <= start)
+						continue;
+					a_active[k++] = a;
+					if (n_ret == ret.length)
+						ret = Arrays.copyOf(ret, n_ret * 2);
+					ret[n_ret++] = ((long) a << 32) | b;
+				}
+				n_a_active = k;
+				if (n_b_active == b_active.length)
+					b_active = Arrays.copyOf(b_active, n_b_active * 2);
+				b_active[n_b_active++] = b;
+			}
+		}
+		ret = Arrays.copyOf(ret, n_ret);
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	/**
+	 * Keeps the overlapping pairs where the inner region lies entirely within the other and adds a pair for every
+	 * empty inner region with each region of the other set
+	 *
+	 * @param inner_is_a true if the inner regions are from A
+	 */
+	private long[] within(final long[] overlaps, final int[] inner_start, final int[] inner_end, int n_outer, boolean inner_is_a) {
+		long[] ret = new long[overlaps.length];
+		int n_ret = 0;
+		for (long p : overlaps) {
+			int a = (int) (p >>> 32);
+			int b = (int) p;
+			int inner = inner_is_a ? a : b;
+			if (getOverlapLength(a, b) >= inner_end[inner] - inner_start[inner])
+				ret[n_ret++] = p;
+		}
+		for (int inner=0; inner<inner_start.length; inner++) {
+			if (inner_start[inner] < inner_end[inner])
+				continue;
+			for (int outer=0; outer<n_outer; outer++) {
+				if (n_ret == ret.length)
+					ret = Arrays.copyOf(ret, Math.max(16, n_ret * 2));
+				ret[n_ret++] = inner_is_a ? ((long) inner << 32) | outer : ((long) outer << 32) | inner;
+			}
+		}
+		ret = Arrays.copyOf(ret, n_ret);
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	private static int[] decode(final long[] pairs) {
+		int[] ret = new int[pairs.length * 2];
+		for (int i=0; i<pairs.length; i++) {
+			ret[2*i]   = (int) (pairs[i] >>> 32);
+			ret[2*i+1] = (int) pairs[i];
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the indexes of the non-empty ranges in order of start
+	 */
+	private static int[] sortByStart(final int[] start, final int[] end) {
+		long[] keys = new long[start.length];
+		int n = 0;
+		for (int i=0; i<start.length; i++) {
+			if (start[i] < end[i])
+				keys[n++] = ((long) start[i] << 32) | i;
+		}
+		keys = Arrays.copyOf(keys, n);
+		Arrays.sort(keys);
+		int[] ret = new int[n];
+		for (int i=0; i<n; i++) {
+			ret[i] = (int) keys[i];
+		}
+		return ret;
+	}
+}
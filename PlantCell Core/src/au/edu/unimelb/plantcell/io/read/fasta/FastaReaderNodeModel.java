@@ -0,0 +1,582 @@
+package au.edu.unimelb.plantcell.io.read.fasta;
+
+import java.io.BufferedReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
+
+import org.knime.core.data.DataColumnSpec;
+import org.knime.core.data.DataColumnSpecCreator;
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.def.StringCell;
+import org.knime.core.node.BufferedDataTable;
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeLogger;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModel;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+import org.knime.core.node.defaultnodesettings.SettingsModelStringArray;
+
+import au.edu.unimelb.plantcell.core.MyDataContainer;
+import au.edu.unimelb.plantcell.core.OrderedTaskExecutor;
+import au.edu.unimelb.plantcell.core.cells.SequenceCell;
+import au.edu.unimelb.plantcell.core.cells.SequenceType;
+
+
+/**
+ * This is the model implementation of FastaReader.
+ * This nodes reads sequences from the user-specified FASTA file and outputs three columns per sequence: 
+ * * n1) Accession 
+ * * n2) Description - often not accurate in practice 
+ * * n3) Sequence data * n * n
+ * Neither line breaks or leading/trailing whitespace are preserved.
+ *
+ * @author Andrew Cassin
+ */
+public class FastaReaderNodeModel extends AbstractFastaNodeModel {
+    
+    // the logger instance
+    private static final NodeLogger logger = NodeLogger.getLogger("FASTA Reader");
+        
+    public final static String CFGKEY_INTERNAL_USE_URLS = "using-urls?";		// for backward compatibility
+    public final static String CFGKEY_THREADS           = "parallel-threads";
+    
+    // large local files are split into pieces of this size (in bytes) when reading with more than one thread
+    private final static long CHUNK_SIZE = 16L * 1024L * 1024L;
+    
+    // settings for this node: regular expressions to process the ">" lines, and the fasta sequence filename
+    private final SettingsModelStringArray m_fasta          = (SettingsModelStringArray) make(CFGKEY_FASTA);
+    private final SettingsModelString  m_accsn_re           = (SettingsModelString) make(CFGKEY_ACCSN_RE);
+    private final SettingsModelString  m_descr_re           = (SettingsModelString) make(CFGKEY_DESCR_RE);
+    private final SettingsModelString  m_entry_handler      = (SettingsModelString) make(CFGKEY_ENTRY_HANDLER);
+    private final SettingsModelBoolean m_stats              = new SettingsModelBoolean(CFGKEY_MAKESTATS, DEFAULT_MAKESTATS);
+    private final SettingsModelString  m_seqtype            = new SettingsModelString(CFGKEY_SEQTYPE, SequenceType.AA.toString());
+    private final SettingsModelBoolean m_use_accsn_as_rowid = (SettingsModelBoolean) make(CFGKEY_USE_ACCSN_AS_ROWID);
+    private final SettingsModelBoolean m_use_urls = new SettingsModelBoolean(CFGKEY_INTERNAL_USE_URLS, Boolean.TRUE);			// from now on we use URLs rather than File's
+    private final SettingsModelIntegerBounded m_threads     = (SettingsModelIntegerBounded) make(CFGKEY_THREADS);
+    
+    /**
+     * Constructor for the node model.
+     */
+    protected FastaReaderNodeModel() {
+        super(0, 2); // output ports only
+    }
+
+    public static SettingsModel make(String k) {
+    	if (k.equals(CFGKEY_FASTA)) {
+    		return new SettingsModelStringArray(k, new String[] { });
+    	} else if (k.equals(CFGKEY_ACCSN_RE)) {
+    		return new SettingsModelString(k, DEFAULT_ACCSN_RE);
+    	} else if (k.equals(CFGKEY_DESCR_RE)) {
+    		return new SettingsModelString(k, DEFAULT_DESCR_RE);
+    	} else if (k.equals(CFGKEY_ENTRY_HANDLER)) {
+    		return new SettingsModelString(k, DEFAULT_ENTRY_HANDLER);
+    	} else if (k.equals(CFGKEY_USE_ACCSN_AS_ROWID)) {
+    		return new SettingsModelBoolean(k, true);
+    	} else if (k.equals(CFGKEY_THREADS)) {
+    		return new SettingsModelIntegerBounded(k, 1, 1, 64);
+    	}
+    	return null;
+    }
+    
+    protected DataTableSpec make_output_spec() {   
+        // 1. create the column specification in accordance with the as_single parameter
+        DataColumnSpec[] allColSpecs = new DataColumnSpec[2];
+        allColSpecs[0] = 
+            new DataColumnSpecCreator("Sequence", SequenceCell.TYPE).createSpec();
+        allColSpecs[1] = 
+        	new DataColumnSpecCreator("URL", StringCell.TYPE).createSpec();
+        
+        return new DataTableSpec(allColSpecs);
+    }
+    
+    private URL makeURL(final String f, final String default_scheme_to_infer) {
+    	try {
+			return new URL(f);
+		} catch (MalformedURLException mfe) {
+			try {
+				return new URL(default_scheme_to_infer+"://"+f);
+			} catch (MalformedURLException m2) {
+				logger.warn("Unable to convert" +f + " into URL. Ignoring. Perhaps reconfigure might help?");
+				return null;
+			}
+		}
+    }
+    
+    @Override
+    public List<URL> getURLList() throws InvalidSettingsException {
+    	List<URL> ret = new ArrayList<URL>();
+    	
+    	for (String f : m_fasta.getStringArrayValue()) {
+    		URL u = makeURL(f, "file");
+    		if (u != null)
+    			ret.add(u);
+    	}
+    	
+    	if (ret.size() < 1) {
+    		throw new InvalidSettingsException("No files to process!");
+    	} else {
+    		logger.info("Found "+ret.size()+" FASTA files to process.");
+    	}
+    	
+    	return ret;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected BufferedDataTable[] execute(final BufferedDataTable[] inData,
+            final ExecutionContext exec) throws Exception {
+         
+    	DataTableSpec outputSpec = make_output_spec();
+    	DataTableSpec statSpec   = SequenceStatistics.getOutputSpec();
+    	
+    	List<URL> urls = getURLList();
+      
+    	final MyDataContainer c1 = new MyDataContainer(exec.createDataContainer(outputSpec), "Seq");
+        MyDataContainer c2 = new MyDataContainer(exec.createDataContainer(statSpec), "Row");
+        
+        long n_seq   = 0;
+        long n_seq_rej = 0;
+        Pattern accsn_matcher = Pattern.compile(m_accsn_re.getStringValue());
+        Pattern descr_matcher = Pattern.compile(m_descr_re.getStringValue());
+       
+        SequenceType st = SequenceType.getValue(m_seqtype.getStringValue());
+        
+        this.setSingleEntry(m_entry_handler.getStringValue().equals(DEFAULT_ENTRY_HANDLER));
+        this.setUseAccessionAsRowID(m_use_accsn_as_rowid.getBooleanValue());
+        
+        if (m_threads.getIntValue() > 1) {
+        	n_seq = read_parallel(urls, c1, c2, st, accsn_matcher, descr_matcher, exec);
+        } else {
+	        int files_done = 0;
+	        final double portion           = 1.0 / urls.size();
+	        for (final URL u : urls) {
+	           logger.info("Processing FASTA: "+u);
+	           setCurrentURL(u);
+	          
+	           final SequenceStatistics stats = m_stats.getBooleanValue() ? new SequenceStatistics(u) : null;
+	           final double          base_frac = files_done * portion;
+	           final long             n_so_far = n_seq;
+	           SequenceSink               sink = new SequenceSink() {
+	        	   
+	        	   @Override
+	        	   public void accept(SequenceCell sc) throws Exception {
+	        		   save_sequence(c1, sc);
+	        		   if (stats != null) {
+	        			   stats.grokSequence(sc);
+	        		   }
+	        	   }
+	        	   
+	        	   @Override
+	        	   public void progress(long n, double frac) throws Exception {
+	        		   // check if the execution monitor was canceled
+	        		   exec.checkCanceled();
+	        		   // and update node progress "traffic light"
+	        		   exec.setProgress(base_frac+(frac*portion), "Adding " + (n_so_far+n)+" from "+u);
+	        	   }
+	        	   
+	           };
+	           
+	           // local uncompressed files are memory-mapped, everything else (gzip, http etc.) must be streamed
+	           if (MappedFastaReader.canMap(u)) {
+	        	   n_seq += read_mapped(u, 0L, -1L, st, accsn_matcher, descr_matcher, sink);
+	           } else {
+	        	   n_seq += read_stream(u, st, accsn_matcher, descr_matcher, sink);
+	           }
+		      
+		       if (stats != null) {
+		        	stats.addStats(c2);
+		       }
+		       files_done++;
+	        }
+        }
+        
+        // once we are done, we close the container and return its table
+        logger.info("Matched "+n_seq+ " sequences, failed to match "+n_seq_rej+" sequences.");
+        return new BufferedDataTable[]{c1.close(), c2.close()};
+    }
+    
+    /**
+     * Reads the FASTA files using a pool of worker threads. Each file (or {@link #CHUNK_SIZE} piece of a large
+     * local file) is parsed by a worker, but rows are added to the output tables on the node thread in the same order
+     * as a single-threaded read.
+     * 
+     * @return the number of sequences added
+     */
+    private long read_parallel(final List<URL> urls, final MyDataContainer c1, final MyDataContainer c2, 
+    		final SequenceType st, final Pattern accsn_matcher, final Pattern descr_matcher, 
+    		final ExecutionContext exec) throws Exception {
+    	final List<FastaChunk> chunks = new ArrayList<FastaChunk>();
+    	for (URL u : urls) {
+    		long len = MappedFastaReader.canMap(u) ? MappedFastaReader.toFile(u).length() : -1L;
+    		if (len > CHUNK_SIZE) {
+    			for (long start = 0L; start < len; start += CHUNK_SIZE) {
+    				chunks.add(new FastaChunk(u, start, Math.min(start + CHUNK_SIZE, len), start == 0L, start + CHUNK_SIZE >= len));
+    			}
+    		} else {
+    			chunks.add(new FastaChunk(u, 0L, -1L, true, true));
+    		}
+    	}
+    	
+    	int n_threads = m_threads.getIntValue();
+    	logger.info("Reading "+urls.size()+" FASTA files ("+chunks.size()+" pieces) using "+n_threads+" threads.");
+    	
+    	final boolean want_stats = m_stats.getBooleanValue();
+    	final long[]  n_seq      = new long[] { 0L };
+    	OrderedTaskExecutor<FastaChunk> executor = new OrderedTaskExecutor<FastaChunk>(n_threads, 2 * n_threads, 
+    			new OrderedTaskExecutor.ResultHandler<FastaChunk>() {
+    		private SequenceStatistics m_file_stats = null;
+    		private int                m_done       = 0;
+    		
+			@Override
+			public void process(FastaChunk fc) throws Exception {
+				exec.checkCanceled();
+				if (fc.isFirst()) {
+					logger.info("Processing FASTA: "+fc.getURL());
+				}
+				setCurrentURL(fc.getURL());
+				for (SequenceCell sc : fc.getSequences()) {
+					save_sequence(c1, sc);
+				}
+				n_seq[0] += fc.getSequences().size();
+				
+				if (want_stats) {
+					if (fc.isFirst()) {
+						m_file_stats = fc.getStatistics();
+					} else {
+						m_file_stats.merge(fc.getStatistics());
+					}
+					if (fc.isLast()) {
+						m_file_stats.addStats(c2);
+						m_file_stats = null;
+					}
+				}
+				m_done++;
+				exec.setProgress(((double) m_done) / chunks.size(), "Added " + n_seq[0]+" from "+fc.getURL());
+			}
+    		
+    	});
+    	
+    	try {
+	    	for (final FastaChunk fc : chunks) {
+	    		executor.submit(new Callable<FastaChunk>() {
+	
+					@Override
+					public FastaChunk call() throws Exception {
+						fc.read(st, accsn_matcher, descr_matcher, want_stats);
+						return fc;
+					}
+	    			
+	    		});
+	    	}
+	    	executor.finish();
+    	} finally {
+    		executor.shutdown();
+    	}
+    	return n_seq[0];
+    }
+    
+    /**
+     * Reads the specified local file via {@link MappedFastaReader}, giving each sequence to <code>sink</code>
+     * 
+     * @param start first byte of the file to read from
+     * @param end   no record may start at or after this byte offset (negative for the whole file)
+     * @return the number of sequences read
+     */
+    private long read_mapped(final URL u, long start, long end, final SequenceType st, 
+    		final Pattern accsn_matcher, final Pattern descr_matcher, final SequenceSink sink) throws Exception {
+    	MappedFastaReader rdr = new MappedFastaReader(MappedFastaReader.toFile(u), start, end);
+    	long n_added = 0;
+    	try {
+	    	while (rdr.next()) {
+	    		String[] entries = rdr.getHeader().split("\\x01");
+	    		String[] accsn   = parse_accession(accsn_matcher, entries);
+	    		String[] descr   = parse_description(descr_matcher, entries);
+	    		SequenceCell  sc = make_sequence(st, accsn, descr, rdr.getSequence());
+	    		if (sc != null) {
+	    			sink.accept(sc);
+	    			n_added++;
+	    		}
+	    		if (n_added % 1000 == 0) {
+	    			sink.progress(n_added, rdr.getFractionProcessed());
+	    		}
+	    	}
+    	} finally {
+    		rdr.close();		// avoid open file leak
+    	}
+    	return n_added;
+    }
+    
+    /**
+     * Reads the specified URL a line at a time via {@link ProgressModel}, giving each sequence to <code>sink</code>.
+     * Used for compressed and non-local data.
+     * 
+     * @return the number of sequences read
+     */
+    private long read_stream(final URL u, final SequenceType st, final Pattern accsn_matcher, 
+    		final Pattern descr_matcher, final SequenceSink sink) throws Exception {
+        String line  = null;
+        String[] accsn = null;
+        String[] descr = null;
+        StringBuffer seq = null;
+        long n_added = 0;
+        
+        ProgressModel         pm = new ProgressModel(u);
+        BufferedReader      rseq = pm.getBufferedReader();
+    
+        boolean done = false;
+        boolean already_got_header = false;
+        
+        try {
+	       while (!done) {
+	    	   
+	    	    // get header line
+	    	    if (!already_got_header) {
+		    	    do {
+		    	    	line = rseq.readLine();
+		    	    	if (line == null) {
+		    	    		done = true;
+		    	    		break;
+		    	    	}
+		    	    	pm.done(line.length());		// line must not be null if we get here
+		    	    } while (!line.startsWith(">"));
+	    	    }
+	    	    
+	    	    if (!done) {
+	    	    	  String[] entries = line.split("\\x01");
+		              if (entries.length > 0 && entries[0].startsWith(">")) {
+		                	entries[0] = entries[0].substring(1);	// skip over > for parse_accession()
+		              }
+		              accsn = parse_accession(accsn_matcher,entries);
+		              descr = parse_description(descr_matcher,entries);
+		              String tline;
+		              seq = new StringBuffer(10 * 1024);
+		              boolean got_seq = false;
+		              already_got_header = false;
+		              int tline_len = 0;
+		              do {
+		            	  if ((line = rseq.readLine()) == null) {
+		            		  already_got_header = false;
+		            		  break;
+		            	  }
+		            	  tline         = line.trim();
+		            	  tline_len     = tline.length();
+		            	  pm.done(tline_len);
+		            	  if (tline_len > 0) {
+			            	  char first_c  = tline.charAt(0);
+			            	  if (first_c == '>') {
+			            		  got_seq = false;
+			            		  already_got_header = true;
+			            		  break;
+			            	  } 
+			            	  
+			            	  if (Character.isLetter(first_c) || first_c == '*' || first_c == '-') {
+			            		  seq.append(tline);
+			            		  got_seq = true;
+			            	  }
+		            	  }
+		              } while (tline_len == 0 || got_seq );
+	    	    }
+	            
+	    	    // save the sequence to the container
+	    	    
+	    	    if (!done) {
+	    	    	SequenceCell sc = make_sequence(st, accsn, descr, seq);
+		    	    if (sc != null) {
+		    	    		sink.accept(sc);
+		                	n_added++;
+		                	accsn = null; // help java garbage collector
+		                	descr = null;
+		            }
+	    	    }
+	          
+	            if (n_added % 1000 == 0) {
+	            	sink.progress(n_added, pm.getFractionProcessed());
+	            }
+	        }
+        } finally {
+        	rseq.close();		// avoid open file leak
+        }
+        return n_added;
+    }
+    
+    /**
+     * Receives each sequence as it is read from a FASTA file
+     */
+    private interface SequenceSink {
+    	public void accept(SequenceCell sc) throws Exception;
+    	
+    	/**
+    	 * Called periodically during the read
+    	 * @param n number of sequences read so far from the current data source
+    	 * @param frac fraction of the current data source read so far
+    	 */
+    	public void progress(long n, double frac) throws Exception;
+    }
+    
+    /**
+     * A unit of work for {@link #read_parallel(List, MyDataContainer, MyDataContainer, SequenceType, Pattern, Pattern, ExecutionContext)}:
+     * either an entire FASTA file or a byte range within a large local file. Once read, holds the sequences in file order.
+     */
+    private class FastaChunk implements SequenceSink {
+    	private final URL     m_url;
+    	private final long    m_start, m_end;
+    	private final boolean m_first, m_last;
+    	private final List<SequenceCell> m_seqs = new ArrayList<SequenceCell>();
+    	private SequenceStatistics m_chunk_stats;
+    	
+    	public FastaChunk(final URL u, long start, long end, boolean is_first, boolean is_last) {
+    		m_url   = u;
+    		m_start = start;
+    		m_end   = end;
+    		m_first = is_first;
+    		m_last  = is_last;
+    		m_chunk_stats = null;
+    	}
+    	
+    	public void read(final SequenceType st, final Pattern accsn_matcher, final Pattern descr_matcher, boolean want_stats) throws Exception {
+    		m_chunk_stats = want_stats ? new SequenceStatistics(m_url) : null;
+    		if (MappedFastaReader.canMap(m_url)) {
+    			read_mapped(m_url, m_start, m_end, st, accsn_matcher, descr_matcher, this);
+    		} else {
+    			read_stream(m_url, st, accsn_matcher, descr_matcher, this);
+    		}
+    	}
+    	
+    	public URL getURL() {
+    		return m_url;
+    	}
+    	
+    	public boolean isFirst() {
+    		return m_first;
+    	}
+    	
+    	public boolean isLast() {
+    		return m_last;
+    	}
+    	
+    	public List<SequenceCell> getSequences() {
+    		return m_seqs;
+    	}
+    	
+    	public SequenceStatistics getStatistics() {
+    		return m_chunk_stats;
+    	}
+
+		@Override
+		public void accept(SequenceCell sc) {
+			m_seqs.add(sc);
+			if (m_chunk_stats != null) {
+				m_chunk_stats.grokSequence(sc);
+			}
+		}
+
+		@Override
+		public void progress(long n, double frac) throws Exception {
+			// the node thread cancels outstanding work by interrupting the worker
+			if (Thread.currentThread().isInterrupted())
+				throw new CanceledExecutionException();
+		}
+    }
+    
+	/**
+     * {@inheritDoc}
+     */
+    @Override
+    protected DataTableSpec[] configure(final DataTableSpec[] inSpecs)
+            throws InvalidSettingsException {
+        DataTableSpec out = make_output_spec();
+        DataTableSpec out2= SequenceStatistics.getOutputSpec();
+        return new DataTableSpec[] {out, out2};
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void saveSettingsTo(final NodeSettingsWO settings) {
+        m_fasta.saveSettingsTo(settings);
+        m_accsn_re.saveSettingsTo(settings);
+        m_descr_re.saveSettingsTo(settings);
+        m_entry_handler.saveSettingsTo(settings);
+        m_seqtype.saveSettingsTo(settings);
+        m_stats.saveSettingsTo(settings);
+        m_use_accsn_as_rowid.saveSettingsTo(settings);
+        m_use_urls.saveSettingsTo(settings);
+        m_threads.saveSettingsTo(settings);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void loadValidatedSettingsFrom(final NodeSettingsRO settings)
+            throws InvalidSettingsException {
+        m_fasta.loadSettingsFrom(settings);
+        m_accsn_re.loadSettingsFrom(settings);
+        m_descr_re.loadSettingsFrom(settings);
+        m_entry_handler.loadSettingsFrom(settings);
+        if (settings.containsKey(CFGKEY_SEQTYPE)) {
+        	m_seqtype.loadSettingsFrom(settings);
+        } else {
+        	m_seqtype.setStringValue(SequenceType.UNKNOWN.toString());
+        }
+        if (settings.containsKey(CFGKEY_MAKESTATS)) {
+        	m_stats.loadSettingsFrom(settings);
+        } else {
+        	m_stats.setBooleanValue(Boolean.FALSE);
+        }
+        if (settings.containsKey(CFGKEY_USE_ACCSN_AS_ROWID)) {
+        	m_use_accsn_as_rowid.loadSettingsFrom(settings);
+        } else {
+        	m_use_accsn_as_rowid.setBooleanValue(false);		// false for backward compatibility
+        }
+        if (settings.containsKey(CFGKEY_INTERNAL_USE_URLS)) {
+        	m_use_urls.loadSettingsFrom(settings);
+        } else {
+        	m_use_urls.setBooleanValue(false);		// next save will set it to true...
+        }
+        if (settings.containsKey(CFGKEY_THREADS)) {
+        	m_threads.loadSettingsFrom(settings);
+        } else {
+        	m_threads.setIntValue(1);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void validateSettings(final NodeSettingsRO settings)
+            throws InvalidSettingsException {    
+        m_fasta.validateSettings(settings);
+        m_accsn_re.validateSettings(settings);
+        m_descr_re.validateSettings(settings);
+        m_entry_handler.validateSettings(settings);
+      
+        if (settings.containsKey(CFGKEY_MAKESTATS)) {
+        	m_stats.validateSettings(settings);
+        }
+        if (settings.containsKey(CFGKEY_SEQTYPE)) {
+        	m_seqtype.validateSettings(settings);
+        }
+        if (settings.containsKey(CFGKEY_USE_ACCSN_AS_ROWID)) {
+        	m_use_accsn_as_rowid.validateSettings(settings);
+        }
+        if (settings.containsKey(CFGKEY_THREADS)) {
+        	m_threads.validateSettings(settings);
+        }
+    }
+   
+}
+
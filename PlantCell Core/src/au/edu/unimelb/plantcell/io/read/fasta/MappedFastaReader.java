@@ -0,0 +1,355 @@
+package au.edu.unimelb.plantcell.io.read.fasta;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.eclipse.core.runtime.URIUtil;
+
+/**
+ * Reads FASTA records from a local (uncompressed) file by memory-mapping it and scanning
+ * the bytes directly. Unlike the {@link ProgressModel} reader path, no <code>String</code> is
+ * created per line: the header and residues are accumulated into re-usable byte arrays and a single
+ * <code>String</code> is made for each, only when the caller asks for it.
+ *
+ * Files larger than 2GB are mapped in windows of {@link #WINDOW_SIZE} bytes, so the whole
+ * file is never mapped at once. Compressed or remote data must use the stream-based path instead, see
+ * {@link #canMap(URL)}
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class MappedFastaReader {
+	/**
+	 * how much of the file to map at once (must be less than Integer.MAX_VALUE)
+	 */
+	public static final long WINDOW_SIZE = 256L * 1024L * 1024L;
+
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	private final RandomAccessFile m_raf;
+	private final FileChannel      m_channel;
+	private final long             m_size;
+	private final long             m_start, m_end;
+
+	// current window and the absolute file offset of the next byte to read
+	private MappedByteBuffer m_buf;
+	private long m_buf_start;
+	private int  m_buf_limit;
+	private long m_pos;
+
+	// bytes are copied from the window in blocks, since scanning a heap array is much faster than MappedByteBuffer.get()
+	private static final int BLOCK_SIZE = 64 * 1024;
+	private final byte[] m_block = new byte[BLOCK_SIZE];
+	private long m_block_start;
+	private int  m_block_len;
+
+	// state of the current record
+	private byte[] m_header   = new byte[1024];
+	private int    m_header_len;
+	private byte[] m_residues = new byte[64 * 1024];
+	private int    m_residues_len;
+	private boolean m_at_header;		// true if the last line scanned was the start of the next record
+
+	public MappedFastaReader(final File f) throws IOException {
+		this(f, 0L, -1L);
+	}
+
+	/**
+	 * Reads only those records whose '&gt;' falls in the byte range <code>[start, end)</code> of the file. A record
+	 * which starts in the range is read to completion even if it extends past <code>end</code>. This lets callers
+	 * split a single large file between several readers without losing or duplicating records.
+	 *
+	 * @param f the file to read (must not be compressed)
+	 * @param start first byte offset to consider
+	 * @param end   byte offset at which no new record may begin, or negative for the end of the file
+	 * @throws IOException
+	 */
+	public MappedFastaReader(final File f, long start, long end) throws IOException {
+		assert(f != null && start >= 0);
+		m_raf     = new RandomAccessFile(f, "r");
+		m_channel = m_raf.getChannel();
+		m_size    = m_channel.size();
+		m_start   = Math.min(start, m_size);
+		m_end     = (end < 0 || end > m_size) ? m_size : end;
+		m_buf     = null;
+		m_buf_start = 0L;
+		m_buf_limit = 0;
+		m_block_start = 0L;
+		m_block_len = 0;
+		m_pos       = m_start;
+		m_at_header = false;
+
+		// a range which starts mid-line must skip to the next line, since the record there belongs to the previous range
+		if (m_start > 0 && peek(m_start - 1) != '\n') {
+			skipLine();
+		}
+	}
+
+	/**
+	 * Returns true if the specified URL can be read via this class ie. it is a local file which
+	 * does not appear to be compressed.
+	 */
+	public static boolean canMap(final URL u) {
+		if (u == null || !"file".equalsIgnoreCase(u.getProtocol()))
+			return false;
+		String path = u.getPath();
+		if (path == null || path.toLowerCase().endsWith(".gz"))
+			return false;
+		File f = toFile(u);
+		return (f != null && f.isFile() && f.canRead());
+	}
+
+	/**
+	 * Returns the file denoted by a <code>file:</code> URL or <code>null</code> if it cannot be converted
+	 */
+	public static File toFile(final URL u) {
+		try {
+			// recommended by http://wiki.eclipse.org/Eclipse/UNC_Paths
+			return URIUtil.toFile(URIUtil.toURI(u));
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Advance to the next record in the file. Returns false when there are no more records, otherwise
+	 * {@link #getHeader()} and {@link #getSequence()} describe the record until the next call.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		m_header_len   = 0;
+		m_residues_len = 0;
+
+		if (!m_at_header && !findHeader())
+			return false;
+		m_at_header = false;
+
+		readHeader();
+		readResidues();
+		return true;
+	}
+
+	/**
+	 * Returns the description line of the current record, excluding the leading '&gt;'
+	 */
+	public String getHeader() {
+		return new String(m_header, 0, m_header_len, US_ASCII);
+	}
+
+	/**
+	 * Returns the residues of the current record with all whitespace removed
+	 */
+	public String getSequence() {
+		return new String(m_residues, 0, m_residues_len, US_ASCII);
+	}
+
+	public int getSequenceLength() {
+		return m_residues_len;
+	}
+
+	/**
+	 * Returns how much of the byte range has been read so far
+	 * @return always in the range [0,1]
+	 */
+	public double getFractionProcessed() {
+		long length = m_end - m_start;
+		if (length <= 0)
+			return 1.0d;
+		double frac = ((double) (m_pos - m_start)) / length;
+		return (frac > 1.0d) ? 1.0d : frac;
+	}
+
+	public void close() throws IOException {
+		m_buf = null;
+		m_channel.close();
+		m_raf.close();
+	}
+
+	@Override
+	public String toString() {
+		return "MappedFastaReader: "+m_size+" bytes, range ["+m_start+", "+m_end+")";
+	}
+
+	/**
+	 * Skips lines until one which (ignoring leading whitespace) starts with '&gt;'. The '&gt;' is consumed.
+	 * Only lines starting before the end of the range are considered.
+	 */
+	private boolean findHeader() throws IOException {
+		while (m_pos < m_end) {
+			int c = skipBlanks();
+			if (c == '>') {
+				m_pos++;
+				return true;
+			}
+			skipLine();
+		}
+		return false;
+	}
+
+	private void readHeader() throws IOException {
+		int c;
+		while ((c = read()) >= 0 && c != '\n') {
+			if (m_header_len == m_header.length) {
+				m_header = grow(m_header, m_header_len);
+			}
+			m_header[m_header_len++] = (byte) c;
+		}
+		// strip trailing whitespace eg. '\r' from DOS files
+		while (m_header_len > 0 && m_header[m_header_len-1] <= ' ') {
+			m_header_len--;
+		}
+	}
+
+	/**
+	 * Appends residue lines until the next header (or EOF). Lines which do not start with a letter, '*' or '-'
+	 * are ignored as per the stream-based reader.
+	 */
+	private void readResidues() throws IOException {
+		for (;;) {
+			long line_start = m_pos;
+			int c = skipBlanks();
+			if (c < 0)
+				return;
+			if (c == '>') {
+				m_pos++;
+				// records which start at or after the end of the range belong to another reader
+				m_at_header = (line_start < m_end);
+				return;
+			}
+			if (!isResidueLineStart(c)) {
+				skipLine();
+				continue;
+			}
+			readResidueLine();
+		}
+	}
+
+	/**
+	 * Appends the rest of the current line (excluding whitespace) to the residues and consumes the newline
+	 */
+	private void readResidueLine() throws IOException {
+		while (m_pos < m_size) {
+			int off = block(m_pos);
+			int lim = m_block_len;
+			if (m_residues.length - m_residues_len < lim - off) {
+				m_residues = grow(m_residues, m_residues_len, m_residues_len + lim - off);
+			}
+			final byte[] b   = m_block;
+			final byte[] res = m_residues;
+			int len = m_residues_len;
+			int i   = off;
+			boolean eol = false;
+			while (i < lim) {
+				byte c = b[i++];
+				if (c == '\n') {
+					eol = true;
+					break;
+				}
+				if (c > ' ' || c < 0)
+					res[len++] = c;
+			}
+			m_residues_len = len;
+			m_pos = m_block_start + i;
+			if (eol)
+				return;
+		}
+	}
+
+	private static boolean isResidueLineStart(int c) {
+		return ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '*' || c == '-');
+	}
+
+	private static byte[] grow(byte[] b, int len) {
+		return grow(b, len, len + 1);
+	}
+
+	/**
+	 * Returns a copy of the first <code>len</code> bytes of <code>b</code> in an array of at least <code>min_size</code> bytes
+	 */
+	private static byte[] grow(byte[] b, int len, int min_size) {
+		long new_size = Math.min(Math.max((long) b.length * 2L, min_size), Integer.MAX_VALUE - 8L);
+		if (new_size <= len || new_size < min_size)
+			throw new OutOfMemoryError("FASTA record too long: "+len+" bytes");
+		byte[] ret = new byte[(int) new_size];
+		System.arraycopy(b, 0, ret, 0, len);
+		return ret;
+	}
+
+	/**
+	 * Skips spaces and tabs (but not newlines) and returns the next byte <b>without consuming it</b>, or -1 at EOF
+	 */
+	private int skipBlanks() throws IOException {
+		while (m_pos < m_size) {
+			int c = peek(m_pos);
+			if (c != ' ' && c != '\t' && c != '\r')
+				return c;
+			m_pos++;
+		}
+		return -1;
+	}
+
+	private void skipLine() throws IOException {
+		while (m_pos < m_size) {
+			int off = block(m_pos);
+			int lim = m_block_len;
+			final byte[] b = m_block;
+			int i = off;
+			while (i < lim && b[i] != '\n') {
+				i++;
+			}
+			if (i < lim) {
+				m_pos = m_block_start + i + 1;
+				return;
+			}
+			m_pos = m_block_start + lim;
+		}
+	}
+
+	private int read() throws IOException {
+		if (m_pos >= m_size)
+			return -1;
+		int c = peek(m_pos);
+		m_pos++;
+		return c;
+	}
+
+	private int peek(long pos) throws IOException {
+		return m_block[block(pos)] & 0xFF;
+	}
+
+	/**
+	 * Ensures the byte at <code>pos</code> (which must be before EOF) is in the current block and returns its index there
+	 */
+	private int block(long pos) throws IOException {
+		long off = pos - m_block_start;
+		if (off >= 0 && off < m_block_len)
+			return (int) off;
+
+		long buf_off = pos - m_buf_start;
+		if (m_buf == null || buf_off < 0 || buf_off >= m_buf_limit) {
+			map(pos);
+			buf_off = 0;
+		}
+		int len = (int) Math.min(BLOCK_SIZE, m_buf_limit - buf_off);
+		m_buf.position((int) buf_off);
+		m_buf.get(m_block, 0, len);
+		m_block_start = pos;
+		m_block_len   = len;
+		return 0;
+	}
+
+	private void map(long pos) throws IOException {
+		long len = Math.min(WINDOW_SIZE, m_size - pos);
+		m_buf       = m_channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+		m_buf_start = pos;
+		m_buf_limit = (int) len;
+	}
+}
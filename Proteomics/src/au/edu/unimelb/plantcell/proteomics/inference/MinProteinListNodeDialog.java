@@ -4,13 +4,15 @@ import org.knime.core.data.DataColumnSpec;
 import org.knime.core.data.StringValue;
 import org.knime.core.node.defaultnodesettings.DefaultNodeSettingsPane;
 import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelection;
+import org.knime.core.node.defaultnodesettings.DialogComponentNumber;
 import org.knime.core.node.defaultnodesettings.DialogComponentStringSelection;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.core.node.util.ColumnFilter;
 
 /**
  * <code>NodeDialog</code> for the "MinProteinList" Node.
- * Uses a greedy set cover algorithm to identify the minimal set of proteins which can explain the observed peptides
+ * Solves the minimum set cover problem to identify the minimal set of proteins which can explain the observed peptides
  *
  * This node dialog derives from {@link DefaultNodeSettingsPane} which allows
  * creation of a simple dialog with standard components. If you need a more 
@@ -55,6 +57,11 @@ public class MinProteinListNodeDialog extends DefaultNodeSettingsPane {
         			
         		}));
         addDialogComponent(new DialogComponentStringSelection(new SettingsModelString(MinProteinListNodeModel.CFGKEY_ALGO, items[0]), "Algorithm", items));
+        
+        createNewGroup("Performance");
+        addDialogComponent(new DialogComponentNumber(new SettingsModelIntegerBounded(MinProteinListNodeModel.CFGKEY_THREADS, 
+        		MinProteinListNodeModel.getDefaultThreadCount(), 1, MinProteinListNodeModel.MAX_THREADS), 
+        		"Number of threads (independent groups of proteins are solved in parallel)", 1));
     }
 }
 
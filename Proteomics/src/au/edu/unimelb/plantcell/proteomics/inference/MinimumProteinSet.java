@@ -0,0 +1,706 @@
+package au.edu.unimelb.plantcell.proteomics.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds a minimum cost set of proteins which explains every peptide ie. a weighted minimum set cover. Proteins and
+ * peptides are identified by index. Proteins which share no peptides (directly or via other proteins) are independent,
+ * so the protein-peptide graph is split into connected components which are solved in parallel.
+ *
+ * Each component is first reduced: a protein which is the only match for a peptide must be chosen, and a protein whose
+ * (remaining) peptides are all matched by another protein of no greater cost can be discarded. What remains is covered
+ * by a weighted greedy algorithm followed by local search (adding a protein if that makes costlier ones redundant). If
+ * there are few enough proteins left the greedy cover then seeds a branch-and-bound search for the optimum.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class MinimumProteinSet {
+	// reduced components with at most this many proteins are solved exactly by branch-and-bound...
+	private static final int    EXACT_MAX_PROTEINS = 256;
+	// ...unless it searches more nodes than this, in which case the best cover found so far is used
+	private static final long   MAX_NODES = 1000000;
+	private static final double EPSILON   = 1e-9;
+
+	private final int[][]   m_prot2peps;		// distinct peptides for each protein
+	private final double[]  m_cost;
+	private final int       m_n_peptides;
+	private final boolean[] m_chosen;
+	private final int[]     m_local;			// peptide -> index within its component (components have disjoint peptides)
+	private int m_n_components;
+	private final AtomicInteger m_n_optimal = new AtomicInteger();
+
+	/**
+	 * @param n_peptides peptides are numbered from zero to <code>n_peptides-1</code>
+	 * @param prot2peps  the peptides matched by each protein (duplicates are ignored)
+	 * @param cost       the cost of each protein (must be positive)
+	 */
+	public MinimumProteinSet(int n_peptides, final List<int[]> prot2peps, final double[] cost) {
+		assert(prot2peps.size() == cost.length);
+		m_n_peptides = n_peptides;
+		m_prot2peps  = new int[prot2peps.size()][];
+		for (int j=0; j<m_prot2peps.length; j++) {
+			int[] peps = prot2peps.get(j).clone();
+			Arrays.sort(peps);
+			int n = 0;
+			for (int i=0; i<peps.length; i++) {
+				if (n == 0 || peps[i] != peps[n-1])
+					peps[n++] = peps[i];
+			}
+			m_prot2peps[j] = Arrays.copyOf(peps, n);
+		}
+		m_cost   = cost;
+		m_chosen = new boolean[m_prot2peps.length];
+		m_local  = new int[n_peptides];
+	}
+
+	/**
+	 * Computes the protein set, solving up to <code>n_threads</code> components at once
+	 */
+	public void solve(int n_threads) throws Exception {
+		List<int[]> components = getComponents();
+		m_n_components = components.size();
+		m_n_optimal.set(0);
+
+		ExecutorService es = Executors.newFixedThreadPool(Math.max(1, n_threads));
+		try {
+			List<Future<?>> l = new ArrayList<Future<?>>();
+			for (final int[] prots : components) {
+				if (prots.length == 1) {
+					m_chosen[prots[0]] = true;
+					m_n_optimal.incrementAndGet();
+					continue;
+				}
+				l.add(es.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						new Component(prots).solve();
+						return null;
+					}
+
+				}));
+			}
+			try {
+				for (Future<?> f : l) {
+					f.get();
+				}
+			} catch (ExecutionException ee) {
+				Throwable t = ee.getCause();
+				if (t instanceof Exception)
+					throw (Exception) t;
+				throw ee;
+			}
+		} finally {
+			es.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns true if the specified protein is part of the minimum set. Only valid after <code>solve()</code>.
+	 */
+	public boolean isChosen(int prot) {
+		return m_chosen[prot];
+	}
+
+	/**
+	 * Returns the number of independent groups of proteins (excluding proteins without peptides)
+	 */
+	public int getComponentCount() {
+		return m_n_components;
+	}
+
+	/**
+	 * Returns the number of components whose protein set is known to be of minimum cost
+	 */
+	public int getOptimalComponentCount() {
+		return m_n_optimal.get();
+	}
+
+	/**
+	 * Returns the proteins in each connected component (largest first). Proteins without any peptides are omitted
+	 * since they are never needed.
+	 */
+	private List<int[]> getComponents() {
+		int n_prots = m_prot2peps.length;
+		int[] parent = new int[n_prots];
+		for (int j=0; j<n_prots; j++) {
+			parent[j] = j;
+		}
+		int[] first = new int[m_n_peptides];		// first protein seen with each peptide
+		Arrays.fill(first, -1);
+		for (int j=0; j<n_prots; j++) {
+			for (int p : m_prot2peps[j]) {
+				if (first[p] < 0) {
+					first[p] = j;
+				} else {
+					int a = find(parent, first[p]);
+					int b = find(parent, j);
+					if (a != b)
+						parent[Math.max(a, b)] = Math.min(a, b);
+				}
+			}
+		}
+
+		int[] size = new int[n_prots];
+		for (int j=0; j<n_prots; j++) {
+			if (m_prot2peps[j].length > 0)
+				size[find(parent, j)]++;
+		}
+		int[][] members = new int[n_prots][];
+		List<int[]> ret = new ArrayList<int[]>();
+		for (int j=0; j<n_prots; j++) {
+			if (m_prot2peps[j].length < 1)
+				continue;
+			int root = find(parent, j);
+			if (members[root] == null) {
+				members[root] = new int[size[root]];
+				ret.add(members[root]);
+				size[root] = 0;
+			}
+			members[root][size[root]++] = j;
+		}
+		Collections.sort(ret, new Comparator<int[]>() {
+
+			@Override
+			public int compare(int[] a, int[] b) {
+				return b.length - a.length;
+			}
+
+		});
+		return ret;
+	}
+
+	private static int find(final int[] parent, int j) {
+		while (parent[j] != j) {
+			parent[j] = parent[parent[j]];
+			j = parent[j];
+		}
+		return j;
+	}
+
+	/**
+	 * A connected component, with proteins and peptides renumbered from zero
+	 */
+	private class Component {
+		private final int[]     m_prots;		// local -> global protein
+		private final int[][]   m_peps;			// local peptides for each protein
+		private final int[][]   m_cands;		// proteins for each peptide
+		private final double[]  m_c;
+		private final boolean[] m_in;			// protein is chosen
+		private final boolean[] m_out;			// protein has been discarded
+		private final boolean[] m_covered;		// peptide is matched by a chosen protein
+
+		// branch-and-bound state
+		private long[][]  m_bits;				// peptides (as bits) for each candidate protein
+		private int[][]   m_bit_cands;			// candidate proteins for each peptide bit
+		private double[]  m_bit_cost;
+		private double    m_equal_cost;			// cost of every candidate protein or zero if the costs differ
+		private boolean[] m_forbidden;
+		private int[]     m_inter;
+		private int[]     m_stack;
+		private int       m_depth;
+		private int[]     m_best_set;
+		private int       m_best_n;
+		private double    m_best;
+		private long      m_nodes;
+
+		public Component(final int[] prots) {
+			m_prots = prots;
+			int n = prots.length;
+			m_peps  = new int[n][];
+			m_c     = new double[n];
+			int m = 0;
+			for (int j=0; j<n; j++) {
+				for (int p : m_prot2peps[prots[j]]) {
+					m_local[p] = -1;
+				}
+			}
+			for (int j=0; j<n; j++) {
+				int[] global = m_prot2peps[prots[j]];
+				m_peps[j] = new int[global.length];
+				for (int i=0; i<global.length; i++) {
+					int p = global[i];
+					if (m_local[p] < 0)
+						m_local[p] = m++;
+					m_peps[j][i] = m_local[p];
+				}
+				m_c[j] = m_cost[prots[j]];
+			}
+			int[] n_cands = new int[m];
+			for (int[] peps : m_peps) {
+				for (int p : peps) {
+					n_cands[p]++;
+				}
+			}
+			m_cands = new int[m][];
+			for (int p=0; p<m; p++) {
+				m_cands[p] = new int[n_cands[p]];
+				n_cands[p] = 0;
+			}
+			for (int j=0; j<n; j++) {
+				for (int p : m_peps[j]) {
+					m_cands[p][n_cands[p]++] = j;
+				}
+			}
+			m_in      = new boolean[n];
+			m_out     = new boolean[n];
+			m_covered = new boolean[m];
+		}
+
+		public void solve() {
+			reduce();
+
+			List<Integer> live = new ArrayList<Integer>();
+			for (int j=0; j<m_prots.length; j++) {
+				if (!m_in[j] && !m_out[j])
+					live.add(Integer.valueOf(j));
+			}
+			boolean optimal = true;
+			if (live.size() > 0) {
+				boolean[] greedy = greedy();
+				optimal = (live.size() <= EXACT_MAX_PROTEINS) && branch_and_bound(live, greedy);
+				for (int j=0; j<greedy.length; j++) {
+					if (greedy[j])
+						m_in[j] = true;
+				}
+			}
+			if (optimal)
+				m_n_optimal.incrementAndGet();
+			for (int j=0; j<m_prots.length; j++) {
+				m_chosen[m_prots[j]] = m_in[j];
+			}
+		}
+
+		private void choose(int j) {
+			m_in[j] = true;
+			for (int p : m_peps[j]) {
+				m_covered[p] = true;
+			}
+		}
+
+		/**
+		 * Chooses proteins which are the only remaining match for a peptide and discards proteins dominated by another
+		 * (ie. another protein of no greater cost matches all their uncovered peptides), until neither applies
+		 */
+		private void reduce() {
+			int[] stamp = new int[m_cands.length];
+			int   cur   = 0;
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				for (int p=0; p<m_cands.length; p++) {
+					if (m_covered[p])
+						continue;
+					int only = -1, n = 0;
+					for (int j : m_cands[p]) {
+						if (!m_out[j]) {
+							only = j;
+							n++;
+						}
+					}
+					assert(n > 0);
+					if (n == 1) {
+						choose(only);
+						changed = true;
+					}
+				}
+
+				for (int j=0; j<m_prots.length; j++) {
+					if (m_in[j] || m_out[j])
+						continue;
+					// the uncovered peptide of j with the fewest candidates limits which proteins can dominate j
+					int rarest = -1, n_uncovered = 0, fewest = Integer.MAX_VALUE;
+					for (int p : m_peps[j]) {
+						if (m_covered[p])
+							continue;
+						n_uncovered++;
+						if (m_cands[p].length < fewest) {
+							fewest = m_cands[p].length;
+							rarest = p;
+						}
+					}
+					if (n_uncovered == 0) {
+						m_out[j] = true;
+						changed = true;
+						continue;
+					}
+					for (int k : m_cands[rarest]) {
+						if (k == j || m_in[k] || m_out[k] || m_c[k] > m_c[j])
+							continue;
+						cur++;
+						int n_k = 0;
+						for (int p : m_peps[k]) {
+							if (!m_covered[p]) {
+								stamp[p] = cur;
+								n_k++;
+							}
+						}
+						boolean subset = true;
+						for (int p : m_peps[j]) {
+							if (!m_covered[p] && stamp[p] != cur) {
+								subset = false;
+								break;
+							}
+						}
+						// identical proteins of equal cost: keep only the first
+						if (subset && (m_c[k] < m_c[j] || n_k > n_uncovered || k < j)) {
+							m_out[j] = true;
+							changed = true;
+							break;
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns a cover of the uncovered peptides (using the remaining proteins) computed by weighted greedy selection,
+		 * with redundant proteins then removed and improved by local search
+		 */
+		private boolean[] greedy() {
+			int n = m_prots.length;
+			int[] gain  = new int[n];
+			int[] count = new int[m_cands.length];		// chosen proteins matching each peptide
+			boolean[] sel = new boolean[n];
+			PriorityQueue<GreedyChoice> pq = new PriorityQueue<GreedyChoice>();
+			for (int p=0; p<m_cands.length; p++) {
+				if (m_covered[p])
+					count[p] = Integer.MAX_VALUE / 2;		// covered by the reduction: never limits redundancy
+			}
+			for (int j=0; j<n; j++) {
+				if (m_in[j] || m_out[j])
+					continue;
+				for (int p : m_peps[j]) {
+					if (!m_covered[p])
+						gain[j]++;
+				}
+				pq.add(new GreedyChoice(j, gain[j], m_c[j]));
+			}
+
+			boolean[] covered = m_covered.clone();
+			while (!pq.isEmpty()) {
+				GreedyChoice gc = pq.poll();
+				int j = gc.m_prot;
+				if (gain[j] < 1)
+					continue;
+				if (gc.m_gain != gain[j]) {			// stale: re-queue with the current gain
+					pq.add(new GreedyChoice(j, gain[j], m_c[j]));
+					continue;
+				}
+				sel[j] = true;
+				for (int p : m_peps[j]) {
+					count[p]++;
+					if (covered[p])
+						continue;
+					covered[p] = true;
+					for (int k : m_cands[p]) {
+						gain[k]--;
+					}
+				}
+			}
+
+			// drop redundant proteins, costliest first
+			List<Integer> chosen = new ArrayList<Integer>();
+			for (int j=0; j<n; j++) {
+				if (sel[j])
+					chosen.add(Integer.valueOf(j));
+			}
+			Collections.sort(chosen, new Comparator<Integer>() {
+
+				@Override
+				public int compare(Integer a, Integer b) {
+					int ret = Double.compare(m_c[b.intValue()], m_c[a.intValue()]);
+					return (ret != 0) ? ret : a.intValue() - b.intValue();
+				}
+
+			});
+			for (Integer j : chosen) {
+				if (is_redundant(j.intValue(), count))
+					unselect(j.intValue(), sel, count);
+			}
+
+			// add an unchosen protein whenever that makes more costly chosen proteins redundant
+			boolean improved = true;
+			int[] stamp = new int[n];
+			int   cur   = 0;
+			for (int pass=0; improved && pass < 100; pass++) {
+				improved = false;
+				for (int u=0; u<n; u++) {
+					if (sel[u] || m_in[u] || m_out[u])
+						continue;
+					cur++;
+					List<Integer> neighbours = new ArrayList<Integer>();
+					for (int p : m_peps[u]) {
+						count[p]++;
+						for (int k : m_cands[p]) {
+							if (sel[k] && stamp[k] != cur) {
+								stamp[k] = cur;
+								neighbours.add(Integer.valueOf(k));
+							}
+						}
+					}
+					Collections.sort(neighbours, new Comparator<Integer>() {
+
+						@Override
+						public int compare(Integer a, Integer b) {
+							int ret = Double.compare(m_c[b.intValue()], m_c[a.intValue()]);
+							return (ret != 0) ? ret : a.intValue() - b.intValue();
+						}
+
+					});
+					double saved = 0.0;
+					List<Integer> dropped = new ArrayList<Integer>();
+					for (Integer k : neighbours) {
+						if (is_redundant(k.intValue(), count)) {
+							unselect(k.intValue(), sel, count);
+							dropped.add(k);
+							saved += m_c[k.intValue()];
+						}
+					}
+					if (saved > m_c[u] + EPSILON) {
+						sel[u]   = true;
+						improved = true;
+					} else {
+						for (Integer k : dropped) {
+							sel[k.intValue()] = true;
+							for (int p : m_peps[k.intValue()]) {
+								count[p]++;
+							}
+						}
+						for (int p : m_peps[u]) {
+							count[p]--;
+						}
+					}
+				}
+			}
+			return sel;
+		}
+
+		private boolean is_redundant(int j, final int[] count) {
+			for (int p : m_peps[j]) {
+				if (count[p] < 2)
+					return false;
+			}
+			return true;
+		}
+
+		private void unselect(int j, final boolean[] sel, final int[] count) {
+			sel[j] = false;
+			for (int p : m_peps[j]) {
+				count[p]--;
+			}
+		}
+
+		/**
+		 * Searches for a cheaper cover than <code>sel</code> (which is updated if one is found) using the specified
+		 * remaining proteins. Returns true if the search completed ie. <code>sel</code> is now optimal.
+		 */
+		private boolean branch_and_bound(final List<Integer> live, final boolean[] sel) {
+			int n = live.size();
+			int[] bit_of = new int[m_cands.length];
+			int m = 0;
+			for (int p=0; p<m_cands.length; p++) {
+				bit_of[p] = m_covered[p] ? -1 : m++;
+			}
+			int words = (m + 63) >>> 6;
+			m_bits     = new long[n][words];
+			m_bit_cost = new double[n];
+			m_equal_cost = m_c[live.get(0).intValue()];
+			int[] n_cands = new int[m];
+			for (int i=0; i<n; i++) {
+				int j = live.get(i).intValue();
+				m_bit_cost[i] = m_c[j];
+				if (m_c[j] != m_equal_cost)
+					m_equal_cost = 0.0;
+				for (int p : m_peps[j]) {
+					int b = bit_of[p];
+					if (b >= 0) {
+						m_bits[i][b >>> 6] |= 1L << b;
+						n_cands[b]++;
+					}
+				}
+			}
+			m_bit_cands = new int[m][];
+			for (int b=0; b<m; b++) {
+				m_bit_cands[b] = new int[n_cands[b]];
+				n_cands[b] = 0;
+			}
+			for (int i=0; i<n; i++) {
+				long[] bits = m_bits[i];
+				for (int w=0; w<words; w++) {
+					for (long x = bits[w]; x != 0; x &= x - 1) {
+						int b = (w << 6) + Long.numberOfTrailingZeros(x);
+						m_bit_cands[b][n_cands[b]++] = i;
+					}
+				}
+			}
+
+			m_forbidden = new boolean[n];
+			m_inter     = new int[n];
+			m_stack     = new int[n];
+			m_depth     = 0;
+			m_best_set  = null;
+			m_best      = 0.0;
+			for (int i=0; i<n; i++) {
+				if (sel[live.get(i).intValue()])
+					m_best += m_bit_cost[i];
+			}
+			m_nodes = 0;
+			long[] all = new long[words];
+			for (int b=0; b<m; b++) {
+				all[b >>> 6] |= 1L << b;
+			}
+			boolean completed = search(all, 0.0);
+			if (m_best_set != null) {
+				for (int i=0; i<n; i++) {
+					sel[live.get(i).intValue()] = false;
+				}
+				for (int k=0; k<m_best_n; k++) {
+					sel[live.get(m_best_set[k]).intValue()] = true;
+				}
+			}
+			m_bits = null;
+			m_bit_cands = null;
+			return completed;
+		}
+
+		/**
+		 * Depth-first search for covers of the peptides in <code>u</code> costing less than the best found so far.
+		 * Returns false if the node limit was reached.
+		 */
+		private boolean search(final long[] u, double cost) {
+			if (++m_nodes > MAX_NODES)
+				return false;
+			boolean empty = true;
+			for (long w : u) {
+				if (w != 0) {
+					empty = false;
+					break;
+				}
+			}
+			if (empty) {
+				if (cost < m_best - EPSILON) {
+					m_best     = cost;
+					m_best_set = Arrays.copyOf(m_stack, m_depth);
+					m_best_n   = m_depth;
+				}
+				return true;
+			}
+
+			int n = m_bits.length;
+			for (int i=0; i<n; i++) {
+				int c = 0;
+				if (!m_forbidden[i]) {
+					long[] bits = m_bits[i];
+					for (int w=0; w<u.length; w++) {
+						c += Long.bitCount(bits[w] & u[w]);
+					}
+				}
+				m_inter[i] = c;
+			}
+
+			// lower bound: each uncovered peptide costs at least the cheapest share (per peptide) of a protein matching it
+			double bound = 0.0;
+			int branch = -1, fewest = Integer.MAX_VALUE;
+			for (int w=0; w<u.length; w++) {
+				for (long x = u[w]; x != 0; x &= x - 1) {
+					int b = (w << 6) + Long.numberOfTrailingZeros(x);
+					double min = Double.MAX_VALUE;
+					int n_c = 0;
+					for (int i : m_bit_cands[b]) {
+						if (m_forbidden[i])
+							continue;
+						n_c++;
+						min = Math.min(min, m_bit_cost[i] / m_inter[i]);
+					}
+					if (n_c == 0)
+						return true;		// infeasible
+					bound += min;
+					if (n_c < fewest) {
+						fewest = n_c;
+						branch = b;
+					}
+				}
+			}
+			if (m_equal_cost > 0.0)		// a whole number of proteins is needed
+				bound = m_equal_cost * Math.ceil(bound / m_equal_cost - EPSILON);
+			if (cost + bound >= m_best - EPSILON)
+				return true;
+
+			// branch on each protein matching the peptide with the fewest candidates, most cost-effective first
+			final int[] order = new int[fewest];
+			int k = 0;
+			for (int i : m_bit_cands[branch]) {
+				if (!m_forbidden[i])
+					order[k++] = i;
+			}
+			sort_by_share(order);
+			long[] next = new long[u.length];
+			boolean completed = true;
+			int tried = 0;
+			for (; tried<order.length && completed; tried++) {
+				int i = order[tried];
+				long[] bits = m_bits[i];
+				for (int w=0; w<u.length; w++) {
+					next[w] = u[w] & ~bits[w];
+				}
+				m_stack[m_depth++] = i;
+				completed = search(next, cost + m_bit_cost[i]);
+				m_depth--;
+				m_forbidden[i] = true;			// later branches exclude this protein
+			}
+			for (int t=0; t<tried; t++) {
+				m_forbidden[order[t]] = false;
+			}
+			return completed;
+		}
+
+		/**
+		 * Sorts the proteins by increasing cost per uncovered peptide (as computed for the current node)
+		 */
+		private void sort_by_share(final int[] order) {
+			for (int a=1; a<order.length; a++) {
+				int    i     = order[a];
+				double share = m_bit_cost[i] / m_inter[i];
+				int b = a - 1;
+				while (b >= 0 && m_bit_cost[order[b]] / m_inter[order[b]] > share) {
+					order[b+1] = order[b];
+					b--;
+				}
+				order[b+1] = i;
+			}
+		}
+	}
+
+	/**
+	 * A protein queued for greedy selection: most peptides per unit cost first, then lowest index
+	 */
+	private static class GreedyChoice implements Comparable<GreedyChoice> {
+		private final int    m_prot, m_gain;
+		private final double m_ratio;
+
+		public GreedyChoice(int prot, int gain, double cost) {
+			m_prot  = prot;
+			m_gain  = gain;
+			m_ratio = gain / cost;
+		}
+
+		@Override
+		public int compareTo(GreedyChoice o) {
+			int ret = Double.compare(o.m_ratio, m_ratio);
+			return (ret != 0) ? ret : m_prot - o.m_prot;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package au.edu.unimelb.plantcell.proteomics.spectra.clustering;
+
+import java.util.Arrays;
+
+import org.expasy.jpl.core.ms.spectrum.BinnedPeakListImpl;
+import org.expasy.jpl.core.ms.spectrum.PeakList;
+import org.expasy.jpl.core.ms.spectrum.PeakListImpl;
+import org.expasy.jpl.core.ms.spectrum.peak.Peak;
+
+import au.edu.unimelb.plantcell.io.read.spectra.SpectraValue;
+
+/**
+ * The parts of a {@link SpectraValue} needed to correlate it with other spectra, computed once per spectrum.
+ * Peaks are summed into bins of (approx.) one Dalton to form a sparse vector of bin indexes (in increasing order)
+ * and intensities. The javaprotlib peak lists are only built if the chosen algorithm needs them.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class CachedSpectrum {
+	// bin width and offset as used by Comet for low-resolution fragment ions (accounts for the peptide mass defect)
+	public static final double BIN_WIDTH  = 1.0005079;
+	public static final double BIN_OFFSET = 0.4;
+
+	private final String     m_id;
+	private final double     m_precursor_mz;		// NaN if not known
+	private final int[]      m_bins;
+	private final double[]   m_bin_intensities;
+	private final double     m_sum_squares;			// of m_bin_intensities
+	private final PeakList   m_pl;					// null unless requested
+	private final PeakList   m_bpl;					// ditto
+	private final Exception  m_pl_failure;			// why the peak lists could not be built (null if they were)
+
+	/**
+	 *
+	 * @param sv spectrum to convert
+	 * @param want_peaklist should a javaprotlib peak list be built?
+	 * @param want_binned should a javaprotlib binned peak list be built (implies <code>want_peaklist</code>)?
+	 */
+	public CachedSpectrum(final SpectraValue sv, boolean want_peaklist, boolean want_binned) {
+		assert(sv != null);
+		m_id = sv.getID();
+		Peak precursor = sv.getPrecursor();
+		m_precursor_mz = (precursor != null && precursor.getMz() > 0.0) ? precursor.getMz() : Double.NaN;
+
+		SortedPeakList spl = new SortedPeakList(sv);
+		double[] mz = spl.getMZ();
+		double[] intensities = spl.getIntensities();
+
+		// peaks are in increasing m/z order, so the bins are too
+		int[]    bins = new int[mz.length];
+		double[] bin_intensities = new double[mz.length];
+		int n = 0;
+		for (int i=0; i<mz.length; i++) {
+			if (intensities[i] <= 0.0 || mz[i] < 0.0)
+				continue;
+			int bin = getBin(mz[i]);
+			if (n > 0 && bins[n-1] == bin) {
+				bin_intensities[n-1] += intensities[i];
+			} else {
+				bins[n] = bin;
+				bin_intensities[n++] = intensities[i];
+			}
+		}
+		m_bins = Arrays.copyOf(bins, n);
+		m_bin_intensities = Arrays.copyOf(bin_intensities, n);
+		double sum_sq = 0.0;
+		for (double d : m_bin_intensities) {
+			sum_sq += d * d;
+		}
+		m_sum_squares = sum_sq;
+
+		PeakList pl = null, bpl = null;
+		Exception failure = null;
+		if (want_peaklist || want_binned) {
+			// javaprotlib rejects some spectra: comparisons with them fail (see getPeakList())
+			try {
+				pl  = new PeakListImpl.Builder(mz).intensities(intensities).build();
+				bpl = want_binned ? new BinnedPeakListImpl.Builder(pl).build() : null;
+			} catch (Exception e) {
+				pl  = null;
+				bpl = null;
+				failure = e;
+			}
+		}
+		m_pl  = pl;
+		m_bpl = bpl;
+		m_pl_failure = failure;
+	}
+
+	public static int getBin(double mz) {
+		return (int) (mz / BIN_WIDTH + (1.0 - BIN_OFFSET));
+	}
+
+	public String getID() {
+		return m_id;
+	}
+
+	/**
+	 * Returns true if the precursor m/z of the spectrum is known
+	 */
+	public boolean hasPrecursor() {
+		return !Double.isNaN(m_precursor_mz);
+	}
+
+	public double getPrecursorMZ() {
+		return m_precursor_mz;
+	}
+
+	/**
+	 * Returns the non-empty bins in increasing order. The caller must not modify the returned array.
+	 */
+	public int[] getBins() {
+		return m_bins;
+	}
+
+	/**
+	 * Returns the total intensity of the peaks in each bin (same order as <code>getBins()</code>). The caller must not modify the returned array.
+	 */
+	public double[] getBinIntensities() {
+		return m_bin_intensities;
+	}
+
+	/**
+	 * Returns the largest bin index used by the spectrum or -1 if it has no peaks
+	 */
+	public int getMaxBin() {
+		return (m_bins.length > 0) ? m_bins[m_bins.length-1] : -1;
+	}
+
+	public double getSumOfSquares() {
+		return m_sum_squares;
+	}
+
+	/**
+	 * Returns the javaprotlib peak list (sorted by increasing m/z) or null if not requested during construction
+	 * @throws Exception if javaprotlib could not build the peak list
+	 */
+	public PeakList getPeakList() throws Exception {
+		if (m_pl_failure != null)
+			throw m_pl_failure;
+		return m_pl;
+	}
+
+	/**
+	 * Returns the javaprotlib binned peak list or null if not requested during construction
+	 * @throws Exception if javaprotlib could not build the peak list
+	 */
+	public PeakList getBinnedPeakList() throws Exception {
+		if (m_pl_failure != null)
+			throw m_pl_failure;
+		return m_bpl;
+	}
+}
@@ -0,0 +1,348 @@
+package au.edu.unimelb.plantcell.proteomics.spectra.clustering;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.expasy.jpl.msmatch.PeakListMatcher;
+
+/**
+ * Correlates blocks of query spectra with every target spectrum, reporting the pairs which meet a score threshold.
+ * Spectra are converted to {@link CachedSpectrum}'s once, by the caller. Targets are scored in passes of
+ * <code>TARGETS_PER_PASS</code> against the whole block, so that they are read from memory once per block rather
+ * than once per query. If a precursor tolerance is set, only targets with a precursor m/z within the tolerance of the
+ * query (or without a known precursor) are compared. Blocks may be computed concurrently.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+class SpectraCorrelationEngine {
+	private static final int TARGETS_PER_PASS = 64;
+
+	/**
+	 * Scores computed from the binned intensities of each spectrum (without javaprotlib). Each is the javaprotlib
+	 * scorer of the same name applied to the bins which have peaks in both spectra.
+	 */
+	public enum BinnedScore { NORMALISED_CORRELATION, CORRELATION, SHARED_PEAK_COUNT }
+
+	/**
+	 * Creates a javaprotlib matcher for the use of a single thread
+	 */
+	public interface MatcherFactory {
+		public PeakListMatcher newMatcher();
+	}
+
+	/**
+	 * The pairs from a block of queries which met the threshold, in order of query and then target
+	 */
+	public static class Block {
+		public final int[]    query;
+		public final int[]    target;
+		public final double[] score;
+		public final int      n_queries;		// in the block
+		public final long     n_failed;			// comparisons which threw
+		public final Exception first_failure;	// null if none failed
+
+		public Block(int[] query, int[] target, double[] score, int n_queries, long n_failed, Exception first_failure) {
+			this.query         = query;
+			this.target        = target;
+			this.score         = score;
+			this.n_queries     = n_queries;
+			this.n_failed      = n_failed;
+			this.first_failure = first_failure;
+		}
+
+		public int size() {
+			return query.length;
+		}
+	}
+
+	private final CachedSpectrum[]            m_targets;
+	private final double                      m_threshold;
+	private final double                      m_precursor_tol;		// no filtering if zero
+	private final int[]                       m_by_precursor;		// targets with a precursor, by increasing precursor m/z
+	private final double[]                    m_precursor_mz;		// precursor m/z of each of m_by_precursor
+	private final int[]                       m_no_precursor;		// targets without a precursor, in order
+	private final BinnedScore                 m_binned_score;		// null if javaprotlib is used
+	private final int                         m_n_bins;
+	private final ThreadLocal<PeakListMatcher> m_matcher;			// null unless javaprotlib is used
+	private final boolean                     m_use_binned_peaklists;
+
+	/**
+	 * Scores pairs using the binned intensities of each spectrum
+	 *
+	 * @param targets the spectra each query is compared with
+	 * @param threshold minimum score to report
+	 * @param precursor_tol maximum difference in precursor m/z of pairs to be compared (zero compares all pairs)
+	 */
+	public SpectraCorrelationEngine(final CachedSpectrum[] targets, double threshold, double precursor_tol, final BinnedScore bs) {
+		this(targets, threshold, precursor_tol, bs, null, false);
+	}
+
+	/**
+	 * Scores pairs using javaprotlib, with a matcher from the factory for each thread. The javaprotlib algorithms
+	 * share static state, so {@link #correlate(CachedSpectrum[], int, int)} must only be called from one thread at a time.
+	 *
+	 * @param use_binned_peaklists compare the binned peak lists of each spectrum rather than the peak lists?
+	 */
+	public SpectraCorrelationEngine(final CachedSpectrum[] targets, double threshold, double precursor_tol,
+			final MatcherFactory mf, boolean use_binned_peaklists) {
+		this(targets, threshold, precursor_tol, null, mf, use_binned_peaklists);
+	}
+
+	private SpectraCorrelationEngine(final CachedSpectrum[] targets, double threshold, double precursor_tol,
+			final BinnedScore bs, final MatcherFactory mf, boolean use_binned_peaklists) {
+		assert(targets != null && (bs != null || mf != null));
+		m_targets       = targets;
+		m_threshold     = threshold;
+		m_precursor_tol = (precursor_tol > 0.0) ? precursor_tol : 0.0;
+		m_binned_score  = bs;
+		m_use_binned_peaklists = use_binned_peaklists;
+		m_matcher = (mf == null) ? null : new ThreadLocal<PeakListMatcher>() {
+
+			@Override
+			protected PeakListMatcher initialValue() {
+				return mf.newMatcher();
+			}
+
+		};
+
+		int max_bin = -1;
+		int n_precursor = 0;
+		for (CachedSpectrum cs : targets) {
+			max_bin = Math.max(max_bin, cs.getMaxBin());
+			if (cs.hasPrecursor())
+				n_precursor++;
+		}
+		m_n_bins = max_bin + 1;
+
+		// index the targets by precursor m/z
+		Integer[] by_precursor = new Integer[n_precursor];
+		int[] no_precursor = new int[targets.length - n_precursor];
+		int k = 0, j = 0;
+		for (int i=0; i<targets.length; i++) {
+			if (targets[i].hasPrecursor()) {
+				by_precursor[k++] = Integer.valueOf(i);
+			} else {
+				no_precursor[j++] = i;
+			}
+		}
+		Arrays.sort(by_precursor, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(targets[a.intValue()].getPrecursorMZ(), targets[b.intValue()].getPrecursorMZ());
+			}
+
+		});
+		m_by_precursor = new int[n_precursor];
+		m_precursor_mz = new double[n_precursor];
+		for (int i=0; i<n_precursor; i++) {
+			m_by_precursor[i] = by_precursor[i].intValue();
+			m_precursor_mz[i] = targets[m_by_precursor[i]].getPrecursorMZ();
+		}
+		m_no_precursor = no_precursor;
+	}
+
+	public int getTargetCount() {
+		return m_targets.length;
+	}
+
+	/**
+	 * Compares the specified queries with every (suitable) target
+	 *
+	 * @param queries
+	 * @param from first query in the block
+	 * @param to one past the last query in the block
+	 * @return never null
+	 */
+	public Block correlate(final CachedSpectrum[] queries, int from, int to) {
+		assert(from >= 0 && from <= to && to <= queries.length);
+		int n = to - from;
+		Hits[]     hits     = new Hits[n];
+		double[][] dense    = new double[n][];		// null unless scoring binned intensities
+		boolean[]  filtered = new boolean[n];		// compared only with targets of similar precursor m/z (or none)?
+		PeakListMatcher matcher = (m_matcher != null) ? m_matcher.get() : null;
+		for (int q=0; q<n; q++) {
+			CachedSpectrum query = queries[from+q];
+			hits[q]     = new Hits();
+			dense[q]    = (m_binned_score != null) ? scatter(query) : null;
+			filtered[q] = (m_precursor_tol > 0.0 && query.hasPrecursor());
+			if (filtered[q]) {
+				double mz = query.getPrecursorMZ();
+				int lo = lowerBound(m_precursor_mz, mz - m_precursor_tol);
+				int hi = lowerBound(m_precursor_mz, Math.nextUp(mz + m_precursor_tol));
+				for (int i=lo; i<hi; i++) {
+					compare(matcher, query, dense[q], m_by_precursor[i], hits[q]);
+				}
+			}
+		}
+
+		// targets without a precursor are compared with every query: a pass at a time, so that each pass stays in the cache
+		int next_np = 0;			// first target in m_no_precursor in the current pass
+		for (int start=0; start<m_targets.length; start += TARGETS_PER_PASS) {
+			int end = Math.min(m_targets.length, start + TARGETS_PER_PASS);
+			int end_np = next_np;
+			while (end_np < m_no_precursor.length && m_no_precursor[end_np] < end) {
+				end_np++;
+			}
+			for (int q=0; q<n; q++) {
+				if (filtered[q]) {
+					for (int i=next_np; i<end_np; i++) {
+						compare(matcher, queries[from+q], dense[q], m_no_precursor[i], hits[q]);
+					}
+				} else {
+					for (int t=start; t<end; t++) {
+						compare(matcher, queries[from+q], dense[q], t, hits[q]);
+					}
+				}
+			}
+			next_np = end_np;
+		}
+		for (int q=0; q<n; q++) {
+			if (filtered[q])
+				hits[q].sortByTarget();
+		}
+
+		int total = 0;
+		long n_failed = 0;
+		Exception first_failure = null;
+		for (Hits h : hits) {
+			total += h.m_n;
+			n_failed += h.m_n_failed;
+			if (first_failure == null)
+				first_failure = h.m_first_failure;
+		}
+		int[]    query  = new int[total];
+		int[]    target = new int[total];
+		double[] score  = new double[total];
+		int k = 0;
+		for (int q=0; q<n; q++) {
+			Hits h = hits[q];
+			for (int i=0; i<h.m_n; i++) {
+				query[k]  = from + q;
+				target[k] = h.m_target[i];
+				score[k]  = h.m_score[i];
+				k++;
+			}
+		}
+		return new Block(query, target, score, n, n_failed, first_failure);
+	}
+
+	/**
+	 * Scores the query against the specified target, recording the target if it meets the threshold
+	 *
+	 * @param dense the query as returned by <code>scatter()</code> (null if javaprotlib is used)
+	 */
+	private void compare(final PeakListMatcher matcher, final CachedSpectrum query, final double[] dense, int t, final Hits hits) {
+		CachedSpectrum target = m_targets[t];
+		// dont correlate spectra against themselves...
+		if (query.getID().equals(target.getID()))
+			return;
+		try {
+			double score = (dense != null) ? binned_score(query, dense, target) : matcher_score(matcher, query, target);
+			if (score >= m_threshold) {
+				hits.add(t, score);
+			}
+		} catch (Exception e) {
+			hits.failed(e);
+		}
+	}
+
+	/**
+	 * Returns the first index in the sorted array whose value is not less than <code>v</code>
+	 */
+	private static int lowerBound(final double[] sorted, double v) {
+		int lo = 0, hi = sorted.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid] < v) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the binned intensities of the query as a dense vector (bins beyond the last target bin are not needed)
+	 */
+	private double[] scatter(final CachedSpectrum query) {
+		double[] ret = new double[m_n_bins];
+		int[] bins = query.getBins();
+		double[] intensities = query.getBinIntensities();
+		for (int i=0; i<bins.length && bins[i] < m_n_bins; i++) {
+			ret[bins[i]] = intensities[i];
+		}
+		return ret;
+	}
+
+	private double binned_score(final CachedSpectrum query, final double[] dense, final CachedSpectrum target) {
+		int[] bins = target.getBins();
+		double[] intensities = target.getBinIntensities();
+		if (m_binned_score == BinnedScore.SHARED_PEAK_COUNT) {
+			int shared = 0;
+			for (int i=0; i<bins.length; i++) {
+				if (dense[bins[i]] > 0.0)
+					shared++;
+			}
+			return shared;
+		}
+		double dot = 0.0;
+		for (int i=0; i<bins.length; i++) {
+			dot += dense[bins[i]] * intensities[i];
+		}
+		if (m_binned_score == BinnedScore.CORRELATION)
+			return dot;
+		return dot / Math.sqrt(query.getSumOfSquares() * target.getSumOfSquares());
+	}
+
+	private double matcher_score(final PeakListMatcher matcher, final CachedSpectrum query, final CachedSpectrum target) throws Exception {
+		if (m_use_binned_peaklists) {
+			matcher.computeMatch(query.getBinnedPeakList(), target.getBinnedPeakList());
+		} else {
+			matcher.computeMatch(query.getPeakList(), target.getPeakList());
+		}
+		return matcher.getScore();
+	}
+
+	/**
+	 * The targets which met the threshold for a single query
+	 */
+	private static class Hits {
+		private int[]     m_target = new int[16];
+		private double[]  m_score  = new double[16];
+		private int       m_n;
+		private long      m_n_failed;
+		private Exception m_first_failure;
+
+		public void add(int target, double score) {
+			if (m_n == m_target.length) {
+				m_target = Arrays.copyOf(m_target, m_n * 2);
+				m_score  = Arrays.copyOf(m_score, m_n * 2);
+			}
+			m_target[m_n] = target;
+			m_score[m_n++] = score;
+		}
+
+		public void failed(Exception e) {
+			if (m_first_failure == null)
+				m_first_failure = e;
+			m_n_failed++;
+		}
+
+		public void sortByTarget() {
+			long[] keys = new long[m_n];
+			for (int i=0; i<m_n; i++) {
+				keys[i] = ((long) m_target[i] << 32) | i;
+			}
+			Arrays.sort(keys);
+			double[] score = new double[m_target.length];
+			for (int i=0; i<m_n; i++) {
+				m_target[i] = (int) (keys[i] >>> 32);
+				score[i]    = m_score[(int) keys[i]];
+			}
+			m_score = score;
+		}
+	}
+}
@@ -6,6 +6,8 @@ import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelectio
 import org.knime.core.node.defaultnodesettings.DialogComponentNumber;
 import org.knime.core.node.defaultnodesettings.DialogComponentStringSelection;
 import org.knime.core.node.defaultnodesettings.SettingsModelDouble;
+import org.knime.core.node.defaultnodesettings.SettingsModelDoubleBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.core.node.util.ColumnFilter;
 
@@ -71,6 +73,16 @@ public class SpectraCorrelationNodeDialog extends DefaultNodeSettingsPane {
         addDialogComponent(new DialogComponentNumber(
         		new SettingsModelDouble(SpectraCorrelationNodeModel.CFGKEY_THRESHOLD, 0.8), "Minimum score to report", 0.1
         		));
+        
+        addDialogComponent(new DialogComponentNumber(
+        		new SettingsModelDoubleBounded(SpectraCorrelationNodeModel.CFGKEY_PRECURSOR_TOLERANCE, 0.0, 0.0, 10000.0), 
+        		"Only compare spectra with precursor m/z within (0 to compare all)", 0.5
+        		));
+        
+        createNewGroup("Performance");
+        addDialogComponent(new DialogComponentNumber(new SettingsModelIntegerBounded(SpectraCorrelationNodeModel.CFGKEY_THREADS, 
+        		SpectraCorrelationNodeModel.getDefaultThreadCount(), 1, SpectraCorrelationNodeModel.MAX_THREADS), 
+        		"Number of threads (Binned intensities only: spectra from the bottom port are correlated in parallel)", 1));
     }
 }
 
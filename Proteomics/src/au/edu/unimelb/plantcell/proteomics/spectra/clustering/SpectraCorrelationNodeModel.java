@@ -4,9 +4,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
-import org.expasy.jpl.core.ms.spectrum.BinnedPeakListImpl;
-import org.expasy.jpl.core.ms.spectrum.PeakListImpl;
 import org.expasy.jpl.msmatch.PeakListMatcher;
 import org.expasy.jpl.msmatch.PeakListMatcherImpl;
 import org.expasy.jpl.msmatch.model.AlgoModel;
@@ -37,9 +36,12 @@ import org.knime.core.node.NodeModel;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.defaultnodesettings.SettingsModelDouble;
+import org.knime.core.node.defaultnodesettings.SettingsModelDoubleBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 
 import au.edu.unimelb.plantcell.core.MyDataContainer;
+import au.edu.unimelb.plantcell.core.OrderedTaskExecutor;
 import au.edu.unimelb.plantcell.io.read.spectra.SpectraValue;
 
 
@@ -61,8 +63,16 @@ public class SpectraCorrelationNodeModel extends NodeModel {
 	static final String CFGKEY_ALGORITHM            = "algorithm";
 	static final String CFGKEY_SCORE_FUNCTION       = "scoring-function";
 	static final String CFGKEY_THRESHOLD            = "score-threshold";
+	static final String CFGKEY_PRECURSOR_TOLERANCE  = "precursor-mz-tolerance";
+	static final String CFGKEY_THREADS              = "parallel-threads";
 	
-	public final static String[] ALGORITHMS = new String[] { "M/Z differences between all peak pairs", "Bipartite graph comparison", "Binned peak-list comparison"  };
+	public static final int MAX_THREADS = 64;
+	
+	// spectra from the bottom port correlated by each task
+	private static final int QUERIES_PER_TASK = 32;
+	
+	public final static String[] ALGORITHMS = new String[] { "M/Z differences between all peak pairs", "Bipartite graph comparison", "Binned peak-list comparison", 
+		"Binned intensities (fast, without javaprotlib)" };
 	public final static String[] SCORE_FUNCS= new String[] {  
 		// the commented out options dont seem to be producing a score: always zero - maybe i'm not setting up the data properly??? hard to tell without docs...
 		//"Correlation of spectral bins", "Normalised correlation of spectral bins", 
@@ -75,10 +85,8 @@ public class SpectraCorrelationNodeModel extends NodeModel {
     private final SettingsModelString m_algorithm = new SettingsModelString(CFGKEY_ALGORITHM, ALGORITHMS[0]);
     private final SettingsModelString m_score_func= new SettingsModelString(CFGKEY_SCORE_FUNCTION, SCORE_FUNCS[0]);
     private final SettingsModelDouble m_threshold = new SettingsModelDouble(CFGKEY_THRESHOLD, 0.8);
-    
-    // not persisted
-    private boolean m_bpl_versus_bpl;		// two peaklist's to be compared should be binned first?
-    private boolean m_pl_versus_pl;			// or just left alone? only one can be set during execute()
+    private final SettingsModelDoubleBounded m_precursor_tol = new SettingsModelDoubleBounded(CFGKEY_PRECURSOR_TOLERANCE, 0.0, 0.0, 10000.0);
+    private final SettingsModelIntegerBounded m_threads = new SettingsModelIntegerBounded(CFGKEY_THREADS, getDefaultThreadCount(), 1, MAX_THREADS);
     
     /**
      * Constructor for the node model.
@@ -88,6 +96,10 @@ public class SpectraCorrelationNodeModel extends NodeModel {
         super(2, 1);
     }
 
+    public static int getDefaultThreadCount() {
+    	return Math.min(MAX_THREADS, OrderedTaskExecutor.getDefaultThreadCount());
+    }
+
   
   
     
@@ -100,40 +112,91 @@ public class SpectraCorrelationNodeModel extends NodeModel {
 
     	DataTableSpec[] outSpec = make_output_spec(new DataTableSpec[] { inData[0].getSpec(), inData[1].getSpec() });
     	
-    	MyDataContainer out = new MyDataContainer(exec.createDataContainer(outSpec[0]), "Pair");
+    	final MyDataContainer out = new MyDataContainer(exec.createDataContainer(outSpec[0]), "Pair");
     	int idx_col1 = inData[0].getSpec().findColumnIndex(m_col_1.getStringValue());
     	int idx_col2 = inData[1].getSpec().findColumnIndex(m_col_2.getStringValue());
     	if (idx_col1 < 0 || idx_col2 < 0)
     		throw new InvalidSettingsException("Unable to find spectra columns: re-configure?");
     	
-    	RowIterator it2 = inData[1].iterator();
-    	long n = inData[0].getRowCount() * inData[1].getRowCount();
-    	logger.info("Correlating "+n+" pairs of spectra.");
-    	StatusMonitor sm = new StatusMonitor(exec, n);
+    	final String algorithm = m_algorithm.getStringValue();
+    	final String sfunc     = m_score_func.getStringValue();
+    	boolean javaprotlib    = !algorithm.startsWith("Binned intensities");
+    	boolean binned         = javaprotlib && is_binned(algorithm, sfunc);
+    	int n_threads          = m_threads.getIntValue();
+    	if (javaprotlib && n_threads > 1) {
+    		// the javaprotlib algorithms are not thread-safe (eg. the peak pair models share a static PeakPair), even with a matcher per thread
+    		logger.info("javaprotlib algorithms cannot be run in parallel: using one thread.");
+    		n_threads = 1;
+    	}
     	
-    	int batch_size = 200;
-    	logger.info("Batch size: "+batch_size);
+    	// 1. convert each spectrum once (the top port is compared with each spectrum from the bottom port)
+    	logger.info("Loading spectra... please be patient!");
+    	final CachedSpectrum[] targets = load_spectra(inData[0], idx_col1, javaprotlib, binned, exec);
+    	final CachedSpectrum[] queries = load_spectra(inData[1], idx_col2, javaprotlib, binned, exec);
+    	final SpectraCorrelationEngine engine;
+    	if (javaprotlib) {
+    		engine = new SpectraCorrelationEngine(targets, m_threshold.getDoubleValue(), m_precursor_tol.getDoubleValue(), 
+    				new SpectraCorrelationEngine.MatcherFactory() {
+
+						@Override
+						public PeakListMatcher newMatcher() {
+							PeakListMatcher matcher = PeakListMatcherImpl.newInstance();
+					    	matcher.setAlgoModel(make_algorithm(algorithm));
+					    	matcher.setScorer(make_score_func(sfunc));
+					    	return matcher;
+						}
+    			
+    		}, binned);
+    	} else {
+    		engine = new SpectraCorrelationEngine(targets, m_threshold.getDoubleValue(), m_precursor_tol.getDoubleValue(), 
+    				make_binned_score(sfunc));
+    	}
     	
-    	while (it2.hasNext()) {
-    		// create a batch of peak lists to search against
-    		List<SpectraValue> batch = new ArrayList<SpectraValue>();
-    		do {
-    			DataRow r = it2.next();
-    			DataCell c= r.getCell(idx_col2);
-    			if (c==null || c.isMissing() || !(c instanceof SpectraValue))
-    				continue;
-    			batch.add((SpectraValue)c);
-    		} while (it2.hasNext() && batch.size() < batch_size);
-    		
-    		// search the entire batch against all input spectra from the first port
-    		try {
-    			report_batch_correlations(inData[0], batch, out, idx_col1, exec, sm);
-    			// update node progress for user
-        		sm.update(0);
-    		} catch (Exception e) {
-    			e.printStackTrace();
-    			throw e;
+    	long n = ((long) queries.length) * targets.length;
+    	logger.info("Correlating "+n+" pairs of spectra.");
+    	if (m_precursor_tol.getDoubleValue() > 0.0) {
+    		logger.info("Only comparing spectra with precursor m/z within "+m_precursor_tol.getDoubleValue()+" (or without a precursor).");
+    	}
+    	final StatusMonitor sm = new StatusMonitor(exec, n);
+    	
+    	// 2. correlate blocks of spectra from the bottom port (in parallel) with all spectra from the top, reporting in order
+    	OrderedTaskExecutor<SpectraCorrelationEngine.Block> ote = null;
+    	try {
+    		ote = new OrderedTaskExecutor<SpectraCorrelationEngine.Block>(n_threads, 2 * n_threads, 
+    				new OrderedTaskExecutor.ResultHandler<SpectraCorrelationEngine.Block>() {
+
+						@Override
+						public void process(SpectraCorrelationEngine.Block b) throws Exception {
+							for (int i=0; i<b.size(); i++) {
+								out.addRow(new DataCell[] {
+										new StringCell(queries[b.query[i]].getID()),
+										new StringCell(targets[b.target[i]].getID()),
+										new DoubleCell(b.score[i])
+								});
+							}
+							if (b.n_failed > 0) {
+								sm.failed(b.first_failure, b.n_failed);
+							}
+							sm.update(((long) b.n_queries) * targets.length);
+						}
+    			
+    		});
+    		for (int i=0; i<queries.length; i += QUERIES_PER_TASK) {
+    			final int from = i;
+    			final int to   = Math.min(queries.length, i + QUERIES_PER_TASK);
+    			ote.submit(new Callable<SpectraCorrelationEngine.Block>() {
+
+					@Override
+					public SpectraCorrelationEngine.Block call() throws Exception {
+						return engine.correlate(queries, from, to);
+					}
+    				
+    			});
     		}
+    		ote.finish();
+    	} finally {
+    		if (ote != null)
+    			ote.shutdown();
     	}
     	
     	if (sm.getFailed() > 0) {
@@ -142,53 +205,63 @@ public class SpectraCorrelationNodeModel extends NodeModel {
     	return new BufferedDataTable[] {out.close()};
     }
 
-    private void report_batch_correlations(BufferedDataTable table,
-			List<SpectraValue> batch, MyDataContainer out, int col_idx, ExecutionContext exec, StatusMonitor sm) throws Exception {
-    	assert(col_idx >= 0 && batch != null && table != null && exec != null && sm != null);
-    	
-    	// 1. create the matcher (ensure that one of m_pl_versus_pl or m_bpl_versus_bpl is set)
-    	PeakListMatcher matcher = PeakListMatcherImpl.newInstance();
-    	matcher.setAlgoModel(make_algorithm(m_algorithm.getStringValue()));
-    	matcher.setScorer(make_score_func(m_score_func.getStringValue()));
+    /**
+     * Converts each spectrum in the specified column, missing cells are ignored
+     */
+    private CachedSpectrum[] load_spectra(final BufferedDataTable table, int col_idx, boolean want_peaklist, 
+    		boolean want_binned, final ExecutionContext exec) throws Exception {
+    	assert(col_idx >= 0 && table != null && exec != null);
+    	List<CachedSpectrum> ret = new ArrayList<CachedSpectrum>(table.getRowCount());
+    	RowIterator it = table.iterator();
+    	while (it.hasNext()) {
+    		DataRow r = it.next();
+    		DataCell c= r.getCell(col_idx);
+    		if (c == null || c.isMissing() || !(c instanceof SpectraValue))
+    			continue;
+    		ret.add(new CachedSpectrum((SpectraValue) c, want_peaklist, want_binned));
+    		if (ret.size() % 1000 == 0) {
+    			exec.checkCanceled();
+    		}
+    	}
+    	return ret.toArray(new CachedSpectrum[0]);
+    }
+
+    /**
+     * Returns true if the javaprotlib algorithm or scoring function must compare binned peak lists
+     */
+    private static boolean is_binned(String algorithm, String sfunc) {
+    	return algorithm.startsWith("Binned peak-list") || sfunc.startsWith("Correlation of spectral bins") || 
+    			sfunc.startsWith("Normalised correlation of spectral bins");
+    }
+
+    /**
+     * Returns the score computed without javaprotlib which is equivalent to the specified scoring function
+     * @param sfunc
+     * @return never null
+     */
+    private static SpectraCorrelationEngine.BinnedScore make_binned_score(String sfunc) {
+    	assert(sfunc != null);
     	
-    	// 2. run batch rows from the second port against the top input port
-		for (SpectraValue sv: batch) {
-			int done = 0;
-			for (DataRow r: table) {
-				DataCell c= r.getCell(col_idx);
-				if (c == null || c.isMissing() || !(c instanceof SpectraValue)) {
-					continue;
-				}
-				SpectraValue s2 = (SpectraValue) c;
-				try {
-					compare_spectra(matcher, sv, s2, out);
-				} catch (InvalidSettingsException ise) {
-					throw ise;
-				} catch (Exception e) {
-					sm.failed(e);
-					// continue without further user warning/errors
-				}
-				done++;
-			}
-			sm.update(done);
-		}
-	}
+    	if (sfunc.startsWith("Correlation of peaks") || sfunc.startsWith("Correlation of spectral bins")) {
+    		return SpectraCorrelationEngine.BinnedScore.CORRELATION;
+    	} else if (sfunc.startsWith("Normalised correlation")) {
+    		return SpectraCorrelationEngine.BinnedScore.NORMALISED_CORRELATION;
+    	} else { // assume shared peak count
+    		return SpectraCorrelationEngine.BinnedScore.SHARED_PEAK_COUNT;
+    	}
+    }
 
     /**
      * 
      * @param sfunc 	
      * @return never null
      */
-	private PeakListMatchScorer make_score_func(String sfunc) {
+	private static PeakListMatchScorer make_score_func(String sfunc) {
 		assert(sfunc != null);
 		
 		if (sfunc.startsWith("Correlation of spectral bins")) {
-			m_pl_versus_pl = false;
-			m_bpl_versus_bpl = true;
 			return BinCorrScorer.getInstance();
 		} else if (sfunc.startsWith("Normalised correlation of spectral bins")) {
-			m_pl_versus_pl = false;
-			m_bpl_versus_bpl = true;
 			return BinNCorrScorer.getInstance();
 		} else if (sfunc.startsWith("Correlation of peaks")) {
 			return CorrScorer.getInstance();
@@ -206,61 +279,18 @@ public class SpectraCorrelationNodeModel extends NodeModel {
 	 * @param algorithm
 	 * @return never null
 	 */
-	private AlgoModel make_algorithm(String algorithm) {
+	private static AlgoModel make_algorithm(String algorithm) {
 		assert(algorithm != null);
 		
-		m_pl_versus_pl = true;
-		m_bpl_versus_bpl = false;
 		if (algorithm.startsWith("Bipartite")) {
 			return PeakListBiGraphAlgoModel.newInstance(PeakListBiGraphAlgoModel.RELATIVE_INTENSITY_DIFF);
 		} else if (algorithm.startsWith("M/Z")) {
 			return PeakListDiffMatrixAlgoModel.newInstance(PeakListBiGraphAlgoModel.RELATIVE_INTENSITY_DIFF);
 		} else {
-			m_pl_versus_pl = false;
-			m_bpl_versus_bpl = true;
 			return BinnedPeakListAlgoModel.getInstance();
 		}
 	}
 
-
-
-
-	private void compare_spectra(PeakListMatcher matcher, SpectraValue sv, SpectraValue s2, MyDataContainer out) throws Exception {
-		assert(matcher != null && sv != null && s2 != null && out != null);
-		
-		// dont correlate spectra against themselves...
-		if (sv.getID().equals(s2.getID()))
-			return;
-		
-		// 1. convert to PeakList form as required by javaprotlib
-		// NB: this is a bit dumb since we will repeatedly do this for one of the spectra...
-		SortedPeakList sv1 = new SortedPeakList(sv);
-		SortedPeakList sv2 = new SortedPeakList(s2);
-		PeakListImpl pl1, pl2;
-		pl1 = new PeakListImpl.Builder(sv1.getMZ()).intensities(sv1.getIntensities()).build();
-		pl2 = new PeakListImpl.Builder(sv2.getMZ()).intensities(sv2.getIntensities()).build();
-		
-		// 2. score using javaprotlib
-		if (m_bpl_versus_bpl) {
-			matcher.computeMatch(new BinnedPeakListImpl.Builder(pl1).build(), 
-					new BinnedPeakListImpl.Builder(pl2).build());
-		} else if (m_pl_versus_pl) {
-			matcher.computeMatch(pl1, pl2);
-		} else {
-			throw new InvalidSettingsException("Match type: is not currently supported!");
-		}
-		
-		// 3. report if comparison threshold is met
-		double score = matcher.getScore();
-		if (score >= m_threshold.getDoubleValue()) {
-			out.addRow(new DataCell[] {
-					new StringCell(sv.getID()),
-					new StringCell(s2.getID()),
-					new DoubleCell(score)
-			});
-		}
-	}
-
 	/**
      * {@inheritDoc}
      */
@@ -299,6 +329,8 @@ public class SpectraCorrelationNodeModel extends NodeModel {
         m_algorithm.saveSettingsTo(settings);
         m_score_func.saveSettingsTo(settings);
         m_threshold.saveSettingsTo(settings);
+        m_precursor_tol.saveSettingsTo(settings);
+        m_threads.saveSettingsTo(settings);
     }
 
     /**
@@ -312,6 +344,16 @@ public class SpectraCorrelationNodeModel extends NodeModel {
         m_algorithm.loadSettingsFrom(settings);
         m_score_func.loadSettingsFrom(settings);
         m_threshold.loadSettingsFrom(settings);
+        if (settings.containsKey(CFGKEY_PRECURSOR_TOLERANCE)) {
+        	m_precursor_tol.loadSettingsFrom(settings);
+        } else {
+        	m_precursor_tol.setDoubleValue(0.0);
+        }
+        if (settings.containsKey(CFGKEY_THREADS)) {
+        	m_threads.loadSettingsFrom(settings);
+        } else {
+        	m_threads.setIntValue(getDefaultThreadCount());
+        }
     }
 
     /**
@@ -325,6 +367,12 @@ public class SpectraCorrelationNodeModel extends NodeModel {
         m_algorithm.validateSettings(settings);
         m_score_func.validateSettings(settings);
         m_threshold.validateSettings(settings);
+        if (settings.containsKey(CFGKEY_PRECURSOR_TOLERANCE)) {
+        	m_precursor_tol.validateSettings(settings);
+        }
+        if (settings.containsKey(CFGKEY_THREADS)) {
+        	m_threads.validateSettings(settings);
+        }
     }
     
     /**
@@ -358,22 +406,26 @@ public class SpectraCorrelationNodeModel extends NodeModel {
     		m_done = 0;
     	}
     	
-    	public void update(int done) throws Exception {
-    		if (done > 0) {
-    			logger.info("Correlated "+done+" input spectra in current batch.");
-    		}
+    	public void update(long done) throws Exception {
     		m_exec.checkCanceled();
     		m_done += done;
     		m_exec.setProgress(((double)m_done)/m_n);
     	}
     	
     	public void failed(Exception e) {
+    		failed(e, 1);
+    	}
+    	
+    	/**
+    	 * Records <code>n</code> failed comparisons, the first of which failed with the specified exception
+    	 */
+    	public void failed(Exception e, long n) {
     		if (!m_shown_first_fail && e != null) {
     			m_shown_first_fail = true;
     			logger.warn(e);
     			e.printStackTrace();
     		}
-    		m_failed++;
+    		m_failed += n;
     	}
     	
     	public long getFailed() {
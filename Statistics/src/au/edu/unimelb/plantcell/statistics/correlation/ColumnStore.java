@@ -0,0 +1,163 @@
+package au.edu.unimelb.plantcell.statistics.correlation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fixed size table of doubles, stored column by column. Small tables are kept on the heap, larger ones in a
+ * memory-mapped temporary file (deleted by {@link #close()}) so that the JVM heap does not limit the size of the data.
+ * Once populated, any number of threads may read the store concurrently.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+class ColumnStore implements Closeable {
+	private static final long MAX_SEGMENT = 1L << 30;		// largest single mapping of the temporary file
+
+	private final int m_cols, m_rows;
+	private final double[][]     m_heap;		// null if the data is in a file
+	private final DoubleBuffer[] m_mapped;		// one view per column, null if the data is on the heap
+	private final File             m_file;
+	private final RandomAccessFile m_raf;
+
+	/**
+	 * @param n_cols number of columns
+	 * @param n_rows number of values in each column
+	 * @param on_heap if false, the values are kept in a temporary file
+	 * @throws IOException if the temporary file cannot be created
+	 */
+	public ColumnStore(int n_cols, int n_rows, boolean on_heap) throws IOException {
+		m_cols = n_cols;
+		m_rows = n_rows;
+		if (on_heap) {
+			m_heap   = new double[n_cols][n_rows];
+			m_mapped = null;
+			m_file   = null;
+			m_raf    = null;
+			return;
+		}
+		m_heap   = null;
+		m_mapped = new DoubleBuffer[n_cols];
+		m_file   = File.createTempFile("correlation", ".columns");
+		m_file.deleteOnExit();
+		m_raf    = new RandomAccessFile(m_file, "rw");
+		try {
+			long col_bytes = ((long) n_rows) * 8L;
+			m_raf.setLength(col_bytes * n_cols);
+			// map whole columns at a time, so that no column spans two mappings
+			int cols_per_segment = (int) Math.max(1L, Math.min(n_cols, MAX_SEGMENT / Math.max(col_bytes, 1L)));
+			FileChannel fc = m_raf.getChannel();
+			for (int c=0; c<n_cols; c += cols_per_segment) {
+				int n = Math.min(cols_per_segment, n_cols - c);
+				MappedByteBuffer mb = fc.map(FileChannel.MapMode.READ_WRITE, c * col_bytes, n * col_bytes);
+				for (int i=0; i<n; i++) {
+					mb.limit((int) ((i+1) * col_bytes));
+					mb.position((int) (i * col_bytes));
+					m_mapped[c+i] = mb.slice().order(ByteOrder.nativeOrder()).asDoubleBuffer();
+				}
+			}
+		} catch (IOException ioe) {
+			close();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Returns true if <code>n_stores</code> stores of the specified size can comfortably be held on the heap
+	 */
+	public static boolean fitsInHeap(int n_cols, int n_rows, int n_stores) {
+		Runtime rt = Runtime.getRuntime();
+		long available = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+		long needed    = ((long) n_cols) * n_rows * 8L * n_stores;
+		return needed < available / 2;
+	}
+
+	public int getColumnCount() {
+		return m_cols;
+	}
+
+	public int getRowCount() {
+		return m_rows;
+	}
+
+	public boolean isOnHeap() {
+		return (m_heap != null);
+	}
+
+	public void set(int col, int row, double val) {
+		if (m_heap != null) {
+			m_heap[col][row] = val;
+		} else {
+			m_mapped[col].put(row, val);
+		}
+	}
+
+	public double get(int col, int row) {
+		return (m_heap != null) ? m_heap[col][row] : m_mapped[col].get(row);
+	}
+
+	/**
+	 * Copies the specified column into <code>into</code> (which must have room for {@link #getRowCount()} values)
+	 */
+	public double[] getColumn(int col, double[] into) {
+		if (m_heap != null) {
+			System.arraycopy(m_heap[col], 0, into, 0, m_rows);
+		} else {
+			m_mapped[col].duplicate().get(into, 0, m_rows);
+		}
+		return into;
+	}
+
+	public double[] getColumn(int col) {
+		return getColumn(col, new double[m_rows]);
+	}
+
+	public void setColumn(int col, double[] vals) {
+		if (m_heap != null) {
+			System.arraycopy(vals, 0, m_heap[col], 0, m_rows);
+		} else {
+			DoubleBuffer db = m_mapped[col].duplicate();
+			db.put(vals, 0, m_rows);
+		}
+	}
+
+	/**
+	 * Returns the dot product of <code>x</code> with the specified column
+	 */
+	public double dot(final double[] x, int col) {
+		double sum = 0.0;
+		if (m_heap != null) {
+			double[] y = m_heap[col];
+			for (int i=0; i<m_rows; i++) {
+				sum += x[i] * y[i];
+			}
+		} else {
+			DoubleBuffer y = m_mapped[col];
+			for (int i=0; i<m_rows; i++) {
+				sum += x[i] * y.get(i);
+			}
+		}
+		return sum;
+	}
+
+	@Override
+	public void close() {
+		if (m_raf == null)
+			return;
+		for (int i=0; i<m_mapped.length; i++) {
+			m_mapped[i] = null;
+		}
+		try {
+			m_raf.close();
+		} catch (IOException ioe) {
+			// ignore: file is only temporary
+		}
+		m_file.delete();
+	}
+}
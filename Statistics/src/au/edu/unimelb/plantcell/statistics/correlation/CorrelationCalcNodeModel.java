@@ -6,10 +6,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Properties;
+import java.util.concurrent.Callable;
 
-import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
-import org.apache.commons.math3.stat.correlation.SpearmansCorrelation;
 import org.knime.core.data.DataCell;
 import org.knime.core.data.DataColumnSpec;
 import org.knime.core.data.DataColumnSpecCreator;
@@ -36,8 +34,8 @@ import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
 import org.knime.core.node.defaultnodesettings.SettingsModelDoubleBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelStringArray;
 
-import au.edu.unimelb.plantcell.core.Cache;
 import au.edu.unimelb.plantcell.core.MyDataContainer;
+import au.edu.unimelb.plantcell.core.OrderedTaskExecutor;
 
 
 /**
@@ -64,6 +62,9 @@ public class CorrelationCalcNodeModel extends NodeModel {
     public final static String[] METHODS = new String[] { "Pearson (linear) correlation", "Spearman rank" /*, "Kendall rank" */ };
     public final static String[] CORRECTION_METHODS = new String[] { "None", "Bonferroni correction" };
     
+    // number of target variables correlated by each parallel task
+    private final static int TARGETS_PER_TASK = 8;
+    
     private final SettingsModelStringArray        m_method = new SettingsModelStringArray(CFGKEY_METHODS, METHODS);
     private final SettingsModelDoubleBounded   m_magnitude = new SettingsModelDoubleBounded(CFGKEY_MAGNITUDE, 0.0, 0.0, 1.0);
     private final SettingsModelBoolean      m_report_values= new SettingsModelBoolean(CFGKEY_REPORT_VALUES, false);
@@ -96,8 +97,8 @@ public class CorrelationCalcNodeModel extends NodeModel {
         // the data table spec of the single output table, 
         // the table will have three columns:
         DataTableSpec[] outspecs = make_output_spec();
-        MyDataContainer c1 = new MyDataContainer(exec.createDataContainer(outspecs[0]), "Corr");
-        MyDataContainer c2 = new MyDataContainer(exec.createDataContainer(outspecs[1]), "Outlier");
+        final MyDataContainer c1 = new MyDataContainer(exec.createDataContainer(outspecs[0]), "Corr");
+        final MyDataContainer c2 = new MyDataContainer(exec.createDataContainer(outspecs[1]), "Outlier");
         
         HashSet<String> methods_to_use = new HashSet<String>();
         for (String s : m_method.getStringArrayValue()) {
@@ -135,119 +136,71 @@ public class CorrelationCalcNodeModel extends NodeModel {
         }
         logger.info("Found "+ok_columns.size()+" variables to perform correlation against selected target variables.");
         
-        double minimum_magnitude = m_magnitude.getDoubleValue();
         boolean do_pearson = methods_to_use.contains(METHODS[0]);
         boolean do_spearman= methods_to_use.contains(METHODS[1]);
         	
-        // 1. read table data into internal data structures
-        RowIterator it = inData[0].iterator();
-        Cache cache = new Cache("CorrelationCalc", new Properties());
-        cache.init();
-        if (!cache.isEnabled()) {
-        	throw new InvalidSettingsException("You must specify a folder to cache data: check the PlantCell preferences (File -> Preferences)");
+        // 1. read each column of interest once, into primitive storage
+        final String[] names = ok_columns.keySet().toArray(new String[0]);
+        int[]  col_idx = new int[names.length];
+        HashMap<String,Integer> engine_idx = new HashMap<String,Integer>();
+        for (int k=0; k<names.length; k++) {
+        	col_idx[k] = ok_columns.get(names[k]).intValue();
+        	engine_idx.put(names[k], new Integer(k));
         }
-        
-        logger.info("Caching data... please be patient!");
-        while (it.hasNext()) {
-        	DataRow r = it.next();
-        	for (String name : ok_columns.keySet()) {
-        		DataCell c = r.getCell(ok_columns.get(name));
-        		if (c == null || c.isMissing()) {
-        			throw new Exception("Missing values are not currently supported.");
-        		}
-        		String vals = cache.get(name);
-        		if (vals == null)
-        			vals = "";
-        		vals += " " + (DoubleValue) c;
-        		cache.put(name, vals);
+        // variables of interest not in the input have no data, so are not reported
+        final List<String> targets = new ArrayList<String>();
+        for (String name : vars_of_interest) {
+        	if (engine_idx.containsKey(name)) {
+        		targets.add(name);
         	}
-        	exec.checkCanceled();
         }
         
-        // 2. construct data pairwise (ie. columnwise) and then correlate and output if not already done
-        long n = ok_columns.size();        
-        DenseBitVector reported_outliers = new DenseBitVector(n + 1);
-               
+        logger.info("Loading data... please be patient!");
+        final CorrelationEngine engine = new CorrelationEngine(inData[0], col_idx, do_pearson, do_spearman, exec);
+        
+        // 2. correlate blocks of target variables (in parallel) against all variables, reporting in order
+        final DenseBitVector reported_outliers = new DenseBitVector(names.length + 1);
+        final int n_targets = vars_of_interest.size();
+        OrderedTaskExecutor<CorrelationEngine.Block> ote = null;
         logger.info("Performing correlations... ");
-        long i = 0;
-        for (String iname : vars_of_interest) {
-			double[] x = get_data(cache, iname);
-			if (x != null) {
-	        	long j=0;
-	        	for (String jname : ok_columns.keySet()) {
-	        		if (!iname.equals(jname)) {
-	        			// do a correlation
-	        			double[] y = get_data(cache, jname);
-	        			if (x.length != y.length) {
-	        				throw new Exception("Different number of values being compared");
-	        			}
-	        			if (y != null) {
-		        			DataCell[] cells = new DataCell[c1.getTableSpec().getNumColumns()];
-		        			cells[0] = new StringCell(iname);
-		        			cells[1] = new StringCell(jname);
-		        			for (int m=2; m<cells.length; m++) {
-		        				cells[m] = DataType.getMissingCell();
-		        			}
-		        			cells[7] = createListCell(x);
-		        			cells[8] = createListCell(y);
-		        			
-		        			boolean reported = false;
-		        			//logger.info("Correlating "+iname+" with "+jname);
-		        			//logger.info(iname+": "+x[0]+" "+x[1]+" "+x[2]+" "+x[3]);
-		        			//logger.info(jname+": "+y[0]+" "+y[1]+" "+y[2]+" "+y[3]);
-		        			if (do_pearson) {
-		        				PearsonsCorrelation pc = new PearsonsCorrelation();
-		        				double r = pc.correlation(x, y);
-		        				if (Math.abs(r) >= minimum_magnitude) {
-		        					cells[2] = new DoubleCell(r);
-		        					cells[6] = new StringCell(METHODS[0]);
-			        				c1.addRow(cells);
-			        				reported = true;
-		        				}
-			        			pc = null;
-		        			} 
-		        			if (do_spearman) {
-		        				SpearmansCorrelation sc = new SpearmansCorrelation();
-		        				double r = sc.correlation(x, y);
-		        				if (Math.abs(r) >= minimum_magnitude) {
-		        					cells[2] = new DoubleCell(r);
-		        					cells[6] = new StringCell(METHODS[1]);
-		        					c1.addRow(cells);
-		        					reported = true;
-		        				}
-			        			sc = null;
-		        			} 
-		        			
-		        			if (reported && !reported_outliers.get(j)) {
-		        				reported_outliers.set(j);
-		        				// grubb test is not suitable for really small datasets
-		        				if (y.length >= 6) {
-		        					int outlier_idx = GrubbOutlierTest.findOutlier(y, GrubbOutlierTest.T_990);
-			        				if (outlier_idx >= 0) {
-			        					DataCell[] c2_cells = new DataCell[3];
-			        					c2_cells[0] = new StringCell(jname);
-			        					List<DoubleCell> value_cells = new ArrayList<DoubleCell>();
-			        					for (int m=0; m<y.length; m++) {
-			        						value_cells.add(new DoubleCell(y[m]));
-			        					}
-			        					c2_cells[1] = CollectionCellFactory.createListCell(value_cells);
-			        					c2_cells[2] = new DoubleCell(y[outlier_idx]);
-			        					c2.addRow(c2_cells);
-			        				}
-		        				}
-		        			}
-		        			
-		        			//logger.info("correlated "+cells[0].toString()+ " - " + cells[1].toString());
-		        			cells = null;
-	        			}
-	        		}
-	        		j++;
-	        		
-					exec.checkCanceled();
-					exec.setProgress(((double)i) / vars_of_interest.size());
-	        	}
-			}
-        	i++;
+        try {
+        	int n_threads = OrderedTaskExecutor.getDefaultThreadCount();
+        	ote = new OrderedTaskExecutor<CorrelationEngine.Block>(n_threads, 2 * n_threads, 
+        			new OrderedTaskExecutor.ResultHandler<CorrelationEngine.Block>() {
+        		private int m_done = 0;
+        		
+				@Override
+				public void process(CorrelationEngine.Block b) throws Exception {
+					for (int t=0; t<b.targets.length; t++) {
+						int xi = b.targets[t];
+						report(c1, c2, engine, names, xi, (b.pearson != null) ? b.pearson[t] : null, 
+								(b.spearman != null) ? b.spearman[t] : null, reported_outliers);
+						m_done++;
+						exec.checkCanceled();
+						exec.setProgress(((double)m_done) / n_targets);
+					}
+				}
+        		
+        	});
+        	for (int i=0; i<targets.size(); i += TARGETS_PER_TASK) {
+        		final int[] block = new int[Math.min(TARGETS_PER_TASK, targets.size() - i)];
+        		for (int k=0; k<block.length; k++) {
+        			block[k] = engine_idx.get(targets.get(i+k)).intValue();
+        		}
+        		ote.submit(new Callable<CorrelationEngine.Block>() {
+
+					@Override
+					public CorrelationEngine.Block call() throws Exception {
+						return engine.correlate(block);
+					}
+        			
+        		});
+        	}
+        	ote.finish();
+        } finally {
+        	if (ote != null)
+        		ote.shutdown();
+        	engine.close();
         }
         
         // once we are done, we close the container and return its table
@@ -257,6 +210,73 @@ public class CorrelationCalcNodeModel extends NodeModel {
         return new BufferedDataTable[]{out, out2};
     }
 
+    /**
+     * Adds the correlations of the specified variable with every other variable to <code>c1</code> (if the correlation is of
+     * sufficient magnitude) and any outliers amongst the correlated variables to <code>c2</code>
+     * 
+     * @param xi index of the variable in <code>engine</code>
+     * @param pearson correlation of <code>xi</code> with each variable (or null if not computed)
+     * @param spearman ditto
+     * @param reported_outliers variables already tested for outliers
+     */
+    private void report(MyDataContainer c1, MyDataContainer c2, CorrelationEngine engine, String[] names, int xi,
+    		double[] pearson, double[] spearman, DenseBitVector reported_outliers) throws Exception {
+    	double minimum_magnitude = m_magnitude.getDoubleValue();
+    	boolean report_values    = m_report_values.getBooleanValue();
+    	String iname = names[xi];
+    	double[] x = engine.getValues(xi);
+    	DataCell x_cell = createListCell(x);
+    	for (int j=0; j<names.length; j++) {
+    		String jname = names[j];
+    		if (iname.equals(jname))
+    			continue;
+    		boolean want_pearson  = (pearson  != null && Math.abs(pearson[j])  >= minimum_magnitude);
+    		boolean want_spearman = (spearman != null && Math.abs(spearman[j]) >= minimum_magnitude);
+    		if (!want_pearson && !want_spearman)
+    			continue;
+    		
+    		double[] y = (report_values || !reported_outliers.get(j)) ? engine.getValues(j) : null;
+			DataCell[] cells = new DataCell[c1.getTableSpec().getNumColumns()];
+			cells[0] = new StringCell(iname);
+			cells[1] = new StringCell(jname);
+			for (int m=2; m<cells.length; m++) {
+				cells[m] = DataType.getMissingCell();
+			}
+			cells[7] = x_cell;
+			cells[8] = createListCell(y);
+			
+			if (want_pearson) {
+				cells[2] = new DoubleCell(pearson[j]);
+				cells[6] = new StringCell(METHODS[0]);
+				c1.addRow(cells);
+			}
+			if (want_spearman) {
+				cells[2] = new DoubleCell(spearman[j]);
+				cells[6] = new StringCell(METHODS[1]);
+				c1.addRow(cells);
+			}
+			
+			if (!reported_outliers.get(j)) {
+				reported_outliers.set(j);
+				// grubb test is not suitable for really small datasets
+				if (y.length >= 6) {
+					int outlier_idx = GrubbOutlierTest.findOutlier(y, GrubbOutlierTest.T_990);
+    				if (outlier_idx >= 0) {
+    					DataCell[] c2_cells = new DataCell[3];
+    					c2_cells[0] = new StringCell(jname);
+    					List<DoubleCell> value_cells = new ArrayList<DoubleCell>();
+    					for (int m=0; m<y.length; m++) {
+    						value_cells.add(new DoubleCell(y[m]));
+    					}
+    					c2_cells[1] = CollectionCellFactory.createListCell(value_cells);
+    					c2_cells[2] = new DoubleCell(y[outlier_idx]);
+    					c2.addRow(c2_cells);
+    				}
+				}
+			}
+    	}
+    }
+    
     private DataCell createListCell(double[] x) {
 		if (x == null || x.length < 1 || !m_report_values.getBooleanValue())
 			return DataType.getMissingCell();
@@ -268,26 +288,6 @@ public class CorrelationCalcNodeModel extends NodeModel {
 		return CollectionCellFactory.createListCell(cells);
 	}
 
-	/** 
-     * Retrieves the datapoints (as a double array) associated with the specified variable.
-     * Returns <code>null</code> if the specified variable has no data (eg. not present in input)
-     * @param cache
-     * @param var_of_interest
-     * @return
-     * @throws Exception
-     */
-	private double[] get_data(Cache cache, String var_of_interest) throws Exception {
-		String vals = cache.get(var_of_interest);
-		if (vals == null)
-			return null;
-		String[] val= vals.trim().split("\\s+");
-		double[] ret = new double[val.length];
-		for (int i=0; i<val.length; i++) {
-			ret[i] = Double.valueOf(val[i]);
-		}
-		return ret;
-	}
-
 	private DataTableSpec[] make_output_spec() {
 		   DataColumnSpec[] allColSpecs = new DataColumnSpec[9];
 	        allColSpecs[0] = 
@@ -0,0 +1,210 @@
+package au.edu.unimelb.plantcell.statistics.correlation;
+
+import java.io.Closeable;
+import java.util.Arrays;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataRow;
+import org.knime.core.data.DoubleValue;
+import org.knime.core.data.RowIterator;
+import org.knime.core.node.BufferedDataTable;
+import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.NodeLogger;
+
+/**
+ * Computes Pearson and Spearman correlations between numeric columns of a table. Each column is read once into a
+ * {@link ColumnStore} and then, for each method requested, centred and scaled to unit length (Spearman uses the ranks
+ * of the values, ties receiving their average rank). A correlation is then just the dot product of two such columns, so
+ * a block of target columns can be correlated against every column with a single pass over the data. Blocks may be
+ * computed concurrently.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+class CorrelationEngine implements Closeable {
+	private static final NodeLogger logger = NodeLogger.getLogger("Correlation calculator");
+
+	private final ColumnStore m_values;		// as read from the table
+	private final ColumnStore m_pearson;	// null if not wanted
+	private final ColumnStore m_spearman;	// ditto
+
+	/**
+	 * A block of target columns and their correlation (by each method) with every column
+	 */
+	public static class Block {
+		public final int[]      targets;
+		public final double[][] pearson;		// [target][column], null if not computed
+		public final double[][] spearman;		// ditto
+
+		public Block(int[] targets, double[][] pearson, double[][] spearman) {
+			this.targets  = targets;
+			this.pearson  = pearson;
+			this.spearman = spearman;
+		}
+	}
+
+	/**
+	 * Reads the specified numeric columns from the table and prepares them for correlation. Missing values are not permitted.
+	 *
+	 * @param in table to read
+	 * @param col_idx columns to read, in the order they are to be identified in the engine
+	 * @throws Exception if a value is missing or the execution was cancelled
+	 */
+	public CorrelationEngine(final BufferedDataTable in, final int[] col_idx, boolean do_pearson, boolean do_spearman,
+			final ExecutionContext exec) throws Exception {
+		int n_cols   = col_idx.length;
+		int n_rows   = in.getRowCount();
+		int n_stores = 1 + (do_pearson ? 1 : 0) + (do_spearman ? 1 : 0);
+		boolean on_heap = ColumnStore.fitsInHeap(n_cols, n_rows, n_stores);
+		if (!on_heap) {
+			logger.info("Data too large for available memory: using temporary files.");
+		}
+		ColumnStore values = null, pearson = null, spearman = null;
+		try {
+			values   = new ColumnStore(n_cols, n_rows, on_heap);
+			pearson  = do_pearson  ? new ColumnStore(n_cols, n_rows, on_heap) : null;
+			spearman = do_spearman ? new ColumnStore(n_cols, n_rows, on_heap) : null;
+
+			RowIterator it = in.iterator();
+			int row = 0;
+			while (it.hasNext()) {
+				DataRow r = it.next();
+				for (int c=0; c<n_cols; c++) {
+					DataCell cell = r.getCell(col_idx[c]);
+					if (cell == null || cell.isMissing()) {
+						throw new Exception("Missing values are not currently supported.");
+					}
+					values.set(c, row, ((DoubleValue) cell).getDoubleValue());
+				}
+				row++;
+				if (row % 100 == 0) {
+					exec.checkCanceled();
+				}
+			}
+
+			double[] x = new double[n_rows];
+			for (int c=0; c<n_cols; c++) {
+				if (pearson != null) {
+					pearson.setColumn(c, normalise(values.getColumn(c, x)));
+				}
+				if (spearman != null) {
+					spearman.setColumn(c, normalise(rank(values.getColumn(c, x))));
+				}
+				exec.checkCanceled();
+			}
+		} catch (Exception e) {
+			close(values, pearson, spearman);
+			throw e;
+		}
+		m_values   = values;
+		m_pearson  = pearson;
+		m_spearman = spearman;
+	}
+
+	public int getColumnCount() {
+		return m_values.getColumnCount();
+	}
+
+	/**
+	 * Returns a copy of the values in the specified column
+	 */
+	public double[] getValues(int col) {
+		return m_values.getColumn(col);
+	}
+
+	/**
+	 * Correlates each of the specified columns with every column. Safe to call from several threads at once.
+	 */
+	public Block correlate(final int[] targets) {
+		return new Block(targets, correlate(m_pearson, targets), correlate(m_spearman, targets));
+	}
+
+	private static double[][] correlate(final ColumnStore store, final int[] targets) {
+		if (store == null)
+			return null;
+		int n_cols = store.getColumnCount();
+		double[][] x   = new double[targets.length][];
+		double[][] ret = new double[targets.length][n_cols];
+		for (int t=0; t<targets.length; t++) {
+			x[t] = store.getColumn(targets[t]);
+		}
+		// visit each column once for the whole block of targets
+		for (int c=0; c<n_cols; c++) {
+			for (int t=0; t<targets.length; t++) {
+				double r = store.dot(x[t], c);
+				// guard against rounding taking r just outside [-1, 1]
+				ret[t][c] = (r > 1.0) ? 1.0 : ((r < -1.0) ? -1.0 : r);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Centres the values on their mean and scales them to unit length (in place). If the values are constant
+	 * the correlation is undefined, so they are all set to NaN.
+	 */
+	static double[] normalise(final double[] x) {
+		double mean = 0.0;
+		for (double v : x) {
+			mean += v;
+		}
+		mean /= x.length;
+		double ss = 0.0;
+		for (int i=0; i<x.length; i++) {
+			x[i] -= mean;
+			ss   += x[i] * x[i];
+		}
+		if (ss <= 0.0 || Double.isNaN(ss)) {
+			Arrays.fill(x, Double.NaN);
+			return x;
+		}
+		double norm = Math.sqrt(ss);
+		for (int i=0; i<x.length; i++) {
+			x[i] /= norm;
+		}
+		return x;
+	}
+
+	/**
+	 * Replaces each value by its (one-relative) rank, tied values receiving the average of their ranks (in place)
+	 */
+	static double[] rank(final double[] x) {
+		double[] sorted = x.clone();
+		Arrays.sort(sorted);
+		for (int i=0; i<x.length; i++) {
+			int first = bound(sorted, x[i], false);
+			int last  = bound(sorted, x[i], true) - 1;
+			x[i] = (first + last) / 2.0 + 1.0;
+		}
+		return x;
+	}
+
+	/**
+	 * Returns the index of the first value in <code>sorted</code> which is greater than (or, if <code>upper</code> is false,
+	 * not less than) <code>v</code>
+	 */
+	private static int bound(final double[] sorted, double v, boolean upper) {
+		int lo = 0, hi = sorted.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid] < v || (upper && sorted[mid] == v)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private static void close(ColumnStore... stores) {
+		for (ColumnStore s : stores) {
+			if (s != null)
+				s.close();
+		}
+	}
+
+	@Override
+	public void close() {
+		close(m_values, m_pearson, m_spearman);
+	}
+}
@@ -0,0 +1,123 @@
+package au.edu.unimelb.plantcell.algorithms.StringFinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the per-pattern regular expression loop used by Find (global) with the {@link AhoCorasick} automaton
+ * when searching a synthetic proteome for 10, 1000 and 100,000 peptides (half of which occur in the proteome).
+ * Both must report the same hits, in the same order.
+ *
+ * The regular expression loop is only timed over as many proteins as fit in a few seconds, and its time for the whole
+ * proteome is extrapolated from that.
+ *
+ * Not part of the plugin build. Compile against the plugin classes and run with eg.
+ * <pre>java -cp bin:bench-bin au.edu.unimelb.plantcell.algorithms.StringFinder.AhoCorasickBenchmark [proteins]</pre>
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class AhoCorasickBenchmark {
+	private static final String AA = "ACDEFGHIKLMNPQRSTVWY";
+	private static final int[]  PATTERN_COUNTS = new int[] { 10, 1000, 100 * 1000 };
+	private static final long   REGEX_BUDGET_NANOS = 5L * 1000L * 1000L * 1000L;
+
+	public static void main(String[] args) throws Exception {
+		int n_proteins = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		Random r = new Random(42);
+		List<String> proteome = new ArrayList<String>(n_proteins);
+		long residues = 0;
+		for (int i=0; i<n_proteins; i++) {
+			String p = random(r, 100 + r.nextInt(700));
+			proteome.add(p);
+			residues += p.length();
+		}
+		System.out.printf("%,d proteins, %,d residues%n", n_proteins, residues);
+
+		for (int n_patterns : PATTERN_COUNTS) {
+			List<String> patterns = new ArrayList<String>(n_patterns);
+			for (int i=0; i<n_patterns; i++) {
+				int len = 7 + r.nextInt(19);
+				if (i % 2 == 0) {
+					String p = proteome.get(r.nextInt(n_proteins));
+					int start = r.nextInt(p.length() - len);
+					patterns.add(p.substring(start, start + len));
+				} else {
+					patterns.add(random(r, len));
+				}
+			}
+
+			long start = System.nanoTime();
+			AhoCorasick ac = new AhoCorasick(patterns);
+			double build_ms = (System.nanoTime() - start) / 1e6;
+
+			// warm up, then time the automaton over the whole proteome
+			long hits = 0;
+			for (int i=0; i<Math.min(n_proteins, 2000); i++) {
+				ac.findAll(proteome.get(i));
+			}
+			start = System.nanoTime();
+			for (String p : proteome) {
+				hits += ac.findAll(p).length;
+			}
+			double ac_ms = (System.nanoTime() - start) / 1e6;
+
+			// the regular expression loop over as much of the proteome as the budget allows
+			Pattern[] matchers = new Pattern[n_patterns];
+			for (int i=0; i<n_patterns; i++) {
+				matchers[i] = Pattern.compile(patterns.get(i));
+			}
+			int done = 0;
+			start = System.nanoTime();
+			while (done < n_proteins && (done == 0 || System.nanoTime() - start < REGEX_BUDGET_NANOS)) {
+				String p = proteome.get(done++);
+				long[] expected = regex(matchers, p);
+				long[] got = ac.findAll(p);
+				if (!Arrays.equals(expected, got))
+					throw new IllegalStateException("Hits differ for protein "+done);
+			}
+			// exclude the time taken by the check above
+			double checked_ms = (System.nanoTime() - start) / 1e6;
+			start = System.nanoTime();
+			for (int i=0; i<done; i++) {
+				ac.findAll(proteome.get(i));
+			}
+			double regex_ms = (checked_ms - (System.nanoTime() - start) / 1e6) * n_proteins / done;
+
+			System.out.printf("%,7d patterns: automaton built in %.0f ms, searched in %.0f ms (%,d hits); regex loop %.0f ms%s, %.0fx slower%n",
+					n_patterns, build_ms, ac_ms, hits, regex_ms, (done < n_proteins) ? " (extrapolated from "+done+" proteins)" : "", regex_ms / ac_ms);
+		}
+	}
+
+	/**
+	 * The loop used by FindGlobalNodeModel.match_string() when the automaton is not available
+	 */
+	private static long[] regex(final Pattern[] matchers, final String str) {
+		List<Long> hits = new ArrayList<Long>();
+		for (int i=0; i<matchers.length; i++) {
+			Matcher m = matchers[i].matcher(str);
+			int base = 0;
+			while (m.find(base)) {
+				hits.add((((long) i) << 32) | m.start());
+				base = m.start() + 1;
+			}
+		}
+		long[] ret = new long[hits.size()];
+		for (int i=0; i<ret.length; i++) {
+			ret[i] = hits.get(i);
+		}
+		return ret;
+	}
+
+	private static String random(final Random r, int len) {
+		char[] c = new char[len];
+		for (int i=0; i<len; i++) {
+			c[i] = AA.charAt(r.nextInt(AA.length()));
+		}
+		return new String(c);
+	}
+}
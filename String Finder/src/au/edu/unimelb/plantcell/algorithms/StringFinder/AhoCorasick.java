@@ -0,0 +1,250 @@
+package au.edu.unimelb.plantcell.algorithms.StringFinder;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds every occurrence of a set of literal strings in a single pass over the text using an Aho-Corasick automaton.
+ * All occurrences are reported, including overlapping ones, and each copy of a duplicated string is reported separately.
+ * The automaton is immutable once built, so one instance may be used by many threads.
+ *
+ * Transitions from the root are held in a table indexed by character, all other transitions are stored compactly
+ * (sorted by character) since most states of a large dictionary have only one or two successors.
+ *
+ * @author http://www.plantcell.unimelb.edu.au/bioinformatics
+ *
+ */
+public class AhoCorasick {
+	private static final int ROOT = 0;
+	private static final int LINEAR_SCAN = 8;		// states with no more successors than this are searched linearly
+
+	private final String[] m_patterns;
+	private final int[]    m_root_next;			// successor of the root for each character (ROOT if none)
+	private final int[]    m_edge_start;		// successors of s: m_edge_char/m_edge_target[m_edge_start[s] .. m_edge_start[s+1])
+	private final char[]   m_edge_char;
+	private final int[]    m_edge_target;
+	private final int[]    m_fail;
+	private final int[]    m_dict;				// nearest state along the failure chain (excluding s) where a pattern ends, or -1
+	private final int[]    m_out_start;			// patterns ending at s: m_out[m_out_start[s] .. m_out_start[s+1])
+	private final int[]    m_out;
+
+	/**
+	 * Builds the automaton for the specified strings, which must be non-empty. The index of each string in the list
+	 * identifies it in the hits reported by {@link #findAll(CharSequence)}
+	 */
+	public AhoCorasick(final List<String> patterns) {
+		assert(patterns != null);
+		int n = patterns.size();
+		m_patterns = patterns.toArray(new String[n]);
+		m_root_next= new int[Character.MAX_VALUE + 1];
+
+		// 1. build the trie: the successors of each state are kept as a linked list until it is complete
+		int cap = 1024;
+		char[] label        = new char[cap];
+		int[]  first_child  = new int[cap];
+		int[]  next_sibling = new int[cap];
+		int[]  out_head     = new int[cap];
+		int[]  out_next     = new int[n];
+		int    n_states     = 1;
+		int    n_edges      = 0;
+		first_child[ROOT] = -1;
+		out_head[ROOT]    = -1;
+		for (int p=0; p<n; p++) {
+			String s = m_patterns[p];
+			if (s == null || s.length() < 1)
+				throw new IllegalArgumentException("Empty string not permitted: pattern "+p);
+			int state = ROOT;
+			for (int i=0; i<s.length(); i++) {
+				char c = s.charAt(i);
+				int next = -1;
+				if (state == ROOT) {
+					if (m_root_next[c] != ROOT)
+						next = m_root_next[c];
+				} else {
+					for (int k = first_child[state]; k >= 0; k = next_sibling[k]) {
+						if (label[k] == c) {
+							next = k;
+							break;
+						}
+					}
+				}
+				if (next < 0) {
+					if (n_states == cap) {
+						cap *= 2;
+						label        = Arrays.copyOf(label, cap);
+						first_child  = Arrays.copyOf(first_child, cap);
+						next_sibling = Arrays.copyOf(next_sibling, cap);
+						out_head     = Arrays.copyOf(out_head, cap);
+					}
+					next = n_states++;
+					label[next]        = c;
+					first_child[next]  = -1;
+					out_head[next]     = -1;
+					next_sibling[next] = first_child[state];
+					first_child[state] = next;
+					if (state == ROOT)
+						m_root_next[c] = next;
+					n_edges++;
+				}
+				state = next;
+			}
+			out_next[p]     = out_head[state];
+			out_head[state] = p;
+		}
+
+		// 2. compact the successors and outputs of each state into sorted arrays
+		m_edge_start  = new int[n_states + 1];
+		m_edge_char   = new char[n_edges];
+		m_edge_target = new int[n_edges];
+		m_out_start   = new int[n_states + 1];
+		m_out         = new int[n];
+		int e = 0, o = 0;
+		for (int s=0; s<n_states; s++) {
+			m_edge_start[s] = e;
+			for (int k = first_child[s]; k >= 0; k = next_sibling[k]) {
+				// insertion sort by character: most states have very few successors
+				int j = e++;
+				while (j > m_edge_start[s] && m_edge_char[j-1] > label[k]) {
+					m_edge_char[j]   = m_edge_char[j-1];
+					m_edge_target[j] = m_edge_target[j-1];
+					j--;
+				}
+				m_edge_char[j]   = label[k];
+				m_edge_target[j] = k;
+			}
+			m_out_start[s] = o;
+			for (int p = out_head[s]; p >= 0; p = out_next[p]) {
+				m_out[o++] = p;
+			}
+		}
+		m_edge_start[n_states] = e;
+		m_out_start[n_states]  = o;
+
+		// 3. compute the failure and dictionary links breadth first
+		m_fail = new int[n_states];
+		m_dict = new int[n_states];
+		m_fail[ROOT] = ROOT;
+		m_dict[ROOT] = -1;
+		int[] queue = new int[n_states];
+		int head = 0, tail = 0;
+		for (int k = m_edge_start[ROOT]; k < m_edge_start[ROOT+1]; k++) {
+			int t = m_edge_target[k];
+			m_fail[t] = ROOT;
+			m_dict[t] = -1;
+			queue[tail++] = t;
+		}
+		while (head < tail) {
+			int s = queue[head++];
+			for (int k = m_edge_start[s]; k < m_edge_start[s+1]; k++) {
+				int t = m_edge_target[k];
+				int f = next(m_fail[s], m_edge_char[k]);
+				m_fail[t] = f;
+				m_dict[t] = hasOutput(f) ? f : m_dict[f];
+				queue[tail++] = t;
+			}
+		}
+	}
+
+	public int size() {
+		return m_patterns.length;
+	}
+
+	public String getPattern(int idx) {
+		return m_patterns[idx];
+	}
+
+	private boolean hasOutput(int state) {
+		return m_out_start[state] < m_out_start[state+1];
+	}
+
+	/**
+	 * Returns the successor of <code>state</code> for <code>c</code> in the trie, or -1 if there is none
+	 */
+	private int transition(int state, char c) {
+		if (state == ROOT) {
+			int t = m_root_next[c];
+			return (t != ROOT) ? t : -1;
+		}
+		int lo = m_edge_start[state];
+		int hi = m_edge_start[state+1];
+		if (hi - lo <= LINEAR_SCAN) {
+			for (int k=lo; k<hi; k++) {
+				if (m_edge_char[k] == c)
+					return m_edge_target[k];
+			}
+			return -1;
+		}
+		hi--;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			char m  = m_edge_char[mid];
+			if (m < c) {
+				lo = mid + 1;
+			} else if (m > c) {
+				hi = mid - 1;
+			} else {
+				return m_edge_target[mid];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the state of the automaton after reading <code>c</code> in <code>state</code>
+	 */
+	private int next(int state, char c) {
+		int t;
+		while ((t = transition(state, c)) < 0) {
+			if (state == ROOT)
+				return ROOT;
+			state = m_fail[state];
+		}
+		return t;
+	}
+
+	/**
+	 * Returns every occurrence of every pattern in <code>text</code>, ordered by pattern index and then by start position
+	 * (ie. the order in which searching for each pattern in turn would find them). Each hit is encoded as a long: use
+	 * {@link #getHitPattern(long)} and {@link #getHitStart(long)} to decode it.
+	 */
+	public long[] findAll(final CharSequence text) {
+		long[] hits = new long[16];
+		int  n_hits = 0;
+		int   state = ROOT;
+		int     len = text.length();
+		for (int i=0; i<len; i++) {
+			state = next(state, text.charAt(i));
+			for (int o = hasOutput(state) ? state : m_dict[state]; o >= 0; o = m_dict[o]) {
+				for (int k = m_out_start[o]; k < m_out_start[o+1]; k++) {
+					int p = m_out[k];
+					if (n_hits == hits.length)
+						hits = Arrays.copyOf(hits, n_hits * 2);
+					hits[n_hits++] = (((long) p) << 32) | (i - m_patterns[p].length() + 1);
+				}
+			}
+		}
+		hits = Arrays.copyOf(hits, n_hits);
+		Arrays.sort(hits);
+		return hits;
+	}
+
+	public static int getHitPattern(long hit) {
+		return (int) (hit >>> 32);
+	}
+
+	public static int getHitStart(long hit) {
+		return (int) hit;
+	}
+
+	/**
+	 * Returns true if <code>s</code> contains no regular expression syntax ie. <code>Pattern.compile(s)</code> would match
+	 * only <code>s</code> itself
+	 */
+	public static boolean isLiteral(final String s) {
+		for (int i=0; i<s.length(); i++) {
+			if ("\\^$.|?*+()[]{}".indexOf(s.charAt(i)) >= 0)
+				return false;
+		}
+		return true;
+	}
+}
@@ -78,6 +78,7 @@ public class FindGlobalNodeModel extends NodeModel {
    
     // internal state during execute()
     private Pattern[] m_matchers;					// order of patterns: IN ORDER AS SUPPLIED BY USER
+    private AhoCorasick m_automaton;				// same patterns as m_matchers, only built if all are literal strings
     private int m_match_col_idx, m_cnt;
     private DenseBitVector m_bv;
     private ArrayList<String> m_matches;
@@ -228,35 +229,24 @@ public class FindGlobalNodeModel extends NodeModel {
 			m_matching_search_strings.clear();
 			m_search_string_freq.clear();
 		}
-		for (int i=0; i<m_matchers.length; i++) {
-    		Matcher m = m_matchers[i].matcher(str);
-    		int base = 0;
-    		while (m.find(base)) {
-    			m_cnt++;
-    			m_matches.add(m.group(0));
-    			int start = m.start();
-    			int end   = m.end();
-    			m_bv.set(start, end);
-    			Color col = m_patterns2colours.get(m.pattern().toString());
-    			if (col == null ) {	// debugging only: should really be an assertion
-    				throw new InvalidSettingsException("Unable to find pattern: "+m.pattern().toString());
-    			}
-    			Extent e = new Extent(start,end, col);
-    			m_match_pos.add(e);
-    			
-    			base      = m.start() + 1;
-    			if (m_search_strings) {
-    				String pat = m_orig_patterns.get(new Integer(i));
-    				m_matching_search_strings.add(pat);
-    				if (m_search_string_freq.containsKey(pat)) {
-    					Integer j = m_search_string_freq.get(pat);
-    					m_search_string_freq.put(pat, new Integer(j.intValue()+1));
-    				} else {
-    					m_search_string_freq.put(pat, new Integer(1));
-    				}
-    			}
-    		}
-    	}
+		if (m_automaton != null) {
+			// literal strings: one pass over the input finds every match (in the same order as the loop below)
+			for (long hit : m_automaton.findAll(str)) {
+				int    i = AhoCorasick.getHitPattern(hit);
+				int start= AhoCorasick.getHitStart(hit);
+				String s = m_automaton.getPattern(i);
+				add_match(i, s, s, start, start + s.length());
+			}
+		} else {
+			for (int i=0; i<m_matchers.length; i++) {
+	    		Matcher m = m_matchers[i].matcher(str);
+	    		int base = 0;
+	    		while (m.find(base)) {
+	    			add_match(i, m.pattern().toString(), m.group(0), m.start(), m.end());
+	    			base      = m.start() + 1;
+	    		}
+	    	}
+		}
 		
 		int n_rpt = m_reporters.size();
 		boolean hits_only = m_keep_only.getBooleanValue();
@@ -284,6 +274,32 @@ public class FindGlobalNodeModel extends NodeModel {
 		}
 	}
 	
+    /**
+     * Records a match of the i'th pattern for the reporters
+     */
+    private void add_match(int i, String pattern, String match, int start, int end) throws InvalidSettingsException {
+    	m_cnt++;
+		m_matches.add(match);
+		m_bv.set(start, end);
+		Color col = m_patterns2colours.get(pattern);
+		if (col == null ) {	// debugging only: should really be an assertion
+			throw new InvalidSettingsException("Unable to find pattern: "+pattern);
+		}
+		Extent e = new Extent(start,end, col);
+		m_match_pos.add(e);
+		
+		if (m_search_strings) {
+			String pat = m_orig_patterns.get(new Integer(i));
+			m_matching_search_strings.add(pat);
+			if (m_search_string_freq.containsKey(pat)) {
+				Integer j = m_search_string_freq.get(pat);
+				m_search_string_freq.put(pat, new Integer(j.intValue()+1));
+			} else {
+				m_search_string_freq.put(pat, new Integer(1));
+			}
+		}
+    }
+    
     protected DataTableSpec make_output_columns(DataTableSpec inSpec, String[] wanted) throws InvalidSettingsException {
     	DataType list_of_string_type = ListCell.getCollectionType(StringCell.TYPE);
     	ArrayList<DataColumnSpec> cols = new ArrayList<DataColumnSpec>();
@@ -428,6 +444,8 @@ public class FindGlobalNodeModel extends NodeModel {
     	String s = null;
     	try {
     		Map<Integer,String> orig_patterns = new HashMap<Integer,String>();
+    		List<String> strings = new ArrayList<String>(n_rows);
+    		boolean all_literal = !m_as_regexp.getBooleanValue();
     		m_patterns2colours = new HashMap<String,Color>();
     		while (i.hasNext()) {
     			DataRow  r = i.next();
@@ -440,11 +458,22 @@ public class FindGlobalNodeModel extends NodeModel {
     			logger.info("Compiling pattern: "+s);
     			orig_patterns.put(new Integer(idx), s);
     			ret[idx++] = Pattern.compile(s);
+    			strings.add(s);
+    			if (all_literal && !AhoCorasick.isLiteral(s))
+    				all_literal = false;
     			ColorAttr ca = in_data.getSpec().getRowColor(r);
     			m_patterns2colours.put(s, ca.getColor());
     		}
     		
     		setOriginalPatterns(orig_patterns);
+    		
+    		// search strings with regular expression syntax are always treated as such (for compatibility with earlier versions)
+    		if (all_literal) {
+    			logger.info("Searching for "+strings.size()+" literal strings in a single pass per row.");
+    			m_automaton = new AhoCorasick(strings);
+    		} else {
+    			m_automaton = null;
+    		}
     	} catch (Exception e) {
     		logger.warn("Unable to compile: "+s+" as a regular expression - bad syntax?");
     		throw(e);
@@ -467,6 +496,7 @@ public class FindGlobalNodeModel extends NodeModel {
         m_reporters               = new ArrayList<MatchReporter>();
         m_bv                      = null;
         m_matchers                = null;
+        m_automaton               = null;
         m_want_matches            = false;
     	m_want_pos                = false;
     	m_unique_count            = false;
@@ -2,7 +2,9 @@ package au.edu.unimelb.plantcell.io.ws.netsurfp;
 
 import org.knime.core.data.DataColumnSpec;
 import org.knime.core.node.defaultnodesettings.DefaultNodeSettingsPane;
+import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
 import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelection;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.core.node.util.ColumnFilter;
 
@@ -38,6 +40,9 @@ public class NetSurfPAccessorNodeDialog extends DefaultNodeSettingsPane {
 			}
         	
         }));
+        
+        addDialogComponent(new DialogComponentBoolean(new SettingsModelBoolean(NetSurfPAccessorNodeModel.CFGKEY_QUANTIZE, false), 
+        		"Store probability tracks compactly (16-bit, not readable by older versions)"));
    
     }
 }
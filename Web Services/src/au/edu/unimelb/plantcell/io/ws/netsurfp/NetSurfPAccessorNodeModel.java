@@ -32,6 +32,7 @@ import org.knime.core.node.NodeLogger;
 import org.knime.core.node.NodeModel;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.osgi.framework.Bundle;
 
@@ -39,6 +40,7 @@ import au.edu.unimelb.plantcell.core.MyDataContainer;
 import au.edu.unimelb.plantcell.core.SequenceProcessor;
 import au.edu.unimelb.plantcell.core.cells.CoordinateSystem;
 import au.edu.unimelb.plantcell.core.cells.NumericAnnotation;
+import au.edu.unimelb.plantcell.core.cells.NumericAnnotation.Precision;
 import au.edu.unimelb.plantcell.core.cells.SequenceCell;
 import au.edu.unimelb.plantcell.core.cells.SequenceType;
 import au.edu.unimelb.plantcell.core.cells.SequenceValue;
@@ -64,9 +66,11 @@ public class NetSurfPAccessorNodeModel extends NodeModel {
    
 	// configuration keys between model and dialog
     static final String CFGKEY_SEQUENCE_COL = "sequence-column";
+    static final String CFGKEY_QUANTIZE     = "quantize-probabilities";
   
     // persisted node configuration state
     private final SettingsModelString m_seq  = new SettingsModelString(CFGKEY_SEQUENCE_COL, "Sequence");
+    private final SettingsModelBoolean m_quantize = new SettingsModelBoolean(CFGKEY_QUANTIZE, false);
     private int m_seq_idx = -1;
    	
     /**
@@ -151,9 +155,9 @@ public class NetSurfPAccessorNodeModel extends NodeModel {
 		    			seqs.put(id, new SequenceCell(sv));
 		    			if (!alpha_helices.containsKey(id)) {
 		    				int len = sv.getLength();
-		    				alpha_helices.put(id, new NumericAnnotation(len));
-		    				beta_strand.put(id,   new NumericAnnotation(len));
-		    				coil.put(id,          new NumericAnnotation(len));
+		    				alpha_helices.put(id, make_probability_track(len));
+		    				beta_strand.put(id,   make_probability_track(len));
+		    				coil.put(id,          make_probability_track(len));
 		    			}
 		    		}
 		    		
@@ -280,6 +284,16 @@ public class NetSurfPAccessorNodeModel extends NodeModel {
     }
 
 
+	/**
+	 * Full precision by default: 16-bit values (within 0.00001 of the prediction) only if the user asks for them,
+	 * as older versions of the plugin cannot read them
+	 */
+	private NumericAnnotation make_probability_track(int len) {
+		if (m_quantize.getBooleanValue())
+			return new NumericAnnotation(len, Precision.QUANTIZED_16BIT, 0.0d, 1.0d);
+		return new NumericAnnotation(len);
+	}
+
 	private TrackCreator getTrackCreator() {
 		return new TrackCreator() {
 
@@ -349,6 +363,7 @@ public class NetSurfPAccessorNodeModel extends NodeModel {
     @Override
     protected void saveSettingsTo(final NodeSettingsWO settings) {
     	m_seq.saveSettingsTo(settings);
+    	m_quantize.saveSettingsTo(settings);
     }
 
     /**
@@ -358,6 +373,11 @@ public class NetSurfPAccessorNodeModel extends NodeModel {
     protected void loadValidatedSettingsFrom(final NodeSettingsRO settings)
             throws InvalidSettingsException {
     	m_seq.loadSettingsFrom(settings);
+    	if (settings.containsKey(CFGKEY_QUANTIZE)) {
+    		m_quantize.loadSettingsFrom(settings);
+    	} else {
+    		m_quantize.setBooleanValue(false);
+    	}
     }
 
     /**
@@ -367,6 +387,9 @@ public class NetSurfPAccessorNodeModel extends NodeModel {
     protected void validateSettings(final NodeSettingsRO settings)
             throws InvalidSettingsException {
     	m_seq.validateSettings(settings);
+    	if (settings.containsKey(CFGKEY_QUANTIZE)) {
+    		m_quantize.validateSettings(settings);
+    	}
     }
     
     /**
@@ -9,6 +9,7 @@ import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -163,11 +164,8 @@ public class RetrieveEntryTask implements UniProtTaskInterface {
 						Logger.getAnonymousLogger().info(url.toString());
 
 						try {
-							URLConnection conn = url.openConnection();
-							InputStream     is = conn.getInputStream();
-						
-							cells = grok_entry(m_cache, accsn, is);
-							is.close();
+							String xml = fetch_xml(url, accsn);
+							cells = grok_entry((xml != null) ? xml : "");
 							break;
 						} catch (DeletedEntryException de) {
 									Logger.getAnonymousLogger().warning("Entry "+accsn+" appears to be deleted. Ignoring.");
@@ -213,6 +211,33 @@ public class RetrieveEntryTask implements UniProtTaskInterface {
 
 	
 
+	/**
+	 * Downloads the XML for the specified entry and caches it. Concurrent requests for the same entry (eg. from
+	 * other nodes) share a single download.
+	 * 
+	 * @return null if UniProt returned no data for the entry eg. it has been deleted
+	 */
+	private String fetch_xml(final URL url, final String accsn) throws Exception {
+		Callable<String> download = new Callable<String>() {
+
+			@Override
+			public String call() throws Exception {
+				URLConnection conn = url.openConnection();
+				InputStream     is = conn.getInputStream();
+				try {
+					String xml = UniProtHit.xml2string(is, true);
+					return (xml != null && xml.length() > 0) ? xml : null;
+				} finally {
+					is.close();
+				}
+			}
+			
+		};
+		if (m_cache == null)
+			return download.call();
+		return m_cache.get(CacheableUniProtRecord.makeKey(m_db, accsn), download);
+	}
+	
 	protected DataCell list2listcell(List<String> data) {
 		if (data == null || data.size() < 1) {
 			return DataType.getMissingCell();
@@ -246,30 +271,8 @@ public class RetrieveEntryTask implements UniProtTaskInterface {
 	}
 	
 	/**
-	 * Template function to turn the stream into a string for subsequent processing. XML is limited in size (by the record sizes) from UniProt so this 
-	 * shouldn't be too wasteful of memory. This method also stores the retrieve XML in a DB4O cache to speed subsequent access (eg. if more uniprot work is done later in the
-	 * KNIME workflow)
-	 *  
-	 * @param xml_stream
-	 * @param cache the db4o-compatible object container to store the record into
-	 * @return
-	 * @throws Exception
-	 */
-	protected final DataCell[] grok_entry(Cache cache, String accsn, InputStream response_stream) throws Exception {		
-		String fixed_xml = UniProtHit.xml2string(response_stream, true);
-		
-		if (cache != null && fixed_xml != null && fixed_xml.length() > 0) {
-			CacheableUniProtRecord rec = new CacheableUniProtRecord(m_db, accsn, fixed_xml);
-			cache.put(rec.getKey(), rec.toString());
-			rec = null;
-		}
-		
-		return grok_entry(fixed_xml);
-	}
-	
-	/**
-	 * Override this method to implement a custom response to the retrieved record. Note that this method <b>DOES NOT</b> cache the record,
-	 * use the other form of the method for that
+	 * Override this method to implement a custom response to the retrieved record. Note that this method <b>DOES NOT</b> cache the record:
+	 * records are cached by the loader passed to the {@link Cache}
 	 * 
 	 * @param xml a single, complete, XML record from UniProtKB/UniPARC/UniRef (should be well-formed XML or an exception is the likely result)
 	 * @return the cells representing the results for the current record (must match the columns specified by <code>getTableSpec()</code>)